@@ -11,6 +11,7 @@ package org.intermine.api.bag;
  */
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -28,6 +29,8 @@ public class BagQueryConfig
     private final Map<String, List<BagQuery>> preDefaultBagQueries;
     private Map<String, Set<AdditionalConverter>> additionalConverters;
     private boolean matchOnFirst = true;
+    private Set<String> identifierIndexTypes = new HashSet<String>();
+    private Set<String> identifierIndexFinalTypes = new HashSet<String>();
 
     /**
      * Create a new BagQueryConfig object.
@@ -152,4 +155,51 @@ public class BagQueryConfig
     public boolean getMatchOnFirst() {
         return matchOnFirst;
     }
+
+    /**
+     * Set whether identifiers of the given type should be looked up in an in-memory
+     * IdentifierIndex instead of running the bag queries against the database.
+     * @param type the unqualified class name
+     * @param identifierIndex true to use an index for this type
+     */
+    public void setIdentifierIndex(String type, boolean identifierIndex) {
+        if (identifierIndex) {
+            identifierIndexTypes.add(type);
+        } else {
+            identifierIndexTypes.remove(type);
+        }
+    }
+
+    /**
+     * Return the types whose identifiers should be looked up in an in-memory IdentifierIndex.
+     * @return a Set of unqualified class names
+     */
+    public Set<String> getIdentifierIndexTypes() {
+        return identifierIndexTypes;
+    }
+
+    /**
+     * Set whether identifiers of the given type that are not found in the IdentifierIndex should
+     * be looked for in the database too. This is the default, and only finds more objects if the
+     * database has changed since the index was built.
+     * @param type the unqualified class name
+     * @param fallback false if a miss in the index is final
+     */
+    public void setIdentifierIndexFallback(String type, boolean fallback) {
+        if (fallback) {
+            identifierIndexFinalTypes.remove(type);
+        } else {
+            identifierIndexFinalTypes.add(type);
+        }
+    }
+
+    /**
+     * Return whether identifiers of the given type that are not found in the IdentifierIndex
+     * should be looked for in the database too.
+     * @param type the unqualified class name
+     * @return true unless a miss in the index is final
+     */
+    public boolean isIdentifierIndexFallback(String type) {
+        return !identifierIndexFinalTypes.contains(type);
+    }
 }
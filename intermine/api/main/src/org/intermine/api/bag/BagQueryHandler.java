@@ -96,6 +96,10 @@ public class BagQueryHandler extends DefaultHandler
                 matchOnFirst = ("false".equalsIgnoreCase(matchOnFirstStr) ? false : true);
             }
             bagQueryConfig.setMatchOnFirst(matchOnFirst);
+            bagQueryConfig.setIdentifierIndex(type,
+                    "true".equalsIgnoreCase(attrs.getValue("identifierIndex")));
+            bagQueryConfig.setIdentifierIndexFallback(type,
+                    !"false".equalsIgnoreCase(attrs.getValue("identifierIndexFallback")));
         }
         if ("query".equals(qName)) {
             message = attrs.getValue("message");
@@ -51,6 +51,7 @@ public class BagQueryRunner
     private Map<String, List<FieldDescriptor>> classKeys;
     private BagQueryConfig bagQueryConfig;
     private TemplateManager templateManager;
+    private IdentifierIndex identifierIndex = null;
 
     /**
      * Construct with configured bag queries and a map of type -&gt; key fields.
@@ -68,6 +69,13 @@ public class BagQueryRunner
         this.classKeys = classKeys;
         this.bagQueryConfig = bagQueryConfig;
         this.templateManager = templateManager;
+        if (!bagQueryConfig.getIdentifierIndexTypes().isEmpty()) {
+            identifierIndex = IdentifierIndex.getInstance(os);
+            for (String type : bagQueryConfig.getIdentifierIndexTypes()) {
+                identifierIndex.build(type, getBagQueriesForType(bagQueryConfig,
+                            model.getPackageName() + "." + type));
+            }
+        }
     }
 
     /**
@@ -111,7 +119,7 @@ public class BagQueryRunner
         throws ClassNotFoundException, InterMineException {
 
         Map<String, String> lowerCaseInput = new HashMap<String, String>();
-        List<String> cleanInput = new ArrayList<String>();
+        Set<String> cleanInput = new LinkedHashSet<String>();
         List<String> wildcardInput = new ArrayList<String>();
         Map<String, Pattern> patterns = new HashMap<String, Pattern>();
 
@@ -151,77 +159,100 @@ public class BagQueryRunner
         // return first record ONLY for identifier.  otherwise, run all queries and return all
         boolean matchOnFirst = bagQueryConfig.getMatchOnFirst();
 
-        for (BagQuery bq : queries) {
+        for (int queryNo = 0; queryNo < queries.size(); queryNo++) {
+            BagQuery bq = queries.get(queryNo);
+            IdentifierIndex.Table table = getIndexTable(type, queryNo, queries, extraFieldValue);
+            // identifiers not found in the table are looked for in the database too, unless
+            // the table is configured to be final
+            boolean fallback = (table == null) || bagQueryConfig.isIdentifierIndexFallback(type);
             // run the next query on identifiers not yet resolved
             // OR all identifiers if matchOnFirst = FALSE
             if (!unresolved.isEmpty() || !matchOnFirst) {
                 Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
-                try {
-                    Set<String> toProcess = (matchOnFirst) ? unresolved : unresolvedOriginal;
-                    Query q = bq.getQuery(toProcess, extraFieldValue);
-                    Results res = os.execute(q, 10000, true, true, false);
-                    for (Object rowObj : res) {
-                        ResultsRow<?> row = (ResultsRow<?>) rowObj;
-                        Integer id = (Integer) row.get(0);
-                        for (int i = 1; i < row.size(); i++) {
-                            final Object fieldObject = row.get(i);
-                            if (fieldObject != null) {
-                                String field = String.valueOf(fieldObject);
-                                String lowerField = field.toLowerCase();
-                                if (caseSensitive) {
-                                    if (cleanInput.contains(field)) {
-                                        processMatch(resMap, unresolved, id, field);
-                                    }
-                                } else if (lowerCaseInput.containsKey(lowerField)) {
-                                    // because we are converting to lower case we need to match
-                                    // to original input so that 'h' matches 'H' and 'h' becomes
-                                    // a duplicate.
-                                    String originalInput = lowerCaseInput.get(lowerField);
-                                    processMatch(resMap, unresolved, id, originalInput);
+                Set<String> toProcess = (matchOnFirst) ? unresolved : unresolvedOriginal;
+                Collection<String> misses = toProcess;
+                if (table != null) {
+                    misses = new ArrayList<String>();
+                    for (String inputString : new ArrayList<String>(toProcess)) {
+                        String lowerInput = inputString.toLowerCase();
+                        for (int i = table.find(lowerInput); i < table.size()
+                                && table.getKey(i).equals(lowerInput); i++) {
+                            processField(resMap, unresolved, table.getId(i), table.getValue(i),
+                                    caseSensitive, cleanInput, lowerCaseInput);
+                        }
+                        if (!resMap.containsKey(inputString)) {
+                            misses.add(inputString);
+                        }
+                    }
+                }
+                if ((table == null) || (fallback && !misses.isEmpty())) {
+                    try {
+                        Query q = bq.getQuery(misses, extraFieldValue);
+                        Results res = os.execute(q, 10000, true, true, false);
+                        for (Object rowObj : res) {
+                            ResultsRow<?> row = (ResultsRow<?>) rowObj;
+                            Integer id = (Integer) row.get(0);
+                            for (int i = 1; i < row.size(); i++) {
+                                final Object fieldObject = row.get(i);
+                                if (fieldObject != null) {
+                                    processField(resMap, unresolved, id,
+                                            String.valueOf(fieldObject), caseSensitive,
+                                            cleanInput, lowerCaseInput);
                                 }
                             }
                         }
+                    } catch (IllegalArgumentException e) {
+                        // Query couldn't handle extra value
                     }
-                } catch (IllegalArgumentException e) {
-                    // Query couldn't handle extra value
                 }
                 addResults(resMap, unresolved, bqr, bq.getMessage(), typeCls, false,
                             matchOnFirst, bq.matchesAreIssues());
             }
             if (!wildcardInput.isEmpty()) {
                 Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
-
-                Query q = bq.getQueryForWildcards(wildcardInput, extraFieldValue);
-                Results res = os.execute(q, ResultsBatches.DEFAULT_BATCH_SIZE, true, true,
-                        false);
-                for (Object rowObj : res) {
-                    ResultsRow<?> row = (ResultsRow<?>) rowObj;
-                    Integer id = (Integer) row.get(0);
-                    for (int i = 1; i < row.size(); i++) {
-                        String field = "" + row.get(i);
-                        String lowerField = field.toLowerCase();
-                        for (String wildcard : wildcardInput) {
-                            Pattern pattern = patterns.get(wildcard);
-                            if (pattern.matcher(lowerField).matches()) {
-                                processMatch(resMap, wildcardUnresolved, id, wildcard);
+                List<String> wildcardMisses = wildcardInput;
+                if (table != null) {
+                    wildcardMisses = new ArrayList<String>();
+                    for (String wildcard : wildcardInput) {
+                        // the database matches with LIKE, then the results are matched with the
+                        // pattern, so values have to match both
+                        String prefix = IdentifierIndex.getPrefix(wildcard);
+                        Pattern likePattern = IdentifierIndex.getLikePattern(wildcard);
+                        Pattern pattern = patterns.get(wildcard);
+                        for (int i = table.find(prefix); i < table.size()
+                                && table.getKey(i).startsWith(prefix); i++) {
+                            if (likePattern.matcher(table.getKey(i)).matches()
+                                    && pattern.matcher(table.getKey(i)).matches()) {
+                                processMatch(resMap, wildcardUnresolved, table.getId(i),
+                                        wildcard);
                             }
                         }
+                        if (!resMap.containsKey(wildcard)) {
+                            wildcardMisses.add(wildcard);
+                        }
                     }
                 }
-                for (Map.Entry<String, Set<Integer>> entry : resMap.entrySet()) {
-                    // This is a dummy issue just to give a message when running queries
-                    bqr.addIssue(BagQueryResult.WILDCARD, bq.getMessage(),
-                            entry.getKey(), new ArrayList<Object>(entry.getValue()));
-                    if (matchOnFirst) {
-                        addResults(resMap, wildcardUnresolved, bqr, bq.getMessage(),
-                                typeCls, true, matchOnFirst, bq.matchesAreIssues());
-                    } else {
-                        addResults(resMap, wildcardUnresolvedOriginal, bqr, bq.getMessage(),
-                                typeCls, true, matchOnFirst, bq.matchesAreIssues());
+                if ((table == null) || (fallback && !wildcardMisses.isEmpty())) {
+                    Query q = bq.getQueryForWildcards(wildcardMisses, extraFieldValue);
+                    Results res = os.execute(q, ResultsBatches.DEFAULT_BATCH_SIZE, true, true,
+                            false);
+                    for (Object rowObj : res) {
+                        ResultsRow<?> row = (ResultsRow<?>) rowObj;
+                        Integer id = (Integer) row.get(0);
+                        for (int i = 1; i < row.size(); i++) {
+                            String field = "" + row.get(i);
+                            String lowerField = field.toLowerCase();
+                            for (String wildcard : wildcardMisses) {
+                                Pattern pattern = patterns.get(wildcard);
+                                if (pattern.matcher(lowerField).matches()) {
+                                    processMatch(resMap, wildcardUnresolved, id, wildcard);
+                                }
+                            }
+                        }
                     }
-
                 }
-
+                addWildcardResults(resMap, wildcardUnresolved, wildcardUnresolvedOriginal, bqr,
+                        bq, typeCls, matchOnFirst);
             }
         }
 
@@ -231,6 +262,70 @@ public class BagQueryRunner
         return bqr;
     }
 
+    private void addWildcardResults(Map<String, Set<Integer>> resMap,
+            Set<String> wildcardUnresolved, Set<String> wildcardUnresolvedOriginal,
+            BagQueryResult bqr, BagQuery bq, Class<?> typeCls, boolean matchOnFirst)
+        throws InterMineException {
+        for (Map.Entry<String, Set<Integer>> entry : resMap.entrySet()) {
+            // This is a dummy issue just to give a message when running queries
+            bqr.addIssue(BagQueryResult.WILDCARD, bq.getMessage(),
+                    entry.getKey(), new ArrayList<Object>(entry.getValue()));
+            if (matchOnFirst) {
+                addResults(resMap, wildcardUnresolved, bqr, bq.getMessage(),
+                        typeCls, true, matchOnFirst, bq.matchesAreIssues());
+            } else {
+                addResults(resMap, wildcardUnresolvedOriginal, bqr, bq.getMessage(),
+                        typeCls, true, matchOnFirst, bq.matchesAreIssues());
+            }
+
+        }
+    }
+
+    /**
+     * Returns the identifier index table for a bag query, if there is one and it gives the same
+     * results as the query, which it does not if the query has an extra constraint. If the table
+     * is not ready, its building is scheduled again in case it failed.
+     */
+    private IdentifierIndex.Table getIndexTable(String type, int queryNo,
+            List<BagQuery> queries, String extraFieldValue) {
+        if ((identifierIndex == null)
+                || (!bagQueryConfig.getIdentifierIndexTypes().contains(type))) {
+            return null;
+        }
+        if (StringUtils.isNotEmpty(extraFieldValue) && bagQueryConfig.getConnectField() != null
+                && bagQueryConfig.getExtraConstraintClassName() != null
+                && bagQueryConfig.getConstrainField() != null) {
+            return null;
+        }
+        IdentifierIndex.Table table = identifierIndex.getTable(type, queryNo);
+        if (table == null) {
+            identifierIndex.build(type, queries);
+        }
+        return table;
+    }
+
+    /**
+     * Records a match if a value returned by a bag query matches one of the input identifiers.
+     */
+    private static void processField(Map<String, Set<Integer>> resMap, Set<String> unresolved,
+            Integer id, String field, boolean caseSensitive, Set<String> cleanInput,
+            Map<String, String> lowerCaseInput) {
+        if (caseSensitive) {
+            if (cleanInput.contains(field)) {
+                processMatch(resMap, unresolved, id, field);
+            }
+        } else {
+            String lowerField = field.toLowerCase();
+            if (lowerCaseInput.containsKey(lowerField)) {
+                // because we are converting to lower case we need to match
+                // to original input so that 'h' matches 'H' and 'h' becomes
+                // a duplicate.
+                String originalInput = lowerCaseInput.get(lowerField);
+                processMatch(resMap, unresolved, id, originalInput);
+            }
+        }
+    }
+
     private static void processMatch(Map<String, Set<Integer>> resMap, Set<String> unresolved,
         Integer id, String field) {
         Set<Integer> ids = resMap.get(field);
@@ -0,0 +1,388 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
+
+/**
+ * An in-memory index of the identifiers matched by the bag queries of some types, so that
+ * BagQueryRunner can resolve identifiers without querying the database. For each bag query the
+ * index holds every value the query can match, lower-cased and sorted, with the id of the object
+ * it belongs to, so exact matches and wildcards with a fixed prefix are found by binary search.
+ * <p>
+ * The tables are built in a background thread from the production database, which does not
+ * change once it has been built. Until the table for a query is ready, or if the query has an
+ * extra constraint, BagQueryRunner runs the query against the database as usual. A table that
+ * could not be built is tried again when it is next asked for, once the retry interval has
+ * passed.
+ * <p>
+ * An index only holds its ObjectStore weakly, so it does not stop the ObjectStore being garbage
+ * collected, and the builder thread stops when it has been idle for a minute. close() and
+ * closeAll() stop the builder and release the tables straight away.
+ *
+ * @author InterMine
+ */
+public final class IdentifierIndex
+{
+    private static final Logger LOG = Logger.getLogger(IdentifierIndex.class);
+    private static final Map<ObjectStore, IdentifierIndex> INSTANCES =
+        new WeakHashMap<ObjectStore, IdentifierIndex>();
+    private static final long DEFAULT_RETRY_INTERVAL = 10 * 60 * 1000L;
+    private static final long BUILDER_KEEP_ALIVE = 60;
+
+    private final WeakReference<ObjectStore> osRef;
+    private final Map<String, Table> tables = new ConcurrentHashMap<String, Table>();
+    private final Set<String> scheduled = Collections.synchronizedSet(new HashSet<String>());
+    private final Map<String, Long> failures = new ConcurrentHashMap<String, Long>();
+    private final ThreadPoolExecutor builder;
+    private volatile long retryInterval = DEFAULT_RETRY_INTERVAL;
+
+    private IdentifierIndex(ObjectStore os) {
+        this.osRef = new WeakReference<ObjectStore>(os);
+        builder = new ThreadPoolExecutor(1, 1, BUILDER_KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "IdentifierIndex builder");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        builder.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the IdentifierIndex for an ObjectStore, creating it if necessary.
+     *
+     * @param os the production ObjectStore
+     * @return an IdentifierIndex
+     */
+    public static synchronized IdentifierIndex getInstance(ObjectStore os) {
+        IdentifierIndex retval = INSTANCES.get(os);
+        if (retval == null) {
+            retval = new IdentifierIndex(os);
+            INSTANCES.put(os, retval);
+        }
+        return retval;
+    }
+
+    /**
+     * Stops the builders of all the indexes and releases their tables, so that a webapp that is
+     * being undeployed does not leave threads or memory behind.
+     */
+    public static synchronized void closeAll() {
+        for (IdentifierIndex index : new ArrayList<IdentifierIndex>(INSTANCES.values())) {
+            index.close();
+        }
+    }
+
+    /**
+     * Stops the builder and releases the tables. BagQueryRunners that still use this index run
+     * their queries against the database from now on.
+     */
+    public void close() {
+        synchronized (IdentifierIndex.class) {
+            ObjectStore os = osRef.get();
+            if ((os != null) && (INSTANCES.get(os) == this)) {
+                INSTANCES.remove(os);
+            }
+        }
+        builder.shutdownNow();
+        tables.clear();
+    }
+
+    /**
+     * Schedules the building of the tables for the bag queries of a type, if they have not been
+     * built or scheduled already. A table that failed to build is scheduled again if the retry
+     * interval has passed since the failure.
+     *
+     * @param type the unqualified class name
+     * @param queries the bag queries for the type, in the order that BagQueryRunner runs them
+     */
+    public void build(final String type, List<BagQuery> queries) {
+        for (int i = 0; i < queries.size(); i++) {
+            final String key = getKey(type, i);
+            final BagQuery bq = queries.get(i);
+            Long failed = failures.get(key);
+            if (tables.containsKey(key) || builder.isShutdown() || ((failed != null)
+                    && (System.currentTimeMillis() - failed.longValue() < retryInterval))) {
+                continue;
+            }
+            if (scheduled.add(key)) {
+                try {
+                    builder.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                buildTable(type, key, bq);
+                            } finally {
+                                scheduled.remove(key);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // closed in the meantime
+                    scheduled.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets how long to wait after a table failed to build before trying again.
+     *
+     * @param retryInterval a number of milliseconds
+     */
+    void setRetryInterval(long retryInterval) {
+        this.retryInterval = retryInterval;
+    }
+
+    /**
+     * Returns whether the table for a bag query is waiting to be built or being built.
+     *
+     * @param type the unqualified class name
+     * @param queryNo the position of the query in the list given to build()
+     * @return a boolean
+     */
+    boolean isScheduled(String type, int queryNo) {
+        return scheduled.contains(getKey(type, queryNo));
+    }
+
+    /**
+     * Returns the table for a bag query of a type.
+     *
+     * @param type the unqualified class name
+     * @param queryNo the position of the query in the list given to build()
+     * @return a Table, or null if it has not been built
+     */
+    public Table getTable(String type, int queryNo) {
+        return tables.get(getKey(type, queryNo));
+    }
+
+    private static String getKey(String type, int queryNo) {
+        return type + "#" + queryNo;
+    }
+
+    /**
+     * Builds the table for a bag query, recording the time of any failure so that it is retried
+     * later.
+     */
+    private void buildTable(String type, String key, BagQuery bq) {
+        ObjectStore os = osRef.get();
+        if ((os == null) || tables.containsKey(key)) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            Table table = buildTable(os, bq);
+            if (!builder.isShutdown()) {
+                tables.put(key, table);
+            }
+            failures.remove(key);
+            LOG.info("Built identifier index for " + type + " query \"" + bq.getMessage()
+                    + "\" with " + table.size() + " values in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            failures.put(key, new Long(System.currentTimeMillis()));
+            LOG.error("Could not build identifier index for " + type + " query \""
+                    + bq.getMessage() + "\", will try again in " + (retryInterval / 1000)
+                    + " seconds", e);
+        }
+    }
+
+    /**
+     * Runs a bag query for every value it can match, and puts the results in a Table.
+     */
+    private static Table buildTable(ObjectStore os, BagQuery bq) throws Exception {
+        Query q = bq.getQueryForWildcards(Collections.singleton("*"), null);
+        Results res = os.execute(q, 10000, true, true, false);
+        List<String> values = new ArrayList<String>();
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Object rowObj : res) {
+            ResultsRow<?> row = (ResultsRow<?>) rowObj;
+            Integer id = (Integer) row.get(0);
+            for (int i = 1; i < row.size(); i++) {
+                if (row.get(i) != null) {
+                    values.add(String.valueOf(row.get(i)));
+                    ids.add(id);
+                }
+            }
+        }
+        return new Table(values, ids);
+    }
+
+    /**
+     * Converts a wildcard identifier to a Pattern that matches the lower-cased values that the
+     * database would find for it with LIKE, where * and % match any characters and _ matches
+     * any single character.
+     *
+     * @param wildcard the identifier with wildcards
+     * @return a Pattern
+     */
+    public static Pattern getLikePattern(String wildcard) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : wildcard.toLowerCase().toCharArray()) {
+            if ((c == '*') || (c == '%') || (c == '_')) {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '_' ? "." : ".*");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Returns the part of a wildcard identifier before the first wildcard, lower-cased.
+     *
+     * @param wildcard the identifier with wildcards
+     * @return a String, which may be empty
+     */
+    public static String getPrefix(String wildcard) {
+        String lower = wildcard.toLowerCase();
+        int end = lower.length();
+        for (char c : new char[] {'*', '%', '_'}) {
+            int pos = lower.indexOf(c);
+            if ((pos != -1) && (pos < end)) {
+                end = pos;
+            }
+        }
+        return lower.substring(0, end);
+    }
+
+    /**
+     * The values matched by one bag query, sorted by their lower-cased form, with the ids of
+     * their objects.
+     */
+    public static class Table
+    {
+        private final String[] keys;
+        private final String[] values;
+        private final int[] ids;
+
+        /**
+         * Constructor.
+         *
+         * @param valueList the values, in any order
+         * @param idList the id of the object of each value
+         */
+        Table(List<String> valueList, List<Integer> idList) {
+            Integer[] order = new Integer[valueList.size()];
+            final String[] unsortedKeys = new String[valueList.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = new Integer(i);
+                unsortedKeys[i] = valueList.get(i).toLowerCase();
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return unsortedKeys[a.intValue()].compareTo(unsortedKeys[b.intValue()]);
+                }
+            });
+            keys = new String[order.length];
+            values = new String[order.length];
+            ids = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                int from = order[i].intValue();
+                keys[i] = unsortedKeys[from];
+                String value = valueList.get(from);
+                // share the String when the value is already lower case
+                values[i] = value.equals(keys[i]) ? keys[i] : value;
+                ids[i] = idList.get(from).intValue();
+            }
+        }
+
+        /**
+         * Returns the position of the first entry whose key is not less than the given key.
+         *
+         * @param lowerKey a lower-cased value or prefix
+         * @return a position, which is size() if all keys are less
+         */
+        public int find(String lowerKey) {
+            int low = 0;
+            int high = keys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid].compareTo(lowerKey) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Returns the number of entries.
+         *
+         * @return an int
+         */
+        public int size() {
+            return keys.length;
+        }
+
+        /**
+         * Returns the lower-cased value of an entry.
+         *
+         * @param i the position of the entry
+         * @return a String
+         */
+        public String getKey(int i) {
+            return keys[i];
+        }
+
+        /**
+         * Returns the value of an entry, as it is in the database.
+         *
+         * @param i the position of the entry
+         * @return a String
+         */
+        public String getValue(int i) {
+            return values[i];
+        }
+
+        /**
+         * Returns the id of the object of an entry.
+         *
+         * @param i the position of the entry
+         * @return an Integer
+         */
+        public Integer getId(int i) {
+            return new Integer(ids[i]);
+        }
+    }
+}
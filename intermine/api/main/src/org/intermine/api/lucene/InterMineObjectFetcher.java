@@ -45,8 +45,10 @@ import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCollectionReference;
 import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.pathquery.PathException;
 import org.intermine.util.DynamicUtil;
 import org.intermine.util.ObjectPipe;
@@ -69,6 +71,9 @@ public class InterMineObjectFetcher extends Thread
     final Map<Class<? extends InterMineObject>, String[]> specialReferences;
     final Map<ClassDescriptor, Float> classBoost;
     final Vector<KeywordSearchFacetData> facets;
+    final Integer minId;
+    final Integer maxId;
+    private Collection<Integer> ids = null;
 
     final Map<Integer, Document> documents = new HashMap<Integer, Document>();
     final Set<String> fieldNames = new HashSet<String>();
@@ -111,6 +116,44 @@ public class InterMineObjectFetcher extends Thread
             Map<Class<? extends InterMineObject>, String[]> specialReferences,
             Map<ClassDescriptor, Float> classBoost, Vector<KeywordSearchFacetData> facets,
             Map<String, String> attributePrefixes) {
+        this(os, classKeys, indexingQueue, ignoredClasses, ignoredFields, specialReferences,
+                classBoost, facets, attributePrefixes, null, null);
+    }
+
+    /**
+     * initialize a documentfetcher thread that only fetches the objects with ids in the given
+     * range, so that several fetchers can build parts of the index in parallel
+     * @param os
+     *            intermine objectstore
+     * @param classKeys
+     *            classKeys from InterMineAPI, map of classname to all key field
+     *            descriptors
+     * @param indexingQueue
+     *            queue shared with indexer
+     * @param ignoredClasses
+     *            classes that should not be indexed (as specified in config +
+     *            subclasses)
+     * @param ignoredFields fields to ignore
+     * @param specialReferences
+     *            map of classname to references to index in additional to
+     *            normal attributes
+     * @param classBoost
+     *            apply per-class doc boost as specified here (all other classes
+     *            get 1.0)
+     * @param facets
+     *            fields used for faceting - will be indexed untokenized in
+     *            addition to the normal indexing
+     * @param attributePrefixes prefixes to be ignored
+     * @param minId lowest id to fetch, or null for no lower limit
+     * @param maxId highest id to fetch, or null for no upper limit
+     */
+    public InterMineObjectFetcher(ObjectStore os, Map<String, List<FieldDescriptor>> classKeys,
+            ObjectPipe<Document> indexingQueue,
+            Set<Class<? extends InterMineObject>> ignoredClasses,
+            Map<Class<? extends InterMineObject>, Set<String>> ignoredFields,
+            Map<Class<? extends InterMineObject>, String[]> specialReferences,
+            Map<ClassDescriptor, Float> classBoost, Vector<KeywordSearchFacetData> facets,
+            Map<String, String> attributePrefixes, Integer minId, Integer maxId) {
         super();
 
         this.os = os;
@@ -122,6 +165,17 @@ public class InterMineObjectFetcher extends Thread
         this.classBoost = classBoost;
         this.facets = facets;
         this.attributePrefixes = attributePrefixes;
+        this.minId = minId;
+        this.maxId = maxId;
+    }
+
+    /**
+     * only fetch the objects with the given ids, for updating the documents of objects that have
+     * changed
+     * @param ids ids of objects to fetch, or null to fetch all objects
+     */
+    public void setIds(Collection<Integer> ids) {
+        this.ids = ids;
     }
 
     /**
@@ -141,7 +195,8 @@ public class InterMineObjectFetcher extends Thread
         try {
             long time = System.currentTimeMillis();
             long objectParseTime = 0;
-            LOG.info("Fetching all InterMineObjects...");
+            LOG.info(getName() + ": fetching InterMineObjects with ids from " + minId + " to "
+                    + maxId + "...");
 
             HashSet<Class<? extends InterMineObject>> seenClasses =
                     new HashSet<Class<? extends InterMineObject>>();
@@ -156,7 +211,11 @@ public class InterMineObjectFetcher extends Thread
                 q.addToSelect(qc);
 
                 QueryField qf = new QueryField(qc, "class");
-                q.setConstraint(new BagConstraint(qf, ConstraintOp.NOT_IN, ignoredClasses));
+                ConstraintSet constraints = new ConstraintSet(ConstraintOp.AND);
+                constraints.addConstraint(new BagConstraint(qf, ConstraintOp.NOT_IN,
+                            ignoredClasses));
+                addIdRangeConstraints(constraints, new QueryField(qc, "id"));
+                q.setConstraint(constraints);
 
                 LOG.info("QUERY: " + q.toString());
 
@@ -177,7 +236,8 @@ public class InterMineObjectFetcher extends Thread
                         doneMessage.append(" NO_NORMS");
                     }
                 }
-                LOG.info("COMPLETED index with " + i + " records.  Fields: " + doneMessage);
+                LOG.info(getName() + ": COMPLETED index with " + i + " records in "
+                        + (System.currentTimeMillis() - time) + " ms.  Fields: " + doneMessage);
             } finally {
                 for (InterMineResultsContainer resultsContainer : referenceResults.values()) {
                     ((ObjectStoreInterMineImpl) os).releaseGoFaster(resultsContainer.getResults()
@@ -362,14 +422,14 @@ public class InterMineObjectFetcher extends Thread
         throws PathException, ObjectStoreException, IllegalAccessException {
         int i = 0;
         int size = results.size();
-        LOG.info("Query returned " + size + " results");
+        LOG.info(getName() + ": query returned " + size + " results");
 
         //iterate over objects
         while (it.hasNext()) {
             ResultsRow<InterMineObject> row = it.next();
 
             if (i % 10000 == 1) {
-                LOG.info("IMOFetcher: fetched " + i + " of " + size + " in "
+                LOG.info(getName() + ": fetched " + i + " of " + size + " in "
                         + (System.currentTimeMillis() - time) + "ms total, "
                         + (objectParseTime) + "ms spent on parsing");
             }
@@ -560,6 +620,23 @@ public class InterMineObjectFetcher extends Thread
         return attributes;
     }
 
+    /**
+     * restrict the given id field to the range or set of ids that this fetcher is fetching
+     */
+    private void addIdRangeConstraints(ConstraintSet constraints, QueryField idField) {
+        if (ids != null) {
+            constraints.addConstraint(new BagConstraint(idField, ConstraintOp.IN, ids));
+        }
+        if (minId != null) {
+            constraints.addConstraint(new SimpleConstraint(idField,
+                        ConstraintOp.GREATER_THAN_EQUALS, new QueryValue(minId)));
+        }
+        if (maxId != null) {
+            constraints.addConstraint(new SimpleConstraint(idField,
+                        ConstraintOp.LESS_THAN_EQUALS, new QueryValue(maxId)));
+        }
+    }
+
     private Query getPathQuery(String pathString) throws PathException {
         Query q = new Query();
         ConstraintSet constraints = new ConstraintSet(ConstraintOp.AND);
@@ -585,6 +662,7 @@ public class InterMineObjectFetcher extends Thread
                 QueryField topId = new QueryField(queryClass, "id");
                 q.addToSelect(topId);
                 q.addToOrderBy(topId); // important for optimization in run()
+                addIdRangeConstraints(constraints, topId);
             } else {
                 if (parentClassDescriptor == null) {
                     continue;
@@ -21,6 +21,7 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -33,12 +34,14 @@ import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import java.util.Vector;
+import java.util.zip.CRC32;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.collections.keyvalue.MultiKey;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
@@ -53,25 +56,42 @@ import org.apache.lucene.queryParser.MultiFieldQueryParser;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.queryParser.QueryParser.Operator;
+import org.apache.lucene.search.CachingWrapperFilter;
 import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.TermsFilter;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.Version;
 import org.intermine.api.InterMineAPI;
 import org.intermine.api.data.Objects;
 import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.ConstraintOp;
 import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
 import org.intermine.model.InterMineObject;
 import org.intermine.modelproduction.MetadataManager;
 import org.intermine.modelproduction.MetadataManager.LargeObjectOutputStream;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryCollectionReference;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryFunction;
+import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.pathquery.Path;
+import org.intermine.pathquery.PathException;
 import org.intermine.sql.Database;
+import org.intermine.util.CacheMap;
 import org.intermine.util.ObjectPipe;
 
 import com.browseengine.bobo.api.BoboBrowser;
@@ -118,9 +138,18 @@ public final class KeywordSearch
 
     private static IndexReader reader = null;
     private static BoboIndexReader boboIndexReader = null;
-    private static ObjectPipe<Document> indexingQueue = new ObjectPipe<Document>(100000);
+    private static final int INDEXING_QUEUE_SIZE = 100000;
+    private static final int DEFAULT_INDEX_SHARDS = 4;
     private static LuceneIndexContainer index = null;
 
+    // caches of parsed queries, list filters and results, only valid for the current reader
+    private static Map<String, org.apache.lucene.search.Query> queryCache =
+        Collections.synchronizedMap(new CacheMap<String, org.apache.lucene.search.Query>());
+    private static Map<List<Integer>, Filter> filterCache =
+        Collections.synchronizedMap(new CacheMap<List<Integer>, Filter>());
+    private static Map<MultiKey, ResultsWithFacets> resultsCache =
+        Collections.synchronizedMap(new CacheMap<MultiKey, ResultsWithFacets>());
+
     private static Properties properties = null;
     private static String tempDirectory = null;
     private static Map<Class<? extends InterMineObject>, String[]> specialReferences;
@@ -130,6 +159,7 @@ public final class KeywordSearch
     private static Vector<KeywordSearchFacetData> facets;
     private static boolean debugOutput;
     private static Map<String, String> attributePrefixes = null;
+    private static int indexShards = DEFAULT_INDEX_SHARDS;
 
     private KeywordSearch() {
         //don't
@@ -147,6 +177,7 @@ public final class KeywordSearch
         ignoredFields = new HashMap<Class<? extends InterMineObject>, Set<String>>();
         facets = new Vector<KeywordSearchFacetData>();
         debugOutput = true;
+        indexShards = DEFAULT_INDEX_SHARDS;
 
         // load config file to figure out special classes
         String configFileName = "keyword_search.properties";
@@ -254,6 +285,13 @@ public final class KeywordSearch
                         debugOutput =
                                 "1".equals(value) || "true".equals(value.toLowerCase())
                                         || "on".equals(value.toLowerCase());
+                    } else if ("index.shards".equals(key) && !StringUtils.isBlank(value)) {
+                        try {
+                            indexShards = Math.max(1, Integer.parseInt(value));
+                        } catch (NumberFormatException e) {
+                            LOG.error("keyword_search.properties: 'index.shards' should be a"
+                                    + " number, not '" + value + "'");
+                        }
                     }
 
                     tempDirectory = properties.getProperty("index.temp.directory", "");
@@ -294,6 +332,7 @@ public final class KeywordSearch
 
         LOG.info("Search - Debug mode: " + debugOutput);
         LOG.info("Indexing - Temp Dir: " + tempDirectory);
+        LOG.info("Indexing - Shards: " + indexShards);
     }
 
     private static void addAttributePrefix(String classAndAttribute, String prefix) {
@@ -333,6 +372,7 @@ public final class KeywordSearch
 
             if (reader == null) {
                 reader = IndexReader.open(index.getDirectory(), true);
+                clearCaches();
             }
 
             if (boboIndexReader == null) {
@@ -411,6 +451,13 @@ public final class KeywordSearch
             if (index == null) {
                 createIndex(os, classKeys);
             }
+            parseProperties(os);
+            String publishDirectory = properties == null ? null
+                : properties.getProperty("index.publish.directory");
+            if (!StringUtils.isBlank(publishDirectory)) {
+                publishIndex(index, ((FSDirectory) index.getDirectory()).getFile(),
+                        publishDirectory.trim());
+            }
 
             LOG.debug("Deleting previous search index dirctory blob from db...");
             long startTime = System.currentTimeMillis();
@@ -429,7 +476,14 @@ public final class KeywordSearch
             LOG.debug("Successfully saved search index information to database.");
 
             // if we have a FSDirectory we need to zip and save that separately
-            if ("FSDirectory".equals(index.getDirectoryType())) {
+            if ("MMapDirectory".equals(index.getDirectoryType())) {
+                // the webapp opens the published files directly
+                startTime = System.currentTimeMillis();
+                if (MetadataManager.deleteLargeBinary(db, MetadataManager.SEARCH_INDEX_DIRECTORY)) {
+                    LOG.debug("Deleting previous search index directory blob from db took: "
+                            + (System.currentTimeMillis() - startTime) + ".");
+                }
+            } else if ("FSDirectory".equals(index.getDirectoryType())) {
                 ZipOutputStream zipOut = null;
                 final int bufferSize = 2048;
 
@@ -511,6 +565,313 @@ public final class KeywordSearch
         }
     }
 
+    /**
+     * Updates the documents for the given objects in the index, so that the index can be kept
+     * up to date after a small data load or postprocess without rebuilding it. The old documents
+     * for the ids are deleted, and documents for those of the objects that still exist are added
+     * as a new segment. The documents of objects that embed any of the given objects through the
+     * special references in keyword_search.properties are updated too. They are found by
+     * following the references as they are now, so an object that stopped referring to one of
+     * the given objects is only updated if it is itself in the ids, which it normally is when the
+     * reference is on its side. The index is restored from the database first if it is not
+     * loaded, and a published index is copied, as webapps may have it open. Use
+     * saveIndexToDatabase to save the updated index.
+     *
+     * @param os intermine objectstore
+     * @param classKeys map of classname to key field descriptors (from InterMineAPI)
+     * @param ids ids of the objects that have been added, changed or deleted
+     * @throws IOException if the index cannot be read or written
+     */
+    public static synchronized void updateIndex(ObjectStore os,
+            Map<String, List<FieldDescriptor>> classKeys, Collection<Integer> ids)
+        throws IOException {
+        long time = System.currentTimeMillis();
+        parseProperties(os);
+        if (index == null) {
+            String path = StringUtils.isBlank(tempDirectory) ? System.getProperty("java.io.tmpdir")
+                : tempDirectory;
+            index = loadIndexFromDatabase(os, path);
+            if (index == null) {
+                throw new IOException("There is no search index in the database to update");
+            }
+        }
+        if ("MMapDirectory".equals(index.getDirectoryType())) {
+            Directory published = index.getDirectory();
+            makeTempFile(StringUtils.isBlank(tempDirectory) ? System.getProperty("java.io.tmpdir")
+                    : tempDirectory);
+            Directory.copy(published, index.getDirectory(), true);
+            index.setPublishedPath(null);
+            index.setPublishedLengths(null);
+            index.setPublishedChecksums(null);
+        }
+
+        Set<Integer> allIds = new HashSet<Integer>(ids);
+        try {
+            for (Query q : getEmbeddingQueries(os.getModel(), specialReferences, ids)) {
+                for (Object id : os.executeSingleton(q, 1000, true, false, true)) {
+                    allIds.add((Integer) id);
+                }
+            }
+        } catch (PathException e) {
+            throw new IOException("Invalid reference in keyword_search.properties", e);
+        }
+        LOG.info("Updating search index for " + ids.size() + " objects and "
+                + (allIds.size() - ids.size()) + " objects that embed them...");
+        clearCaches();
+        IndexWriter writer = new IndexWriter(index.getDirectory(), new WhitespaceAnalyzer(),
+                false, IndexWriter.MaxFieldLength.UNLIMITED);
+        int indexed = 0;
+        try {
+            List<Term> terms = new ArrayList<Term>();
+            for (Integer id : allIds) {
+                terms.add(new Term("id", id.toString()));
+            }
+            writer.deleteDocuments(terms.toArray(new Term[terms.size()]));
+
+            ObjectPipe<Document> indexingQueue = new ObjectPipe<Document>(INDEXING_QUEUE_SIZE);
+            InterMineObjectFetcher fetchThread =
+                    new InterMineObjectFetcher(os, classKeys, indexingQueue, ignoredClasses,
+                            ignoredFields, specialReferences, classBoost, facets,
+                            attributePrefixes);
+            fetchThread.setIds(allIds);
+            fetchThread.setName("InterMineObjectFetcher update");
+            fetchThread.start();
+            while (indexingQueue.hasNext()) {
+                Document doc = indexingQueue.next();
+                if (doc != null) {
+                    writer.addDocument(doc);
+                    indexed++;
+                }
+            }
+            index.getFieldNames().addAll(fetchThread.getFieldNames());
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        LOG.info("Updated search index with " + indexed + " documents for " + allIds.size()
+                + " objects in " + (System.currentTimeMillis() - time) + " ms");
+    }
+
+    /**
+     * Returns queries for the ids of the objects whose documents embed any of the given objects
+     * through the given special references. There is one query for each class after the first
+     * along each reference path, as changing an object in the middle of a path changes which
+     * objects are reached at its end.
+     *
+     * @param model the Model
+     * @param references map from class to the reference paths followed from it
+     * @param ids ids of the objects that have been added, changed or deleted
+     * @return a List of Query objects, each selecting a single column of ids
+     * @throws PathException if a reference path is not valid in the model
+     */
+    static List<Query> getEmbeddingQueries(Model model,
+            Map<Class<? extends InterMineObject>, String[]> references, Collection<Integer> ids)
+        throws PathException {
+        List<Query> retval = new ArrayList<Query>();
+        for (Entry<Class<? extends InterMineObject>, String[]> entry : references.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            ClassDescriptor cld = model.getClassDescriptorByName(entry.getKey().getName());
+            for (String reference : entry.getValue()) {
+                Path path = new Path(model, cld.getUnqualifiedName() + "." + reference);
+                List<ClassDescriptor> classDescriptors = path.getElementClassDescriptors();
+                List<String> fields = path.getElements();
+                for (int end = 1; end < classDescriptors.size(); end++) {
+                    Query q = new Query();
+                    q.setDistinct(true);
+                    ConstraintSet constraints = new ConstraintSet(ConstraintOp.AND);
+                    QueryClass parent = null;
+                    for (int i = 0; i <= end; i++) {
+                        QueryClass qc = new QueryClass(classDescriptors.get(i).getType());
+                        q.addFrom(qc);
+                        if (i == 0) {
+                            q.addToSelect(new QueryField(qc, "id"));
+                        } else if (classDescriptors.get(i - 1)
+                                .getReferenceDescriptorByName(fields.get(i - 1), true) != null) {
+                            constraints.addConstraint(new ContainsConstraint(
+                                    new QueryObjectReference(parent, fields.get(i - 1)),
+                                    ConstraintOp.CONTAINS, qc));
+                        } else {
+                            constraints.addConstraint(new ContainsConstraint(
+                                    new QueryCollectionReference(parent, fields.get(i - 1)),
+                                    ConstraintOp.CONTAINS, qc));
+                        }
+                        parent = qc;
+                    }
+                    constraints.addConstraint(new BagConstraint(new QueryField(parent, "id"),
+                            ConstraintOp.IN, ids));
+                    q.setConstraint(constraints);
+                    retval.add(q);
+                }
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Copies the index files into a new versioned directory under the given directory, from
+     * where webapps open them with a memory mapped directory instead of restoring them from the
+     * database. Only the location, and the name, length and checksum of each file, are then
+     * saved in the database. The checksums are calculated while the files are copied. Older
+     * versions are left alone, as running webapps may still have them open.
+     *
+     * @param container the index to publish, which is changed to refer to the published files
+     * @param dir the directory holding the index files
+     * @param publishDirectory directory to create the version directory in
+     * @return the version directory
+     * @throws IOException if the files cannot be copied
+     */
+    static File publishIndex(LuceneIndexContainer container, File dir, String publishDirectory)
+        throws IOException {
+        long time = System.currentTimeMillis();
+        File versionDir = new File(publishDirectory, "search_index_" + time);
+        if (!versionDir.mkdirs()) {
+            throw new IOException("Could not create directory " + versionDir);
+        }
+        LOG.info("Publishing search index to " + versionDir.getAbsolutePath());
+        HashMap<String, Long> lengths = new HashMap<String, Long>();
+        HashMap<String, String> checksums = new HashMap<String, String>();
+        final int bufferSize = 65536;
+        byte[] data = new byte[bufferSize];
+        for (String fileName : dir.list()) {
+            CRC32 crc = new CRC32();
+            long length = 0;
+            InputStream in = new FileInputStream(new File(dir, fileName));
+            try {
+                FileOutputStream out = new FileOutputStream(new File(versionDir, fileName));
+                try {
+                    int count = in.read(data, 0, bufferSize);
+                    while (count != -1) {
+                        out.write(data, 0, count);
+                        crc.update(data, 0, count);
+                        length += count;
+                        count = in.read(data, 0, bufferSize);
+                    }
+                    out.getFD().sync();
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            lengths.put(fileName, new Long(length));
+            checksums.put(fileName, Long.toHexString(crc.getValue()));
+        }
+        container.setDirectoryType("MMapDirectory");
+        container.setPublishedPath(versionDir.getAbsolutePath());
+        container.setPublishedLengths(lengths);
+        container.setPublishedChecksums(checksums);
+        LOG.info("Published " + lengths.size() + " search index files in "
+                + (System.currentTimeMillis() - time) + " ms");
+        return versionDir;
+    }
+
+    /**
+     * Calculates the checksum of each of the given files in a directory, and returns the names
+     * of those that are missing or do not match.
+     *
+     * @param dir the directory
+     * @param checksums map from file name to CRC32 as a hexadecimal string
+     * @return names of the files that do not match, empty if all of them do
+     * @throws IOException if a file cannot be read
+     */
+    static List<String> findCorruptFiles(File dir, Map<String, String> checksums)
+        throws IOException {
+        List<String> corrupt = new ArrayList<String>();
+        final int bufferSize = 65536;
+        byte[] data = new byte[bufferSize];
+        for (Map.Entry<String, String> entry : checksums.entrySet()) {
+            File file = new File(dir, entry.getKey());
+            if (!file.isFile()) {
+                corrupt.add(entry.getKey());
+                continue;
+            }
+            CRC32 crc = new CRC32();
+            InputStream in = new FileInputStream(file);
+            try {
+                int count = in.read(data, 0, bufferSize);
+                while (count != -1) {
+                    crc.update(data, 0, count);
+                    count = in.read(data, 0, bufferSize);
+                }
+            } finally {
+                in.close();
+            }
+            if (!Long.toHexString(crc.getValue()).equals(entry.getValue())) {
+                corrupt.add(entry.getKey());
+            }
+        }
+        return corrupt;
+    }
+
+    /**
+     * Opens the directory that an index was published to, if it is there and has exactly the
+     * files, with the lengths, saved with the index. This only reads the directory listing, so
+     * that startup does not have to read the whole index. The contents of the files are checked
+     * against their checksums by a background thread, which logs an error if they differ.
+     *
+     * @param container the index restored from the database
+     * @return a memory mapped directory, or null if the files are missing or different
+     * @throws IOException if the files cannot be opened
+     */
+    static Directory openPublishedDirectory(LuceneIndexContainer container)
+        throws IOException {
+        final File dir = new File(container.getPublishedPath());
+        if (!dir.isDirectory()) {
+            LOG.error("Published search index directory " + dir + " does not exist");
+            return null;
+        }
+        Map<String, Long> lengths = container.getPublishedLengths();
+        if (lengths == null) {
+            LOG.error("No list of files was saved with the search index published in " + dir);
+            return null;
+        }
+        Set<String> fileNames = new HashSet<String>(Arrays.asList(dir.list()));
+        if (!fileNames.equals(lengths.keySet())) {
+            LOG.error("Published search index in " + dir + " has files " + fileNames
+                    + " but the database expects " + lengths.keySet());
+            return null;
+        }
+        for (Map.Entry<String, Long> entry : lengths.entrySet()) {
+            long length = new File(dir, entry.getKey()).length();
+            if (length != entry.getValue().longValue()) {
+                LOG.error("Published search index file " + entry.getKey() + " in " + dir
+                        + " has length " + length + " but the database expects "
+                        + entry.getValue());
+                return null;
+            }
+        }
+        final Map<String, String> checksums = container.getPublishedChecksums();
+        if (checksums != null) {
+            Thread verifier = new Thread("KeywordSearch index verifier") {
+                @Override
+                public void run() {
+                    verifyPublishedFiles(dir, checksums);
+                }
+            };
+            verifier.setDaemon(true);
+            verifier.start();
+        }
+        return new MMapDirectory(dir);
+    }
+
+    private static void verifyPublishedFiles(File dir, Map<String, String> checksums) {
+        long time = System.currentTimeMillis();
+        try {
+            List<String> corrupt = findCorruptFiles(dir, checksums);
+            if (corrupt.isEmpty()) {
+                LOG.info("Verified published search index in " + dir + " in "
+                        + (System.currentTimeMillis() - time) + " ms");
+            } else {
+                LOG.error("Published search index files " + corrupt + " in " + dir
+                        + " do not match their checksums - rebuild and publish the index again");
+            }
+        } catch (IOException e) {
+            LOG.error("Could not verify published search index in " + dir, e);
+        }
+    }
+
     /**
      * perform a keyword search over all document metadata fields with lucene
      * @param searchString
@@ -671,6 +1032,11 @@ public final class KeywordSearch
             Map<String, String> facetValues,
             List<Integer> ids)
         throws ObjectStoreException {
+        MultiKey cacheKey = getResultsCacheKey(searchString, offset, facetValues, ids);
+        ResultsWithFacets cached = resultsCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
         // last parameter used only when creating lists
         BrowseResult results = runBrowseSearch(searchString, offset, facetValues, ids, 0);
         Collection<KeywordSearchFacet> searchResultsFacets = Collections.emptySet();
@@ -685,10 +1051,31 @@ public final class KeywordSearch
             searchHits = getSearchHits(browseHits, objMap);
             searchResultsFacets = parseFacets(results, facets, facetValues);
             results.close();
+            cached = new ResultsWithFacets(searchHits, searchResultsFacets, totalHits);
+            resultsCache.put(cacheKey, cached);
+            return cached;
         }
         return new ResultsWithFacets(searchHits, searchResultsFacets, totalHits);
     }
 
+    /**
+     * Returns the key under which the results of a browse search are cached. The search string
+     * is normalised, and the facet values and ids are copied, so that later changes made by the
+     * caller do not affect the cache.
+     *
+     * @param searchString The search input.
+     * @param offset An offset.
+     * @param facetValues The facets selected.
+     * @param ids A collection of objects to restrict the search to, or null.
+     * @return a MultiKey
+     */
+    static MultiKey getResultsCacheKey(String searchString, int offset,
+            Map<String, String> facetValues, List<Integer> ids) {
+        return new MultiKey(parseQueryString(searchString),
+                new HashMap<String, String>(facetValues),
+                (ids == null ? null : new ArrayList<Integer>(ids)), new Integer(offset));
+    }
+
     /**
      * perform a keyword search using bobo-browse for faceting and pagination
      * @param searchString string to search for
@@ -723,21 +1110,25 @@ public final class KeywordSearch
         String queryString = parseQueryString(searchString);
 
         try {
-            Analyzer analyzer = new WhitespaceAnalyzer();
-
-            // pass entire list of field names to the multi-field parser
-            // => search through all fields
-            String[] fieldNamesArray = new String[index.getFieldNames().size()];
-
-            index.getFieldNames().toArray(fieldNamesArray);
-            QueryParser queryParser =
-                    new MultiFieldQueryParser(Version.LUCENE_30, fieldNamesArray, analyzer);
-            queryParser.setDefaultOperator(Operator.AND);
-            queryParser.setAllowLeadingWildcard(true);
-            org.apache.lucene.search.Query query = queryParser.parse(queryString);
-
-            // required to expand search terms
-            query = query.rewrite(reader);
+            org.apache.lucene.search.Query query = queryCache.get(queryString);
+            if (query == null) {
+                Analyzer analyzer = new WhitespaceAnalyzer();
+
+                // pass entire list of field names to the multi-field parser
+                // => search through all fields
+                String[] fieldNamesArray = new String[index.getFieldNames().size()];
+
+                index.getFieldNames().toArray(fieldNamesArray);
+                QueryParser queryParser =
+                        new MultiFieldQueryParser(Version.LUCENE_30, fieldNamesArray, analyzer);
+                queryParser.setDefaultOperator(Operator.AND);
+                queryParser.setAllowLeadingWildcard(true);
+                query = queryParser.parse(queryString);
+
+                // required to expand search terms
+                query = query.rewrite(reader);
+                queryCache.put(queryString, query);
+            }
 
             if (debugOutput) {
                 LOG.debug("Rewritten query: " + query);
@@ -752,10 +1143,16 @@ public final class KeywordSearch
             browseRequest.setFetchStoredFields(true);
 
             if (ids != null && !ids.isEmpty()) {
-                TermsFilter idFilter = new TermsFilter(); //we may want fieldcachetermsfilter
+                // the filter caches its bitset, so searching the same list again is cheap
+                Filter idFilter = filterCache.get(ids);
+                if (idFilter == null) {
+                    TermsFilter termsFilter = new TermsFilter();
 
-                for (int id : ids) {
-                    idFilter.addTerm(new Term("id", Integer.toString(id)));
+                    for (int id : ids) {
+                        termsFilter.addTerm(new Term("id", Integer.toString(id)));
+                    }
+                    idFilter = new CachingWrapperFilter(termsFilter);
+                    filterCache.put(new ArrayList<Integer>(ids), idFilter);
                 }
 
                 browseRequest.setFilter(idFilter);
@@ -875,7 +1272,12 @@ public final class KeywordSearch
 
                 if (ret != null) {
                     String indexDirectoryType = ret.getDirectoryType();
-                    Directory dir = restoreSearchDirectory(indexDirectoryType, path, db);
+                    Directory dir;
+                    if ("MMapDirectory".equals(indexDirectoryType)) {
+                        dir = openPublishedDirectory(ret);
+                    } else {
+                        dir = restoreSearchDirectory(indexDirectoryType, path, db);
+                    }
                     if (dir == null) {
                         LOG.error("Could not load directory");
                         return null;
@@ -1046,13 +1448,6 @@ public final class KeywordSearch
 
         parseProperties(os);
 
-        LOG.info("Starting fetcher thread...");
-        InterMineObjectFetcher fetchThread =
-                new InterMineObjectFetcher(os, classKeys, indexingQueue, ignoredClasses,
-                        ignoredFields, specialReferences, classBoost, facets, attributePrefixes);
-        fetchThread.start();
-
-        // index the docs queued by the fetchers
         LOG.info("Preparing indexer...");
         index = new LuceneIndexContainer();
         try {
@@ -1071,46 +1466,60 @@ public final class KeywordSearch
 
         LOG.info("Index directory: " + tempFile.getAbsolutePath());
 
-        IndexWriter writer;
-        writer = new IndexWriter(index.getDirectory(), new WhitespaceAnalyzer(), true,
-                 IndexWriter.MaxFieldLength.UNLIMITED); //autocommit = false?
-        writer.setMergeFactor(10); //10 default, higher values = more parts
-        writer.setRAMBufferSizeMB(64); //flush to disk when docs take up X MB
-
-        int indexed = 0;
-
-        // loop and index while we still have fetchers running
-        LOG.debug("Starting to index...");
-        while (indexingQueue.hasNext()) {
-            Document doc = indexingQueue.next();
+        // split the objects into ranges of ids, each fetched and indexed by its own pair of
+        // threads into its own shard, and merge the shards at the end
+        List<Integer[]> idRanges = getIdRanges(os, indexShards);
+        List<InterMineObjectFetcher> fetchers = new ArrayList<InterMineObjectFetcher>();
+        List<ShardIndexer> indexers = new ArrayList<ShardIndexer>();
+        List<File> shardFiles = new ArrayList<File>();
+        LOG.info("Starting " + idRanges.size() + " fetcher and indexer threads...");
+        for (int i = 0; i < idRanges.size(); i++) {
+            ObjectPipe<Document> indexingQueue =
+                    new ObjectPipe<Document>(INDEXING_QUEUE_SIZE / idRanges.size());
+            InterMineObjectFetcher fetchThread =
+                    new InterMineObjectFetcher(os, classKeys, indexingQueue, ignoredClasses,
+                            ignoredFields, specialReferences, classBoost, facets,
+                            attributePrefixes, idRanges.get(i)[0], idRanges.get(i)[1]);
+            fetchThread.setName("InterMineObjectFetcher shard " + i);
+            Directory shardDirectory = index.getDirectory();
+            if (idRanges.size() > 1) {
+                File shardFile = new File(tempFile.getAbsolutePath() + "_shard" + i);
+                shardFiles.add(shardFile);
+                shardDirectory = FSDirectory.open(shardFile);
+            }
+            ShardIndexer indexer = new ShardIndexer("ShardIndexer shard " + i, shardDirectory,
+                    indexingQueue, fetchThread);
+            fetchThread.start();
+            indexer.start();
+            fetchers.add(fetchThread);
+            indexers.add(indexer);
+        }
 
-            // nothing in the queue?
-            if (doc != null) {
-                try {
-                    writer.addDocument(doc);
-                    indexed++;
-                } catch (IOException e) {
-                    LOG.error("Failed to submit #" + doc.getFieldable("id") + " to the index",
-                            e);
-                }
+        int indexed;
+        try {
+            indexed = joinShards(fetchers, indexers);
+            for (InterMineObjectFetcher fetcher : fetchers) {
+                index.getFieldNames().addAll(fetcher.getFieldNames());
+            }
 
-                if (indexed % 10000 == 1) {
-                    LOG.info("docs indexed=" + indexed + "; thread state="
-                            + fetchThread.getState() + "; docs/ms=" + indexed * 1.0F
-                            / (System.currentTimeMillis() - time) + "; memory="
-                            + Runtime.getRuntime().freeMemory() / 1024 + "k/"
-                            + Runtime.getRuntime().maxMemory() / 1024 + "k" + "; time="
-                            + (System.currentTimeMillis() - time) + "ms");
+            LOG.debug("Indexing done, optimizing index files...");
+            try {
+                if (shardFiles.isEmpty()) {
+                    IndexWriter writer = new IndexWriter(index.getDirectory(),
+                            new WhitespaceAnalyzer(), false,
+                            IndexWriter.MaxFieldLength.UNLIMITED);
+                    writer.optimize();
+                    writer.close();
+                } else {
+                    mergeShards(index.getDirectory(), shardFiles);
                 }
+            } catch (IOException e) {
+                LOG.error("IOException while optimizing and closing IndexWriter", e);
+            }
+        } finally {
+            for (File shardFile : shardFiles) {
+                deleteDirectory(shardFile);
             }
-        }
-        index.getFieldNames().addAll(fetchThread.getFieldNames());
-        LOG.debug("Indexing done, optimizing index files...");
-        try {
-            writer.optimize();
-            writer.close();
-        } catch (IOException e) {
-            LOG.error("IOException while optimizing and closing IndexWriter", e);
         }
 
         time = System.currentTimeMillis() - time;
@@ -1121,6 +1530,121 @@ public final class KeywordSearch
         return tempFile;
     }
 
+    /**
+     * Waits for the fetcher and indexer of every shard to finish, and only then throws the first
+     * problem that any indexer had, so that no shard is still writing to its directory when the
+     * caller deletes it. If this thread is interrupted, all the threads are interrupted too.
+     *
+     * @param fetchers the fetcher threads, one for each shard
+     * @param indexers the indexer threads, in the same order
+     * @return the total number of documents indexed
+     * @throws IOException if any shard could not be written
+     */
+    static int joinShards(List<? extends Thread> fetchers, List<ShardIndexer> indexers)
+        throws IOException {
+        try {
+            for (int i = 0; i < indexers.size(); i++) {
+                indexers.get(i).join();
+                fetchers.get(i).join();
+            }
+        } catch (InterruptedException e) {
+            for (int i = 0; i < indexers.size(); i++) {
+                indexers.get(i).interrupt();
+                fetchers.get(i).interrupt();
+            }
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while building index", e);
+        }
+        int indexed = 0;
+        IOException problem = null;
+        for (ShardIndexer indexer : indexers) {
+            if (indexer.getProblem() == null) {
+                indexed += indexer.getIndexed();
+            } else if (problem == null) {
+                problem = indexer.getProblem();
+            } else {
+                LOG.error(indexer.getName() + " also failed", indexer.getProblem());
+            }
+        }
+        if (problem != null) {
+            throw problem;
+        }
+        return indexed;
+    }
+
+    /**
+     * Merges the shards built in separate directories into one optimized index.
+     *
+     * @param directory the directory to create the merged index in
+     * @param shardFiles the directories of the shards
+     * @throws IOException if the index cannot be written
+     */
+    static void mergeShards(Directory directory, List<File> shardFiles) throws IOException {
+        LOG.info("Merging " + shardFiles.size() + " shards...");
+        IndexWriter writer = new IndexWriter(directory, new WhitespaceAnalyzer(), true,
+                IndexWriter.MaxFieldLength.UNLIMITED);
+        Directory[] shardDirectories = new Directory[shardFiles.size()];
+        for (int i = 0; i < shardFiles.size(); i++) {
+            shardDirectories[i] = FSDirectory.open(shardFiles.get(i));
+        }
+        writer.addIndexesNoOptimize(shardDirectories);
+        writer.optimize();
+        writer.close();
+    }
+
+    /**
+     * Divides the ids of the objects to index into ranges of roughly equal size.
+     *
+     * @param os the objectstore to index
+     * @param shards the number of ranges wanted
+     * @return a list of lowest and highest ids, where null means no limit
+     */
+    private static List<Integer[]> getIdRanges(ObjectStore os, int shards) {
+        List<Integer[]> ranges = new ArrayList<Integer[]>();
+        if (shards > 1) {
+            Query q = new Query();
+            QueryClass qc = new QueryClass(InterMineObject.class);
+            q.addFrom(qc);
+            QueryField idField = new QueryField(qc, "id");
+            q.addToSelect(new QueryFunction(idField, QueryFunction.MIN));
+            q.addToSelect(new QueryFunction(idField, QueryFunction.MAX));
+            q.setConstraint(new BagConstraint(new QueryField(qc, "class"), ConstraintOp.NOT_IN,
+                        ignoredClasses));
+            q.setDistinct(false);
+            try {
+                List<?> row = os.execute(q, 0, 1, false, false, ObjectStore.SEQUENCE_IGNORE)
+                    .get(0);
+                if ((row.get(0) != null) && (row.get(1) != null)) {
+                    long min = ((Number) row.get(0)).longValue();
+                    long max = ((Number) row.get(1)).longValue();
+                    long step = Math.max(1, (max - min + shards) / shards);
+                    for (long lower = min; lower <= max; lower += step) {
+                        ranges.add(new Integer[] {lower == min ? null : new Integer((int) lower),
+                            lower + step > max ? null : new Integer((int) (lower + step - 1))});
+                    }
+                }
+            } catch (ObjectStoreException e) {
+                LOG.warn("Could not find the range of ids - building the index in one shard", e);
+                ranges.clear();
+            }
+        }
+        if (ranges.isEmpty()) {
+            ranges.add(new Integer[] {null, null});
+        }
+        return ranges;
+    }
+
+    private static void deleteDirectory(File directory) {
+        if (directory.exists()) {
+            for (String file : directory.list()) {
+                new File(directory, file).delete();
+            }
+            if (!directory.delete()) {
+                LOG.warn("Could not delete directory: " + directory);
+            }
+        }
+    }
+
     private static File makeTempFile(String tempDir) throws IOException {
         LOG.debug("Creating search index tmp dir: " + tempDir);
         File tempFile = File.createTempFile("search_index", "", new File(tempDir));
@@ -1207,8 +1731,13 @@ public final class KeywordSearch
      * delete the directory used for the index (used in postprocessing)
      */
     public static void deleteIndexDirectory() {
-        if (index != null && "FSDirectory".equals(index.getDirectoryType())) {
+        if (index != null && index.getDirectory() instanceof FSDirectory) {
             File tempFile = ((FSDirectory) index.getDirectory()).getFile();
+            if (index.getPublishedPath() != null
+                    && tempFile.getAbsolutePath().equals(index.getPublishedPath())) {
+                LOG.info("Not deleting published index directory: " + tempFile);
+                return;
+            }
             LOG.info("Deleting index directory: " + tempFile.getAbsolutePath());
 
             if (tempFile.exists()) {
@@ -1227,10 +1756,30 @@ public final class KeywordSearch
         }
     }
 
+    /**
+     * empty the caches of queries, filters and results, which must be done whenever the index
+     * changes
+     */
+    static void clearCaches() {
+        queryCache.clear();
+        filterCache.clear();
+        resultsCache.clear();
+    }
+
+    /**
+     * Returns the cache of browse search results, keyed by getResultsCacheKey.
+     *
+     * @return a synchronized Map
+     */
+    static Map<MultiKey, ResultsWithFacets> getResultsCache() {
+        return resultsCache;
+    }
+
     /**
      * set all the variables to NULL
      */
     public static void close() {
+        clearCaches();
         if (reader != null) {
             try {
                 reader.close();
@@ -1249,7 +1798,6 @@ public final class KeywordSearch
             }
         }
         boboIndexReader = null;
-        indexingQueue = null;
         index = null;
         properties = null;
         tempDirectory = null;
@@ -10,6 +10,7 @@ package org.intermine.api.lucene;
  *
  */
 
+import java.util.Collections;
 import java.util.List;
 
 import com.browseengine.bobo.api.BrowseFacet;
@@ -70,10 +71,10 @@ public class KeywordSearchFacet
     }
 
     /**
-     * list of all values and counts
+     * list of all values and counts, which cannot be modified
      * @return items
      */
     public List<BrowseFacet> getItems() {
-        return items;
+        return Collections.unmodifiableList(items);
     }
 }
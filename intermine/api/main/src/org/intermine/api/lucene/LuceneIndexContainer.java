@@ -29,6 +29,9 @@ class LuceneIndexContainer implements Serializable
     private String directoryType;
     private HashSet<String> fieldNames = new HashSet<String>();
     private HashMap<String, Float> fieldBoosts = new HashMap<String, Float>();
+    private String publishedPath;
+    private HashMap<String, Long> publishedLengths;
+    private HashMap<String, String> publishedChecksums;
 
     /**
      * get lucene directory for this index
@@ -49,7 +52,7 @@ class LuceneIndexContainer implements Serializable
 
     /**
      * get type of directory
-     * @return 'FSDirectory' or 'RAMDirectory'
+     * @return 'FSDirectory', 'RAMDirectory' or 'MMapDirectory'
      */
     public String getDirectoryType() {
         return directoryType;
@@ -98,9 +101,63 @@ class LuceneIndexContainer implements Serializable
         this.fieldBoosts = fieldBoosts;
     }
 
+    /**
+     * get the directory the index files have been published to, for an index that is opened
+     * from there instead of being restored from the database
+     * @return absolute path or null
+     */
+    public String getPublishedPath() {
+        return publishedPath;
+    }
+
+    /**
+     * set the directory the index files have been published to
+     * @param publishedPath
+     *            absolute path
+     */
+    public void setPublishedPath(String publishedPath) {
+        this.publishedPath = publishedPath;
+    }
+
+    /**
+     * get the names and lengths of the published index files
+     * @return map from file name to length, or null if the index has not been published
+     */
+    public HashMap<String, Long> getPublishedLengths() {
+        return publishedLengths;
+    }
+
+    /**
+     * set the names and lengths of the published index files
+     * @param publishedLengths
+     *            map from file name to length
+     */
+    public void setPublishedLengths(HashMap<String, Long> publishedLengths) {
+        this.publishedLengths = publishedLengths;
+    }
+
+    /**
+     * get the checksums of the published index files
+     * @return map from file name to CRC32 as a hexadecimal string, or null if the index has not
+     * been published
+     */
+    public HashMap<String, String> getPublishedChecksums() {
+        return publishedChecksums;
+    }
+
+    /**
+     * set the checksums of the published index files
+     * @param publishedChecksums
+     *            map from file name to CRC32 as a hexadecimal string
+     */
+    public void setPublishedChecksums(HashMap<String, String> publishedChecksums) {
+        this.publishedChecksums = publishedChecksums;
+    }
+
     @Override
     public String toString() {
         return "INDEX [[" + directory + "" + ", fields = " + fieldNames + "" + ", boosts = "
-                + fieldBoosts + "" + "]]";
+                + fieldBoosts + "" + (publishedPath == null ? "" : ", published = "
+                + publishedPath) + "]]";
     }
 }
@@ -10,10 +10,13 @@ package org.intermine.api.lucene;
  *
  */
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 
 /**
- * A class that wraps both a collection of hits and a collection of facets.
+ * A class that wraps both a collection of hits and a collection of facets. The collections
+ * are copied and cannot be modified, as the same object is returned for repeated searches.
  * @author Alex Kalderimis
  *
  */
@@ -33,8 +36,8 @@ public class ResultsWithFacets
             Collection<KeywordSearchHit> results,
             Collection<KeywordSearchFacet> facets,
             int totalHits) {
-        this.results = results;
-        this.facets = facets;
+        this.results = Collections.unmodifiableList(new ArrayList<KeywordSearchHit>(results));
+        this.facets = Collections.unmodifiableList(new ArrayList<KeywordSearchFacet>(facets));
         this.totalHits = totalHits;
     }
 
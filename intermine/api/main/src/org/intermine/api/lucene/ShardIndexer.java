@@ -0,0 +1,122 @@
+package org.intermine.api.lucene;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.intermine.util.ObjectPipe;
+
+/**
+ * thread that adds the documents from the indexing queue of one fetcher to its own lucene
+ * index, so that several shards of the keyword search index can be built at once
+ * @author InterMine
+ */
+class ShardIndexer extends Thread
+{
+    private static final Logger LOG = Logger.getLogger(ShardIndexer.class);
+
+    private final Directory directory;
+    private final ObjectPipe<Document> indexingQueue;
+    private final Thread fetcher;
+    private volatile int indexed = 0;
+    private volatile IOException problem = null;
+
+    /**
+     * initialize the indexer thread
+     * @param name name of the shard, used in progress messages
+     * @param directory directory to create the shard index in
+     * @param indexingQueue queue filled by the fetcher of this shard
+     * @param fetcher the fetcher thread, to report its state
+     */
+    ShardIndexer(String name, Directory directory, ObjectPipe<Document> indexingQueue,
+            Thread fetcher) {
+        super(name);
+        this.directory = directory;
+        this.indexingQueue = indexingQueue;
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * get number of documents indexed so far
+     * @return number of documents
+     */
+    int getIndexed() {
+        return indexed;
+    }
+
+    /**
+     * get the exception that stopped the index from being written, if any
+     * @return exception or null
+     */
+    IOException getProblem() {
+        return problem;
+    }
+
+    /**
+     * index docs from the queue until the fetcher has finished
+     */
+    @Override
+    public void run() {
+        long time = System.currentTimeMillis();
+        IndexWriter writer = null;
+        try {
+            writer = new IndexWriter(directory, new WhitespaceAnalyzer(), true,
+                    IndexWriter.MaxFieldLength.UNLIMITED);
+            writer.setMergeFactor(10); //10 default, higher values = more parts
+            writer.setRAMBufferSizeMB(64); //flush to disk when docs take up X MB
+
+            while (indexingQueue.hasNext()) {
+                Document doc = indexingQueue.next();
+                if (doc != null) {
+                    try {
+                        writer.addDocument(doc);
+                        indexed++;
+                    } catch (IOException e) {
+                        LOG.error(getName() + ": failed to submit #" + doc.getFieldable("id")
+                                + " to the index", e);
+                    }
+
+                    if (indexed % 10000 == 1) {
+                        long elapsed = Math.max(1, System.currentTimeMillis() - time);
+                        LOG.info(getName() + ": docs indexed=" + indexed + "; fetcher state="
+                                + fetcher.getState() + "; docs/s=" + (indexed * 1000L / elapsed)
+                                + "; time=" + elapsed + "ms");
+                    }
+                }
+            }
+            writer.close();
+            writer = null;
+        } catch (IOException e) {
+            LOG.error(getName() + ": failed to write index", e);
+            problem = e;
+            // keep the fetcher from blocking on a full queue
+            while (indexingQueue.hasNext()) {
+                indexingQueue.next();
+            }
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    LOG.warn(getName() + ": failed to close IndexWriter", e);
+                }
+            }
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - time);
+        LOG.info(getName() + ": indexed " + indexed + " documents in " + elapsed + " ms ("
+                + (indexed * 1000L / elapsed) + " docs/s)");
+    }
+}
@@ -57,6 +57,11 @@ public class BagQueryRunnerTest extends StoreDataTestCase {
     }
 
     private TestingBagQueryRunner getRunner(boolean matchOnFirst) throws Exception {
+        return getRunner(matchOnFirst, false);
+    }
+
+    private TestingBagQueryRunner getRunner(boolean matchOnFirst, boolean indexed)
+        throws Exception {
         os = ObjectStoreFactory.getObjectStore("os.unittest");
         Properties props = new Properties();
         props.load(getClass().getClassLoader().getResourceAsStream("class_keys.properties"));
@@ -66,6 +71,11 @@ public class BagQueryRunnerTest extends StoreDataTestCase {
         InputStream is = getClass().getClassLoader().getResourceAsStream("bag-queries.xml");
         BagQueryConfig bagQueryConfig = BagQueryHelper.readBagQueryConfig(os.getModel(), is);
         bagQueryConfig.setMatchOnFirst(matchOnFirst);
+        if (indexed) {
+            // misses are final, so that the results come from the index alone
+            bagQueryConfig.setIdentifierIndex("Employee", true);
+            bagQueryConfig.setIdentifierIndexFallback("Employee", false);
+        }
         TemplateQueryBinding tqb = new TemplateQueryBinding();
         Map<String, TemplateQuery> tqs = tqb.unmarshalTemplates(new InputStreamReader(getClass().getClassLoader().getResourceAsStream("BagQueryRunnerTest_templates.xml")), PathQuery.USERPROFILE_VERSION);
 
@@ -321,4 +331,59 @@ public class BagQueryRunnerTest extends StoreDataTestCase {
         assertTrue("Should have issues", !res.getIssues().isEmpty());
         assertTrue("Should have no unresolved identifiers", res.getUnresolved().isEmpty());
     }
+
+    // the identifier index gives the same results as running the bag queries in the database
+    public void testIdentifierIndexSameAsDatabase() throws Exception {
+        List<String> input = Arrays.asList("EmployeeA1", "employeea2", "EMPLOYEEB1", "gibbon",
+                "DepartmentA1", "EmployeeA*", "*b3", "Emp*e*2", "departmentb*");
+        for (boolean matchOnFirst : new boolean[] {true, false}) {
+            TestingBagQueryRunner sqlRunner = getRunner(matchOnFirst, false);
+            TestingBagQueryRunner indexedRunner = getRunner(matchOnFirst, true);
+            IdentifierIndex index = IdentifierIndex.getInstance(os);
+            try {
+                for (int queryNo = 0; queryNo < 3; queryNo++) {
+                    for (int i = 0; (i < 1000) && (index.getTable("Employee", queryNo) == null);
+                            i++) {
+                        Thread.sleep(10);
+                    }
+                    assertNotNull(index.getTable("Employee", queryNo));
+                }
+                for (boolean caseSensitive : new boolean[] {true, false}) {
+                    BagQueryResult expected = sqlRunner.search("Employee", input, null, true,
+                            caseSensitive);
+                    BagQueryResult got = indexedRunner.search("Employee", input, null, true,
+                            caseSensitive);
+                    String message = "matchOnFirst " + matchOnFirst + ", caseSensitive "
+                        + caseSensitive;
+                    assertFalse(message, expected.getMatches().isEmpty());
+                    assertEquals(message, normalise(expected.getMatches()),
+                            normalise(got.getMatches()));
+                    assertEquals(message, normalise(expected.getIssues()),
+                            normalise(got.getIssues()));
+                    assertEquals(message, normalise(expected.getUnresolved()),
+                            normalise(got.getUnresolved()));
+                }
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+    // the two ways of running the queries find the same values in a different order
+    private Object normalise(Object o) {
+        if (o instanceof Map) {
+            Map<Object, Object> retval = new HashMap<Object, Object>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) o).entrySet()) {
+                retval.put(entry.getKey(), normalise(entry.getValue()));
+            }
+            return retval;
+        } else if (o instanceof Collection) {
+            Set<Object> retval = new HashSet<Object>();
+            for (Object element : (Collection<?>) o) {
+                retval.add(normalise(element));
+            }
+            return retval;
+        }
+        return o;
+    }
 }
@@ -0,0 +1,203 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.Model;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.ResultsRow;
+
+public class IdentifierIndexTest extends TestCase
+{
+    private IdentifierIndex.Table table;
+
+    public IdentifierIndexTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        table = new IdentifierIndex.Table(
+                Arrays.asList("EmployeeB1", "employeeA1", "EmployeeA2", "EMPLOYEEA1", "Fred"),
+                Arrays.asList(new Integer(3), new Integer(1), new Integer(2), new Integer(4),
+                    new Integer(5)));
+    }
+
+    public void testFindExact() throws Exception {
+        int i = table.find("employeea1");
+        Set<Integer> ids = new HashSet<Integer>();
+        Set<String> values = new HashSet<String>();
+        for (; i < table.size() && table.getKey(i).equals("employeea1"); i++) {
+            ids.add(table.getId(i));
+            values.add(table.getValue(i));
+        }
+        assertEquals(new HashSet<Integer>(Arrays.asList(new Integer(1), new Integer(4))), ids);
+        assertEquals(new HashSet<String>(Arrays.asList("employeeA1", "EMPLOYEEA1")), values);
+    }
+
+    public void testFindMissing() throws Exception {
+        int i = table.find("employeea3");
+        assertTrue(i == table.size() || !table.getKey(i).equals("employeea3"));
+        assertEquals(table.size(), table.find("zzz"));
+        assertEquals(0, table.find(""));
+    }
+
+    public void testFindPrefix() throws Exception {
+        String prefix = IdentifierIndex.getPrefix("EmployeeA*");
+        assertEquals("employeea", prefix);
+        Pattern pattern = IdentifierIndex.getLikePattern("EmployeeA*");
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = table.find(prefix); i < table.size() && table.getKey(i).startsWith(prefix);
+                i++) {
+            if (pattern.matcher(table.getKey(i)).matches()) {
+                ids.add(table.getId(i));
+            }
+        }
+        assertEquals(3, ids.size());
+        assertFalse(ids.contains(new Integer(3)));
+    }
+
+    public void testLikePattern() throws Exception {
+        Pattern pattern = IdentifierIndex.getLikePattern("a.b_*");
+        assertTrue(pattern.matcher("a.bcdef").matches());
+        assertTrue(pattern.matcher("a.bc").matches());
+        assertFalse(pattern.matcher("axbc").matches());
+        assertFalse(pattern.matcher("a.b").matches());
+        assertEquals("", IdentifierIndex.getPrefix("*abc"));
+        assertEquals("ab", IdentifierIndex.getPrefix("ab%c*"));
+    }
+
+    public void testRetryAfterFailure() throws Exception {
+        FailingObjectStore os = new FailingObjectStore();
+        os.failing = true;
+        IdentifierIndex index = IdentifierIndex.getInstance(os);
+        try {
+            List<BagQuery> queries = getQueries();
+            index.setRetryInterval(60 * 60 * 1000L);
+            index.build("Employee", queries);
+            waitForBuilder(index);
+            assertEquals(1, os.attempts);
+            assertNull(index.getTable("Employee", 0));
+
+            // Not tried again until the retry interval has passed
+            os.failing = false;
+            index.build("Employee", queries);
+            assertFalse(index.isScheduled("Employee", 0));
+
+            index.setRetryInterval(0);
+            index.build("Employee", queries);
+            waitForBuilder(index);
+            IdentifierIndex.Table table = index.getTable("Employee", 0);
+            assertNotNull(table);
+            assertEquals(2, table.size());
+            assertEquals("EmployeeA1", table.getValue(table.find("employeea1")));
+
+            // Built tables are not built again
+            int attempts = os.attempts;
+            index.build("Employee", queries);
+            assertFalse(index.isScheduled("Employee", 0));
+            assertEquals(attempts, os.attempts);
+        } finally {
+            index.close();
+        }
+    }
+
+    public void testClose() throws Exception {
+        FailingObjectStore os = new FailingObjectStore();
+        IdentifierIndex index = IdentifierIndex.getInstance(os);
+        assertSame(index, IdentifierIndex.getInstance(os));
+        index.build("Employee", getQueries());
+        waitForBuilder(index);
+        assertNotNull(index.getTable("Employee", 0));
+
+        index.close();
+        assertNull(index.getTable("Employee", 0));
+        index.build("Employee", getQueries());
+        assertFalse(index.isScheduled("Employee", 0));
+        IdentifierIndex newIndex = IdentifierIndex.getInstance(os);
+        assertNotSame(index, newIndex);
+        newIndex.close();
+    }
+
+    public void testObjectStoreNotHeld() throws Exception {
+        ObjectStore os = new FailingObjectStore();
+        WeakReference<ObjectStore> ref = new WeakReference<ObjectStore>(os);
+        IdentifierIndex index = IdentifierIndex.getInstance(os);
+        try {
+            os = null;
+            for (int i = 0; (i < 100) && (ref.get() != null); i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertNull(ref.get());
+        } finally {
+            index.close();
+        }
+    }
+
+    private List<BagQuery> getQueries() {
+        Map<String, List<BagQuery>> empty = new HashMap<String, List<BagQuery>>();
+        BagQueryConfig config = new BagQueryConfig(empty, empty,
+                new HashMap<String, Set<AdditionalConverter>>());
+        return Collections.singletonList(new BagQuery(config, Model.getInstanceByName("testmodel"),
+                "SELECT DISTINCT a1_.id AS a2_, a1_.name AS a3_ "
+                + "FROM org.intermine.model.testmodel.Employee AS a1_ "
+                + "WHERE lower(a1_.name) IN ? ORDER BY a1_", "by name",
+                "org.intermine.model.testmodel", false));
+    }
+
+    private void waitForBuilder(IdentifierIndex index) throws InterruptedException {
+        for (int i = 0; (i < 1000) && index.isScheduled("Employee", 0); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(index.isScheduled("Employee", 0));
+    }
+
+    /**
+     * An ObjectStore that returns two employee names, or fails while failing is set.
+     */
+    private static class FailingObjectStore extends ObjectStoreDummyImpl
+    {
+        volatile boolean failing = false;
+        volatile int attempts = 0;
+
+        FailingObjectStore() {
+            setResultsSize(2);
+            addRow(new ResultsRow<Object>(Arrays.<Object>asList(new Integer(1), "EmployeeA1")));
+            addRow(new ResultsRow<Object>(Arrays.<Object>asList(new Integer(2), "EmployeeA2")));
+        }
+
+        @Override
+        public List execute(Query q, int start, int limit, boolean optimise, boolean explain,
+                Map<Object, Integer> sequence) throws ObjectStoreException {
+            attempts++;
+            if (failing) {
+                throw new ObjectStoreException("Database unavailable");
+            }
+            return super.execute(q, start, limit, optimise, explain, sequence);
+        }
+    }
+}
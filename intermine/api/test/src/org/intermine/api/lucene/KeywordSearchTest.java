@@ -0,0 +1,345 @@
+package org.intermine.api.lucene;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.collections.keyvalue.MultiKey;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.intermine.metadata.Model;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.Constraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryCollectionReference;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.pathquery.PathException;
+
+import com.browseengine.bobo.api.BrowseFacet;
+
+public class KeywordSearchTest extends TestCase
+{
+    private Model model;
+    private List<Integer> ids = Arrays.asList(new Integer(1), new Integer(2));
+    private List<File> tempDirs = new ArrayList<File>();
+
+    public KeywordSearchTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        model = Model.getInstanceByName("testmodel");
+    }
+
+    public void tearDown() throws Exception {
+        KeywordSearch.clearCaches();
+        for (File dir : tempDirs) {
+            deleteTree(dir);
+        }
+    }
+
+    public void testEmbeddingQueriesForReference() throws Exception {
+        Map<Class<? extends InterMineObject>, String[]> references =
+            new HashMap<Class<? extends InterMineObject>, String[]>();
+        references.put(Employee.class, new String[] {"department"});
+        List<Query> queries = KeywordSearch.getEmbeddingQueries(model, references, ids);
+        assertEquals(1, queries.size());
+        Query q = queries.get(0);
+        assertTrue(q.isDistinct());
+        assertEquals(1, q.getSelect().size());
+        assertEquals(2, q.getFrom().size());
+        List<Constraint> constraints = getConstraints(q);
+        assertEquals(2, constraints.size());
+        ContainsConstraint cc = (ContainsConstraint) constraints.get(0);
+        assertTrue(cc.getReference() instanceof QueryObjectReference);
+        assertEquals("department", cc.getReference().getFieldName());
+        BagConstraint bc = (BagConstraint) constraints.get(1);
+        assertSame(cc.getQueryClass(), ((QueryField) bc.getQueryNode()).getFromElement());
+        assertEquals(ids, bc.getBag());
+    }
+
+    public void testEmbeddingQueriesForLongerPath() throws Exception {
+        Map<Class<? extends InterMineObject>, String[]> references =
+            new HashMap<Class<? extends InterMineObject>, String[]>();
+        references.put(Company.class, new String[] {"departments.employees"});
+        List<Query> queries = KeywordSearch.getEmbeddingQueries(model, references, ids);
+        // A change to a department changes which employees a company reaches, so the companies
+        // of both changed departments and changed employees are needed
+        assertEquals(2, queries.size());
+        assertEquals(2, queries.get(0).getFrom().size());
+        assertEquals(3, queries.get(1).getFrom().size());
+        for (Query q : queries) {
+            QueryClass top = (QueryClass) q.getFrom().iterator().next();
+            assertEquals(Company.class, top.getType());
+            List<Constraint> constraints = getConstraints(q);
+            ContainsConstraint cc = (ContainsConstraint) constraints.get(0);
+            assertTrue(cc.getReference() instanceof QueryCollectionReference);
+            assertEquals("departments", cc.getReference().getFieldName());
+            BagConstraint bc = (BagConstraint) constraints.get(constraints.size() - 1);
+            assertEquals("id", ((QueryField) bc.getQueryNode()).getFieldName());
+        }
+        ContainsConstraint cc = (ContainsConstraint) getConstraints(queries.get(1)).get(1);
+        QueryClass employee = (QueryClass) cc.getQueryClass();
+        assertEquals(Employee.class, employee.getType());
+    }
+
+    public void testEmbeddingQueriesNoReferences() throws Exception {
+        Map<Class<? extends InterMineObject>, String[]> references =
+            new HashMap<Class<? extends InterMineObject>, String[]>();
+        references.put(Employee.class, null);
+        assertTrue(KeywordSearch.getEmbeddingQueries(model, references, ids).isEmpty());
+    }
+
+    public void testEmbeddingQueriesInvalidPath() throws Exception {
+        Map<Class<? extends InterMineObject>, String[]> references =
+            new HashMap<Class<? extends InterMineObject>, String[]>();
+        references.put(Employee.class, new String[] {"nonexistent"});
+        try {
+            KeywordSearch.getEmbeddingQueries(model, references, ids);
+            fail("Expected PathException");
+        } catch (PathException e) {
+            // expected
+        }
+    }
+
+    public void testResultsCacheKey() throws Exception {
+        Map<String, String> facetValues = new HashMap<String, String>();
+        facetValues.put("Category", "Gene");
+        List<Integer> listIds = new ArrayList<Integer>(ids);
+        MultiKey key = KeywordSearch.getResultsCacheKey("Eve", 0, facetValues, listIds);
+        assertEquals(key, KeywordSearch.getResultsCacheKey("eve", 0, facetValues, listIds));
+        assertFalse(key.equals(KeywordSearch.getResultsCacheKey("eve", 100, facetValues,
+                listIds)));
+        assertFalse(key.equals(KeywordSearch.getResultsCacheKey("eve", 0, facetValues, null)));
+        assertFalse(key.equals(KeywordSearch.getResultsCacheKey("eve", 0,
+                Collections.<String, String>emptyMap(), listIds)));
+
+        // Changes made by the caller after searching do not affect the cached key
+        facetValues.put("Category", "Protein");
+        listIds.add(new Integer(3));
+        assertFalse(key.equals(KeywordSearch.getResultsCacheKey("eve", 0, facetValues,
+                listIds)));
+        facetValues.put("Category", "Gene");
+        listIds.remove(new Integer(3));
+        assertEquals(key, KeywordSearch.getResultsCacheKey("eve", 0, facetValues, listIds));
+    }
+
+    public void testResultsCacheHit() throws Exception {
+        Map<String, String> facetValues = Collections.emptyMap();
+        ResultsWithFacets cached = new ResultsWithFacets(
+                Collections.<KeywordSearchHit>emptyList(),
+                Collections.<KeywordSearchFacet>emptyList(), 42);
+        KeywordSearch.getResultsCache().put(
+                KeywordSearch.getResultsCacheKey("eve", 0, facetValues, null), cached);
+
+        // There is no index, so anything not in the cache finds nothing
+        assertSame(cached, KeywordSearch.runBrowseWithFacets(null, "EVE", 0, facetValues, null));
+        assertEquals(0, KeywordSearch.runBrowseWithFacets(null, "eve", 100, facetValues, null)
+                .getTotalHits());
+        assertEquals(0, KeywordSearch.runBrowseWithFacets(null, "eve", 0, facetValues, ids)
+                .getTotalHits());
+    }
+
+    public void testResultsCacheInvalidation() throws Exception {
+        Map<String, String> facetValues = Collections.emptyMap();
+        ResultsWithFacets cached = new ResultsWithFacets(
+                Collections.<KeywordSearchHit>emptyList(),
+                Collections.<KeywordSearchFacet>emptyList(), 42);
+        MultiKey key = KeywordSearch.getResultsCacheKey("eve", 0, facetValues, null);
+        KeywordSearch.getResultsCache().put(key, cached);
+        KeywordSearch.clearCaches();
+        assertEquals(0, KeywordSearch.runBrowseWithFacets(null, "eve", 0, facetValues, null)
+                .getTotalHits());
+
+        KeywordSearch.getResultsCache().put(key, cached);
+        KeywordSearch.close();
+        assertEquals(0, KeywordSearch.runBrowseWithFacets(null, "eve", 0, facetValues, null)
+                .getTotalHits());
+    }
+
+    public void testResultsUnmodifiable() throws Exception {
+        List<KeywordSearchHit> hits = new ArrayList<KeywordSearchHit>();
+        hits.add(new KeywordSearchHit(1.0f, new Document(), new Employee()));
+        List<KeywordSearchFacet> facets = new ArrayList<KeywordSearchFacet>();
+        facets.add(new KeywordSearchFacet("Category", "Category", null,
+                new ArrayList<BrowseFacet>()));
+        ResultsWithFacets results = new ResultsWithFacets(hits, facets, 1);
+
+        // The results are copied, so later changes to the lists do not show through
+        hits.clear();
+        facets.clear();
+        assertEquals(1, results.getHits().size());
+        assertEquals(1, results.getFacets().size());
+        try {
+            results.getHits().clear();
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            results.getFacets().clear();
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            results.getFacets().iterator().next().getItems().add(new BrowseFacet());
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    public void testPublishAndReopen() throws Exception {
+        LuceneIndexContainer container = publishTestIndex();
+        File versionDir = new File(container.getPublishedPath());
+        assertEquals("MMapDirectory", container.getDirectoryType());
+        assertTrue(versionDir.getName().startsWith("search_index_"));
+        assertEquals(new HashSet<String>(Arrays.asList(versionDir.list())),
+                container.getPublishedLengths().keySet());
+        assertEquals(container.getPublishedLengths().keySet(),
+                container.getPublishedChecksums().keySet());
+        for (String fileName : versionDir.list()) {
+            assertEquals(new File(versionDir, fileName).length(),
+                    container.getPublishedLengths().get(fileName).longValue());
+        }
+        assertTrue(KeywordSearch.findCorruptFiles(versionDir, container.getPublishedChecksums())
+                .isEmpty());
+
+        Directory dir = KeywordSearch.openPublishedDirectory(container);
+        assertNotNull(dir);
+        IndexReader reader = IndexReader.open(dir, true);
+        try {
+            assertEquals(3, reader.numDocs());
+        } finally {
+            reader.close();
+            dir.close();
+        }
+    }
+
+    public void testReopenLengthMismatch() throws Exception {
+        LuceneIndexContainer container = publishTestIndex();
+        File file = getLargestFile(new File(container.getPublishedPath()));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 1);
+        } finally {
+            raf.close();
+        }
+        assertNull(KeywordSearch.openPublishedDirectory(container));
+    }
+
+    public void testReopenMissingFile() throws Exception {
+        LuceneIndexContainer container = publishTestIndex();
+        assertTrue(getLargestFile(new File(container.getPublishedPath())).delete());
+        assertNull(KeywordSearch.openPublishedDirectory(container));
+
+        container.setPublishedLengths(null);
+        assertNull(KeywordSearch.openPublishedDirectory(container));
+    }
+
+    public void testChecksumMismatch() throws Exception {
+        LuceneIndexContainer container = publishTestIndex();
+        File versionDir = new File(container.getPublishedPath());
+        File file = getLargestFile(versionDir);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+        // The length is unchanged, so only the checksums find the change
+        Directory dir = KeywordSearch.openPublishedDirectory(container);
+        assertNotNull(dir);
+        dir.close();
+        assertEquals(Collections.singletonList(file.getName()),
+                KeywordSearch.findCorruptFiles(versionDir, container.getPublishedChecksums()));
+    }
+
+    /**
+     * Writes an index of three documents to a temporary directory and publishes it to another.
+     */
+    private LuceneIndexContainer publishTestIndex() throws Exception {
+        File indexDir = makeTempDir();
+        File publishDir = makeTempDir();
+        IndexWriter writer = new IndexWriter(FSDirectory.open(indexDir), new WhitespaceAnalyzer(),
+                true, IndexWriter.MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < 3; i++) {
+            Document doc = new Document();
+            doc.add(new Field("id", Integer.toString(i), Field.Store.YES,
+                        Field.Index.NOT_ANALYZED));
+            writer.addDocument(doc);
+        }
+        writer.optimize();
+        writer.close();
+        LuceneIndexContainer container = new LuceneIndexContainer();
+        container.setDirectoryType("FSDirectory");
+        KeywordSearch.publishIndex(container, indexDir, publishDir.getAbsolutePath());
+        return container;
+    }
+
+    private File makeTempDir() throws Exception {
+        File dir = File.createTempFile("KeywordSearchTest", "");
+        dir.delete();
+        assertTrue(dir.mkdirs());
+        tempDirs.add(dir);
+        return dir;
+    }
+
+    private File getLargestFile(File dir) {
+        File largest = null;
+        for (File file : dir.listFiles()) {
+            if ((largest == null) || (file.length() > largest.length())) {
+                largest = file;
+            }
+        }
+        return largest;
+    }
+
+    private void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    private List<Constraint> getConstraints(Query q) {
+        return new ArrayList<Constraint>(((ConstraintSet) q.getConstraint()).getConstraints());
+    }
+}
@@ -0,0 +1,132 @@
+package org.intermine.api.lucene;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+import org.intermine.util.ObjectPipe;
+
+/**
+ * Tests for building the keyword search index in shards and merging them.
+ */
+public class ShardIndexerTest extends TestCase
+{
+    private List<File> shardFiles = new ArrayList<File>();
+
+    public ShardIndexerTest(String arg) {
+        super(arg);
+    }
+
+    public void tearDown() throws Exception {
+        for (File shardFile : shardFiles) {
+            File[] files = shardFile.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            shardFile.delete();
+        }
+    }
+
+    public void testShardsMerged() throws Exception {
+        List<Thread> fetchers = new ArrayList<Thread>();
+        List<ShardIndexer> indexers = new ArrayList<ShardIndexer>();
+        for (int i = 0; i < 3; i++) {
+            File shardFile = File.createTempFile("ShardIndexerTest", "_shard" + i);
+            shardFile.delete();
+            shardFiles.add(shardFile);
+            startShard(i, FSDirectory.open(shardFile), 100 * i, 100 * i + 50, fetchers,
+                    indexers);
+        }
+        assertEquals(150, KeywordSearch.joinShards(fetchers, indexers));
+
+        RAMDirectory merged = new RAMDirectory();
+        KeywordSearch.mergeShards(merged, shardFiles);
+        IndexReader reader = IndexReader.open(merged, true);
+        try {
+            assertEquals(150, reader.numDocs());
+            Set<String> ids = new HashSet<String>();
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                ids.add(reader.document(i).get("id"));
+            }
+            assertEquals(150, ids.size());
+            assertTrue(ids.contains("0"));
+            assertTrue(ids.contains("149"));
+            assertTrue(ids.contains("249"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testProblemThrownAfterAllShardsFinish() throws Exception {
+        List<Thread> fetchers = new ArrayList<Thread>();
+        List<ShardIndexer> indexers = new ArrayList<ShardIndexer>();
+        startShard(0, new FailingDirectory(), 0, 1000, fetchers, indexers);
+        startShard(1, new RAMDirectory(), 1000, 2000, fetchers, indexers);
+        try {
+            KeywordSearch.joinShards(fetchers, indexers);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Disk full", e.getMessage());
+        }
+        for (int i = 0; i < 2; i++) {
+            assertFalse(fetchers.get(i).isAlive());
+            assertFalse(indexers.get(i).isAlive());
+        }
+        assertEquals(1000, indexers.get(1).getIndexed());
+    }
+
+    private void startShard(int shard, Directory directory, final int from, final int to,
+            List<Thread> fetchers, List<ShardIndexer> indexers) {
+        final ObjectPipe<Document> queue = new ObjectPipe<Document>(10);
+        Thread fetcher = new Thread() {
+            @Override
+            public void run() {
+                for (int id = from; id < to; id++) {
+                    Document doc = new Document();
+                    doc.add(new Field("id", Integer.toString(id), Field.Store.YES,
+                                Field.Index.NOT_ANALYZED));
+                    queue.put(doc);
+                }
+                queue.finish();
+            }
+        };
+        ShardIndexer indexer = new ShardIndexer("ShardIndexer shard " + shard, directory, queue,
+                fetcher);
+        fetcher.start();
+        indexer.start();
+        fetchers.add(fetcher);
+        indexers.add(indexer);
+    }
+
+    private static class FailingDirectory extends RAMDirectory
+    {
+        @Override
+        public IndexOutput createOutput(String name) throws IOException {
+            throw new IOException("Disk full");
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Map;
+
+/**
+ * Implemented by ObjectStores of Items that already know the namespaces of their Item
+ * identifiers, so that an ItemToObjectTranslator does not need to query for them.
+ *
+ * @author InterMine
+ */
+public interface ItemNamespaces
+{
+    /**
+     * Returns the namespaces of the Item identifiers, in a fixed order, with the highest number
+     * used in each namespace.
+     *
+     * @return a Map from namespace to highest number
+     */
+    Map<String, Integer> getHighestNumbers();
+}
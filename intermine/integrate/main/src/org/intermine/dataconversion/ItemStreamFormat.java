@@ -0,0 +1,274 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+
+/**
+ * Reads and writes the records of an item stream file. Each record holds one Item with all its
+ * attributes, references and collections, and is written as the length of the record, the record
+ * itself, and a CRC32 checksum of the record. Records are ordered by the namespace of the
+ * identifier, and then by the number after the underscore.
+ * <p>
+ * A complete file starts with a header of MAGIC and VERSION, followed by the records. After the
+ * records comes a footer holding the namespaces with the highest number used in each, the number
+ * of records, and an index of the position of every INDEX_INTERVAL-th record. The file ends with
+ * the position of the footer and MAGIC again.
+ *
+ * @author InterMine
+ */
+final class ItemStreamFormat
+{
+    /** The first and last eight bytes of an item stream file */
+    static final long MAGIC = 0x496d4974656d5331L;
+    /** The version of the file format */
+    static final int VERSION = 1;
+    /** The length of the header */
+    static final int HEADER_SIZE = 12;
+    /** The length of the trailer */
+    static final int TRAILER_SIZE = 16;
+    /** The number of records between entries in the index */
+    static final int INDEX_INTERVAL = 64;
+
+    /**
+     * Orders Items by their identifiers, in the order that they appear in an item stream file.
+     */
+    static final Comparator<Item> ORDER = new Comparator<Item>() {
+        public int compare(Item a, Item b) {
+            return compareIdentifiers(a.getIdentifier(), b.getIdentifier());
+        }
+    };
+
+    private ItemStreamFormat() {
+    }
+
+    /**
+     * Compares two item identifiers.
+     *
+     * @param a an identifier
+     * @param b another identifier
+     * @return a negative integer, zero, or a positive integer as a is before, the same as, or
+     * after b
+     */
+    static int compareIdentifiers(String a, String b) {
+        int aLength = underscore(a);
+        int bLength = underscore(b);
+        int retval = aLength - bLength;
+        for (int i = 0; i < Math.min(aLength, bLength); i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                retval = a.charAt(i) - b.charAt(i);
+                break;
+            }
+        }
+        if (retval == 0) {
+            int aNumber = getNumber(a);
+            int bNumber = getNumber(b);
+            retval = (aNumber < bNumber ? -1 : (aNumber == bNumber ? 0 : 1));
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the namespace of an item identifier, which is the part before the underscore.
+     *
+     * @param identifier an item identifier
+     * @return a String
+     */
+    static String getNamespace(String identifier) {
+        return identifier.substring(0, underscore(identifier));
+    }
+
+    /**
+     * Returns the number of an item identifier, which is the part after the underscore.
+     *
+     * @param identifier an item identifier
+     * @return an int
+     */
+    static int getNumber(String identifier) {
+        try {
+            return Integer.parseInt(identifier.substring(underscore(identifier) + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("illegal identifier (\"" + identifier
+                    + "\") for item");
+        }
+    }
+
+    private static int underscore(String identifier) {
+        int retval = (identifier == null ? -1 : identifier.indexOf('_'));
+        if (retval == -1) {
+            throw new IllegalArgumentException("illegal identifier (\"" + identifier
+                    + "\") for item");
+        }
+        return retval;
+    }
+
+    /**
+     * Returns true if the given Item only holds extra references or collections for an Item that
+     * was stored earlier, rather than being a whole Item.
+     *
+     * @param item an Item
+     * @return a boolean
+     */
+    static boolean isFragment(Item item) {
+        return (item.getClassName() == null) && (item.getImplementations() == null);
+    }
+
+    /**
+     * Adds the contents of a fragment to an Item.
+     *
+     * @param item the Item
+     * @param fragment a fragment with the same identifier
+     */
+    static void merge(Item item, Item fragment) {
+        item.getAttributes().addAll(fragment.getAttributes());
+        item.getReferences().addAll(fragment.getReferences());
+        item.getCollections().addAll(fragment.getCollections());
+    }
+
+    /**
+     * Writes a record for an Item.
+     *
+     * @param out the stream to write to
+     * @param item the Item
+     * @return the number of bytes written
+     * @throws IOException if the record cannot be written
+     */
+    static int writeItem(DataOutputStream out, Item item) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(buffer);
+        writeString(record, item.getIdentifier());
+        writeString(record, item.getClassName());
+        writeString(record, item.getImplementations());
+        record.writeInt(item.getAttributes().size());
+        for (Attribute attribute : item.getAttributes()) {
+            writeString(record, attribute.getName());
+            writeString(record, attribute.getValue());
+        }
+        record.writeInt(item.getReferences().size());
+        for (Reference reference : item.getReferences()) {
+            writeString(record, reference.getName());
+            writeString(record, reference.getRefId());
+        }
+        record.writeInt(item.getCollections().size());
+        for (ReferenceList collection : item.getCollections()) {
+            writeString(record, collection.getName());
+            writeString(record, collection.getRefIds());
+        }
+        record.flush();
+        byte[] bytes = buffer.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeInt((int) crc.getValue());
+        return bytes.length + 8;
+    }
+
+    /**
+     * Reads a record written by writeItem().
+     *
+     * @param in the stream to read from
+     * @return an Item, or null if the stream is at its end
+     * @throws IOException if the record cannot be read, or its checksum is wrong
+     */
+    static Item readItem(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IOException("Corrupt item stream record with length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        int expected = in.readInt();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        if (((int) crc.getValue()) != expected) {
+            throw new IOException("Checksum mismatch in item stream record");
+        }
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+        Item item = new Item();
+        item.setIdentifier(readString(record));
+        item.setClassName(readString(record));
+        item.setImplementations(readString(record));
+        int count = record.readInt();
+        for (int i = 0; i < count; i++) {
+            Attribute attribute = new Attribute();
+            attribute.setName(readString(record));
+            attribute.setValue(readString(record));
+            item.addAttributes(attribute);
+        }
+        count = record.readInt();
+        for (int i = 0; i < count; i++) {
+            Reference reference = new Reference();
+            reference.setName(readString(record));
+            reference.setRefId(readString(record));
+            item.addReferences(reference);
+        }
+        count = record.readInt();
+        for (int i = 0; i < count; i++) {
+            ReferenceList collection = new ReferenceList();
+            collection.setName(readString(record));
+            collection.setRefIds(readString(record));
+            item.addCollections(collection);
+        }
+        return item;
+    }
+
+    /**
+     * Writes a String that may be null, and may be longer than writeUTF() allows.
+     *
+     * @param out the stream to write to
+     * @param s the String
+     * @throws IOException if the String cannot be written
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a String written by writeString().
+     *
+     * @param in the stream to read from
+     * @return a String, or null
+     * @throws IOException if the String cannot be read
+     */
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
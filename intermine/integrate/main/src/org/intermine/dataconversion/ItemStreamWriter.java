@@ -0,0 +1,399 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.objectstore.ObjectStoreException;
+
+/**
+ * Stores Items in a binary file instead of an objectstore, so that the dataloader can read them
+ * with an ObjectStoreItemStreamImpl without the items database. Items are sorted by identifier in
+ * memory a run at a time, and each sorted run is written to a temporary file next to the final
+ * file. The close() method merges the runs into the final file, combining any references or
+ * collections stored for an Item after the Item itself.
+ * <p>
+ * The identifiers of Items that have been written out are kept in another temporary file, as the
+ * number of the namespace and the number after the underscore in each, so that references and
+ * collections can still be added to those Items without holding every identifier in memory.
+ *
+ * @author InterMine
+ */
+public class ItemStreamWriter implements ItemWriter
+{
+    private static final Logger LOG = Logger.getLogger(ItemStreamWriter.class);
+    /** The default number of Items held in memory before a run is written */
+    public static final int DEFAULT_RUN_SIZE = 100000;
+    /** The number of bytes in the identifier file for each Item */
+    private static final int IDENTIFIER_SIZE = 8;
+
+    private File file;
+    private int runSize = DEFAULT_RUN_SIZE;
+    private int itemCount = 0;
+    private int spilledCount = 0;
+    private List<String> identifierNamespaces = new ArrayList<String>();
+    private Map<String, Integer> identifierNamespaceNos = new HashMap<String, Integer>();
+    private File identifierFile;
+    private RandomAccessFile identifiers = null;
+    private List<Item> run = new ArrayList<Item>();
+    private Map<Integer, Item> runItems = new HashMap<Integer, Item>();
+    private List<File> runFiles = new ArrayList<File>();
+    private boolean closed = false;
+
+    /**
+     * Constructs the ItemWriter with the file to write.
+     *
+     * @param file the file in which to store the Items
+     */
+    public ItemStreamWriter(File file) {
+        this.file = file;
+        this.identifierFile = new File(file.getPath() + ".ids");
+    }
+
+    /**
+     * Sets the number of Items held in memory before they are sorted and written to a temporary
+     * file.
+     *
+     * @param runSize the number of Items
+     */
+    public void setRunSize(int runSize) {
+        this.runSize = runSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized Integer store(Item item) throws ObjectStoreException {
+        checkOpen();
+        if (StringUtils.isEmpty(item.getClassName())
+            && StringUtils.isEmpty(item.getImplementations())) {
+            throw new RuntimeException("className not set for item: " + item.getIdentifier());
+        }
+        ItemStreamFormat.getNumber(item.getIdentifier());
+        Integer id = new Integer(itemCount++);
+        item.setId(id);
+        run.add(item);
+        runItems.put(id, item);
+        if (run.size() >= runSize) {
+            writeRun();
+        }
+        return id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void store(ReferenceList refList, Integer itemId)
+        throws ObjectStoreException {
+        getItemForUpdate(itemId).addCollections(refList);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void store(Reference ref, Integer itemId) throws ObjectStoreException {
+        getItemForUpdate(itemId).addReferences(ref);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void store(Attribute att, Integer itemId) throws ObjectStoreException {
+        getItemForUpdate(itemId).addAttributes(att);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void storeAll(Collection<Item> items) throws ObjectStoreException {
+        for (Item item : items) {
+            store(item);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void close() throws ObjectStoreException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (!run.isEmpty()) {
+            writeRun();
+        }
+        try {
+            mergeRuns();
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not write item stream file " + file, e);
+        } finally {
+            try {
+                if (identifiers != null) {
+                    identifiers.close();
+                }
+            } catch (IOException e) {
+                LOG.warn("Could not close temporary file " + identifierFile, e);
+            }
+            List<File> tempFiles = new ArrayList<File>(runFiles);
+            tempFiles.add(identifierFile);
+            for (File tempFile : tempFiles) {
+                if (tempFile.exists() && (!tempFile.delete())) {
+                    LOG.warn("Could not delete temporary file " + tempFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the Item in the current run that changes to the Item with the given id should be
+     * made to. If the Item has already been written, this is a new fragment holding only the
+     * identifier, to be merged with the Item when the runs are merged.
+     */
+    private Item getItemForUpdate(Integer itemId) throws ObjectStoreException {
+        checkOpen();
+        Item retval = runItems.get(itemId);
+        if (retval == null) {
+            if ((itemId == null) || (itemId.intValue() < 0)
+                    || (itemId.intValue() >= spilledCount)) {
+                throw new ObjectStoreException("No Item has been stored with id " + itemId);
+            }
+            if (run.size() >= runSize) {
+                writeRun();
+            }
+            retval = new Item();
+            retval.setIdentifier(readIdentifier(itemId.intValue()));
+            run.add(retval);
+            runItems.put(itemId, retval);
+        }
+        return retval;
+    }
+
+    /**
+     * Reads the identifier of an Item that has been written out from the identifier file.
+     */
+    private String readIdentifier(int itemId) throws ObjectStoreException {
+        try {
+            identifiers.seek(((long) itemId) * IDENTIFIER_SIZE);
+            String namespace = identifierNamespaces.get(identifiers.readInt());
+            return namespace + "_" + identifiers.readInt();
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not read temporary file " + identifierFile, e);
+        }
+    }
+
+    /**
+     * Appends the identifiers of the whole Items in the current run to the identifier file, in
+     * order of id.
+     */
+    private void writeIdentifiers() throws IOException {
+        if (identifiers == null) {
+            identifiers = new RandomAccessFile(identifierFile, "rw");
+            identifiers.setLength(0);
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream((itemCount - spilledCount)
+                * IDENTIFIER_SIZE);
+        DataOutputStream out = new DataOutputStream(buffer);
+        for (int id = spilledCount; id < itemCount; id++) {
+            String identifier = runItems.get(new Integer(id)).getIdentifier();
+            String namespace = ItemStreamFormat.getNamespace(identifier);
+            Integer namespaceNo = identifierNamespaceNos.get(namespace);
+            if (namespaceNo == null) {
+                namespaceNo = new Integer(identifierNamespaces.size());
+                identifierNamespaces.add(namespace);
+                identifierNamespaceNos.put(namespace, namespaceNo);
+            }
+            out.writeInt(namespaceNo.intValue());
+            out.writeInt(ItemStreamFormat.getNumber(identifier));
+        }
+        out.flush();
+        identifiers.seek(((long) spilledCount) * IDENTIFIER_SIZE);
+        identifiers.write(buffer.toByteArray());
+        spilledCount = itemCount;
+    }
+
+    private void checkOpen() throws ObjectStoreException {
+        if (closed) {
+            throw new ObjectStoreException("ItemStreamWriter for " + file + " has been closed");
+        }
+    }
+
+    /**
+     * Sorts the current run and writes it to a temporary file. The sort is stable, so fragments
+     * stay after the Item that they belong to.
+     */
+    private void writeRun() throws ObjectStoreException {
+        File runFile = new File(file.getPath() + ".run" + runFiles.size());
+        runFiles.add(runFile);
+        Collections.sort(run, ItemStreamFormat.ORDER);
+        try {
+            writeIdentifiers();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(runFile)));
+            try {
+                for (Item item : run) {
+                    ItemStreamFormat.writeItem(out, item);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not write temporary file " + runFile, e);
+        }
+        LOG.info("Wrote run of " + run.size() + " items to " + runFile);
+        run.clear();
+        runItems.clear();
+    }
+
+    /**
+     * Merges the sorted runs into the final file, and writes the footer.
+     */
+    private void mergeRuns() throws IOException {
+        PriorityQueue<RunReader> readers = new PriorityQueue<RunReader>(
+                Math.max(1, runFiles.size()), RunReader.ORDER);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file)));
+        try {
+            for (int i = 0; i < runFiles.size(); i++) {
+                RunReader reader = new RunReader(runFiles.get(i), i);
+                if (reader.head != null) {
+                    readers.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            out.writeLong(ItemStreamFormat.MAGIC);
+            out.writeInt(ItemStreamFormat.VERSION);
+            long position = ItemStreamFormat.HEADER_SIZE;
+            Map<String, Integer> highestNumbers = new LinkedHashMap<String, Integer>();
+            List<String> indexIdentifiers = new ArrayList<String>();
+            List<Long> indexPositions = new ArrayList<Long>();
+            int recordCount = 0;
+            Item pending = null;
+            while ((!readers.isEmpty()) || (pending != null)) {
+                Item next = null;
+                if (!readers.isEmpty()) {
+                    RunReader reader = readers.poll();
+                    next = reader.head;
+                    if (reader.advance()) {
+                        readers.add(reader);
+                    }
+                }
+                if ((pending != null) && (next != null) && ItemStreamFormat.isFragment(next)
+                        && (ItemStreamFormat.ORDER.compare(pending, next) == 0)) {
+                    ItemStreamFormat.merge(pending, next);
+                    continue;
+                }
+                if (pending != null) {
+                    if (ItemStreamFormat.isFragment(pending)) {
+                        throw new IOException("Item with identifier " + pending.getIdentifier()
+                                + " has references or collections but was never stored");
+                    }
+                    if (recordCount % ItemStreamFormat.INDEX_INTERVAL == 0) {
+                        indexIdentifiers.add(pending.getIdentifier());
+                        indexPositions.add(new Long(position));
+                    }
+                    String namespace = ItemStreamFormat.getNamespace(pending.getIdentifier());
+                    int number = ItemStreamFormat.getNumber(pending.getIdentifier());
+                    Integer highest = highestNumbers.get(namespace);
+                    if ((highest == null) || (highest.intValue() < number)) {
+                        highestNumbers.put(namespace, new Integer(number));
+                    }
+                    position += ItemStreamFormat.writeItem(out, pending);
+                    recordCount++;
+                }
+                pending = next;
+            }
+            long footer = position;
+            out.writeInt(highestNumbers.size());
+            List<String> namespaces = new ArrayList<String>(highestNumbers.keySet());
+            for (String namespace : namespaces) {
+                ItemStreamFormat.writeString(out, namespace);
+                out.writeInt(highestNumbers.get(namespace).intValue());
+            }
+            out.writeInt(recordCount);
+            out.writeInt(indexPositions.size());
+            for (int i = 0; i < indexPositions.size(); i++) {
+                String identifier = indexIdentifiers.get(i);
+                out.writeInt(namespaces.indexOf(ItemStreamFormat.getNamespace(identifier)));
+                out.writeInt(ItemStreamFormat.getNumber(identifier));
+                out.writeLong(indexPositions.get(i).longValue());
+            }
+            out.writeLong(footer);
+            out.writeLong(ItemStreamFormat.MAGIC);
+            LOG.info("Wrote " + recordCount + " items in " + namespaces.size()
+                    + " namespaces to " + file);
+        } finally {
+            out.close();
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the Items of one sorted run in turn.
+     */
+    private static class RunReader
+    {
+        static final Comparator<RunReader> ORDER = new Comparator<RunReader>() {
+            public int compare(RunReader a, RunReader b) {
+                int retval = ItemStreamFormat.ORDER.compare(a.head, b.head);
+                return (retval != 0 ? retval : a.runNo - b.runNo);
+            }
+        };
+
+        private DataInputStream in;
+        private int runNo;
+        Item head;
+
+        RunReader(File runFile, int runNo) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile)));
+            this.runNo = runNo;
+            advance();
+        }
+
+        boolean advance() throws IOException {
+            head = ItemStreamFormat.readItem(in);
+            if (head == null) {
+                close();
+            }
+            return head != null;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+}
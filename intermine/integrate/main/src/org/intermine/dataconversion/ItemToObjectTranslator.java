@@ -102,7 +102,15 @@ public class ItemToObjectTranslator extends Translator
         q.addToGroupBy(qe3);
         q.setDistinct(false);
         try {
-            if (os != null) {
+            if (os instanceof ItemNamespaces) {
+                int offset = 0;
+                Map<String, Integer> highestNumbers = ((ItemNamespaces) os).getHighestNumbers();
+                for (Map.Entry<String, Integer> entry : highestNumbers.entrySet()) {
+                    idToNamespace.put(new Integer(offset), entry.getKey());
+                    namespaceToId.put(entry.getKey(), new Integer(offset));
+                    offset += entry.getValue().intValue() + 1;
+                }
+            } else if (os != null) {
                 Results res = os.execute(q, 1000, false, false, false);
                 int offset = 0;
                 @SuppressWarnings("unchecked") Collection<ResultsRow<Object>> tmpRes =
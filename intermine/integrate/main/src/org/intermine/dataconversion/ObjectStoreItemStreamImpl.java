@@ -0,0 +1,478 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.metadata.MetaDataException;
+import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Item;
+import org.intermine.objectstore.ObjectStoreAbstractImpl;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.Constraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.FromElement;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.ResultsInfo;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SimpleConstraint;
+
+/**
+ * A read-only ObjectStore of fulldata Items, read from a file written by an ItemStreamWriter.
+ * It answers only the queries that an ItemToObjectTranslator produces - all the Items, the Items
+ * of a class, or the Items with given identifiers - which is enough to use it underneath an
+ * ObjectStoreTranslatingImpl for data loading.
+ *
+ * @author InterMine
+ */
+public class ObjectStoreItemStreamImpl extends ObjectStoreAbstractImpl implements ItemNamespaces
+{
+    private static final Logger LOG = Logger.getLogger(ObjectStoreItemStreamImpl.class);
+    private static final int BUFFER_SIZE = 65536;
+
+    private File file;
+    private Map<String, Integer> highestNumbers = new LinkedHashMap<String, Integer>();
+    private Map<String, Integer> namespaceBases = new HashMap<String, Integer>();
+    private int recordCount;
+    private long recordsEnd;
+    private int[] indexIds;
+    private long[] indexPositions;
+    private Map<String, int[]> classCursors = new HashMap<String, int[]>();
+
+    /**
+     * Constructs an ObjectStoreItemStreamImpl reading the given file.
+     *
+     * @param model the fulldata Model
+     * @param file a file written by an ItemStreamWriter
+     * @throws ObjectStoreException if the file cannot be read
+     */
+    public ObjectStoreItemStreamImpl(Model model, File file) throws ObjectStoreException {
+        super(model);
+        this.file = file;
+        try {
+            readFooter();
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not read item stream file " + file, e);
+        }
+        LOG.info("Opened item stream file " + file + " with " + recordCount + " items");
+    }
+
+    /**
+     * Gets an ObjectStoreItemStreamImpl for the given properties.
+     *
+     * @param osAlias the alias of this objectstore
+     * @param props the properties used to configure the objectstore
+     * @return the ObjectStore
+     * @throws IllegalArgumentException if props are invalid
+     * @throws ObjectStoreException if the file cannot be read
+     */
+    public static ObjectStoreItemStreamImpl getInstance(String osAlias, Properties props)
+        throws ObjectStoreException {
+        String fileName = props.getProperty("file");
+        if (fileName == null) {
+            throw new IllegalArgumentException("No 'file' property specified for ItemStream"
+                    + " ObjectStore (check properties file)");
+        }
+        Model model;
+        try {
+            model = getModelFromClasspath(osAlias, props);
+        } catch (MetaDataException e) {
+            throw new ObjectStoreException("Cannot load model", e);
+        }
+        return new ObjectStoreItemStreamImpl(model, new File(fileName));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Integer> getHighestNumbers() {
+        return Collections.unmodifiableMap(highestNumbers);
+    }
+
+    /**
+     * Returns the number of Items in this file.
+     *
+     * @return an int
+     */
+    public int getItemCount() {
+        return recordCount;
+    }
+
+    private void readFooter() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if ((raf.length() < ItemStreamFormat.HEADER_SIZE + ItemStreamFormat.TRAILER_SIZE)
+                    || (raf.readLong() != ItemStreamFormat.MAGIC)) {
+                throw new IOException("Not an item stream file");
+            }
+            int version = raf.readInt();
+            if (version != ItemStreamFormat.VERSION) {
+                throw new IOException("Unsupported item stream version " + version);
+            }
+            raf.seek(raf.length() - ItemStreamFormat.TRAILER_SIZE);
+            recordsEnd = raf.readLong();
+            if (raf.readLong() != ItemStreamFormat.MAGIC) {
+                throw new IOException("Item stream file is incomplete");
+            }
+            raf.seek(recordsEnd);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(raf.getFD())));
+            List<String> namespaces = new ArrayList<String>();
+            int namespaceCount = in.readInt();
+            int base = 0;
+            for (int i = 0; i < namespaceCount; i++) {
+                String namespace = ItemStreamFormat.readString(in);
+                int highest = in.readInt();
+                namespaces.add(namespace);
+                highestNumbers.put(namespace, new Integer(highest));
+                namespaceBases.put(namespace, new Integer(base));
+                base += highest + 1;
+            }
+            recordCount = in.readInt();
+            int indexCount = in.readInt();
+            indexIds = new int[indexCount];
+            indexPositions = new long[indexCount];
+            for (int i = 0; i < indexCount; i++) {
+                String namespace = namespaces.get(in.readInt());
+                indexIds[i] = namespaceBases.get(namespace).intValue() + in.readInt();
+                indexPositions[i] = in.readLong();
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<ResultsRow<Object>> execute(Query q, int start, int limit, boolean optimise,
+            boolean explain, Map<Object, Integer> sequence) throws ObjectStoreException {
+        checkStartLimit(start, limit, q);
+        ItemQuery itemQuery = new ItemQuery(q);
+        List<Item> items;
+        try {
+            if (itemQuery.identifiers != null) {
+                items = lookup(itemQuery.identifiers, itemQuery.className);
+                items = items.subList(Math.min(start, items.size()),
+                        (int) Math.min(((long) start) + limit, items.size()));
+            } else if (itemQuery.className != null) {
+                items = scanClass(itemQuery.className, start, limit);
+            } else {
+                items = scan(start, limit);
+            }
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not read item stream file " + file, e);
+        }
+        List<ResultsRow<Object>> retval = new ArrayList<ResultsRow<Object>>();
+        for (Item item : items) {
+            ResultsRow<Object> row = new ResultsRow<Object>();
+            row.add(item);
+            retval.add(row);
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int count(Query q, Map<Object, Integer> sequence) throws ObjectStoreException {
+        ItemQuery itemQuery = new ItemQuery(q);
+        try {
+            if (itemQuery.identifiers != null) {
+                return lookup(itemQuery.identifiers, itemQuery.className).size();
+            } else if (itemQuery.className != null) {
+                return scanClass(itemQuery.className, 0, Integer.MAX_VALUE).size();
+            }
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not read item stream file " + file, e);
+        }
+        return recordCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResultsInfo estimate(Query q) throws ObjectStoreException {
+        return new ResultsInfo(0, 0, count(q, SEQUENCE_IGNORE));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Object> getComponentsForQuery(Query q) {
+        return Collections.emptySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isMultiConnection() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer getSerial() throws ObjectStoreException {
+        throw new ObjectStoreException("ObjectStoreItemStreamImpl is read-only");
+    }
+
+    /**
+     * Returns the id that an ItemToObjectTranslator gives the Item with the given identifier.
+     */
+    private int getStreamId(String identifier) {
+        Integer base = namespaceBases.get(ItemStreamFormat.getNamespace(identifier));
+        if (base == null) {
+            return -1;
+        }
+        return base.intValue() + ItemStreamFormat.getNumber(identifier);
+    }
+
+    /**
+     * Reads the Items in the given range of positions in the file.
+     */
+    private List<Item> scan(int start, int limit) throws IOException {
+        List<Item> retval = new ArrayList<Item>();
+        if (start >= recordCount) {
+            return retval;
+        }
+        int block = start / ItemStreamFormat.INDEX_INTERVAL;
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            DataInputStream in = openAt(fis, indexPositions[block]);
+            int recordNo = block * ItemStreamFormat.INDEX_INTERVAL;
+            while ((recordNo < recordCount) && (retval.size() < limit)) {
+                Item item = readItem(in, recordNo);
+                if (recordNo >= start) {
+                    retval.add(item);
+                }
+                recordNo++;
+            }
+        } finally {
+            fis.close();
+        }
+        return retval;
+    }
+
+    /**
+     * Reads the Items of a class in the given range. The position in the file that the last
+     * range ended at is remembered, so that reading the ranges in order reads the file once.
+     */
+    private List<Item> scanClass(String className, int start, int limit) throws IOException {
+        int matched = 0;
+        int recordNo = 0;
+        synchronized (classCursors) {
+            int[] cursor = classCursors.get(className);
+            if ((cursor != null) && (cursor[0] <= start)) {
+                matched = cursor[0];
+                recordNo = cursor[1];
+            }
+        }
+        List<Item> retval = new ArrayList<Item>();
+        if (recordNo < recordCount) {
+            int block = recordNo / ItemStreamFormat.INDEX_INTERVAL;
+            FileInputStream fis = new FileInputStream(file);
+            try {
+                DataInputStream in = openAt(fis, indexPositions[block]);
+                int skip = recordNo - block * ItemStreamFormat.INDEX_INTERVAL;
+                for (int i = 0; i < skip; i++) {
+                    readItem(in, recordNo - skip + i);
+                }
+                while ((recordNo < recordCount) && (retval.size() < limit)) {
+                    Item item = readItem(in, recordNo);
+                    recordNo++;
+                    if (className.equals(item.getClassName())) {
+                        if (matched >= start) {
+                            retval.add(item);
+                        }
+                        matched++;
+                    }
+                }
+            } finally {
+                fis.close();
+            }
+        }
+        synchronized (classCursors) {
+            classCursors.put(className, new int[] {matched, recordNo});
+        }
+        return retval;
+    }
+
+    /**
+     * Finds the Items with the given identifiers, reading each block of the file at most once.
+     */
+    private List<Item> lookup(Collection<?> identifiers, String className) throws IOException {
+        TreeSet<Integer> ids = new TreeSet<Integer>();
+        for (Object identifier : identifiers) {
+            int id = getStreamId((String) identifier);
+            if (id != -1) {
+                ids.add(new Integer(id));
+            }
+        }
+        List<Item> retval = new ArrayList<Item>();
+        if (ids.isEmpty() || (indexIds.length == 0)) {
+            return retval;
+        }
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            int block = -1;
+            List<Item> blockItems = null;
+            for (Integer id : ids) {
+                int idBlock = Arrays.binarySearch(indexIds, id.intValue());
+                if (idBlock < 0) {
+                    idBlock = -idBlock - 2;
+                }
+                if (idBlock < 0) {
+                    continue;
+                }
+                // Equal identifiers may straddle blocks, so start at the first block with the id
+                while ((idBlock > 0) && (indexIds[idBlock] == id.intValue())) {
+                    idBlock--;
+                }
+                if (idBlock != block) {
+                    block = idBlock;
+                    blockItems = readBlocks(fis, block, id.intValue());
+                }
+                for (Item item : blockItems) {
+                    if ((getStreamId(item.getIdentifier()) == id.intValue())
+                            && ((className == null) || className.equals(item.getClassName()))) {
+                        retval.add(item);
+                    }
+                }
+            }
+        } finally {
+            fis.close();
+        }
+        return retval;
+    }
+
+    /**
+     * Reads the Items from the start of a block to the end of the block, carrying on past the end
+     * if the Items there still have the given id.
+     */
+    private List<Item> readBlocks(FileInputStream fis, int block, int id) throws IOException {
+        List<Item> retval = new ArrayList<Item>();
+        DataInputStream in = openAt(fis, indexPositions[block]);
+        int recordNo = block * ItemStreamFormat.INDEX_INTERVAL;
+        int end = recordNo + ItemStreamFormat.INDEX_INTERVAL;
+        while (recordNo < recordCount) {
+            Item item = readItem(in, recordNo);
+            if ((recordNo >= end) && (getStreamId(item.getIdentifier()) > id)) {
+                break;
+            }
+            retval.add(item);
+            recordNo++;
+        }
+        return retval;
+    }
+
+    private DataInputStream openAt(FileInputStream fis, long position) throws IOException {
+        fis.getChannel().position(position);
+        return new DataInputStream(new BufferedInputStream(fis, BUFFER_SIZE));
+    }
+
+    private Item readItem(DataInputStream in, int recordNo) throws IOException {
+        Item item = ItemStreamFormat.readItem(in);
+        if (item == null) {
+            throw new IOException("Item stream file ended early at record " + recordNo);
+        }
+        item.setId(new Integer(getStreamId(item.getIdentifier())));
+        return item;
+    }
+
+    /**
+     * The parts of a query produced by an ItemToObjectTranslator that select Items.
+     */
+    private static class ItemQuery
+    {
+        Collection<?> identifiers = null;
+        String className = null;
+
+        ItemQuery(Query q) throws ObjectStoreException {
+            if ((q.getSelect().size() != 1) || (q.getFrom().size() != 1)
+                    || (!(q.getFrom().iterator().next() instanceof QueryClass))
+                    || (!Item.class.equals(((QueryClass) q.getFrom().iterator().next())
+                            .getType()))) {
+                throw new ObjectStoreException("Query not supported by ObjectStoreItemStreamImpl: "
+                        + q);
+            }
+            FromElement qc = q.getFrom().iterator().next();
+            Constraint c = q.getConstraint();
+            if (c instanceof ConstraintSet) {
+                if (ConstraintOp.AND != c.getOp()) {
+                    throw new ObjectStoreException("Query not supported by"
+                            + " ObjectStoreItemStreamImpl: " + q);
+                }
+                for (Constraint sub : ((ConstraintSet) c).getConstraints()) {
+                    addConstraint(q, qc, sub);
+                }
+            } else if (c != null) {
+                addConstraint(q, qc, c);
+            }
+        }
+
+        private void addConstraint(Query q, FromElement qc, Constraint c)
+            throws ObjectStoreException {
+            if ((c instanceof BagConstraint) && (ConstraintOp.IN == c.getOp())
+                    && isField(((BagConstraint) c).getQueryNode(), qc, "identifier")) {
+                identifiers = ((BagConstraint) c).getBag();
+            } else if ((c instanceof SimpleConstraint) && (ConstraintOp.EQUALS == c.getOp())
+                    && (((SimpleConstraint) c).getArg2() instanceof QueryValue)) {
+                SimpleConstraint sc = (SimpleConstraint) c;
+                Object value = ((QueryValue) sc.getArg2()).getValue();
+                if (isField(sc.getArg1(), qc, "identifier")) {
+                    identifiers = Collections.singleton(value);
+                } else if (isField(sc.getArg1(), qc, "className")) {
+                    className = (String) value;
+                } else {
+                    throw new ObjectStoreException("Query not supported by"
+                            + " ObjectStoreItemStreamImpl: " + q);
+                }
+            } else {
+                throw new ObjectStoreException("Query not supported by ObjectStoreItemStreamImpl: "
+                        + q);
+            }
+        }
+
+        private static boolean isField(Object node, FromElement qc, String fieldName) {
+            return (node instanceof QueryField) && (((QueryField) node).getFromElement() == qc)
+                && fieldName.equals(((QueryField) node).getFieldName());
+        }
+    }
+}
@@ -19,6 +19,7 @@ import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.WeakHashMap;
 
@@ -37,6 +38,7 @@ import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStorePassthruImpl;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
 import org.intermine.objectstore.proxy.ProxyReference;
 import org.intermine.objectstore.query.BagConstraint;
 import org.intermine.objectstore.query.ConstraintSet;
@@ -48,6 +50,7 @@ import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
 import org.intermine.util.CollectionUtil;
+import org.intermine.util.PropertiesUtil;
 import org.intermine.util.ShutdownHook;
 import org.intermine.util.Shutdownable;
 
@@ -60,6 +63,11 @@ import org.intermine.util.Shutdownable;
 public class BatchingFetcher extends HintingFetcher
 {
     private static final Logger LOG = Logger.getLogger(BatchingFetcher.class);
+    /**
+     * The default number of objects for a primary key above which equivalent objects are looked
+     * up with a KeyTableLookup instead of IQL queries
+     */
+    public static final int DEFAULT_MIN_KEY_TABLE_SIZE = 500;
     protected Map<InterMineObject, Set<InterMineObject>> equivalents = Collections
         .synchronizedMap(new WeakHashMap<InterMineObject, Set<InterMineObject>>());
     protected DataTracker dataTracker;
@@ -69,6 +77,8 @@ public class BatchingFetcher extends HintingFetcher
     protected long timeSpentExecute = 0;
     protected long timeSpentPrefetchEquiv = 0;
     protected long timeSpentPrefetchTracker = 0;
+    protected KeyTableLookup keyTableLookup = null;
+    protected int minKeyTableSize = DEFAULT_MIN_KEY_TABLE_SIZE;
 
     /**
      * Constructor
@@ -82,6 +92,17 @@ public class BatchingFetcher extends HintingFetcher
         super(fetcher);
         this.dataTracker = dataTracker;
         this.source = source;
+        Properties props = PropertiesUtil.getPropertiesStartingWith("equivalentObjectFetcher");
+        String minKeyTableSizeProperty = props.getProperty(
+                "equivalentObjectFetcher.minKeyTableSize");
+        if (minKeyTableSizeProperty != null) {
+            minKeyTableSize = Integer.parseInt(minKeyTableSizeProperty.trim());
+        }
+        // Use the ObjectStore that HintingFetcher unwrapped from the writer, so that lookups made
+        // while reading the source do not wait for the writer's connection
+        if ((minKeyTableSize > 0) && (lookupOs instanceof ObjectStoreInterMineImpl)) {
+            keyTableLookup = new KeyTableLookup((ObjectStoreInterMineImpl) lookupOs);
+        }
     }
 
     /**
@@ -132,6 +153,15 @@ public class BatchingFetcher extends HintingFetcher
 
     /**
      * Fetches the equivalent object information for a whole batch of objects.
+     * <p>
+     * This is called when the source Results fetches a batch, which happens ahead of storing -
+     * both because the Results prefetches the next batch, and because a SourceReader reads ahead
+     * of the storing thread. Objects that will have been stored by the time a later object
+     * refers to them are therefore not yet in the id map, and are fetched here anyway. That only
+     * costs a query, as the IntegrationWriter finds them in the id map when it stores the later
+     * object. The equivalents cached for an object do not include objects stored from this
+     * source after they were fetched, so two objects with the same primary key in one source
+     * may not be merged with each other if they are close together.
      *
      * @param batch the objects
      * @throws ObjectStoreException if something goes wrong
@@ -316,7 +346,9 @@ public class BatchingFetcher extends HintingFetcher
     }
 
     /**
-     * Fetches equivalent objects for a particular primary key.
+     * Fetches equivalent objects for a particular primary key. Objects are looked up with IQL
+     * queries of 500 objects at a time, unless there are at least minKeyTableSize objects and
+     * the production database supports a KeyTableLookup, which looks them all up in one join.
      *
      * @param pk the PrimaryKey
      * @param cld the ClassDescriptor of the PrimaryKey
@@ -329,6 +361,10 @@ public class BatchingFetcher extends HintingFetcher
     protected void doPk(PrimaryKey pk, ClassDescriptor cld, Map<InterMineObject,
             Set<InterMineObject>> results, List<InterMineObject> objectsForCld,
             Set<Integer> fetchedObjectIds) throws ObjectStoreException {
+        // Large batches are looked up all at once with a key table, instead of 500 at a time
+        boolean useKeyTable = (keyTableLookup != null) && (objectsForCld.size() >= minKeyTableSize)
+            && keyTableLookup.canLookup(cld, pk);
+        int maxObjCount = (useKeyTable ? Integer.MAX_VALUE : 500);
         Iterator<InterMineObject> objectsForCldIter = objectsForCld.iterator();
         while (objectsForCldIter.hasNext()) {
             int objCount = 0;
@@ -358,7 +394,7 @@ public class BatchingFetcher extends HintingFetcher
             // Now make a map from the primary key values to source objects
             Map<List<Object>, InterMineObject> keysToSourceObjects =
                 new HashMap<List<Object>, InterMineObject>();
-            while (objectsForCldIter.hasNext() && (objCount < 500)) {
+            while (objectsForCldIter.hasNext() && (objCount < maxObjCount)) {
                 InterMineObject object = objectsForCldIter.next();
                 origObjCount++;
                 try {
@@ -447,7 +483,9 @@ public class BatchingFetcher extends HintingFetcher
             //        emptyQuery = true;
             //    }
             //}
-            if (objCount > 0) {
+            if ((objCount > 0) && useKeyTable) {
+                keyTableLookup.lookup(cld, pk, keysToSourceObjects, results, fetchedObjectIds);
+            } else if (objCount > 0) {
                 // Iterate through query, and add objects to results
                 //long time = System.currentTimeMillis();
                 int matches = 0;
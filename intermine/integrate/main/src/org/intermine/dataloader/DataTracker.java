@@ -109,6 +109,25 @@ public class DataTracker
         cacheStorerThread.start();
     }
 
+    /**
+     * Constructor for subclasses that store the tracking data somewhere other than the tracker
+     * table. Such subclasses must override every method that uses the cache or the database.
+     *
+     * @param db the Database that the tracking data describes
+     */
+    protected DataTracker(Database db) {
+        this.db = db;
+    }
+
+    /**
+     * Returns the Database that backs this tracker.
+     *
+     * @return a Database
+     */
+    public Database getDatabase() {
+        return db;
+    }
+
     /**
      * Clears the data tracker of all entries. This method may only be called immediately after
      * construction.
@@ -37,7 +37,10 @@ import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsInfo;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.ResultsStream;
 import org.intermine.objectstore.query.SingletonResults;
+import org.intermine.util.ConcurrentIntPresentSet;
+import org.intermine.util.ConcurrentIntToIntMap;
 import org.intermine.util.IntPresentSet;
 import org.intermine.util.IntToIntMap;
 
@@ -58,8 +61,8 @@ public abstract class IntegrationWriterAbstractImpl implements IntegrationWriter
     protected static final int SKELETON = 0;
     protected static final int FROM_DB = 1;
     protected static final int SOURCE = 2;
-    protected IntToIntMap idMap = new IntToIntMap();
-    protected IntPresentSet dbIdsStored = new IntPresentSet();
+    protected IntToIntMap idMap = new ConcurrentIntToIntMap();
+    protected IntPresentSet dbIdsStored = new ConcurrentIntPresentSet();
     protected int idMapOps = 0;
     protected boolean ignoreDuplicates = false;
     protected HintingFetcher eof;
@@ -389,6 +392,16 @@ public abstract class IntegrationWriterAbstractImpl implements IntegrationWriter
         }
     }
 
+    /**
+     * Returns the ID in the destination database of an object from the source, from idMap.
+     *
+     * @param source the ID of the object from the source
+     * @return the ID of the object from the destination, or null if it has not been stored
+     */
+    public Integer getDestinationId(Integer source) {
+        return idMap.get(source);
+    }
+
 
 
 
@@ -659,6 +672,13 @@ public abstract class IntegrationWriterAbstractImpl implements IntegrationWriter
         return osw.execute(q, start, limit, optimise, explain, sequence);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ResultsStream executeStreaming(Query q) throws ObjectStoreException {
+        return osw.executeStreaming(q);
+    }
+
     /**
      * {@inheritDoc}
      */
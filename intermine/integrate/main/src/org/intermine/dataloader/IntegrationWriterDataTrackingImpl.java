@@ -10,6 +10,7 @@ package org.intermine.dataloader;
  *
  */
 
+import java.io.File;
 import java.lang.reflect.Constructor;
 import java.util.Collections;
 import java.util.Comparator;
@@ -36,6 +37,7 @@ import org.intermine.objectstore.ObjectStoreWriterFactory;
 import org.intermine.objectstore.intermine.ObjectStoreWriterInterMineImpl;
 import org.intermine.objectstore.proxy.ProxyReference;
 import org.intermine.sql.Database;
+import org.intermine.util.ConcurrentIntPresentSet;
 import org.intermine.util.DynamicUtil;
 import org.intermine.util.IntPresentSet;
 
@@ -51,19 +53,19 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
     private static final Logger LOG = Logger.getLogger(IntegrationWriterDataTrackingImpl.class);
     protected DataTracker dataTracker;
     protected Set<Class<?>> trackerMissingClasses;
-    protected IntPresentSet skeletons = new IntPresentSet();
+    protected IntPresentSet skeletons = new ConcurrentIntPresentSet();
     /** This is a list of the objects that did not merge with anything from a previous data
      * source */
-    protected IntPresentSet pureObjects = new IntPresentSet();
+    protected IntPresentSet pureObjects = new ConcurrentIntPresentSet();
     /** This is a list of the objects in the destination database that we have written to as a
      * non-skeleton. This is so that we can notice if we write to a given object twice, given
      * ignoreDuplicates, so we can tell the user if ignoreDuplicates is necessary.
      */
-    protected IntPresentSet writtenObjects = new IntPresentSet();
+    protected IntPresentSet writtenObjects = new ConcurrentIntPresentSet();
     /** This is a list of the objects in the destination database that we have written to as a
      * non-skeleton more than once.
      */
-    protected IntPresentSet duplicateObjects = new IntPresentSet();
+    protected IntPresentSet duplicateObjects = new ConcurrentIntPresentSet();
     protected boolean isDuplicates = false;
     protected PriorityConfig priorityConfig;
 
@@ -116,6 +118,8 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
                     + " datatracker commit size specified (check properties file)");
         }
         String trackerMissingClassesString = props.getProperty("datatrackerMissingClasses");
+        // If set, the tracking data is kept in memory-mapped files in this directory
+        String trackerDirectoryString = props.getProperty("datatrackerDirectory");
 
         ObjectStoreWriter writer = ObjectStoreWriterFactory.getObjectStoreWriter(writerAlias);
         try {
@@ -132,10 +136,15 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
                     trackerMissingClasses.add(c);
                 }
             }
-            Constructor<? extends DataTracker> con = trackerClass.getConstructor(
-                    new Class[] {Database.class, Integer.TYPE, Integer.TYPE});
-            DataTracker newDataTracker = con.newInstance(new Object[] {db,
-                new Integer(maxSize), new Integer(commitSize)});
+            DataTracker newDataTracker;
+            if (trackerDirectoryString != null) {
+                newDataTracker = new MappedDataTracker(db, new File(trackerDirectoryString));
+            } else {
+                Constructor<? extends DataTracker> con = trackerClass.getConstructor(
+                        new Class[] {Database.class, Integer.TYPE, Integer.TYPE});
+                newDataTracker = con.newInstance(new Object[] {db,
+                    new Integer(maxSize), new Integer(commitSize)});
+            }
 
             Constructor<? extends IntegrationWriterDataTrackingImpl> con2 =
                 iwClass.getConstructor(new Class[] {ObjectStoreWriter.class, DataTracker.class,
@@ -185,10 +194,10 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
     @Override
     public void reset() {
         super.reset();
-        skeletons = new IntPresentSet();
-        pureObjects = new IntPresentSet();
-        writtenObjects = new IntPresentSet();
-        duplicateObjects = new IntPresentSet();
+        skeletons = new ConcurrentIntPresentSet();
+        pureObjects = new ConcurrentIntPresentSet();
+        writtenObjects = new ConcurrentIntPresentSet();
+        duplicateObjects = new ConcurrentIntPresentSet();
         isDuplicates = false;
     }
 
@@ -215,6 +224,17 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
         return dataTracker;
     }
 
+    /**
+     * Returns true if a skeleton has been stored with the given id in the production database
+     * during this load, and has not yet been replaced by a real object.
+     *
+     * @param id an id in the production database
+     * @return a boolean
+     */
+    public boolean isPendingSkeleton(int id) {
+        return skeletons.contains(id);
+    }
+
     /**
      * Returns true if the given class is NOT a subclass of any of the classes in
      * trackerMissingClasses.
@@ -0,0 +1,87 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+
+import org.intermine.dataconversion.ItemToObjectTranslator;
+import org.intermine.dataconversion.ObjectStoreItemStreamImpl;
+import org.intermine.metadata.Model;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.fastcollections.ObjectStoreFastCollectionsForTranslatorImpl;
+import org.intermine.objectstore.translating.ObjectStoreTranslatingImpl;
+
+/**
+ * Loads Items from a file written by an ItemStreamWriter into the InterMine database, translating
+ * them on the way, without going through an items database.
+ *
+ * @author InterMine
+ */
+public class ItemStreamDataLoader extends ObjectStoreDataLoader
+{
+    /**
+     * Construct an ItemStreamDataLoader
+     *
+     * @param iw an IntegrationWriter to which to write
+     */
+    public ItemStreamDataLoader(IntegrationWriter iw) {
+        super(iw);
+    }
+
+    /**
+     * Performs the loading operation, reading Items from the given file.
+     *
+     * @param file the file written by an ItemStreamWriter
+     * @param source the main Source
+     * @param skelSource the skeleton Source
+     * @throws ObjectStoreException if an error occurs on either the source or the destination
+     */
+    public void process(File file, Source source, Source skelSource)
+        throws ObjectStoreException {
+        process(file, source, skelSource, InterMineObject.class);
+    }
+
+    /**
+     * Loads only a specified class, reading Items from the given file. If the class is
+     * InterMineObject then all data will be loaded.
+     *
+     * @param file the file written by an ItemStreamWriter
+     * @param source the main Source
+     * @param skelSource the skeleton Source
+     * @param queryClass the class to load data for
+     * @throws ObjectStoreException if an error occurs on either the source or the destination
+     */
+    public void process(File file, Source source, Source skelSource,
+            Class<? extends FastPathObject> queryClass) throws ObjectStoreException {
+        process(getObjectStore(file, getIntegrationWriter().getModel()), source, skelSource,
+                queryClass);
+    }
+
+    /**
+     * Returns an ObjectStore of the objects translated from the Items in a file, in the same way
+     * as a translated items database would be configured.
+     *
+     * @param file the file written by an ItemStreamWriter
+     * @param model the Model to translate the Items into
+     * @return an ObjectStore
+     * @throws ObjectStoreException if the file cannot be read
+     */
+    public static ObjectStore getObjectStore(File file, Model model) throws ObjectStoreException {
+        ObjectStoreItemStreamImpl items = new ObjectStoreItemStreamImpl(
+                Model.getInstanceByName("fulldata"), file);
+        ItemToObjectTranslator translator = new ItemToObjectTranslator(model, items);
+        return new ObjectStoreFastCollectionsForTranslatorImpl(new ObjectStoreTranslatingImpl(
+                    model, items, translator));
+    }
+}
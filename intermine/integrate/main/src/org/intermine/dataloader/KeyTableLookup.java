@@ -0,0 +1,271 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.PrimaryKey;
+import org.intermine.metadata.TypeUtil;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.intermine.DatabaseSchema;
+import org.intermine.objectstore.intermine.NotXmlParser;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.sql.Database;
+import org.intermine.sql.DatabaseUtil;
+import org.intermine.sql.writebatch.BatchWriterPostgresCopyImpl;
+import org.intermine.sql.writebatch.FlushJob;
+import org.intermine.sql.writebatch.TableBatch;
+
+/**
+ * Looks up the objects in the production database that match a set of primary key values with
+ * one join, instead of an IQL query with a BagConstraint for each field. The key values are
+ * copied into a temporary table, which is joined against the table of the class of the primary
+ * key on the key columns, and the objects are read from the OBJECT column of that table in the
+ * same query. The temporary table is dropped when the transaction ends.
+ *
+ * @author InterMine
+ */
+public class KeyTableLookup
+{
+    private static final Logger LOG = Logger.getLogger(KeyTableLookup.class);
+    private static final String KEY_NUMBER_COLUMN = "keyno";
+
+    private ObjectStoreInterMineImpl os;
+
+    /**
+     * Constructor.
+     *
+     * @param os the production ObjectStore
+     */
+    public KeyTableLookup(ObjectStoreInterMineImpl os) {
+        this.os = os;
+    }
+
+    /**
+     * Returns whether the objects for the given primary key can be looked up with a key table.
+     * This is the case if the database is PostgreSQL, the class has a table, and every field of
+     * the key is an attribute or reference with a column.
+     *
+     * @param cld the ClassDescriptor of the primary key
+     * @param pk the PrimaryKey
+     * @return a boolean
+     */
+    public boolean canLookup(ClassDescriptor cld, PrimaryKey pk) {
+        if (!"PostgreSQL".equals(os.getDatabase().getPlatform())) {
+            return false;
+        }
+        DatabaseSchema schema = os.getSchema();
+        ClassDescriptor tableMaster = schema.getTableMaster(cld);
+        if (schema.getMissingTables().contains(DatabaseUtil.getTableName(tableMaster)
+                    .toLowerCase())) {
+            return false;
+        }
+        for (String fieldName : pk.getFieldNames()) {
+            FieldDescriptor fd = cld.getFieldDescriptorByName(fieldName);
+            if ((fd == null) || (DatabaseUtil.getColumnName(fd) == null)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Looks up the objects matching the given primary key values, and adds them to the sets of
+     * equivalent objects of the source objects.
+     *
+     * @param cld the ClassDescriptor of the primary key
+     * @param pk the PrimaryKey
+     * @param keysToSourceObjects a Map from lists of key values, in the order of the key fields,
+     * to the source object with those values. References are given as the id of the object in
+     * the production database
+     * @param results a Map from source object to the Set of equivalent objects to add to
+     * @param fetchedObjectIds a Set to which the ids of the fetched objects are added
+     * @return the number of matches found
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public int lookup(ClassDescriptor cld, PrimaryKey pk,
+            Map<List<Object>, InterMineObject> keysToSourceObjects,
+            Map<InterMineObject, Set<InterMineObject>> results,
+            Set<Integer> fetchedObjectIds) throws ObjectStoreException {
+        if (keysToSourceObjects.isEmpty()) {
+            return 0;
+        }
+        List<String> fieldNames = new ArrayList<String>(pk.getFieldNames());
+        List<InterMineObject> sourceObjects = new ArrayList<InterMineObject>();
+        Map<Integer, List<Integer>> idToKeyNumbers = new HashMap<Integer, List<Integer>>();
+        Map<Integer, InterMineObject> objects = new HashMap<Integer, InterMineObject>();
+        DatabaseSchema schema = os.getSchema();
+        // Without a usable OBJECT column in the table, the objects are fetched by id afterwards
+        boolean selectObjects = !(schema.isMissingNotXml() || schema.isFlatMode(cld.getType()));
+        String currentColumn = null;
+        Connection c = null;
+        try {
+            c = os.getConnection();
+            boolean wasNotInTransaction = c.getAutoCommit();
+            if (wasNotInTransaction) {
+                c.setAutoCommit(false);
+            }
+            try {
+                String keyTable = createKeyTable(c, cld, fieldNames, keysToSourceObjects,
+                        sourceObjects);
+                ClassDescriptor tableMaster = schema.getTableMaster(cld);
+                StringBuffer sql = new StringBuffer("SELECT k." + KEY_NUMBER_COLUMN
+                        + ", t.id" + (selectObjects ? ", t.OBJECT" : "") + " FROM "
+                        + DatabaseUtil.getTableName(tableMaster) + " AS t, " + keyTable
+                        + " AS k WHERE ");
+                for (int i = 0; i < fieldNames.size(); i++) {
+                    FieldDescriptor fd = cld.getFieldDescriptorByName(fieldNames.get(i));
+                    sql.append(i == 0 ? "" : " AND ").append("t." + DatabaseUtil
+                            .getColumnName(fd) + " = k.k" + i);
+                }
+                if (schema.isTruncated(tableMaster)) {
+                    sql.append(" AND t.tableclass = '" + cld.getName() + "'");
+                }
+                Statement s = c.createStatement();
+                ResultSet rs = s.executeQuery(sql.toString());
+                while (rs.next()) {
+                    Integer id = new Integer(rs.getInt(2));
+                    List<Integer> keyNumbers = idToKeyNumbers.get(id);
+                    if (keyNumbers == null) {
+                        keyNumbers = new ArrayList<Integer>();
+                        idToKeyNumbers.put(id, keyNumbers);
+                    }
+                    keyNumbers.add(new Integer(rs.getInt(1)));
+                    if (selectObjects && !objects.containsKey(id)) {
+                        currentColumn = rs.getString(3);
+                        InterMineObject obj = NotXmlParser.parse(currentColumn, os);
+                        os.cacheObjectById(id, obj);
+                        objects.put(id, obj);
+                    }
+                }
+                rs.close();
+            } finally {
+                if (wasNotInTransaction) {
+                    // Nothing has been written apart from the key table, which this drops
+                    c.rollback();
+                    c.setAutoCommit(true);
+                }
+            }
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Error looking up objects for primary key "
+                    + cld.getName() + "." + pk.getName(), e);
+        } catch (ClassNotFoundException e) {
+            throw new ObjectStoreException("Unknown class mentioned in database OBJECT field"
+                    + " while looking up objects for primary key " + cld.getName() + "."
+                    + pk.getName() + ": " + currentColumn, e);
+        } finally {
+            if (c != null) {
+                os.releaseConnection(c);
+            }
+        }
+        if ((!selectObjects) && (!idToKeyNumbers.isEmpty())) {
+            for (InterMineObject obj : os.getObjectsByIds(idToKeyNumbers.keySet())) {
+                objects.put(obj.getId(), obj);
+            }
+        }
+        int matches = 0;
+        for (InterMineObject obj : objects.values()) {
+            fetchedObjectIds.add(obj.getId());
+            for (Integer keyNumber : idToKeyNumbers.get(obj.getId())) {
+                Set<InterMineObject> set = results.get(sourceObjects.get(keyNumber.intValue()));
+                if (set != null) {
+                    set.add(obj);
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the type of the key table column for a field of a primary key. This is the declared
+     * type of an attribute, with primitives promoted to their container class, or Integer for a
+     * reference, which is given as the id of the referenced object. The key values themselves are
+     * not used, as they may be null or of a subclass.
+     *
+     * @param fd the FieldDescriptor of the key field
+     * @return a Class
+     */
+    static Class<?> getKeyColumnType(FieldDescriptor fd) {
+        if (fd instanceof AttributeDescriptor) {
+            return TypeUtil.getTypeByName(((AttributeDescriptor) fd).getType());
+        }
+        return Integer.class;
+    }
+
+    /**
+     * Creates a temporary table holding the key values, numbered in the order that the source
+     * objects are added to sourceObjects.
+     */
+    private String createKeyTable(Connection c, ClassDescriptor cld, List<String> fieldNames,
+            Map<List<Object>, InterMineObject> keysToSourceObjects,
+            List<InterMineObject> sourceObjects) throws SQLException {
+        Database db = os.getDatabase();
+        String tableName = "keys_" + os.getUniqueInteger(c);
+        String[] colNames = new String[fieldNames.size() + 1];
+        colNames[0] = KEY_NUMBER_COLUMN;
+        StringBuffer create = new StringBuffer("CREATE TEMPORARY TABLE " + tableName + " ("
+                + KEY_NUMBER_COLUMN + " " + db.getColumnTypeString(Integer.class));
+        for (int i = 0; i < fieldNames.size(); i++) {
+            FieldDescriptor fd = cld.getFieldDescriptorByName(fieldNames.get(i));
+            Class<?> type = getKeyColumnType(fd);
+            String typeString = db.getColumnTypeString(type);
+            if (typeString == null) {
+                throw new IllegalArgumentException("Cannot create key table column for "
+                        + cld.getName() + "." + fd.getName() + " of " + type);
+            }
+            colNames[i + 1] = "k" + i;
+            create.append(", k" + i + " " + typeString);
+        }
+        create.append(") ON COMMIT DROP");
+        Statement s = c.createStatement();
+        s.execute(create.toString());
+        TableBatch tableBatch = new TableBatch();
+        for (Map.Entry<List<Object>, InterMineObject> entry : keysToSourceObjects.entrySet()) {
+            Integer keyNumber = new Integer(sourceObjects.size());
+            sourceObjects.add(entry.getValue());
+            Object[] values = new Object[colNames.length];
+            values[0] = keyNumber;
+            for (int i = 0; i < fieldNames.size(); i++) {
+                Object value = entry.getKey().get(i);
+                if (value instanceof Date) {
+                    value = new Long(((Date) value).getTime());
+                }
+                values[i + 1] = value;
+            }
+            tableBatch.addRow(keyNumber, colNames, values);
+        }
+        List<FlushJob> flushJobs = (new BatchWriterPostgresCopyImpl()).write(c, Collections
+                .singletonMap(tableName, tableBatch), null);
+        for (FlushJob fj : flushJobs) {
+            fj.flush();
+        }
+        s.execute("ANALYSE " + tableName);
+        LOG.debug("Created key table " + tableName + " with " + sourceObjects.size()
+                + " rows for " + cld.getName());
+        return tableName;
+    }
+}
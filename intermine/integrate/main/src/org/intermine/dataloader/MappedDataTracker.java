@@ -0,0 +1,268 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.intermine.sql.Database;
+
+/**
+ * A DataTracker that stores the tracking data in memory-mapped files instead of the tracker table,
+ * so that neither a large heap nor a database query per cache miss is needed, however many fields
+ * are tracked. The files are kept in a directory between data loading runs.
+ * <p>
+ * As the files live outside the database, a random token is stored both in the files and in the
+ * tracker_file table of the database. When the database is rebuilt the table disappears, and the
+ * files are emptied. If the tokens do not match, the files belong to a different database, and
+ * the tracker refuses to start.
+ *
+ * @author InterMine
+ */
+public class MappedDataTracker extends DataTracker
+{
+    private static final Logger LOG = Logger.getLogger(MappedDataTracker.class);
+
+    private File dir;
+    private MappedTrackerStore store;
+    private long ops = 0;
+
+    /**
+     * Constructor for MappedDataTracker.
+     *
+     * @param db the Database that the tracking data describes
+     * @param dir the directory to keep the tracker files in
+     */
+    public MappedDataTracker(Database db, File dir) {
+        this(db, dir, MappedTrackerStore.DEFAULT_SEGMENT_SHIFT);
+    }
+
+    /**
+     * Constructor for MappedDataTracker, mapping the tracker files in segments of the given
+     * size.
+     *
+     * @param db the Database that the tracking data describes
+     * @param dir the directory to keep the tracker files in
+     * @param segmentShift the size of the mapped segments, as a power of two
+     */
+    MappedDataTracker(Database db, File dir, int segmentShift) {
+        super(db);
+        this.dir = dir;
+        try {
+            store = new MappedTrackerStore(dir, segmentShift);
+            checkToken(db);
+        } catch (IOException e) {
+            IllegalArgumentException e2 = new IllegalArgumentException(
+                    "Could not open tracker files in " + dir);
+            e2.initCause(e);
+            throw e2;
+        } catch (SQLException e) {
+            IllegalArgumentException e2 = new IllegalArgumentException(
+                    "Could not access SQL database");
+            e2.initCause(e);
+            throw e2;
+        }
+        LOG.info("Opened tracker files in " + dir + " with " + store.size() + " entries");
+    }
+
+    /**
+     * Makes sure that the tracker files belong to the given database, emptying them if the
+     * database has no tracking data yet.
+     *
+     * @param db the Database
+     * @throws SQLException if there is an error accessing the database
+     * @throws IOException if the files cannot be emptied
+     */
+    private void checkToken(Database db) throws SQLException, IOException {
+        Connection c = db.getConnection();
+        try {
+            c.setAutoCommit(true);
+            Long dbToken = null;
+            Statement s = c.createStatement();
+            try {
+                ResultSet r = s.executeQuery("SELECT token FROM tracker_file");
+                if (r.next()) {
+                    dbToken = new Long(r.getLong(1));
+                }
+            } catch (SQLException e) {
+                // There is no tracker_file table, so this is a new database.
+            }
+            if (dbToken == null) {
+                boolean trackerTableUsed = false;
+                try {
+                    trackerTableUsed = s.executeQuery("SELECT * FROM tracker LIMIT 1").next();
+                } catch (SQLException e) {
+                    // There is no tracker table either.
+                }
+                if (trackerTableUsed) {
+                    throw new IllegalArgumentException("The tracker table of this database"
+                            + " already holds tracking data - data loaded with DataTracker cannot"
+                            + " be tracked with MappedDataTracker");
+                }
+                long token = new Random().nextLong();
+                store.reset(token);
+                s.execute("CREATE TABLE tracker_file (token bigint)");
+                s.execute("INSERT INTO tracker_file (token) VALUES (" + token + ")");
+            } else if (dbToken.longValue() != store.getToken()) {
+                throw new IllegalArgumentException("The tracker files in " + dir + " do not"
+                        + " belong to this database");
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Clears the data tracker of all entries.
+     *
+     * @throws SQLException never
+     */
+    @Override
+    public synchronized void clear() throws SQLException {
+        try {
+            store.reset(store.getToken());
+        } catch (IOException e) {
+            broken = e;
+            IllegalArgumentException e2 = new IllegalArgumentException();
+            e2.initCause(broken);
+            throw e2;
+        }
+    }
+
+    /**
+     * Does nothing, as all the data is available without querying the database.
+     *
+     * @param ids a Set of Integers
+     */
+    @Override
+    public void prefetchIds(Set<Integer> ids) {
+        // Nothing to do
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Source getSource(Integer id, String field) {
+        if (id == null) {
+            throw new NullPointerException("id cannot be null");
+        }
+        if (broken != null) {
+            IllegalArgumentException e = new IllegalArgumentException();
+            e.initCause(broken);
+            throw e;
+        }
+        countOp();
+        int fieldIndex = store.findNameIndex(field);
+        if (fieldIndex == -1) {
+            return null;
+        }
+        int sourceIndex = store.get(id.intValue(), fieldIndex);
+        if (sourceIndex == -1) {
+            return null;
+        }
+        return stringToSource(store.getName(sourceIndex));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void setSource(Integer id, String field, Source source) {
+        if (id == null) {
+            throw new NullPointerException("id cannot be null");
+        }
+        if (field == null) {
+            throw new NullPointerException("field cannot be null");
+        }
+        String sourceName = sourceToString(source);
+        if (broken != null) {
+            IllegalArgumentException e = new IllegalArgumentException();
+            e.initCause(broken);
+            throw e;
+        }
+        countOp();
+        try {
+            store.put(id.intValue(), store.getNameIndex(field), store.getNameIndex(sourceName));
+        } catch (IOException e) {
+            broken = e;
+            IllegalArgumentException e2 = new IllegalArgumentException();
+            e2.initCause(broken);
+            throw e2;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void clearObj(Integer id) {
+        if (broken != null) {
+            IllegalArgumentException e = new IllegalArgumentException();
+            e.initCause(broken);
+            throw e;
+        }
+        store.clear(id.intValue());
+    }
+
+    /**
+     * Does nothing, as there is no cache to maintain.
+     *
+     * @return false
+     */
+    @Override
+    public boolean doWrite() {
+        return false;
+    }
+
+    /**
+     * Writes all changes to the tracker files.
+     */
+    @Override
+    public synchronized void flush() {
+        if (broken != null) {
+            IllegalArgumentException e = new IllegalArgumentException();
+            e.initCause(broken);
+            throw e;
+        }
+        store.force();
+    }
+
+    /**
+     * Closes this DataTracker, writing all changes to the tracker files. No further operations
+     * can be performed on the tracker.
+     */
+    @Override
+    public synchronized void close() {
+        LOG.info("Closing MappedDataTracker. Operations: " + ops + ", entries: " + store.size());
+        try {
+            store.close();
+        } catch (IOException e) {
+            IllegalArgumentException e2 = new IllegalArgumentException();
+            e2.initCause(e);
+            throw e2;
+        }
+    }
+
+    private void countOp() {
+        ops++;
+        if (ops % 1000000 == 0) {
+            LOG.info("Operations: " + ops + ", entries: " + store.size());
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A map from an int id and an int key to an int value, stored in memory-mapped files, so that it
+ * can hold hundreds of millions of entries without using the Java heap. Keys and values are
+ * usually indexes of names, which this class also stores.
+ * <p>
+ * The index file holds, for each id, the offset of the first record for that id in the record
+ * file, or zero if there are none. Each record holds a key, a value and the offset of the next
+ * record for the same id. The files are sparse, so ids that are never used cost nothing. A value
+ * is changed by overwriting the record for its key. The records of an id that is cleared are put
+ * on a free list, which is used for new records before the record file is extended. The first
+ * record on the free list holds the length of the list in place of its key and value.
+ * <p>
+ * Ids are treated as unsigned, so a negative id is stored near the end of a 32GB index file.
+ * That costs one segment of disc space on a filesystem that supports sparse files, but the
+ * whole length on one that does not.
+ *
+ * @author InterMine
+ */
+class MappedTrackerStore
+{
+    private static final long MAGIC = 0x496d547261636b31L;
+    /** The default size of the mapped segments, as a power of two: 128MB */
+    static final int DEFAULT_SEGMENT_SHIFT = 27;
+    private static final int MIN_SEGMENT_SHIFT = 5;
+    private static final int MAX_SEGMENT_SHIFT = 30;
+    private static final int RECORD_SIZE = 16;
+    private static final int TOKEN_OFFSET = 8;
+    private static final int END_OFFSET = 16;
+    private static final int FREE_OFFSET = 24;
+    private static final long FIRST_RECORD = 32;
+
+    private File indexFile;
+    private File recordFile;
+    private File namesFile;
+    private final int segmentShift;
+    private final long segmentSize;
+    private RandomAccessFile index;
+    private RandomAccessFile records;
+    private List<MappedByteBuffer> indexSegments = new ArrayList<MappedByteBuffer>();
+    private List<MappedByteBuffer> recordSegments = new ArrayList<MappedByteBuffer>();
+    private List<String> names = new ArrayList<String>();
+    private Map<String, Integer> nameToIndex = new HashMap<String, Integer>();
+    private DataOutputStream namesOut;
+
+    /**
+     * Opens a store in the given directory, creating it if it does not exist.
+     *
+     * @param dir the directory holding the files of the store
+     * @throws IOException if the files cannot be opened
+     */
+    MappedTrackerStore(File dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    /**
+     * Opens a store in the given directory, creating it if it does not exist, and mapping the
+     * files in segments of the given size. The segment size does not change the format of the
+     * files, but each id or record used makes the files at least one segment long.
+     *
+     * @param dir the directory holding the files of the store
+     * @param segmentShift the size of the mapped segments, as a power of two
+     * @throws IOException if the files cannot be opened
+     */
+    MappedTrackerStore(File dir, int segmentShift) throws IOException {
+        if ((segmentShift < MIN_SEGMENT_SHIFT) || (segmentShift > MAX_SEGMENT_SHIFT)) {
+            throw new IllegalArgumentException("segmentShift must be between " + MIN_SEGMENT_SHIFT
+                    + " and " + MAX_SEGMENT_SHIFT + ": " + segmentShift);
+        }
+        this.segmentShift = segmentShift;
+        segmentSize = 1L << segmentShift;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory " + dir);
+        }
+        indexFile = new File(dir, "tracker.index");
+        recordFile = new File(dir, "tracker.records");
+        namesFile = new File(dir, "tracker.names");
+        boolean exists = recordFile.exists() && (recordFile.length() >= FIRST_RECORD);
+        open();
+        if (exists && (recordSegment(0).getLong(0) == MAGIC)) {
+            readNames();
+        } else {
+            reset(0L);
+        }
+    }
+
+    /**
+     * Returns the token stored in the store, which identifies the database it belongs to.
+     *
+     * @return a long
+     */
+    long getToken() {
+        return recordSegment(0).getLong(TOKEN_OFFSET);
+    }
+
+    /**
+     * Removes everything from the store, and gives it a new token.
+     * <p>
+     * Truncating a file that is still mapped is not safe - segments stay mapped until they are
+     * garbage-collected, and the operating system may refuse to shrink the file, or fault on a
+     * later access to the truncated pages. The old files are therefore deleted and replaced by
+     * new ones, so any remaining mappings keep the old data until they are released. Deleting
+     * is best-effort: some operating systems, such as Windows, refuse to delete a file that is
+     * still mapped, and then this method fails until the old segments have been collected.
+     *
+     * @param token the new token
+     * @throws IOException if the old files cannot be deleted
+     */
+    void reset(long token) throws IOException {
+        close();
+        deleteFile(indexFile);
+        deleteFile(recordFile);
+        deleteFile(namesFile);
+        open();
+        MappedByteBuffer header = recordSegment(0);
+        header.putLong(0, MAGIC);
+        header.putLong(TOKEN_OFFSET, token);
+        header.putLong(END_OFFSET, FIRST_RECORD);
+        header.putLong(FREE_OFFSET, 0L);
+        names.clear();
+        nameToIndex.clear();
+    }
+
+    /**
+     * Returns the index of the given name, adding it to the store if it is not present.
+     *
+     * @param name a String
+     * @return an int
+     * @throws IOException if the name cannot be written
+     */
+    int getNameIndex(String name) throws IOException {
+        Integer retval = nameToIndex.get(name);
+        if (retval == null) {
+            namesOut.writeUTF(name);
+            namesOut.flush();
+            retval = new Integer(names.size());
+            names.add(name);
+            nameToIndex.put(name, retval);
+        }
+        return retval.intValue();
+    }
+
+    /**
+     * Returns the index of the given name, without adding it to the store.
+     *
+     * @param name a String
+     * @return an int, or -1 if the name is not present
+     */
+    int findNameIndex(String name) {
+        Integer retval = nameToIndex.get(name);
+        return (retval == null ? -1 : retval.intValue());
+    }
+
+    /**
+     * Returns the name with the given index.
+     *
+     * @param nameIndex an index returned by getNameIndex()
+     * @return a String
+     */
+    String getName(int nameIndex) {
+        return names.get(nameIndex);
+    }
+
+    /**
+     * Returns the value for the given id and key.
+     *
+     * @param id the id
+     * @param key the key
+     * @return the value, or -1 if there is none
+     */
+    int get(int id, int key) {
+        long record = findRecord(getHead(id), key);
+        if (record == 0) {
+            return -1;
+        }
+        return recordSegment(record).getInt(recordPosition(record) + 4);
+    }
+
+    /**
+     * Sets the value for the given id and key.
+     *
+     * @param id the id
+     * @param key the key
+     * @param value the value, which must not be negative
+     */
+    void put(int id, int key, int value) {
+        long head = getHead(id);
+        long record = findRecord(head, key);
+        if (record == 0) {
+            record = allocateRecord();
+            MappedByteBuffer segment = recordSegment(record);
+            int position = recordPosition(record);
+            segment.putInt(position, key);
+            segment.putLong(position + 8, head);
+            setHead(id, record);
+        }
+        recordSegment(record).putInt(recordPosition(record) + 4, value);
+    }
+
+    /**
+     * Removes all the values for the given id.
+     *
+     * @param id the id
+     */
+    void clear(int id) {
+        long head = getHead(id);
+        if (head != 0) {
+            long tail = head;
+            long count = 1;
+            long next = nextRecord(tail);
+            while (next != 0) {
+                tail = next;
+                count++;
+                next = nextRecord(tail);
+            }
+            MappedByteBuffer header = recordSegment(0);
+            long free = header.getLong(FREE_OFFSET);
+            recordSegment(tail).putLong(recordPosition(tail) + 8, free);
+            recordSegment(head).putLong(recordPosition(head), count + freeCount(free));
+            header.putLong(FREE_OFFSET, head);
+            setHead(id, 0);
+        }
+    }
+
+    /**
+     * Returns the number of records in the store, not counting those on the free list.
+     *
+     * @return a long
+     */
+    long size() {
+        MappedByteBuffer header = recordSegment(0);
+        return (header.getLong(END_OFFSET) - FIRST_RECORD) / RECORD_SIZE
+            - freeCount(header.getLong(FREE_OFFSET));
+    }
+
+    /**
+     * Writes all changes to disc.
+     */
+    void force() {
+        for (MappedByteBuffer segment : indexSegments) {
+            if (segment != null) {
+                segment.force();
+            }
+        }
+        for (MappedByteBuffer segment : recordSegments) {
+            if (segment != null) {
+                segment.force();
+            }
+        }
+    }
+
+    /**
+     * Writes all changes to disc and closes the files. The store cannot be used afterwards.
+     *
+     * @throws IOException if the files cannot be closed
+     */
+    void close() throws IOException {
+        if (index != null) {
+            force();
+            indexSegments.clear();
+            recordSegments.clear();
+            namesOut.close();
+            index.close();
+            records.close();
+            index = null;
+            records = null;
+            namesOut = null;
+        }
+    }
+
+    private void open() throws IOException {
+        index = new RandomAccessFile(indexFile, "rw");
+        records = new RandomAccessFile(recordFile, "rw");
+        namesOut = new DataOutputStream(new FileOutputStream(namesFile, true));
+    }
+
+    /**
+     * Deletes a file that has been closed.
+     */
+    private static void deleteFile(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete " + file + " - it may still be mapped");
+        }
+    }
+
+    /**
+     * Takes a record from the free list, or adds one to the end of the record file if the free
+     * list is empty.
+     */
+    private long allocateRecord() {
+        MappedByteBuffer header = recordSegment(0);
+        long record = header.getLong(FREE_OFFSET);
+        if (record == 0) {
+            record = header.getLong(END_OFFSET);
+            header.putLong(END_OFFSET, record + RECORD_SIZE);
+        } else {
+            long next = nextRecord(record);
+            if (next != 0) {
+                recordSegment(next).putLong(recordPosition(next), freeCount(record) - 1);
+            }
+            header.putLong(FREE_OFFSET, next);
+        }
+        return record;
+    }
+
+    /**
+     * Returns the length of the free list starting at the given record.
+     */
+    private long freeCount(long free) {
+        return (free == 0 ? 0 : recordSegment(free).getLong(recordPosition(free)));
+    }
+
+    private long nextRecord(long record) {
+        return recordSegment(record).getLong(recordPosition(record) + 8);
+    }
+
+    private void readNames() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(namesFile)));
+        try {
+            while (true) {
+                String name = in.readUTF();
+                nameToIndex.put(name, new Integer(names.size()));
+                names.add(name);
+            }
+        } catch (EOFException e) {
+            // End of the names
+        } finally {
+            in.close();
+        }
+    }
+
+    private long findRecord(long head, int key) {
+        long record = head;
+        while (record != 0) {
+            MappedByteBuffer segment = recordSegment(record);
+            int position = recordPosition(record);
+            if (segment.getInt(position) == key) {
+                return record;
+            }
+            record = segment.getLong(position + 8);
+        }
+        return 0;
+    }
+
+    private long getHead(int id) {
+        long offset = (id & 0xFFFFFFFFL) << 3;
+        return segment(index, indexSegments, offset).getLong((int) (offset & (segmentSize - 1)));
+    }
+
+    private void setHead(int id, long record) {
+        long offset = (id & 0xFFFFFFFFL) << 3;
+        segment(index, indexSegments, offset).putLong((int) (offset & (segmentSize - 1)), record);
+    }
+
+    private MappedByteBuffer recordSegment(long offset) {
+        return segment(records, recordSegments, offset);
+    }
+
+    private int recordPosition(long record) {
+        return (int) (record & (segmentSize - 1));
+    }
+
+    /**
+     * Returns the mapped segment of a file that contains the given offset, mapping it if
+     * necessary. Mapping a segment beyond the end of the file extends the file.
+     */
+    private MappedByteBuffer segment(RandomAccessFile file, List<MappedByteBuffer> segments,
+            long offset) {
+        int segmentNo = (int) (offset >>> segmentShift);
+        while (segments.size() <= segmentNo) {
+            segments.add(null);
+        }
+        MappedByteBuffer retval = segments.get(segmentNo);
+        if (retval == null) {
+            try {
+                retval = file.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                        ((long) segmentNo) << segmentShift, segmentSize);
+            } catch (IOException e) {
+                IllegalArgumentException e2 = new IllegalArgumentException("Could not map segment "
+                        + segmentNo + " of tracker file");
+                e2.initCause(e);
+                throw e2;
+            }
+            segments.set(segmentNo, retval);
+        }
+        return retval;
+    }
+}
@@ -36,6 +36,9 @@ public class ObjectStoreDataLoader extends DataLoader
 {
     private static final Logger LOG = Logger.getLogger(ObjectStoreDataLoader.class);
     private static final int ITEM_READ_BATCH_SIZE = 5000;
+    private static final int DEFAULT_READ_AHEAD = 2 * ITEM_READ_BATCH_SIZE;
+
+    private boolean delta = false;
 
     /**
      * Construct an ObjectStoreDataLoader
@@ -46,6 +49,17 @@ public class ObjectStoreDataLoader extends DataLoader
         super(iw);
     }
 
+    /**
+     * Sets whether to load only the changes to the source since it was last loaded. Objects that
+     * are the same as last time are not stored again, and objects that have gone from the source
+     * are deleted if no other source has contributed to them. See SourceFingerprints.
+     *
+     * @param delta true to load only the changes
+     */
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
     /**
      * Performs the loading operation, reading data from the given ObjectStore, which must use the
      * same model as the destination IntegrationWriter.
@@ -76,6 +90,8 @@ public class ObjectStoreDataLoader extends DataLoader
             Class<? extends FastPathObject> queryClass) throws ObjectStoreException {
         int errorCount = 0;
         ObjectStore origOs = os;
+        SourceReader<FastPathObject> reader = null;
+        SourceFingerprints fingerprints = null;
         try {
             if (os instanceof ObjectStoreFastCollectionsForTranslatorImpl) {
                 ((ObjectStoreFastCollectionsForTranslatorImpl) os).setSource(source);
@@ -107,6 +123,19 @@ public class ObjectStoreDataLoader extends DataLoader
                     os = eof.getNoseyObjectStore(os);
                 }
             }
+            if (delta) {
+                if (queryClass != InterMineObject.class) {
+                    LOG.warn("Delta loading needs all classes to be loaded - loading all "
+                            + Util.getFriendlyName(queryClass) + " objects of source "
+                            + source.getName());
+                } else if (getIntegrationWriter() instanceof IntegrationWriterDataTrackingImpl) {
+                    fingerprints = new SourceFingerprints((IntegrationWriterDataTrackingImpl)
+                            getIntegrationWriter(), source, skelSource);
+                } else {
+                    LOG.warn("Delta loading needs an IntegrationWriterDataTrackingImpl - loading"
+                            + " all of source " + source.getName());
+                }
+            }
             Properties props = PropertiesUtil.getPropertiesStartingWith("dataLoader");
             boolean allowMultipleErrors = "true".equals(props.getProperty(
                             "dataLoader.allowMultipleErrors"));
@@ -132,11 +161,30 @@ public class ObjectStoreDataLoader extends DataLoader
             long time1, time2, time3;
             @SuppressWarnings({ "unchecked", "rawtypes" })
             Collection<FastPathObject> tmpRes = (Collection) res;
-            for (FastPathObject obj : tmpRes) {
+            Iterable<FastPathObject> objects = tmpRes;
+            int readAhead = DEFAULT_READ_AHEAD;
+            if (props.getProperty("dataLoader.readAhead") != null) {
+                readAhead = Integer.parseInt(props.getProperty("dataLoader.readAhead"));
+            }
+            if (readAhead > 0) {
+                LOG.info("Reading objects in a separate thread, up to " + readAhead + " ahead of"
+                        + " storing - set the property \"dataLoader.readAhead\" to 0 to read them"
+                        + " in the storing thread");
+                reader = new SourceReader<FastPathObject>(tmpRes, readAhead);
+                reader.start("ObjectStoreDataLoader reader for source " + source.getName());
+                objects = reader;
+            }
+            for (FastPathObject obj : objects) {
                 time1 = System.currentTimeMillis();
                 timeSpentLoop += time1 - time4;
                 time2 = System.currentTimeMillis();
                 timeSpentRead += time2 - time1;
+                if ((fingerprints != null) && fingerprints.isUnchanged(obj)) {
+                    opCount++;
+                    time4 = System.currentTimeMillis();
+                    timeSpentWrite += time4 - time2;
+                    continue;
+                }
                 //if ("org.intermine.model.chado.feature".equals(obj.getClass().getName())) {
                 //    String objText = obj.toString();
                 //    int objTextLen = objText.length();
@@ -145,6 +193,9 @@ public class ObjectStoreDataLoader extends DataLoader
                 //}
                 try {
                     getIntegrationWriter().store(obj, source, skelSource);
+                    if (fingerprints != null) {
+                        fingerprints.stored(obj);
+                    }
                 } catch (RuntimeException e) {
                     String identifier = null;
                     if ((origOs instanceof ObjectStoreFastCollectionsForTranslatorImpl)
@@ -197,8 +248,17 @@ public class ObjectStoreDataLoader extends DataLoader
                 time4 = System.currentTimeMillis();
                 timeSpentCommit += time4 - time3;
             }
+            if (reader != null) {
+                reader.checkProblem();
+            }
             time3 = System.currentTimeMillis();
+            if ((fingerprints != null) && (errorCount == 0)) {
+                fingerprints.deleteVanished();
+            }
             getIntegrationWriter().commitTransaction();
+            if ((fingerprints != null) && (errorCount == 0)) {
+                fingerprints.save();
+            }
             getIntegrationWriter().close();
             long now = System.currentTimeMillis();
             timeSpentCommit += now - time3;
@@ -207,6 +267,11 @@ public class ObjectStoreDataLoader extends DataLoader
                     + " ms total) for source " + source.getName());
             LOG.info("Time spent: Reading: " + (timeSpentRead + timeSpentLoop) + ", Writing: "
                     + timeSpentWrite + ", Committing: " + timeSpentCommit);
+            if (reader != null) {
+                LOG.info("Reader thread read " + reader.getCount() + " objects and spent "
+                        + reader.getTimeBlocked() + " ms waiting for the storing thread - if this"
+                        + " is small, reading rather than storing limits the speed");
+            }
         } catch (RuntimeException e) {
             if (origOs instanceof ObjectStoreFastCollectionsForTranslatorImpl) {
                 IntPresentSet doneAlready = ((ObjectStoreFastCollectionsForTranslatorImpl) origOs)
@@ -220,6 +285,10 @@ public class ObjectStoreDataLoader extends DataLoader
                 }
             }
             throw e;
+        } finally {
+            if (reader != null) {
+                reader.stop();
+            }
         }
         LOG.warn("errorCount: " + errorCount);
         if (errorCount > 0) {
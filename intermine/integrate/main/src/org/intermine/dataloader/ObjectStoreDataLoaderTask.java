@@ -10,10 +10,13 @@ package org.intermine.dataloader;
  *
  */
 
+import java.io.File;
+
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Task;
 
 import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.ObjectStoreFactory;
 
 /**
@@ -26,11 +29,13 @@ public class ObjectStoreDataLoaderTask extends Task
 {
     protected String integrationWriter;
     protected String source;
+    protected String itemStream;
     protected String sourceName;
     protected String sourceType;
     protected boolean ignoreDuplicates;
     protected String queryClass = null;
     protected String allSources;
+    protected boolean delta = false;
 
     /**
      * Set the IntegrationWriter.
@@ -50,6 +55,15 @@ public class ObjectStoreDataLoaderTask extends Task
         this.source = source;
     }
 
+    /**
+     * Set a file written by an ItemStreamWriter to read the data from, instead of an ObjectStore.
+     *
+     * @param itemStream the name of the file
+     */
+    public void setItemStream(String itemStream) {
+        this.itemStream = itemStream;
+    }
+
     /**
      * Set the source name, as used by primary key priority config.
      *
@@ -96,6 +110,15 @@ public class ObjectStoreDataLoaderTask extends Task
         this.allSources = allSources;
     }
 
+    /**
+     * Set whether to load only the changes to the source since it was last loaded.
+     *
+     * @param delta true to load only the changes
+     */
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -104,7 +127,7 @@ public class ObjectStoreDataLoaderTask extends Task
         if (integrationWriter == null) {
             throw new BuildException("integrationWriter attribute is not set");
         }
-        if (source == null) {
+        if ((source == null) && (itemStream == null)) {
             throw new BuildException("source attribute is not set");
         }
 
@@ -112,6 +135,7 @@ public class ObjectStoreDataLoaderTask extends Task
             IntegrationWriter iw = IntegrationWriterFactory.getIntegrationWriter(integrationWriter);
             PriorityConfig.verify(iw.getModel(), allSources);
             iw.setIgnoreDuplicates(ignoreDuplicates);
+            Class<? extends FastPathObject> loadClass = InterMineObject.class;
             if (queryClass != null) {
                 Class<?> tmpQueryClass = Class.forName(queryClass);
                 if (!FastPathObject.class.isAssignableFrom(tmpQueryClass)) {
@@ -120,14 +144,19 @@ public class ObjectStoreDataLoaderTask extends Task
                 }
                 @SuppressWarnings("unchecked") Class<? extends FastPathObject> tmp2QueryClass =
                     (Class) tmpQueryClass;
-                new ObjectStoreDataLoader(iw).process(ObjectStoreFactory.getObjectStore(source),
-                        iw.getMainSource(sourceName, sourceType), iw.getSkeletonSource(sourceName,
-                                sourceType), tmp2QueryClass);
-
+                loadClass = tmp2QueryClass;
+            }
+            if (itemStream != null) {
+                ItemStreamDataLoader loader = new ItemStreamDataLoader(iw);
+                loader.setDelta(delta);
+                loader.process(new File(itemStream), iw.getMainSource(sourceName, sourceType),
+                        iw.getSkeletonSource(sourceName, sourceType), loadClass);
             } else {
-                new ObjectStoreDataLoader(iw).process(ObjectStoreFactory.getObjectStore(source),
-                                                      iw.getMainSource(sourceName, sourceType),
-                                                      iw.getSkeletonSource(sourceName, sourceType));
+                ObjectStoreDataLoader loader = new ObjectStoreDataLoader(iw);
+                loader.setDelta(delta);
+                loader.process(ObjectStoreFactory.getObjectStore(source),
+                        iw.getMainSource(sourceName, sourceType),
+                        iw.getSkeletonSource(sourceName, sourceType), loadClass);
             }
         } catch (Exception e) {
             throw new BuildException(e);
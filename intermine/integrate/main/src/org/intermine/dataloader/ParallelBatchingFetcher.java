@@ -11,33 +11,73 @@ package org.intermine.dataloader;
  */
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.PrimaryKey;
 import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.ObjectStoreException;
-import org.intermine.util.ObjectPipe;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.util.PropertiesUtil;
 
 import org.apache.log4j.Logger;
 
 /**
  * Class providing EquivalentObjectFetcher functionality that fetches batches of equivalent objects
  * in parallel to improve performance.
+ * <p>
+ * The primary keys are fetched by a pool of worker threads shared by all instances of this class.
+ * Threads are only started when there is work for them, and die after being idle for a minute.
+ * The pool never runs more threads than the property equivalentObjectFetcher.maxThreads, or the
+ * number of connections the production database allows less RESERVED_CONNECTIONS, however many
+ * fetchers are using it.
+ * <p>
+ * Each fetcher limits how many of its primary keys are fetched at once, and adapts that limit to
+ * the time its queries take per object: it grows by one while there are primary keys waiting and
+ * the queries are as fast as the best seen, and shrinks by one when they become more than twice
+ * as slow, which means the database is saturated. The queries of one fetcher therefore do not
+ * change the limit of another.
  *
  * @author Matthew Wakeling
  */
 public class ParallelBatchingFetcher extends BatchingFetcher
 {
     private static final Logger LOG = Logger.getLogger(ParallelBatchingFetcher.class);
-    private ObjectPipe<WorkUnit> jobs = new ObjectPipe<WorkUnit>();
+    /** The default maximum number of worker threads */
+    public static final int DEFAULT_MAX_THREADS = 32;
+    /** The number of worker threads to start with */
+    public static final int INITIAL_THREADS = 10;
+    /** The number of database connections left for the writer and the dataloader */
+    public static final int RESERVED_CONNECTIONS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static ThreadPoolExecutor pool = null;
+    private static int poolLimit = 0;
+
+    private final int maxThreads;
+    private int limit;
+    private boolean waiting = false;
+    private volatile boolean closed = false;
+    private double latency = -1.0;
+    private double bestLatency = -1.0;
+
+    private Map<String, PkStatistics> pkStatistics = new TreeMap<String, PkStatistics>();
 
     /**
      * Constructor
@@ -49,9 +89,60 @@ public class ParallelBatchingFetcher extends BatchingFetcher
     public ParallelBatchingFetcher(BaseEquivalentObjectFetcher fetcher, DataTracker dataTracker,
             Source source) {
         super(fetcher, dataTracker, source);
-        for (int i = 0; i < 10; i++) {
-            Thread t = new Thread(new Worker(), "ParallelBatchingFetcher Worker " + (i + 1));
-            t.start();
+        Properties props = PropertiesUtil.getPropertiesStartingWith("equivalentObjectFetcher");
+        int threads = DEFAULT_MAX_THREADS;
+        String maxThreadsProperty = props.getProperty("equivalentObjectFetcher.maxThreads");
+        if (maxThreadsProperty != null) {
+            threads = Integer.parseInt(maxThreadsProperty.trim());
+        }
+        if (fetcher.getLookupOs() instanceof ObjectStoreInterMineImpl) {
+            int maxConnections = ((ObjectStoreInterMineImpl) fetcher.getLookupOs()).getDatabase()
+                .getMaxConnections();
+            if (maxConnections > 0) {
+                threads = Math.min(threads, maxConnections - RESERVED_CONNECTIONS);
+            }
+        }
+        maxThreads = getPool(Math.max(1, threads));
+        limit = Math.min(INITIAL_THREADS, maxThreads);
+        LOG.info("ParallelBatchingFetcher using up to " + maxThreads + " worker threads");
+    }
+
+    /**
+     * Creates the shared pool of worker threads if it does not exist yet, and lowers its size to
+     * the given number of threads if that is smaller.
+     *
+     * @param threads the maximum number of threads that a new fetcher may use
+     * @return the maximum number of threads in the pool
+     */
+    private static synchronized int getPool(int threads) {
+        if (pool == null) {
+            poolLimit = threads;
+            pool = new ThreadPoolExecutor(poolLimit, poolLimit, KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new WorkerFactory());
+            pool.allowCoreThreadTimeOut(true);
+        } else if (threads < poolLimit) {
+            poolLimit = threads;
+            pool.setCorePoolSize(poolLimit);
+            pool.setMaximumPoolSize(poolLimit);
+        }
+        return poolLimit;
+    }
+
+    /**
+     * Records the time taken by a primary key query, and adjusts the number of threads.
+     *
+     * @param millis the time taken to fetch the primary key
+     * @param objects the number of objects that equivalents were looked up for
+     */
+    synchronized void recordLatency(long millis, int objects) {
+        double perObject = ((double) millis) / Math.max(1, objects);
+        latency = (latency < 0.0 ? perObject : 0.8 * latency + 0.2 * perObject);
+        // Let the best latency drift upwards, so that it follows changes in the data
+        bestLatency = (bestLatency < 0.0 ? latency : Math.min(bestLatency * 1.01, latency));
+        if ((latency > 2.0 * bestLatency) && (limit > 1)) {
+            limit--;
+        } else if ((latency <= 1.25 * bestLatency) && (limit < maxThreads) && waiting) {
+            limit++;
         }
     }
 
@@ -60,10 +151,70 @@ public class ParallelBatchingFetcher extends BatchingFetcher
      */
     @Override
     public void close(Source source) {
-        jobs.finish();
+        closed = true;
         LOG.info("Parallel Batching equivalent object query summary for source " + source + " :"
                 + getSummary(source).toString() + "\nQueried " + batchQueried
-                + " objects by batch, cache misses: " + cacheMisses);
+                + " objects by batch, cache misses: " + cacheMisses
+                + getPkSummary().toString());
+    }
+
+    /**
+     * Returns a StringBuffer containing the number of queries, objects and time spent for each
+     * primary key fetched in parallel, and the current limit on worker threads.
+     *
+     * @return a StringBuffer
+     */
+    protected StringBuffer getPkSummary() {
+        StringBuffer retval = new StringBuffer();
+        synchronized (this) {
+            retval.append("\nWorker threads: " + limit + " of up to " + maxThreads);
+        }
+        synchronized (pkStatistics) {
+            for (Map.Entry<String, PkStatistics> entry : pkStatistics.entrySet()) {
+                PkStatistics stats = entry.getValue();
+                retval.append("\n" + entry.getKey() + ": " + stats.count + " fetches for "
+                        + stats.objects + " objects in " + stats.time + " ms (slowest "
+                        + stats.maxTime + " ms)");
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the number of primary keys that this fetcher is currently allowed to fetch at once.
+     *
+     * @return an int
+     */
+    synchronized int getPoolSize() {
+        return limit;
+    }
+
+    /**
+     * Returns the maximum number of worker threads that this fetcher may use.
+     *
+     * @return an int
+     */
+    int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * Returns true once close() has been called. The shared worker threads carry on for other
+     * fetchers.
+     *
+     * @return a boolean
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the pool of worker threads shared by all fetchers.
+     *
+     * @return a ThreadPoolExecutor
+     */
+    static synchronized ThreadPoolExecutor getSharedPool() {
+        return pool;
     }
 
     /**
@@ -74,97 +225,143 @@ public class ParallelBatchingFetcher extends BatchingFetcher
             Map<InterMineObject, Set<InterMineObject>> results,
             Map<ClassDescriptor, List<InterMineObject>> cldToObjectsForCld,
             long time1) throws ObjectStoreException {
+        if (closed) {
+            throw new IllegalStateException("ParallelBatchingFetcher is closed");
+        }
+        // Only this thread reads or changes pksNotDone - workers hand back finished WorkUnits
+        // through the CompletionService
         Map<PrimaryKey, ClassDescriptor> pksNotDone
             = new IdentityHashMap<PrimaryKey, ClassDescriptor>(pksToDo);
-        List<Exception> exceptions = Collections.synchronizedList(new ArrayList<Exception>());
-        synchronized (pksNotDone) {
-            while (!pksToDo.isEmpty()) {
+        CompletionService<WorkUnit> completed = new ExecutorCompletionService<WorkUnit>(
+                getSharedPool());
+        List<Future<WorkUnit>> futures = new ArrayList<Future<WorkUnit>>();
+        int running = 0;
+        try {
+            while (!pksNotDone.isEmpty()) {
+                boolean ready = false;
                 Iterator<PrimaryKey> pkIter = pksToDo.keySet().iterator();
                 while (pkIter.hasNext()) {
                     PrimaryKey pk = pkIter.next();
                     ClassDescriptor cld = pksToDo.get(pk);
                     if (canDoPkNow(pk, cld, pksNotDone)) {
-                        jobs.put(new WorkUnit(pk, cld, results, cldToObjectsForCld.get(cld),
-                                    pksNotDone, exceptions));
-                        pkIter.remove();
-                    //} else {
-                    //    LOG.error("Cannot do pk " + cld.getName() + "." + pk.getName() + " yet");
+                        if (running < getPoolSize()) {
+                            futures.add(completed.submit(new WorkUnit(pk, cld, results,
+                                        cldToObjectsForCld.get(cld))));
+                            running++;
+                            pkIter.remove();
+                        } else {
+                            ready = true;
+                        }
                     }
                 }
-                try {
-                    pksNotDone.wait();
-                } catch (InterruptedException e) {
-                }
-                if (!exceptions.isEmpty()) {
-                    throw new ObjectStoreException("Error in worker thread", exceptions.iterator()
-                            .next());
+                synchronized (this) {
+                    waiting = ready;
                 }
-            }
-            while (!pksNotDone.isEmpty()) {
-                try {
-                    pksNotDone.wait();
-                } catch (InterruptedException e) {
+                if (running == 0) {
+                    throw new RuntimeException("Error - cannot fetch any pks: "
+                            + pksToDo.keySet());
                 }
+                WorkUnit unit = completed.take().get();
+                running--;
+                pksNotDone.remove(unit.pk);
+                recordLatency(unit.time, unit.objectsForCld.size());
+                recordPkStatistics(unit.cld.getName() + "." + unit.pk.getName(), unit.time,
+                        unit.objectsForCld.size());
             }
-            if (!exceptions.isEmpty()) {
-                throw new ObjectStoreException("Error in worker thread", exceptions.iterator()
-                        .next());
-            }
+        } catch (InterruptedException e) {
+            cancelAll(futures);
+            Thread.currentThread().interrupt();
+            throw new ObjectStoreException("Interrupted while fetching equivalent objects", e);
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            throw new ObjectStoreException("Error in worker thread", e.getCause());
+        } catch (RuntimeException e) {
+            cancelAll(futures);
+            throw e;
         }
         long time2 = System.currentTimeMillis();
         timeSpentPrefetchEquiv += time2 - time1;
     }
 
-    private class WorkUnit
+    /**
+     * Cancels the WorkUnits that have not finished, so that they do not keep running, and
+     * holding worker threads, after doPks() has given up.
+     */
+    private static void cancelAll(List<Future<WorkUnit>> futures) {
+        for (Future<WorkUnit> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Adds the time taken by a primary key query to the statistics for that primary key.
+     *
+     * @param pkName the class and name of the primary key
+     * @param millis the time taken to fetch the primary key
+     * @param objects the number of objects that equivalents were looked up for
+     */
+    void recordPkStatistics(String pkName, long millis, int objects) {
+        synchronized (pkStatistics) {
+            PkStatistics stats = pkStatistics.get(pkName);
+            if (stats == null) {
+                stats = new PkStatistics();
+                pkStatistics.put(pkName, stats);
+            }
+            stats.add(millis, objects);
+        }
+    }
+
+    private class WorkUnit implements Callable<WorkUnit>
     {
         private PrimaryKey pk;
         private ClassDescriptor cld;
         private Map<InterMineObject, Set<InterMineObject>> results;
         private List<InterMineObject> objectsForCld;
-        private Map<PrimaryKey, ClassDescriptor> pksNotDone;
-        private List<Exception> exceptions;
+        private long time;
 
         public WorkUnit(PrimaryKey pk, ClassDescriptor cld,
                 Map<InterMineObject, Set<InterMineObject>> results,
-                List<InterMineObject> objectsForCld,
-                Map<PrimaryKey, ClassDescriptor> pksNotDone, List<Exception> exceptions) {
+                List<InterMineObject> objectsForCld) {
             this.pk = pk;
             this.cld = cld;
             this.results = results;
             this.objectsForCld = objectsForCld;
-            this.pksNotDone = pksNotDone;
-            this.exceptions = exceptions;
         }
 
-        public void fetch() {
-            try {
-                Set<Integer> fetchedObjectIds = new HashSet<Integer>();
-                doPk(pk, cld, results, objectsForCld, fetchedObjectIds);
-                dataTracker.prefetchIds(fetchedObjectIds);
-            } catch (Exception e) {
-                exceptions.add(e);
-            }
-            synchronized (pksNotDone) {
-                pksNotDone.remove(pk);
-                pksNotDone.notify();
-            }
+        public WorkUnit call() throws Exception {
+            long start = System.currentTimeMillis();
+            Set<Integer> fetchedObjectIds = new HashSet<Integer>();
+            doPk(pk, cld, results, objectsForCld, fetchedObjectIds);
+            dataTracker.prefetchIds(fetchedObjectIds);
+            time = System.currentTimeMillis() - start;
+            return this;
         }
     }
 
-    private class Worker implements Runnable
+    private static class PkStatistics
     {
-        public Worker() {
+        private int count = 0;
+        private long objects = 0;
+        private long time = 0;
+        private long maxTime = 0;
+
+        public void add(long unitTime, int unitObjects) {
+            count++;
+            objects += unitObjects;
+            time += unitTime;
+            maxTime = Math.max(maxTime, unitTime);
         }
+    }
 
-        public void run() {
-            try {
-                while (true) {
-                    WorkUnit u = jobs.next();
-                    u.fetch();
-                }
-            } catch (NoSuchElementException e) {
-                // Fetcher has been closed
-            }
+    private static class WorkerFactory implements ThreadFactory
+    {
+        private int threadNo = 0;
+
+        public synchronized Thread newThread(Runnable r) {
+            threadNo++;
+            Thread t = new Thread(r, "ParallelBatchingFetcher Worker " + threadNo);
+            t.setDaemon(true);
+            return t;
         }
     }
 }
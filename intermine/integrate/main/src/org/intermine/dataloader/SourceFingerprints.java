@@ -0,0 +1,595 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.PrimaryKey;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.metadata.TypeUtil;
+import org.intermine.metadata.Util;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryCollectionReference;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QueryReference;
+import org.intermine.sql.Database;
+import org.intermine.sql.DatabaseUtil;
+import org.intermine.sql.writebatch.BatchWriterPostgresCopyImpl;
+import org.intermine.sql.writebatch.FlushJob;
+import org.intermine.sql.writebatch.TableBatch;
+
+/**
+ * Keeps a fingerprint of every object loaded from a source, so that a later load of the same
+ * source can skip objects that have not changed, and delete objects that have gone.
+ * <p>
+ * Each object is identified by a key made from the values of the first of its primary keys for
+ * the source that has no null fields, with references replaced by the key of the referenced
+ * object. Its fingerprint is an MD5 hash of all its attributes, references and collections,
+ * also using keys for referenced objects. Referenced objects are never fetched from the source
+ * to find their keys: a reference to an object that has not been seen yet is represented by its
+ * destination id if it has one, and otherwise by its id in the source, which may differ between
+ * loads and so only causes the object to be stored again. The keys, fingerprints and
+ * destination ids are stored in the sourcefingerprint table of the data tracker database when
+ * the load completes. Objects with no usable primary key are always loaded.
+ * <p>
+ * An object is never skipped once it has been given a destination id in this load, for example
+ * as a skeleton for an object that refers to it, because the skeleton must then be replaced by
+ * storing the real object. An object that has gone from the source is only deleted if no other
+ * source has contributed to it and no other object still refers to it, so that deleting it
+ * cannot leave a dangling reference. Objects that are kept for either reason are counted in the
+ * summary logged at the end of the load.
+ *
+ * @author InterMine
+ */
+public class SourceFingerprints
+{
+    private static final Logger LOG = Logger.getLogger(SourceFingerprints.class);
+    /** The name of the table holding the fingerprints */
+    public static final String FINGERPRINT_TABLE = "sourcefingerprint";
+    private static final String[] COLUMNS = new String[] {"source", "key", "fingerprint",
+        "objectid"};
+    private static final Comparator<ClassDescriptor> CLD_ORDER = new Comparator<ClassDescriptor>()
+    {
+        public int compare(ClassDescriptor a, ClassDescriptor b) {
+            return a.getName().compareTo(b.getName());
+        }
+    };
+
+    private IntegrationWriterDataTrackingImpl iw;
+    private Model model;
+    private Source source, skelSource;
+    private Database db;
+    private Map<String, Fingerprint> previous = new HashMap<String, Fingerprint>();
+    private Map<String, Fingerprint> current = new HashMap<String, Fingerprint>();
+    private Map<Integer, String> keys = new HashMap<Integer, String>();
+    private MessageDigest digest;
+    private InterMineObject pendingObject = null;
+    private String pendingKey = null;
+    private long pendingFingerprint;
+    private int unchanged = 0, changed = 0, added = 0, deleted = 0, kept = 0, referenced = 0;
+
+    /**
+     * Constructor. Reads the fingerprints stored by the previous load of the source.
+     *
+     * @param iw the IntegrationWriter being loaded into, whose DataTracker database holds the
+     * fingerprints
+     * @param source the main Source
+     * @param skelSource the skeleton Source
+     * @throws ObjectStoreException if the fingerprints cannot be read
+     */
+    public SourceFingerprints(IntegrationWriterDataTrackingImpl iw, Source source,
+            Source skelSource) throws ObjectStoreException {
+        this.iw = iw;
+        this.model = iw.getModel();
+        this.source = source;
+        this.skelSource = skelSource;
+        this.db = iw.getDataTracker().getDatabase();
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new ObjectStoreException(e);
+        }
+        Connection c = null;
+        try {
+            c = db.getConnection();
+            if (DatabaseUtil.tableExists(c, FINGERPRINT_TABLE)) {
+                PreparedStatement ps = c.prepareStatement("SELECT key, fingerprint, objectid FROM "
+                        + FINGERPRINT_TABLE + " WHERE source = ?");
+                ps.setString(1, source.getName());
+                ResultSet rs = ps.executeQuery();
+                while (rs.next()) {
+                    previous.put(rs.getString(1), new Fingerprint(rs.getLong(2), rs.getInt(3)));
+                }
+                rs.close();
+                ps.close();
+            }
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not read fingerprints for source "
+                    + source.getName(), e);
+        } finally {
+            closeConnection(c);
+        }
+        LOG.info("Read " + previous.size() + " fingerprints from the last load of source "
+                + source.getName());
+    }
+
+    /**
+     * Returns true if the given object from the source is the same as when the source was last
+     * loaded, in which case it need not be stored again.
+     *
+     * @param obj an object from the source
+     * @return a boolean
+     */
+    public boolean isUnchanged(FastPathObject obj) {
+        pendingObject = null;
+        if (!(obj instanceof InterMineObject)) {
+            return false;
+        }
+        InterMineObject imo = (InterMineObject) obj;
+        String key = getKey(imo);
+        if (key == null) {
+            return false;
+        }
+        long fingerprint = getFingerprint(imo);
+        Fingerprint last = previous.get(key);
+        if (current.containsKey(key)) {
+            // More than one object in the source has this key, so always load them
+            Fingerprint duplicate = current.get(key);
+            duplicate.fingerprint = 0L;
+            fingerprint = 0L;
+        } else if ((iw.getDestinationId(imo.getId()) != null)
+                || ((last != null) && iw.isPendingSkeleton(last.objectId))) {
+            // A skeleton has already been stored for this object, which storing it will replace
+            LOG.debug("Storing " + key + " because a skeleton has been stored for it");
+        } else if ((last != null) && (last.fingerprint == fingerprint) && (fingerprint != 0L)
+                && isStillEquivalent(imo, last.objectId)) {
+            current.put(key, last);
+            unchanged++;
+            return true;
+        }
+        pendingObject = imo;
+        pendingKey = key;
+        pendingFingerprint = fingerprint;
+        return false;
+    }
+
+    /**
+     * Returns true if the only object in the production database equivalent to the given object
+     * is the one it was stored as last time, and records the mapping so that objects referring to
+     * it can be stored. Otherwise the object has been merged or deleted since, and must be stored
+     * again. The equivalent objects have usually been fetched in a batch already, so this is cheap.
+     */
+    private boolean isStillEquivalent(InterMineObject obj, int objectId) {
+        try {
+            Set<InterMineObject> equivalents = iw.getEquivalentObjects(obj, source);
+            if ((equivalents.size() == 1)
+                    && (equivalents.iterator().next().getId().intValue() == objectId)) {
+                iw.assignMapping(obj.getId(), new Integer(objectId));
+                return true;
+            }
+        } catch (ObjectStoreException e) {
+            LOG.warn("Could not fetch equivalent objects for " + Util.getFriendlyName(obj
+                        .getClass()) + " " + obj.getId() + " - storing it again", e);
+        }
+        return false;
+    }
+
+    /**
+     * Records that an object for which isUnchanged() returned false has been stored.
+     *
+     * @param obj the object from the source
+     */
+    public void stored(FastPathObject obj) {
+        if ((obj != pendingObject) || (pendingObject == null)) {
+            return;
+        }
+        Integer destId = iw.getDestinationId(pendingObject.getId());
+        if (destId != null) {
+            if (previous.containsKey(pendingKey)) {
+                changed++;
+            } else {
+                added++;
+            }
+            current.put(pendingKey, new Fingerprint(pendingFingerprint, destId.intValue()));
+        }
+        pendingObject = null;
+    }
+
+    /**
+     * Deletes the objects that were loaded from the source last time but are no longer in it.
+     * An object is only deleted if the data tracker shows that no other source has contributed
+     * to it, otherwise it is left alone.
+     *
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public void deleteVanished() throws ObjectStoreException {
+        Set<Integer> currentIds = new HashSet<Integer>();
+        for (Fingerprint fingerprint : current.values()) {
+            currentIds.add(new Integer(fingerprint.objectId));
+        }
+        DataTracker dataTracker = iw.getDataTracker();
+        Map<InterMineObject, String> toDelete = new LinkedHashMap<InterMineObject, String>();
+        for (Map.Entry<String, Fingerprint> entry : previous.entrySet()) {
+            Integer id = new Integer(entry.getValue().objectId);
+            if (current.containsKey(entry.getKey()) || currentIds.contains(id)) {
+                continue;
+            }
+            InterMineObject obj = iw.getObjectById(id);
+            if (obj == null) {
+                continue;
+            }
+            boolean otherSource = !iw.doTrackerFor(obj.getClass());
+            for (FieldDescriptor fd : model.getFieldDescriptorsForClass(obj.getClass())
+                    .values()) {
+                if ((!otherSource) && (!(fd instanceof CollectionDescriptor))
+                        && (!"id".equals(fd.getName()))) {
+                    Source fieldSource = dataTracker.getSource(id, fd.getName());
+                    otherSource = (fieldSource != null)
+                        && (!source.getName().equals(fieldSource.getName()))
+                        && (!skelSource.getName().equals(fieldSource.getName()));
+                }
+            }
+            if (otherSource) {
+                LOG.info("Not deleting " + entry.getKey() + " with id " + id + " from source "
+                        + source.getName() + " because other sources have data for it");
+                kept++;
+            } else {
+                toDelete.put(obj, entry.getKey());
+            }
+        }
+        Set<Integer> referencedIds = getReferencedIds(toDelete.keySet());
+        for (Map.Entry<InterMineObject, String> entry : toDelete.entrySet()) {
+            Integer id = entry.getKey().getId();
+            if (referencedIds.contains(id)) {
+                LOG.warn("Not deleting " + entry.getValue() + " with id " + id + " from source "
+                        + source.getName() + " because other objects still refer to it");
+                referenced++;
+            } else {
+                iw.delete(entry.getKey());
+                dataTracker.clearObj(id);
+                deleted++;
+            }
+        }
+        LOG.info("Delta load of source " + source.getName() + ": " + unchanged + " unchanged, "
+                + changed + " changed, " + added + " new, " + deleted + " deleted, " + kept
+                + " gone from the source but kept for other sources, " + referenced
+                + " gone from the source but kept because other objects refer to them");
+    }
+
+    /**
+     * Returns the ids of those of the given objects that an object in the production database
+     * points to with a reference, or a many-to-many collection. There is one query for each such
+     * field that can point to any of the objects, constrained to all their ids at once. The
+     * queries go through the integration writer, so they see the changes made so far in this
+     * load.
+     *
+     * @param objs objects in the production database
+     * @return a Set of ids
+     * @throws ObjectStoreException if a query fails
+     */
+    protected Set<Integer> getReferencedIds(Collection<InterMineObject> objs)
+        throws ObjectStoreException {
+        Set<Integer> retval = new HashSet<Integer>();
+        if (objs.isEmpty()) {
+            return retval;
+        }
+        for (ClassDescriptor cld : model.getClassDescriptors()) {
+            List<ReferenceDescriptor> refs = new ArrayList<ReferenceDescriptor>(cld
+                    .getReferenceDescriptors());
+            for (CollectionDescriptor coll : cld.getCollectionDescriptors()) {
+                // The contents of other collections are held by the reverse reference of obj
+                if (coll.relationType() == FieldDescriptor.M_N_RELATION) {
+                    refs.add(coll);
+                }
+            }
+            for (ReferenceDescriptor ref : refs) {
+                List<Integer> ids = new ArrayList<Integer>();
+                for (InterMineObject obj : objs) {
+                    if (canReferTo(ref, Util.decomposeClass(obj.getClass()))) {
+                        ids.add(obj.getId());
+                    }
+                }
+                if (ids.isEmpty()) {
+                    continue;
+                }
+                Query q = new Query();
+                QueryClass qc = new QueryClass(cld.getType());
+                QueryClass target = new QueryClass(ref.getReferencedClassDescriptor().getType());
+                q.addFrom(qc);
+                q.addFrom(target);
+                QueryField targetId = new QueryField(target, "id");
+                q.addToSelect(targetId);
+                q.setDistinct(true);
+                QueryReference qr = (ref instanceof CollectionDescriptor
+                        ? new QueryCollectionReference(qc, ref.getName())
+                        : new QueryObjectReference(qc, ref.getName()));
+                ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+                cs.addConstraint(new ContainsConstraint(qr, ConstraintOp.CONTAINS, target));
+                cs.addConstraint(new BagConstraint(targetId, ConstraintOp.IN, ids));
+                q.setConstraint(cs);
+                for (Object id : iw.executeSingleton(q)) {
+                    if (retval.add((Integer) id)) {
+                        LOG.info("Found objects referring to id " + id + " through "
+                                + cld.getName() + "." + ref.getName());
+                    }
+                }
+            }
+        }
+        return retval;
+    }
+
+    private static boolean canReferTo(ReferenceDescriptor ref, Set<Class<?>> classes) {
+        Class<?> referencedType = ref.getReferencedClassDescriptor().getType();
+        for (Class<?> c : classes) {
+            if (referencedType.isAssignableFrom(c)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the stored fingerprints of the source with those of this load. This should be
+     * called after the load has been committed.
+     *
+     * @throws ObjectStoreException if the fingerprints cannot be written
+     */
+    public void save() throws ObjectStoreException {
+        Connection c = null;
+        try {
+            c = db.getConnection();
+            c.setAutoCommit(false);
+            Statement s = c.createStatement();
+            if (!DatabaseUtil.tableExists(c, FINGERPRINT_TABLE)) {
+                s.execute("CREATE TABLE " + FINGERPRINT_TABLE + " (source text, key text,"
+                        + " fingerprint bigint, objectid integer)");
+                s.execute("CREATE INDEX " + FINGERPRINT_TABLE + "_source ON " + FINGERPRINT_TABLE
+                        + " (source)");
+            }
+            PreparedStatement ps = c.prepareStatement("DELETE FROM " + FINGERPRINT_TABLE
+                    + " WHERE source = ?");
+            ps.setString(1, source.getName());
+            ps.execute();
+            ps.close();
+            TableBatch tableBatch = new TableBatch();
+            for (Map.Entry<String, Fingerprint> entry : current.entrySet()) {
+                tableBatch.addRow(entry.getKey(), COLUMNS, new Object[] {source.getName(),
+                    entry.getKey(), new Long(entry.getValue().fingerprint),
+                    new Integer(entry.getValue().objectId)});
+            }
+            List<FlushJob> flushJobs = (new BatchWriterPostgresCopyImpl()).write(c, Collections
+                    .singletonMap(FINGERPRINT_TABLE, tableBatch), null);
+            for (FlushJob fj : flushJobs) {
+                fj.flush();
+            }
+            c.commit();
+            c.setAutoCommit(true);
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not write fingerprints for source "
+                    + source.getName(), e);
+        } finally {
+            closeConnection(c);
+        }
+        LOG.info("Wrote " + current.size() + " fingerprints for source " + source.getName());
+    }
+
+    /**
+     * Returns the number of objects skipped because they had not changed.
+     *
+     * @return an int
+     */
+    int getUnchangedCount() {
+        return unchanged;
+    }
+
+    /**
+     * Returns the number of objects stored again because they had changed, or had to replace a
+     * skeleton.
+     *
+     * @return an int
+     */
+    int getChangedCount() {
+        return changed;
+    }
+
+    /**
+     * Returns the number of objects deleted because they have gone from the source.
+     *
+     * @return an int
+     */
+    int getDeletedCount() {
+        return deleted;
+    }
+
+    /**
+     * Returns the number of objects that have gone from the source but were not deleted because
+     * other objects refer to them.
+     *
+     * @return an int
+     */
+    int getReferencedCount() {
+        return referenced;
+    }
+
+    /**
+     * Returns the key of an object, which identifies it between loads of the source.
+     *
+     * @param obj an object from the source
+     * @return a String, or null if the object has no primary key with all its fields set
+     */
+    protected String getKey(InterMineObject obj) {
+        if (keys.containsKey(obj.getId())) {
+            return keys.get(obj.getId());
+        }
+        // Guards against primary keys that refer to each other
+        keys.put(obj.getId(), null);
+        String key = null;
+        List<ClassDescriptor> clds = new ArrayList<ClassDescriptor>(model
+                .getClassDescriptorsForClass(obj.getClass()));
+        Collections.sort(clds, CLD_ORDER);
+        try {
+            for (ClassDescriptor cld : clds) {
+                for (PrimaryKey pk : DataLoaderHelper.getPrimaryKeys(cld, source, iw)) {
+                    StringBuffer buffer = new StringBuffer(Util.getFriendlyName(obj.getClass()));
+                    for (String fieldName : pk.getFieldNames()) {
+                        String value = getValueString(obj, fieldName);
+                        if (value == null) {
+                            buffer = null;
+                            break;
+                        }
+                        buffer.append("|" + fieldName + "=" + value);
+                    }
+                    if (buffer != null) {
+                        key = buffer.toString();
+                        break;
+                    }
+                }
+                if (key != null) {
+                    break;
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        keys.put(obj.getId(), key);
+        return key;
+    }
+
+    /**
+     * Returns a hash of the values of all the fields of an object.
+     *
+     * @param obj an object from the source
+     * @return a long
+     */
+    protected long getFingerprint(InterMineObject obj) {
+        digest.reset();
+        try {
+            for (String fieldName : new TreeSet<String>(TypeUtil.getFieldInfos(obj.getClass())
+                        .keySet())) {
+                if ("id".equals(fieldName)) {
+                    continue;
+                }
+                Object value = obj.getFieldProxy(fieldName);
+                String valueString;
+                if (value instanceof Collection<?>) {
+                    List<String> elementKeys = new ArrayList<String>();
+                    for (Object element : (Collection<?>) value) {
+                        elementKeys.add(String.valueOf(getReferenceString((InterMineObject)
+                                        element)));
+                    }
+                    Collections.sort(elementKeys);
+                    valueString = elementKeys.toString();
+                } else {
+                    valueString = getValueString(obj, fieldName);
+                }
+                digest.update((fieldName + "=" + valueString + "\n").getBytes("UTF-8"));
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] hash = digest.digest();
+        long retval = 0L;
+        for (int i = 0; i < 8; i++) {
+            retval = (retval << 8) | (hash[i] & 0xFF);
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the value of an attribute or reference as a String, using getReferenceString() for
+     * a referenced object.
+     */
+    private String getValueString(InterMineObject obj, String fieldName)
+        throws IllegalAccessException {
+        Object value = obj.getFieldProxy(fieldName);
+        if (value instanceof InterMineObject) {
+            return getReferenceString((InterMineObject) value);
+        }
+        return (value == null ? null : value.toString());
+    }
+
+    /**
+     * Returns a String standing for a referenced object, or null if it is an object with no key.
+     * A ProxyReference is not fetched: it is represented by its key if that is known, otherwise
+     * by its destination id if it has been stored, otherwise by its id in the source.
+     */
+    private String getReferenceString(InterMineObject ref) {
+        Integer refId = ref.getId();
+        if (keys.containsKey(refId) && (keys.get(refId) != null)) {
+            return "(" + keys.get(refId) + ")";
+        }
+        if (!(ref instanceof ProxyReference)) {
+            String refKey = getKey(ref);
+            return (refKey == null ? null : "(" + refKey + ")");
+        }
+        Integer destId = iw.getDestinationId(refId);
+        if (destId != null) {
+            return "@" + destId;
+        }
+        return "#" + refId;
+    }
+
+    private static void closeConnection(Connection c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (SQLException e) {
+                LOG.warn("Could not close connection", e);
+            }
+        }
+    }
+
+    private static class Fingerprint
+    {
+        private long fingerprint;
+        private int objectId;
+
+        Fingerprint(long fingerprint, int objectId) {
+            this.fingerprint = fingerprint;
+            this.objectId = objectId;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Iterator;
+
+import org.intermine.util.ObjectPipe;
+
+/**
+ * Reads objects from the source in its own thread, so that translating the objects and
+ * fetching their equivalents from the production database overlap with storing them. Objects
+ * are handed to the storing thread through an ObjectPipe, in the order they are read, which
+ * limits how far ahead the reading gets.
+ * <p>
+ * Only reading is moved to another thread. Storing an object merges it with its equivalents,
+ * stores skeletons for the objects it references, allocates ids and records them in the id map,
+ * all through one ObjectStoreWriter connection, so storing workers partitioned by primary key
+ * would still race on any object reached from two partitions. The time each side spends waiting
+ * for the other is recorded, so the load log shows whether reading or storing limits the speed.
+ * <p>
+ * Reading a batch of objects makes a BatchingFetcher prefetch their equivalents, so with a
+ * SourceReader that happens up to readAhead objects earlier than it otherwise would, before the
+ * objects ahead of them are stored. See BatchingFetcher.getEquivalentsFor() for what that means
+ * for objects that are not yet in the id map.
+ *
+ * @param <E> the type of the objects read
+ * @author InterMine
+ */
+class SourceReader<E> implements Runnable, Iterable<E>
+{
+    private Iterable<E> objects;
+    private ObjectPipe<E> pipe;
+    private volatile boolean stopped = false;
+    private volatile Throwable problem = null;
+    private volatile long timeBlocked = 0;
+    private volatile long count = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param objects the objects to read
+     * @param readAhead the maximum number of objects to read ahead of the storing thread
+     */
+    SourceReader(Iterable<E> objects, int readAhead) {
+        this.objects = objects;
+        this.pipe = new ObjectPipe<E>(readAhead);
+    }
+
+    /**
+     * Starts a daemon thread that reads the objects.
+     *
+     * @param name the name of the thread
+     * @return the Thread
+     */
+    Thread start(String name) {
+        Thread thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void run() {
+        try {
+            Iterator<E> iter = objects.iterator();
+            while ((!stopped) && iter.hasNext()) {
+                E obj = iter.next();
+                long start = System.currentTimeMillis();
+                pipe.put(obj);
+                timeBlocked += System.currentTimeMillis() - start;
+                count++;
+            }
+        } catch (Throwable t) {
+            problem = t;
+        } finally {
+            pipe.finish();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<E> iterator() {
+        return pipe;
+    }
+
+    /**
+     * Throws any exception that stopped the reading of objects early, so that it is not
+     * mistaken for the end of the source.
+     */
+    void checkProblem() {
+        if (problem instanceof RuntimeException) {
+            throw (RuntimeException) problem;
+        } else if (problem instanceof Error) {
+            throw (Error) problem;
+        } else if (problem != null) {
+            throw new RuntimeException("Exception while reading objects", problem);
+        }
+    }
+
+    /**
+     * Returns the number of milliseconds the reading thread has spent waiting for the storing
+     * thread to make room in the pipe.
+     *
+     * @return a number of milliseconds
+     */
+    long getTimeBlocked() {
+        return timeBlocked;
+    }
+
+    /**
+     * Returns the number of objects read so far.
+     *
+     * @return a long
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Tells the reading thread to stop, and discards any objects that it has already read,
+     * so that it is not left waiting for space in the pipe.
+     */
+    void stop() {
+        stopped = true;
+        while (pipe.hasNext()) {
+            pipe.next();
+        }
+    }
+}
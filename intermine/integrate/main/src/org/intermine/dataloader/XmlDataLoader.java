@@ -10,21 +10,32 @@ package org.intermine.dataloader;
  *
  */
 
+import java.io.File;
 import java.io.InputStream;
 import java.util.Date;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.intermine.InterMineException;
+import org.intermine.dataconversion.FullXmlConverter;
+import org.intermine.dataconversion.ItemStreamWriter;
 import org.intermine.model.FastPathObject;
 import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.util.XmlBinding;
+import org.intermine.xml.full.FullStreamParser;
+import org.intermine.xml.full.Item;
 
 /**
  * Provides a method for unmarshalling XML given source into java
  * business objects then calls store on each.
  * store() is AbstractDataLoader.store().
+ * <p>
+ * If an item stream file is set, the XML is instead read one Item at a time into that file, and
+ * the objects are loaded from it when the loader is closed. The ItemStreamWriter holds at most
+ * one sorted run of Items in memory, however large the XML is. References are resolved by Item
+ * identifier as the objects are loaded, so they may point to Items anywhere in any of the files.
+ * The identifiers must then be of the form namespace_number, as created by an ItemFactory.
  *
  * @author Richard Smith
  */
@@ -33,6 +44,10 @@ public class XmlDataLoader extends DataLoader
 {
     private static final Logger LOG = Logger.getLogger(XmlDataLoader.class);
     private static int idCounter = 1;
+    private File itemStream = null;
+    private ItemStreamWriter itemStreamWriter = null;
+    private FullXmlConverter converter = null;
+    private Source source, skelSource;
 
     /**
      * @see DataLoader#DataLoader(IntegrationWriter)
@@ -43,6 +58,16 @@ public class XmlDataLoader extends DataLoader
         super(iw);
     }
 
+    /**
+     * Set a file to read the Items into, instead of unmarshalling each XML file into memory.
+     * The file is deleted after the objects have been loaded from it.
+     *
+     * @param itemStream the file, which will be overwritten
+     */
+    public void setItemStream(File itemStream) {
+        this.itemStream = itemStream;
+    }
+
     /**
      * Static method to unmarshall business objects from a given xml file and call
      * store on each.
@@ -54,6 +79,10 @@ public class XmlDataLoader extends DataLoader
      */
     public void processXml(InputStream is, Source source, Source skelSource)
         throws InterMineException {
+        if (itemStream != null) {
+            writeItemStream(is, source, skelSource);
+            return;
+        }
         try {
             long[] times = new long[20];
             for (int i = 0; i < 20; i++) {
@@ -111,11 +140,54 @@ public class XmlDataLoader extends DataLoader
         }
     }
 
+    private void writeItemStream(InputStream is, Source source, Source skelSource)
+        throws InterMineException {
+        this.source = source;
+        this.skelSource = skelSource;
+        try {
+            if (converter == null) {
+                LOG.info("Starting XmlDataLoader. Reading XML into " + itemStream);
+                itemStreamWriter = new ItemStreamWriter(itemStream);
+                converter = new FullXmlConverter(itemStreamWriter,
+                        getIntegrationWriter().getModel());
+            }
+            // The parser is given the bytes, so that it reads the encoding from the XML declaration
+            FullStreamParser parser = new FullStreamParser(is);
+            try {
+                Item item = parser.next();
+                while (item != null) {
+                    converter.store(item);
+                    item = parser.next();
+                }
+                LOG.info("Read " + parser.getCount() + " items into " + itemStream);
+            } finally {
+                parser.close();
+            }
+        } catch (Exception e) {
+            throw new InterMineException("Problem reading XML into " + itemStream, e);
+        }
+    }
+
     /**
-     * Perform any necessary clean-up and close the integration writer
+     * Perform any necessary clean-up and close the integration writer.  If an item stream file
+     * was set, this loads the objects from it.
      * @throws Exception if an error occurs
      */
     public void close() throws Exception {
-        getIntegrationWriter().close();
+        if (converter == null) {
+            getIntegrationWriter().close();
+            return;
+        }
+        try {
+            itemStreamWriter.close();
+            LOG.info("Loading objects from " + itemStream);
+            new ItemStreamDataLoader(getIntegrationWriter()).process(itemStream, source,
+                    skelSource);
+        } finally {
+            converter = null;
+            if (!itemStream.delete()) {
+                LOG.warn("Could not delete " + itemStream);
+            }
+        }
     }
 }
@@ -40,6 +40,7 @@ public class XmlDataLoaderTask extends Task
     private String sourceType;
     protected boolean ignoreDuplicates = false;
     protected String file, xmlRes;
+    protected String itemStream;
 
     /**
      * Set the IntegrationWriter.
@@ -75,6 +76,16 @@ public class XmlDataLoaderTask extends Task
         this.xmlRes = xmlRes;
     }
 
+    /**
+     * Set a file to read the Items into before loading them, so that large XML files can be
+     * loaded without holding them in memory.
+     *
+     * @param itemStream the name of a file, which will be deleted after loading
+     */
+    public void setItemStream(String itemStream) {
+        this.itemStream = itemStream;
+    }
+
     /**
      * Set the source name, as used by primary key priority config.
      *
@@ -123,6 +134,9 @@ public class XmlDataLoaderTask extends Task
             IntegrationWriter iw = IntegrationWriterFactory.getIntegrationWriter(integrationWriter);
             iw.setIgnoreDuplicates(ignoreDuplicates);
             loader = new XmlDataLoader(iw);
+            if (itemStream != null && !"".equals(itemStream)) {
+                loader.setItemStream(new File(itemStream));
+            }
             List<File> files = new ArrayList<File>();
 
             // read an InputStream from the classpath
@@ -37,7 +37,10 @@ import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsBatches;
+import org.intermine.objectstore.query.ResultsIteratorStream;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.ResultsStream;
 import org.intermine.objectstore.query.SingletonResults;
 import org.intermine.objectstore.translating.ObjectStoreTranslatingImpl;
 import org.intermine.objectstore.translating.Translator;
@@ -183,6 +186,18 @@ public class ObjectStoreFastCollectionsForTranslatorImpl extends ObjectStorePass
         return retval;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The collections of the streamed objects are filled in batch by batch, so this reads through
+     * a Results object rather than passing the stream through.
+     */
+    @Override
+    public ResultsStream executeStreaming(Query q) throws ObjectStoreException {
+        return new ResultsIteratorStream(execute(q, ResultsBatches.DEFAULT_BATCH_SIZE, true, false,
+                    true));
+    }
+
     /**
      * {@inheritDoc}
      */
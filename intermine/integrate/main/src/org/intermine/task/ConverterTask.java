@@ -30,6 +30,7 @@ public class ConverterTask extends DynamicAttributeTask
 {
     private String modelName = null;
     private String osName;
+    private String itemStream;
     private String excludeList;
 
     /**
@@ -40,6 +41,23 @@ public class ConverterTask extends DynamicAttributeTask
         this.osName = osName;
     }
 
+    /**
+     * Set a file to write the Items to with an ItemStreamWriter, instead of storing them in the
+     * objectstore set by setOsName()
+     * @param itemStream the name of the file
+     */
+    public void setItemStream(String itemStream) {
+        this.itemStream = itemStream;
+    }
+
+    /**
+     * Return the item stream file name set by setItemStream().
+     * @return the file name, or null if Items are stored in an objectstore
+     */
+    public String getItemStream() {
+        return itemStream;
+    }
+
     /**
      * Sets the list of classes to NOT try and convert
      * @param excludeList the suitably formatted list of classes to exclude.
@@ -20,6 +20,7 @@ import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.types.FileSet;
 import org.intermine.dataconversion.FileConverter;
+import org.intermine.dataconversion.ItemStreamWriter;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.dataconversion.ObjectStoreItemWriter;
 import org.intermine.metadata.Model;
@@ -69,7 +70,7 @@ public class FileConverterTask extends ConverterTask
         if (clsName == null) {
             throw new BuildException("clsName attribute is not set");
         }
-        if (getOsName() == null) {
+        if ((getOsName() == null) && (getItemStream() == null)) {
             throw new BuildException("osName attribute is not set");
         }
         if (getModelName() == null) {
@@ -84,8 +85,12 @@ public class FileConverterTask extends ConverterTask
         ItemWriter writer = null;
         try {
             Model model = Model.getInstanceByName(getModelName());
-            osw = ObjectStoreWriterFactory.getObjectStoreWriter(getOsName());
-            writer = new ObjectStoreItemWriter(osw);
+            if (getItemStream() != null) {
+                writer = new ItemStreamWriter(new File(getItemStream()));
+            } else {
+                osw = ObjectStoreWriterFactory.getObjectStoreWriter(getOsName());
+                writer = new ObjectStoreItemWriter(osw);
+            }
 
             Class<?> c = Class.forName(clsName);
             if (!FileConverter.class.isAssignableFrom(c)) {
@@ -132,7 +137,7 @@ public class FileConverterTask extends ConverterTask
                 if (writer != null) {
                     writer.close();
                 }
-                if (writer != null) {
+                if (osw != null) {
                     osw.close();
                 }
             } catch (Exception e) {
@@ -140,10 +145,12 @@ public class FileConverterTask extends ConverterTask
             }
         }
 
-        try {
-            doSQL(osw.getObjectStore());
-        } catch (Exception e) {
-            throw new BuildException(e);
+        if (osw != null) {
+            try {
+                doSQL(osw.getObjectStore());
+            } catch (Exception e) {
+                throw new BuildException(e);
+            }
         }
     }
 
@@ -23,6 +23,7 @@ import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.types.FileSet;
 import org.intermine.dataconversion.FullXmlConverter;
+import org.intermine.dataconversion.ItemStreamWriter;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.dataconversion.ObjectStoreItemWriter;
 import org.intermine.metadata.Model;
@@ -78,7 +79,7 @@ public class FullXmlConverterTask extends ConverterTask
      */
     @Override
     public void execute() {
-        if (getOsName() == null) {
+        if ((getOsName() == null) && (getItemStream() == null)) {
             throw new BuildException("osName must be specified");
         }
         if (sourceName == null) {
@@ -91,8 +92,12 @@ public class FullXmlConverterTask extends ConverterTask
 
         try {
             Model model = Model.getInstanceByName(getModelName());
-            osw = ObjectStoreWriterFactory.getObjectStoreWriter(getOsName());
-            writer = new ObjectStoreItemWriter(osw);
+            if (getItemStream() != null) {
+                writer = new ItemStreamWriter(new File(getItemStream()));
+            } else {
+                osw = ObjectStoreWriterFactory.getObjectStoreWriter(getOsName());
+                writer = new ObjectStoreItemWriter(osw);
+            }
             FullXmlConverter converter = new FullXmlConverter(writer, model);
 
             List<File> files = new ArrayList<File>();
@@ -147,10 +152,12 @@ public class FullXmlConverterTask extends ConverterTask
             }
         }
 
-        try {
-            doSQL(osw.getObjectStore());
-        } catch (Exception e) {
-            throw new BuildException(e);
+        if (osw != null) {
+            try {
+                doSQL(osw.getObjectStore());
+            } catch (Exception e) {
+                throw new BuildException(e);
+            }
         }
     }
 }
@@ -0,0 +1,153 @@
+package org.intermine.xml.full;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the Items of an InterMine Full XML file one at a time, or in batches of a given size,
+ * using a StAX stream reader.  Unlike FullParser.parse() only the Items that have been asked for
+ * are held in memory, so files of any size can be read.  References and collections are left as
+ * identifiers, to be resolved by whatever the Items are written to.
+ *
+ * @author InterMine
+ */
+public class FullStreamParser
+{
+    private XMLStreamReader xmlReader;
+    private ItemFactory itemFactory = new ItemFactory();
+    private int count = 0;
+
+    /**
+     * Create a new FullStreamParser reading from an InputStream.
+     *
+     * @param is the InputStream to parse
+     * @throws XMLStreamException if the stream cannot be read
+     */
+    public FullStreamParser(InputStream is) throws XMLStreamException {
+        if (is == null) {
+            throw new NullPointerException("InputStream cannot be null");
+        }
+        xmlReader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+    }
+
+    /**
+     * Create a new FullStreamParser reading from a Reader.
+     *
+     * @param reader the Reader to parse
+     * @throws XMLStreamException if the reader cannot be read
+     */
+    public FullStreamParser(Reader reader) throws XMLStreamException {
+        if (reader == null) {
+            throw new NullPointerException("Reader cannot be null");
+        }
+        xmlReader = XMLInputFactory.newInstance().createXMLStreamReader(reader);
+    }
+
+    /**
+     * Returns the next Item in the file.
+     *
+     * @return an Item, or null if there are no more Items
+     * @throws XMLStreamException if there is an error while parsing
+     */
+    public Item next() throws XMLStreamException {
+        Item currentItem = null;
+        String currentCollectionName = null;
+        while (xmlReader.hasNext()) {
+            int eventType = xmlReader.next();
+            if (eventType == XMLStreamConstants.START_ELEMENT) {
+                String name = xmlReader.getLocalName();
+                if ("item".equals(name)) {
+                    currentItem = itemFactory.makeItem(getAttribute("id"));
+                    currentItem.setClassName(getAttribute("class"));
+                    if (getAttribute("implements") != null) {
+                        currentItem.setImplementations(getAttribute("implements"));
+                    }
+                } else if ("attribute".equals(name)) {
+                    currentItem.setAttribute(getAttribute("name"), getAttribute("value"));
+                } else if ("reference".equals(name)) {
+                    String value = getAttribute("ref_id");
+                    if (currentCollectionName == null) {
+                        if (getAttribute("name") == null) {
+                            throw new RuntimeException("no name given for reference with value: "
+                                    + value);
+                        }
+                        currentItem.setReference(getAttribute("name"), value);
+                    } else {
+                        // a reference element within a collection element
+                        currentItem.addToCollection(currentCollectionName, value);
+                    }
+                } else if ("collection".equals(name)) {
+                    currentCollectionName = getAttribute("name");
+                }
+            } else if (eventType == XMLStreamConstants.END_ELEMENT) {
+                String name = xmlReader.getLocalName();
+                if ("item".equals(name)) {
+                    count++;
+                    return currentItem;
+                } else if ("collection".equals(name)) {
+                    currentCollectionName = null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the next batch of Items in the file.
+     *
+     * @param batchSize the maximum number of Items to return
+     * @return a List of Items, which is empty if there are no more Items
+     * @throws XMLStreamException if there is an error while parsing
+     */
+    public List<Item> nextBatch(int batchSize) throws XMLStreamException {
+        List<Item> retval = new ArrayList<Item>();
+        while (retval.size() < batchSize) {
+            Item item = next();
+            if (item == null) {
+                break;
+            }
+            retval.add(item);
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the number of Items read so far.
+     *
+     * @return an int
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Frees the resources of the underlying stream reader.  This does not close the InputStream
+     * or Reader that was passed to the constructor.
+     *
+     * @throws XMLStreamException if there is an error closing the reader
+     */
+    public void close() throws XMLStreamException {
+        xmlReader.close();
+    }
+
+    private String getAttribute(String name) {
+        return xmlReader.getAttributeValue(null, name);
+    }
+}
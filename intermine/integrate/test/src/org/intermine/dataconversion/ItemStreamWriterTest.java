@@ -0,0 +1,241 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SimpleConstraint;
+
+public class ItemStreamWriterTest extends TestCase
+{
+    private static final int ITEMS = 500;
+
+    private File file;
+    private Model model;
+
+    public ItemStreamWriterTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        file = File.createTempFile("itemstream", ".bin");
+        model = Model.getInstanceByName("fulldata");
+        ItemStreamWriter writer = new ItemStreamWriter(file);
+        writer.setRunSize(37);
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < ITEMS; i++) {
+            order.add(new Integer(i));
+        }
+        Collections.shuffle(order, new java.util.Random(42));
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Integer i : order) {
+            Item item = new Item();
+            item.setIdentifier((i.intValue() % 2) + "_" + (i.intValue() / 2));
+            item.setClassName(i.intValue() % 3 == 0 ? "Gene" : "Protein");
+            item.setImplementations("");
+            Attribute att = new Attribute();
+            att.setName("name");
+            att.setValue("item " + i);
+            item.addAttributes(att);
+            ids.add(writer.store(item));
+        }
+        // Add references to Items that have already been written out in earlier runs
+        for (int i = 0; i < ids.size(); i += 10) {
+            Reference ref = new Reference();
+            ref.setName("parent");
+            ref.setRefId("0_0");
+            writer.store(ref, ids.get(i));
+            ReferenceList col = new ReferenceList();
+            col.setName("children");
+            col.setRefIds("1_1 1_2");
+            writer.store(col, ids.get(i));
+        }
+        writer.close();
+    }
+
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testScan() throws Exception {
+        ObjectStoreItemStreamImpl os = new ObjectStoreItemStreamImpl(model, file);
+        assertEquals(ITEMS, os.getItemCount());
+        assertEquals(Arrays.asList("0", "1"), new ArrayList<String>(os.getHighestNumbers()
+                    .keySet()));
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Item.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        List<Item> items = new ArrayList<Item>();
+        for (int start = 0; start < ITEMS + 100; start += 100) {
+            for (ResultsRow<Object> row : os.execute(q, start, 100, false, false, null)) {
+                items.add((Item) row.get(0));
+            }
+        }
+        assertEquals(ITEMS, items.size());
+        int withReferences = 0;
+        for (int i = 0; i < ITEMS; i++) {
+            Item item = items.get(i);
+            int expected = (i < ITEMS / 2 ? i * 2 : (i - ITEMS / 2) * 2 + 1);
+            assertEquals((expected % 2) + "_" + (expected / 2), item.getIdentifier());
+            assertEquals("item " + expected, item.getAttributes().iterator().next().getValue());
+            assertEquals(i, item.getId().intValue());
+            if (!item.getReferences().isEmpty()) {
+                withReferences++;
+                assertEquals("0_0", item.getReferences().iterator().next().getRefId());
+                assertEquals("1_1 1_2", item.getCollections().iterator().next().getRefIds());
+            }
+        }
+        assertEquals(ITEMS / 10, withReferences);
+        assertEquals(ITEMS, os.count(q, null));
+    }
+
+    public void testLookup() throws Exception {
+        ObjectStoreItemStreamImpl os = new ObjectStoreItemStreamImpl(model, file);
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Item.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.setConstraint(new BagConstraint(new QueryField(qc, "identifier"), ConstraintOp.IN,
+                    Arrays.asList("1_200", "0_3", "0_190", "2_1", "1_0")));
+        List<ResultsRow<Object>> results = os.execute(q, 0, 100, false, false, null);
+        assertEquals(4, results.size());
+        assertEquals("0_3", ((Item) results.get(0).get(0)).getIdentifier());
+        assertEquals("0_190", ((Item) results.get(1).get(0)).getIdentifier());
+        assertEquals("1_0", ((Item) results.get(2).get(0)).getIdentifier());
+        assertEquals("1_200", ((Item) results.get(3).get(0)).getIdentifier());
+
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        cs.addConstraint(new SimpleConstraint(new QueryField(qc, "identifier"),
+                    ConstraintOp.EQUALS, new QueryValue("0_3")));
+        cs.addConstraint(new SimpleConstraint(new QueryField(qc, "className"),
+                    ConstraintOp.EQUALS, new QueryValue("Gene")));
+        q.setConstraint(cs);
+        results = os.execute(q, 0, 100, false, false, null);
+        assertEquals(1, results.size());
+        assertEquals("Gene", ((Item) results.get(0).get(0)).getClassName());
+    }
+
+    public void testScanClass() throws Exception {
+        ObjectStoreItemStreamImpl os = new ObjectStoreItemStreamImpl(model, file);
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Item.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.setConstraint(new SimpleConstraint(new QueryField(qc, "className"),
+                    ConstraintOp.EQUALS, new QueryValue("Gene")));
+        int count = 0;
+        for (int start = 0; start < ITEMS; start += 50) {
+            for (ResultsRow<Object> row : os.execute(q, start, 50, false, false, null)) {
+                assertEquals("Gene", ((Item) row.get(0)).getClassName());
+                count++;
+            }
+        }
+        assertEquals((ITEMS + 2) / 3, count);
+        assertEquals(count, os.count(q, null));
+    }
+
+    public void testTranslatorIds() throws Exception {
+        ObjectStoreItemStreamImpl os = new ObjectStoreItemStreamImpl(model, file);
+        ItemToObjectTranslator translator = new ItemToObjectTranslator(model, os);
+        assertEquals(new Integer(0), translator.identifierToId("0_0"));
+        assertEquals(new Integer(ITEMS / 2 + 5), translator.identifierToId("1_5"));
+    }
+
+    public void testTemporaryFilesDeleted() throws Exception {
+        assertFalse(new File(file.getPath() + ".ids").exists());
+        assertFalse(new File(file.getPath() + ".run0").exists());
+    }
+
+    public void testReferenceToUnknownId() throws Exception {
+        File other = File.createTempFile("itemstream", ".bin");
+        ItemStreamWriter writer = new ItemStreamWriter(other);
+        writer.setRunSize(2);
+        try {
+            Reference ref = new Reference();
+            ref.setName("parent");
+            ref.setRefId("0_0");
+            try {
+                writer.store(ref, new Integer(0));
+                fail("Expected ObjectStoreException");
+            } catch (ObjectStoreException e) {
+                assertEquals("No Item has been stored with id 0", e.getMessage());
+            }
+            for (int i = 0; i < 3; i++) {
+                Item item = new Item();
+                item.setIdentifier("0_" + i);
+                item.setClassName("Gene");
+                writer.store(item);
+            }
+            try {
+                writer.store(ref, new Integer(3));
+                fail("Expected ObjectStoreException");
+            } catch (ObjectStoreException e) {
+                assertEquals("No Item has been stored with id 3", e.getMessage());
+            }
+            // Item 0 has been written out, so its identifier comes back from the identifier file
+            writer.store(ref, new Integer(0));
+            writer.close();
+            ObjectStoreItemStreamImpl os = new ObjectStoreItemStreamImpl(model, other);
+            Query q = new Query();
+            QueryClass qc = new QueryClass(Item.class);
+            q.addFrom(qc);
+            q.addToSelect(qc);
+            Item first = (Item) os.execute(q, 0, 10, false, false, null).get(0).get(0);
+            assertEquals("0_0", first.getIdentifier());
+            assertEquals(1, first.getReferences().size());
+        } finally {
+            writer.close();
+            other.delete();
+        }
+    }
+
+    public void testChecksum() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(ItemStreamFormat.HEADER_SIZE + 10);
+        int b = raf.read();
+        raf.seek(ItemStreamFormat.HEADER_SIZE + 10);
+        raf.write(b ^ 0xFF);
+        raf.close();
+        ObjectStoreItemStreamImpl os = new ObjectStoreItemStreamImpl(model, file);
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Item.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        try {
+            os.execute(q, 0, 10, false, false, null);
+            fail("Expected ObjectStoreException");
+        } catch (ObjectStoreException e) {
+            assertEquals("Checksum mismatch in item stream record", e.getCause().getMessage());
+        }
+    }
+}
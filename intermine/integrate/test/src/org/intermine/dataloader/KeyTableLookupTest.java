@@ -0,0 +1,199 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.PrimaryKey;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Address;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * Tests for KeyTableLookup. The lookup tests compare it with the IQL queries made by
+ * BaseEquivalentObjectFetcher, against the integration test database.
+ */
+public class KeyTableLookupTest extends TestCase
+{
+    private Model model;
+    private IntegrationWriterDataTrackingImpl iw;
+    private Source source;
+
+    public KeyTableLookupTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        model = Model.getInstanceByName("testmodel");
+    }
+
+    public void tearDown() throws Exception {
+        if (iw != null) {
+            if (iw.isInTransaction()) {
+                iw.abortTransaction();
+            }
+            IntegrationWriterDataTrackingImplTest.removeDataFromStore(iw.getObjectStoreWriter());
+            iw.getDataTracker().clear();
+            iw.reset();
+            iw.close();
+        }
+    }
+
+    public void testKeyColumnTypeFromModel() throws Exception {
+        ClassDescriptor types = model.getClassDescriptorByName("Types");
+        assertEquals(String.class, KeyTableLookup.getKeyColumnType(
+                    types.getFieldDescriptorByName("name")));
+        // Primitives are promoted, so a key value that is null in some objects still has a type
+        assertEquals(Integer.class, KeyTableLookup.getKeyColumnType(
+                    types.getFieldDescriptorByName("intType")));
+        assertEquals(Integer.class, KeyTableLookup.getKeyColumnType(
+                    types.getFieldDescriptorByName("intObjType")));
+        assertEquals(Boolean.class, KeyTableLookup.getKeyColumnType(
+                    types.getFieldDescriptorByName("booleanType")));
+        assertEquals(Date.class, KeyTableLookup.getKeyColumnType(
+                    types.getFieldDescriptorByName("dateObjType")));
+    }
+
+    public void testKeyColumnTypeForReference() throws Exception {
+        ClassDescriptor employee = model.getClassDescriptorByName("Employee");
+        assertEquals(Integer.class, KeyTableLookup.getKeyColumnType(
+                    employee.getFieldDescriptorByName("department")));
+    }
+
+    public void testLookupAttributeKey() throws Exception {
+        storeObjects();
+        ClassDescriptor cld = model.getClassDescriptorByName("Employable");
+        PrimaryKey pk = DataLoaderHelper.getPrimaryKeys(cld, source, iw.getObjectStore())
+            .iterator().next();
+        Map<List<Object>, InterMineObject> keysToSourceObjects =
+            new HashMap<List<Object>, InterMineObject>();
+        for (String name : Arrays.asList("EmployeeA", "EmployeeB", "EmployeeC")) {
+            Employee employee = new Employee();
+            employee.setId(new Integer(100 + keysToSourceObjects.size()));
+            employee.setName(name);
+            keysToSourceObjects.put(Collections.singletonList((Object) name), employee);
+        }
+        assertLookupMatchesQuery(cld, pk, keysToSourceObjects, 2);
+    }
+
+    public void testLookupReferenceKey() throws Exception {
+        storeObjects();
+        ClassDescriptor cld = model.getClassDescriptorByName("Company");
+        PrimaryKey pk = DataLoaderHelper.getPrimaryKeys(cld, source, iw.getObjectStore())
+            .iterator().next();
+        assertEquals(Arrays.asList("name", "address"), new ArrayList<String>(pk.getFieldNames()));
+        Address example = new Address();
+        example.setAddress("1 Key Street");
+        Address stored = (Address) iw.getObjectStore().getObjectByExample(example,
+                Collections.singleton("address"));
+        Map<List<Object>, InterMineObject> keysToSourceObjects =
+            new HashMap<List<Object>, InterMineObject>();
+        for (String name : Arrays.asList("CompanyA", "CompanyB")) {
+            Address address = new Address();
+            address.setId(new Integer(200 + keysToSourceObjects.size()));
+            address.setAddress("1 Key Street");
+            Company company = (Company) DynamicUtil.createObject(Collections.singleton(
+                        Company.class));
+            company.setId(new Integer(100 + keysToSourceObjects.size()));
+            company.setName(name);
+            company.setAddress(address);
+            keysToSourceObjects.put(Arrays.asList((Object) name, stored.getId()), company);
+        }
+        assertLookupMatchesQuery(cld, pk, keysToSourceObjects, 1);
+    }
+
+    /**
+     * Looks up the source objects with a KeyTableLookup, and checks that it finds the same
+     * objects as BaseEquivalentObjectFetcher.
+     */
+    private void assertLookupMatchesQuery(ClassDescriptor cld, PrimaryKey pk,
+            Map<List<Object>, InterMineObject> keysToSourceObjects,
+            int expectedMatches) throws Exception {
+        KeyTableLookup lookup = new KeyTableLookup((ObjectStoreInterMineImpl) iw
+                .getObjectStore());
+        assertTrue(lookup.canLookup(cld, pk));
+        Map<InterMineObject, Set<InterMineObject>> results =
+            new HashMap<InterMineObject, Set<InterMineObject>>();
+        for (InterMineObject obj : keysToSourceObjects.values()) {
+            results.put(obj, new HashSet<InterMineObject>());
+        }
+        Set<Integer> fetchedObjectIds = new HashSet<Integer>();
+        int matches = lookup.lookup(cld, pk, keysToSourceObjects, results, fetchedObjectIds);
+        assertEquals(expectedMatches, matches);
+        Set<Integer> allIds = new HashSet<Integer>();
+        for (InterMineObject obj : keysToSourceObjects.values()) {
+            Set<Integer> expected = getIds(iw.getBaseEof().queryEquivalentObjects(obj, source));
+            Set<Integer> got = getIds(results.get(obj));
+            assertEquals("Equivalents of " + obj, expected, got);
+            allIds.addAll(got);
+            for (InterMineObject equivalent : results.get(obj)) {
+                assertTrue(cld.getType().isInstance(equivalent));
+            }
+        }
+        assertEquals(allIds, fetchedObjectIds);
+    }
+
+    private Set<Integer> getIds(Set<InterMineObject> objects) {
+        Set<Integer> retval = new HashSet<Integer>();
+        for (InterMineObject obj : objects) {
+            retval.add(obj.getId());
+        }
+        return retval;
+    }
+
+    /**
+     * Stores an Address, two Companies at that address, and two Employees into the integration
+     * test database.
+     */
+    private void storeObjects() throws Exception {
+        iw = (IntegrationWriterDataTrackingImpl) IntegrationWriterFactory
+            .getIntegrationWriter("integration.unittestmulti");
+        source = iw.getMainSource("testsource", "testsource");
+        Source skelSource = iw.getSkeletonSource("testsource", "testsource");
+        Address address = new Address();
+        address.setId(new Integer(1));
+        address.setAddress("1 Key Street");
+        Company companyA = (Company) DynamicUtil.createObject(Collections.singleton(
+                    Company.class));
+        companyA.setId(new Integer(2));
+        companyA.setName("CompanyA");
+        companyA.setAddress(address);
+        Employee employeeA = new Employee();
+        employeeA.setId(new Integer(3));
+        employeeA.setName("EmployeeA");
+        Employee employeeB = new Employee();
+        employeeB.setId(new Integer(4));
+        employeeB.setName("EmployeeB");
+        iw.reset();
+        iw.beginTransaction();
+        for (InterMineObject obj : Arrays.asList(address, companyA, employeeA, employeeB)) {
+            iw.store(obj, source, skelSource);
+        }
+        iw.commitTransaction();
+        // The source objects looked up are new, so none of them are in the id map
+        iw.reset();
+    }
+}
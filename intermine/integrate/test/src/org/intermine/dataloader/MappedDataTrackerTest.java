@@ -0,0 +1,133 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.sql.Connection;
+
+import junit.framework.TestCase;
+
+import org.intermine.sql.Database;
+import org.intermine.sql.DatabaseFactory;
+
+public class MappedDataTrackerTest extends TestCase
+{
+    // 4kB segments, so the tests do not create large files
+    private static final int SEGMENT_SHIFT = 12;
+
+    private Database db;
+    private File dir;
+    private MappedDataTracker dt;
+    private Source source1, source2;
+
+    public void setUp() throws Exception {
+        db = DatabaseFactory.getDatabase("db.unittest");
+        dropTables();
+        dir = File.createTempFile("mappedtrackertest", "");
+        dir.delete();
+        dt = new MappedDataTracker(db, dir, SEGMENT_SHIFT);
+        source1 = dt.stringToSource("Source1");
+        source2 = dt.stringToSource("Source2");
+    }
+
+    public void tearDown() throws Exception {
+        try {
+            dt.close();
+        } catch (Exception e) {
+        }
+        dropTables();
+        deleteDir(dir);
+    }
+
+    public void testSetSourceNullIds() throws Exception {
+        try {
+            dt.setSource(null, "name", source1);
+            fail("Expected NullPointerException");
+        } catch (NullPointerException e) {
+        }
+        try {
+            dt.setSource(new Integer(46), null, source1);
+            fail("Expected NullPointerException");
+        } catch (NullPointerException e) {
+        }
+    }
+
+    public void testGetSource() throws Exception {
+        assertNull(dt.getSource(new Integer(13), "name"));
+        dt.setSource(new Integer(13), "name", source1);
+        for (int i = 100; i < 2000; i++) {
+            dt.setSource(new Integer(i), "name", source2);
+        }
+        assertEquals(source1.getName(), dt.getSource(new Integer(13), "name").getName());
+        assertEquals(source2.getName(), dt.getSource(new Integer(1999), "name").getName());
+        assertNull(dt.getSource(new Integer(13), "length"));
+        dt.setSource(new Integer(13), "name", source2);
+        assertEquals(source2.getName(), dt.getSource(new Integer(13), "name").getName());
+        dt.clearObj(new Integer(13));
+        assertNull(dt.getSource(new Integer(13), "name"));
+        dt.clear();
+        assertNull(dt.getSource(new Integer(1999), "name"));
+    }
+
+    public void testReopen() throws Exception {
+        dt.setSource(new Integer(14), "name", source1);
+        dt.close();
+        dt = new MappedDataTracker(db, dir, SEGMENT_SHIFT);
+        assertEquals(source1.getName(), dt.getSource(new Integer(14), "name").getName());
+    }
+
+    public void testFilesFromAnotherDatabase() throws Exception {
+        dt.close();
+        File otherDir = File.createTempFile("mappedtrackertest", "");
+        otherDir.delete();
+        try {
+            MappedTrackerStore other = new MappedTrackerStore(otherDir, SEGMENT_SHIFT);
+            other.reset(1L);
+            other.close();
+            try {
+                new MappedDataTracker(db, otherDir, SEGMENT_SHIFT);
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+            }
+        } finally {
+            deleteDir(otherDir);
+        }
+    }
+
+    private void dropTables() {
+        try {
+            Connection c = db.getConnection();
+            try {
+                c.setAutoCommit(true);
+                try {
+                    c.createStatement().execute("DROP TABLE tracker_file");
+                } catch (Exception e) {
+                }
+                try {
+                    c.createStatement().execute("DROP TABLE tracker");
+                } catch (Exception e) {
+                }
+            } finally {
+                c.close();
+            }
+        } catch (Exception e) {
+        }
+    }
+
+    private static void deleteDir(File dir) {
+        if (dir.isDirectory()) {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+}
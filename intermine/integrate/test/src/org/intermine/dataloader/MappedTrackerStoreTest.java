@@ -0,0 +1,157 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+public class MappedTrackerStoreTest extends TestCase
+{
+    // 4kB segments, so the tests use several segments without creating large files
+    private static final int SEGMENT_SHIFT = 12;
+
+    private File dir;
+
+    public void setUp() throws Exception {
+        dir = File.createTempFile("trackertest", "");
+        dir.delete();
+    }
+
+    public void tearDown() throws Exception {
+        if (dir.isDirectory()) {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    public void testPutGet() throws Exception {
+        MappedTrackerStore store = new MappedTrackerStore(dir, SEGMENT_SHIFT);
+        int name = store.getNameIndex("name");
+        int length = store.getNameIndex("length");
+        int source1 = store.getNameIndex("Source1");
+        int source2 = store.getNameIndex("Source2");
+        assertEquals(name, store.getNameIndex("name"));
+        assertEquals(-1, store.findNameIndex("sequence"));
+        assertEquals(-1, store.get(13, name));
+        store.put(13, name, source1);
+        store.put(13, length, source2);
+        store.put(14, name, source2);
+        // ids in later segments of the index
+        store.put(5000, name, source2);
+        store.put(100000, name, source1);
+        assertEquals(source1, store.get(13, name));
+        assertEquals(source2, store.get(13, length));
+        assertEquals(source2, store.get(14, name));
+        assertEquals(-1, store.get(14, length));
+        assertEquals(source2, store.get(5000, name));
+        assertEquals(source1, store.get(100000, name));
+        assertEquals(-1, store.get(100001, name));
+        store.put(13, name, source2);
+        assertEquals(source2, store.get(13, name));
+        assertEquals(5, store.size());
+        store.clear(13);
+        assertEquals(-1, store.get(13, name));
+        assertEquals(source2, store.get(14, name));
+        assertEquals(3, store.size());
+        store.close();
+    }
+
+    public void testReuseClearedRecords() throws Exception {
+        MappedTrackerStore store = new MappedTrackerStore(dir, SEGMENT_SHIFT);
+        int field1 = store.getNameIndex("field1");
+        int field2 = store.getNameIndex("field2");
+        int source = store.getNameIndex("Source1");
+        for (int i = 0; i < 1000; i++) {
+            store.put(i, field1, source);
+            store.put(i, field2, source);
+        }
+        long length = new File(dir, "tracker.records").length();
+        for (int i = 0; i < 1000; i++) {
+            store.clear(i);
+        }
+        assertEquals(0, store.size());
+        store.close();
+
+        // The free list is kept in the files
+        store = new MappedTrackerStore(dir, SEGMENT_SHIFT);
+        assertEquals(0, store.size());
+        for (int i = 1000; i < 1500; i++) {
+            store.put(i, field1, source);
+        }
+        assertEquals(500, store.size());
+        for (int i = 0; i < 750; i++) {
+            store.put(i, field2, source);
+        }
+        assertEquals(1250, store.size());
+        store.clear(1000);
+        assertEquals(1249, store.size());
+        for (int i = 1500; i < 2251; i++) {
+            store.put(i, field1, source);
+        }
+        assertEquals(2000, store.size());
+        assertEquals(length, new File(dir, "tracker.records").length());
+        assertEquals(-1, store.get(1000, field1));
+        assertEquals(source, store.get(1001, field1));
+        assertEquals(source, store.get(749, field2));
+        assertEquals(-1, store.get(749, field1));
+        assertEquals(source, store.get(2250, field1));
+        store.close();
+    }
+
+    public void testReopen() throws Exception {
+        MappedTrackerStore store = new MappedTrackerStore(dir, SEGMENT_SHIFT);
+        store.reset(42L);
+        for (int i = 0; i < 100000; i++) {
+            store.put(i, store.getNameIndex("field" + (i % 7)), store.getNameIndex("Source1"));
+        }
+        store.close();
+        store = new MappedTrackerStore(dir, SEGMENT_SHIFT);
+        assertEquals(42L, store.getToken());
+        assertEquals(100000, store.size());
+        assertEquals("Source1", store.getName(store.get(99999, store.findNameIndex("field4"))));
+        assertEquals(-1, store.get(99999, store.findNameIndex("field3")));
+        store.reset(43L);
+        assertEquals(43L, store.getToken());
+        assertEquals(0, store.size());
+        assertEquals(-1, store.findNameIndex("field4"));
+        assertEquals(-1, store.get(99999, 0));
+        store.close();
+    }
+
+    public void testResetWhileMapped() throws Exception {
+        MappedTrackerStore store = new MappedTrackerStore(dir, SEGMENT_SHIFT);
+        store.reset(1L);
+        int source = store.getNameIndex("Source1");
+        for (int i = 0; i < 10000; i++) {
+            store.put(i, store.getNameIndex("field"), source);
+        }
+        // Many segments of both files are mapped when the store is reset
+        store.reset(2L);
+        assertEquals(0, store.size());
+        assertTrue(new File(dir, "tracker.records").length() <= (1 << SEGMENT_SHIFT));
+        int field = store.getNameIndex("field");
+        assertEquals(-1, store.get(9999, field));
+        store.put(9999, field, store.getNameIndex("Source2"));
+        assertEquals("Source2", store.getName(store.get(9999, field)));
+        store.close();
+    }
+
+    public void testBadSegmentShift() throws Exception {
+        try {
+            new MappedTrackerStore(dir, 2);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
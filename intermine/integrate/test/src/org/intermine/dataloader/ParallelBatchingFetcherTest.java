@@ -0,0 +1,85 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.Model;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.util.IntToIntMap;
+
+/**
+ * Tests for the worker threads of ParallelBatchingFetcher that do not need a database.
+ */
+public class ParallelBatchingFetcherTest extends TestCase
+{
+    private Source source = new Source("testsource", "test");
+    private ParallelBatchingFetcher fetcher1;
+    private ParallelBatchingFetcher fetcher2;
+
+    public ParallelBatchingFetcherTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        BaseEquivalentObjectFetcher base = new BaseEquivalentObjectFetcher(
+                Model.getInstanceByName("testmodel"), new IntToIntMap(),
+                new ObjectStoreDummyImpl());
+        fetcher1 = new ParallelBatchingFetcher(base, null, source);
+        fetcher2 = new ParallelBatchingFetcher(base, null, source);
+    }
+
+    public void tearDown() throws Exception {
+        fetcher1.close(source);
+        fetcher2.close(source);
+    }
+
+    public void testSlowQueriesShrinkOnlyTheirOwnLimit() throws Exception {
+        int initial = Math.min(ParallelBatchingFetcher.INITIAL_THREADS, fetcher1.getMaxThreads());
+        assertEquals(initial, fetcher1.getPoolSize());
+        fetcher1.recordLatency(10, 10);
+        for (int i = 0; i < 20; i++) {
+            fetcher1.recordLatency(1000, 10);
+        }
+        assertTrue(fetcher1.getPoolSize() < initial);
+        assertTrue(fetcher1.getPoolSize() >= 1);
+        assertEquals(initial, fetcher2.getPoolSize());
+
+        // Latency measured by the other fetcher starts afresh, so fast queries do not shrink it
+        for (int i = 0; i < 20; i++) {
+            fetcher2.recordLatency(10, 10);
+        }
+        assertEquals(initial, fetcher2.getPoolSize());
+    }
+
+    public void testFetchersShareOnePool() throws Exception {
+        assertNotNull(ParallelBatchingFetcher.getSharedPool());
+        assertEquals(fetcher1.getMaxThreads(), fetcher2.getMaxThreads());
+        assertEquals(fetcher1.getMaxThreads(),
+                ParallelBatchingFetcher.getSharedPool().getMaximumPoolSize());
+    }
+
+    public void testCloseLeavesSharedPoolRunning() throws Exception {
+        fetcher1.close(source);
+        assertTrue(fetcher1.isClosed());
+        assertFalse(fetcher2.isClosed());
+        assertFalse(ParallelBatchingFetcher.getSharedPool().isShutdown());
+    }
+
+    public void testPkStatistics() throws Exception {
+        fetcher1.recordPkStatistics("Employee.key1", 10, 5);
+        fetcher1.recordPkStatistics("Employee.key1", 20, 10);
+        String summary = fetcher1.getPkSummary().toString();
+        assertTrue(summary, summary.contains("Employee.key1: 2 fetches for 15 objects in 30 ms"
+                    + " (slowest 20 ms)"));
+        assertFalse(fetcher2.getPkSummary().toString().contains("Employee.key1"));
+    }
+}
@@ -0,0 +1,183 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Address;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.sql.DatabaseUtil;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * Tests for delta loading with SourceFingerprints, against the integration test database.
+ */
+public class SourceFingerprintsTest extends TestCase
+{
+    private IntegrationWriterDataTrackingImpl iw;
+    private Source source;
+    private Source skelSource;
+
+    public SourceFingerprintsTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        iw = (IntegrationWriterDataTrackingImpl) IntegrationWriterFactory
+            .getIntegrationWriter("integration.unittestmulti");
+        source = iw.getMainSource("testsource", "testsource");
+        skelSource = iw.getSkeletonSource("testsource", "testsource");
+    }
+
+    public void tearDown() throws Exception {
+        if (iw.isInTransaction()) {
+            iw.abortTransaction();
+        }
+        IntegrationWriterDataTrackingImplTest.removeDataFromStore(iw.getObjectStoreWriter());
+        iw.getDataTracker().clear();
+        Connection c = iw.getDataTracker().getDatabase().getConnection();
+        try {
+            if (DatabaseUtil.tableExists(c, SourceFingerprints.FINGERPRINT_TABLE)) {
+                PreparedStatement ps = c.prepareStatement("DELETE FROM "
+                        + SourceFingerprints.FINGERPRINT_TABLE + " WHERE source = ?");
+                ps.setString(1, source.getName());
+                ps.execute();
+                ps.close();
+            }
+        } finally {
+            c.close();
+        }
+        iw.reset();
+    }
+
+    public void testUnchangedSkipped() throws Exception {
+        load(makeObjects(30));
+        SourceFingerprints fingerprints = load(makeObjects(30));
+        assertEquals(4, fingerprints.getUnchangedCount());
+        assertEquals(0, fingerprints.getChangedCount());
+        assertEquals(0, fingerprints.getDeletedCount());
+    }
+
+    public void testChangedStored() throws Exception {
+        load(makeObjects(30));
+        SourceFingerprints fingerprints = load(makeObjects(31));
+        assertEquals(3, fingerprints.getUnchangedCount());
+        assertEquals(1, fingerprints.getChangedCount());
+        Employee example = new Employee();
+        example.setName("EmployeeA");
+        Employee stored = (Employee) iw.getObjectStore().getObjectByExample(example,
+                Collections.singleton("name"));
+        assertEquals(31, stored.getAge());
+    }
+
+    public void testVanishedDeleted() throws Exception {
+        load(makeObjects(30));
+        List<InterMineObject> objects = makeObjects(30);
+        // Remove the Employee, which nothing refers to
+        objects.remove(3);
+        SourceFingerprints fingerprints = load(objects);
+        assertEquals(3, fingerprints.getUnchangedCount());
+        assertEquals(1, fingerprints.getDeletedCount());
+        Employee example = new Employee();
+        example.setName("EmployeeA");
+        assertNull(iw.getObjectStore().getObjectByExample(example,
+                    Collections.singleton("name")));
+    }
+
+    public void testInboundReferences() throws Exception {
+        SourceFingerprints fingerprints = load(makeObjects(30));
+        Employee example = new Employee();
+        example.setName("EmployeeA");
+        Employee employee = (Employee) iw.getObjectStore().getObjectByExample(example,
+                Collections.singleton("name"));
+        Department department = employee.getDepartment();
+        // The Department is referred to by the Employee, which nothing refers to
+        Set<Integer> referenced = fingerprints.getReferencedIds(Arrays.<InterMineObject>asList(
+                    department, employee));
+        assertEquals(Collections.singleton(department.getId()), referenced);
+        assertTrue(fingerprints.getReferencedIds(Collections.<InterMineObject>emptySet())
+                .isEmpty());
+    }
+
+    /**
+     * An object that refers to another comes before it in the source, so the referenced object
+     * already has a destination id when it is reached. It must be stored rather than skipped,
+     * so that no skeleton is left unreplaced.
+     */
+    public void testReferrerStoredFirst() throws Exception {
+        load(makeObjects(30));
+        List<InterMineObject> objects = makeObjects(31);
+        Collections.reverse(objects);
+        SourceFingerprints fingerprints = load(objects);
+        // The Employee changed, and the Department it refers to was mapped while storing it, so
+        // both are stored. The Company and Address are stored too if they were mapped as well
+        assertTrue(fingerprints.getChangedCount() >= 2);
+        assertEquals(4, fingerprints.getUnchangedCount() + fingerprints.getChangedCount());
+        assertEquals(0, iw.skeletons.size());
+    }
+
+    /**
+     * Runs a delta load of the given objects in the same way as ObjectStoreDataLoader.
+     */
+    private SourceFingerprints load(List<InterMineObject> objects) throws Exception {
+        iw.reset();
+        iw.beginTransaction();
+        SourceFingerprints fingerprints = new SourceFingerprints(iw, source, skelSource);
+        for (InterMineObject obj : objects) {
+            if (!fingerprints.isUnchanged(obj)) {
+                iw.store(obj, source, skelSource);
+                fingerprints.stored(obj);
+            }
+        }
+        fingerprints.deleteVanished();
+        iw.commitTransaction();
+        fingerprints.save();
+        assertEquals("Some skeletons were not replaced", 0, iw.skeletons.size());
+        return fingerprints;
+    }
+
+    /**
+     * Returns an Address, a Company at that address, a Department of the Company, and an
+     * Employee of the Department with the given age, with source ids.
+     */
+    private List<InterMineObject> makeObjects(int age) {
+        Address address = new Address();
+        address.setId(new Integer(1));
+        address.setAddress("1 Delta Street");
+        Company company = (Company) DynamicUtil.createObject(Collections.singleton(
+                    Company.class));
+        company.setId(new Integer(2));
+        company.setName("CompanyA");
+        company.setAddress(address);
+        Department department = new Department();
+        department.setId(new Integer(3));
+        department.setName("DepartmentA");
+        department.setCompany(company);
+        Employee employee = new Employee();
+        employee.setId(new Integer(4));
+        employee.setName("EmployeeA");
+        employee.setAge(age);
+        employee.setDepartment(department);
+        return new ArrayList<InterMineObject>(Arrays.asList(address, company, department,
+                    employee));
+    }
+}
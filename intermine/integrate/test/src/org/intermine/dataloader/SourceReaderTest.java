@@ -0,0 +1,126 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class SourceReaderTest extends TestCase
+{
+    public void testOrder() throws Exception {
+        List<Integer> source = new ArrayList<Integer>();
+        for (int i = 0; i < 10000; i++) {
+            source.add(new Integer(i));
+        }
+        // A small read-ahead, so that the reader often waits for the consumer
+        SourceReader<Integer> reader = new SourceReader<Integer>(source, 7);
+        Thread thread = reader.start("test reader");
+        List<Integer> got = new ArrayList<Integer>();
+        for (Integer i : reader) {
+            got.add(i);
+        }
+        reader.checkProblem();
+        thread.join();
+        assertEquals(source, got);
+        assertEquals(10000, reader.getCount());
+    }
+
+    public void testProblemPropagated() throws Exception {
+        final RuntimeException failure = new RuntimeException("Source failed");
+        Iterable<Integer> source = new Iterable<Integer>() {
+            public Iterator<Integer> iterator() {
+                return new Iterator<Integer>() {
+                    private int next = 0;
+
+                    public boolean hasNext() {
+                        return true;
+                    }
+
+                    public Integer next() {
+                        if (next == 5) {
+                            throw failure;
+                        }
+                        return new Integer(next++);
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+        SourceReader<Integer> reader = new SourceReader<Integer>(source, 100);
+        reader.start("test reader");
+        List<Integer> got = new ArrayList<Integer>();
+        for (Integer i : reader) {
+            got.add(i);
+        }
+        // The objects read before the failure are delivered, and the failure is not mistaken
+        // for the end of the source
+        assertEquals(5, got.size());
+        try {
+            reader.checkProblem();
+            fail("Expected RuntimeException");
+        } catch (RuntimeException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    public void testErrorPropagated() throws Exception {
+        Iterable<Integer> source = new Iterable<Integer>() {
+            public Iterator<Integer> iterator() {
+                throw new AssertionError("Cannot read");
+            }
+        };
+        SourceReader<Integer> reader = new SourceReader<Integer>(source, 100);
+        reader.start("test reader");
+        assertFalse(reader.iterator().hasNext());
+        try {
+            reader.checkProblem();
+            fail("Expected AssertionError");
+        } catch (AssertionError e) {
+            assertEquals("Cannot read", e.getMessage());
+        }
+    }
+
+    public void testStop() throws Exception {
+        Iterable<Integer> source = new Iterable<Integer>() {
+            public Iterator<Integer> iterator() {
+                return new Iterator<Integer>() {
+                    private int next = 0;
+
+                    public boolean hasNext() {
+                        return true;
+                    }
+
+                    public Integer next() {
+                        return new Integer(next++);
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+        SourceReader<Integer> reader = new SourceReader<Integer>(source, 10);
+        Thread thread = reader.start("test reader");
+        assertEquals(new Integer(0), reader.iterator().next());
+        // The storing thread gives up, and the endless reader must not be left blocked
+        reader.stop();
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        reader.checkProblem();
+    }
+}
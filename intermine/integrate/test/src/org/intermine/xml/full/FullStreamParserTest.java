@@ -0,0 +1,86 @@
+package org.intermine.xml.full;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class FullStreamParserTest extends TestCase
+{
+    public FullStreamParserTest(String arg) {
+        super(arg);
+    }
+
+    public void testNext() throws Exception {
+        List<Item> expected = FullParser.parse(getClass().getClassLoader()
+                .getResourceAsStream("FullParserTest.xml"));
+        InputStream is = getClass().getClassLoader().getResourceAsStream("FullParserTest.xml");
+        FullStreamParser parser = new FullStreamParser(is);
+        List<Item> items = new ArrayList<Item>();
+        Item item = parser.next();
+        while (item != null) {
+            items.add(item);
+            item = parser.next();
+        }
+        parser.close();
+        assertEquals(expected, items);
+        assertEquals(4, parser.getCount());
+        assertNull(parser.next());
+    }
+
+    public void testNextBatch() throws Exception {
+        List<Item> expected = FullParser.parse(getClass().getClassLoader()
+                .getResourceAsStream("FullParserTest.xml"));
+        InputStream is = getClass().getClassLoader().getResourceAsStream("FullParserTest.xml");
+        FullStreamParser parser = new FullStreamParser(is);
+        List<Item> batch = parser.nextBatch(3);
+        assertEquals(expected.subList(0, 3), batch);
+        batch = parser.nextBatch(3);
+        assertEquals(expected.subList(3, 4), batch);
+        assertTrue(parser.nextBatch(3).isEmpty());
+    }
+
+    public void testForwardReference() throws Exception {
+        String xml = "<items><item id=\"0_1\" class=\"Employee\" implements=\"\">"
+            + "<reference name=\"department\" ref_id=\"0_2\"/></item>"
+            + "<item id=\"0_2\" class=\"Department\" implements=\"\">"
+            + "<collection name=\"employees\"><reference ref_id=\"0_1\"/></collection>"
+            + "</item></items>";
+        FullStreamParser parser = new FullStreamParser(new StringReader(xml));
+        Item employee = parser.next();
+        assertEquals("0_2", employee.getReference("department").getRefId());
+        Item department = parser.next();
+        assertEquals("0_1", department.getCollection("employees").getRefIds().get(0));
+        assertNull(parser.next());
+    }
+
+    public void testDeclaredEncoding() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>"
+            + "<items><item id=\"0_1\" class=\"Gene\" implements=\"\">"
+            + "<attribute name=\"name\" value=\"\u00e9t\u00e9\"/></item></items>";
+        FullStreamParser parser = new FullStreamParser(new ByteArrayInputStream(
+                    xml.getBytes("ISO-8859-1")));
+        assertEquals("\u00e9t\u00e9", parser.next().getAttribute("name").getValue());
+    }
+
+    public void testNull() throws Exception {
+        try {
+            new FullStreamParser((InputStream) null);
+            fail("Expected: NullPointerException");
+        } catch (NullPointerException e) {
+        }
+    }
+}
@@ -109,6 +109,11 @@ public final class MetadataManager
      */
     public static final String NO_NOTXML = "noNotXml";
 
+    /**
+     * The name of the key used to store the format of the OBJECT field, "notxml" or "packed".
+     */
+    public static final String OBJECT_FORMAT = "objectFormat";
+
     /**
      * The name of the key used to store the modMine MetaData cache
      */
@@ -24,6 +24,7 @@ import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsInfo;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.ResultsStream;
 import org.intermine.objectstore.query.SingletonResults;
 
 /**
@@ -110,6 +111,19 @@ public interface ObjectStore
     List<ResultsRow<Object>> execute(Query q, int start, int limit, boolean optimise,
             boolean explain, Map<Object, Integer> sequence) throws ObjectStoreException;
 
+    /**
+     * Execute a Query on this ObjectStore, returning the rows through a forward-only stream.
+     * This is intended for reading very large result sets once from start to finish, such as
+     * exports. Where the ObjectStore supports it the rows are read from a single database cursor,
+     * so that no OFFSET queries are issued and only one fetch window of rows is held in memory at
+     * a time. The stream should be closed if it is not read to the end.
+     *
+     * @param q the Query to execute
+     * @return a ResultsStream of ResultsRows
+     * @throws ObjectStoreException if an error occurs starting the Query
+     */
+    ResultsStream executeStreaming(Query q) throws ObjectStoreException;
+
     /**
      * Get an object from the ObjectStore by giving an ID.
      *
@@ -26,16 +26,21 @@ import java.util.WeakHashMap;
 import org.apache.log4j.Logger;
 import org.intermine.metadata.MetaDataException;
 import org.intermine.metadata.Model;
+import org.intermine.metadata.TypeUtil;
 import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.query.Clob;
 import org.intermine.objectstore.query.ObjectStoreBag;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryCreator;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsBatches;
+import org.intermine.objectstore.query.ResultsIteratorStream;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.ResultsStream;
 import org.intermine.objectstore.query.SingletonResults;
-import org.intermine.util.CacheMap;
 import org.intermine.util.PropertiesUtil;
+import org.intermine.util.StripedCacheMap;
+import org.intermine.util.WeightedCacheMap;
 
 /**
  * Abstract implementation of the ObjectStore interface. Used to provide uniformity
@@ -47,6 +52,10 @@ import org.intermine.util.PropertiesUtil;
 public abstract class ObjectStoreAbstractImpl implements ObjectStore
 {
     private static final Logger LOG = Logger.getLogger(ObjectStoreAbstractImpl.class);
+    /** The default maximum estimated size in bytes of the objects in the getObjectById cache */
+    public static final long DEFAULT_OBJECT_CACHE_WEIGHT = 64L * 1024 * 1024;
+    /** The default number of independently locked stripes of the getObjectById cache */
+    public static final int DEFAULT_OBJECT_CACHE_STRIPES = 16;
 
     protected static Random rand = new Random();
 
@@ -56,7 +65,7 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
     protected long maxTime = Long.MAX_VALUE;
     // Optimiser will use a default query parse time if none is provided from properties
     protected Long maxQueryParseTime = null;
-    protected CacheMap<Integer, InterMineObject> cache;
+    protected StripedCacheMap<Integer, InterMineObject> cache;
 
     protected int getObjectOps = 0;
     protected int getObjectHits = 0;
@@ -97,10 +106,22 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
             maxQueryParseTime = Long.parseLong((String) props.get("max-query-parse-time"));
         }
 
+        long objectCacheWeight = DEFAULT_OBJECT_CACHE_WEIGHT;
+        if (props.get("object-cache-weight") != null) {
+            objectCacheWeight = Long.parseLong((String) props.get("object-cache-weight"));
+        }
+        int objectCacheStripes = DEFAULT_OBJECT_CACHE_STRIPES;
+        if (props.get("object-cache-stripes") != null) {
+            objectCacheStripes = Integer.parseInt((String) props.get("object-cache-stripes"));
+        }
+
         LOG.info("Creating new " + getClass().getName() + " with sequence = " + sequenceNumber
                 + ", model = \"" + model.getName() + "\"");
-        cache = new CacheMap<Integer, InterMineObject>(getClass().getName() + " with sequence = "
-                + sequenceNumber + ", model = \"" + model.getName() + "\" getObjectById cache");
+        // values are held softly, so the cache still gives memory back under pressure
+        cache = new StripedCacheMap<Integer, InterMineObject>(getClass().getName()
+                + " with sequence = " + sequenceNumber + ", model = \"" + model.getName()
+                + "\" getObjectById cache", objectCacheStripes, objectCacheWeight,
+                new ObjectWeigher(), true);
     }
 
     /**
@@ -170,6 +191,17 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
         return retval;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation reads through a Results object one batch at a time. Subclasses that
+     * can hold a database cursor open should override this method.
+     */
+    public ResultsStream executeStreaming(Query q) throws ObjectStoreException {
+        return new ResultsIteratorStream(execute(q, ResultsBatches.DEFAULT_BATCH_SIZE, true, false,
+                    true));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -191,13 +223,15 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
         if (getObjectOps % 10000 == 0) {
             LOG.info("getObjectById called " + getObjectOps + " times. Cache hits: "
                     + getObjectHits + ". Prefetches: " + getObjectPrefetches);
+            LOG.info(cache.getStatistics());
         }
         boolean contains = true;
         InterMineObject cached = null;
-        synchronized (cache) {
-            cached = cache.get(id);
+        WeightedCacheMap<Integer, InterMineObject> stripe = cache.getStripe(id);
+        synchronized (stripe) {
+            cached = stripe.get(id);
             if (cached == null) {
-                contains = cache.containsKey(id);
+                contains = stripe.containsKey(id);
             }
         }
         if (contains) {
@@ -205,10 +239,10 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
             return cached;
         }
         InterMineObject fromDb = internalGetObjectById(id, clazz);
-        synchronized (cache) {
-            cached = cache.get(id);
+        synchronized (stripe) {
+            cached = stripe.get(id);
             if (cached == null) {
-                contains = cache.containsKey(id);
+                contains = stripe.containsKey(id);
             }
             if (contains) {
                 fromDb = cached;
@@ -297,8 +331,9 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
      * {@inheritDoc}
      */
     public void invalidateObjectById(Integer id) {
-        synchronized (cache) {
-            cache.remove(id);
+        WeightedCacheMap<Integer, InterMineObject> stripe = cache.getStripe(id);
+        synchronized (stripe) {
+            stripe.remove(id);
         }
     }
 
@@ -306,8 +341,9 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
      * {@inheritDoc}
      */
     public Object cacheObjectById(Integer id, InterMineObject obj) {
-        synchronized (cache) {
-            cache.put(id, obj);
+        WeightedCacheMap<Integer, InterMineObject> stripe = cache.getStripe(id);
+        synchronized (stripe) {
+            stripe.put(id, obj);
         }
         return obj;
     }
@@ -316,17 +352,16 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
      * {@inheritDoc}
      */
     public void flushObjectById() {
-        synchronized (cache) {
-            cache.clear();
-        }
+        cache.clear();
     }
 
     /**
      * {@inheritDoc}
      */
     public InterMineObject pilferObjectById(Integer id) {
-        synchronized (cache) {
-            return cache.get(id);
+        WeightedCacheMap<Integer, InterMineObject> stripe = cache.getStripe(id);
+        synchronized (stripe) {
+            return stripe.get(id);
         }
     }
 
@@ -512,4 +547,37 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
     public Clob createClob() throws ObjectStoreException {
         return new Clob(getSerial().intValue());
     }
+
+    /**
+     * Gives the objects in the getObjectById cache a weight of their approximate size in bytes,
+     * counting their attribute values and one pointer for each reference and collection.
+     */
+    protected static class ObjectWeigher implements WeightedCacheMap.Weigher<Integer,
+            InterMineObject>
+    {
+        /**
+         * {@inheritDoc}
+         */
+        public int weigh(Integer id, InterMineObject obj) {
+            if (obj == null) {
+                return 16;
+            }
+            int retval = 32;
+            for (TypeUtil.FieldInfo info : TypeUtil.getFieldInfos(obj.getClass()).values()) {
+                retval += 16;
+                Class<?> type = info.getType();
+                if (String.class.equals(type)) {
+                    try {
+                        String value = (String) obj.getFieldValue(info.getName());
+                        if (value != null) {
+                            retval += 40 + 2 * value.length();
+                        }
+                    } catch (IllegalAccessException e) {
+                        // Count the field only
+                    }
+                }
+            }
+            return retval;
+        }
+    }
 }
@@ -23,6 +23,7 @@ import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsInfo;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.ResultsStream;
 import org.intermine.objectstore.query.SingletonResults;
 
 /**
@@ -89,6 +90,13 @@ public class ObjectStorePassthruImpl implements ObjectStore
         return os.execute(q, start, limit, optimise, explain, sequence);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ResultsStream executeStreaming(Query q) throws ObjectStoreException {
+        return os.executeStreaming(q);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -105,6 +105,11 @@ public final class ObjectStoreWriterFactory
                     LOG.warn("Could not find requested BatchWriter " + batchWriterClass);
                 }
             }
+            String flushConnections = props.getProperty("flushConnections");
+            if (flushConnections != null) {
+                ((ObjectStoreWriterInterMineImpl) osw).setFlushConnections(Integer.parseInt(
+                            flushConnections));
+            }
         }
         return osw;
     }
@@ -41,7 +41,10 @@ import org.intermine.objectstore.query.QueryForeignKey;
 import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsBatches;
+import org.intermine.objectstore.query.ResultsIteratorStream;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.ResultsStream;
 import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.objectstore.query.SingletonResults;
 import org.intermine.util.CacheHoldingArrayList;
@@ -183,6 +186,18 @@ public class ObjectStoreFastCollectionsImpl extends ObjectStorePassthruImpl
     private long timeSpentProcess = 0;
     private int queryCount = 0;
 
+    /**
+     * {@inheritDoc}
+     *
+     * The collections of the streamed objects are filled in batch by batch, so this reads through
+     * a Results object rather than passing the stream through.
+     */
+    @Override
+    public ResultsStream executeStreaming(Query q) throws ObjectStoreException {
+        return new ResultsIteratorStream(execute(q, ResultsBatches.DEFAULT_BATCH_SIZE, true, false,
+                    true));
+    }
+
     /**
      * {@inheritDoc}
      */
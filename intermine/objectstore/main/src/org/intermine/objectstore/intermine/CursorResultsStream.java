@@ -0,0 +1,168 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.ResultsStream;
+
+/**
+ * A ResultsStream that reads rows from a server-side database cursor. The stream owns a
+ * Connection for its whole lifetime, inside a single transaction, and converts the rows one fetch
+ * window at a time, so only one window of objects is ever held by the stream. The Connection is
+ * given back to the ObjectStore when the cursor is exhausted or the stream is closed.
+ *
+ * @author InterMine
+ */
+public class CursorResultsStream implements ResultsStream
+{
+    private static final Logger LOG = Logger.getLogger(CursorResultsStream.class);
+
+    private ObjectStoreInterMineImpl os;
+    private Connection c;
+    private Statement s;
+    private ResultSet sqlResults;
+    private Query q;
+    private Map<Object, Integer> sequence;
+    private int fetchSize;
+    private Iterator<ResultsRow<Object>> window = null;
+    private int rowCount = 0;
+    private long conTime = 0;
+    private long extraTime = 0;
+
+    /**
+     * Constructs a CursorResultsStream. The Connection must be in a transaction, and the ResultSet
+     * must have been produced by a forward-only Statement with a fetch size set, otherwise the
+     * database driver will read the whole result set into memory.
+     *
+     * @param os the ObjectStoreInterMineImpl that the Connection belongs to
+     * @param c the Connection, which this object will release
+     * @param s the Statement that produced the ResultSet
+     * @param sqlResults the ResultSet to read rows from
+     * @param q the Query being executed
+     * @param sequence an object representing the state of the database
+     * @param fetchSize the number of rows to convert at a time
+     */
+    protected CursorResultsStream(ObjectStoreInterMineImpl os, Connection c, Statement s,
+            ResultSet sqlResults, Query q, Map<Object, Integer> sequence, int fetchSize) {
+        this.os = os;
+        this.c = c;
+        this.s = s;
+        this.sqlResults = sqlResults;
+        this.q = q;
+        this.sequence = sequence;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        if ((window != null) && window.hasNext()) {
+            return true;
+        }
+        if (c == null) {
+            return false;
+        }
+        List<ResultsRow<Object>> rows;
+        try {
+            long start = System.currentTimeMillis();
+            ExtraQueryTime extra = new ExtraQueryTime();
+            rows = ResultsConverter.convert(sqlResults, q, os, c, sequence, true, extra, null,
+                    null, fetchSize);
+            extraTime += extra.getQueryTime();
+            conTime += System.currentTimeMillis() - start - extra.getQueryTime();
+        } catch (ObjectStoreException e) {
+            close();
+            throw new RuntimeException("ObjectStore error has occurred (in hasNext)", e);
+        }
+        rowCount += rows.size();
+        if (rows.size() < fetchSize) {
+            release();
+        }
+        window = rows.iterator();
+        return window.hasNext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultsRow<Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return window.next();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        window = null;
+        release();
+    }
+
+    /**
+     * Closes the cursor and gives the Connection back to the ObjectStore.
+     */
+    private synchronized void release() {
+        if (c != null) {
+            try {
+                sqlResults.close();
+                s.close();
+                c.commit();
+                c.setAutoCommit(true);
+            } catch (SQLException e) {
+                LOG.warn("Error closing cursor for query " + q, e);
+            }
+            os.releaseConnection(c);
+            c = null;
+            sqlResults = null;
+            s = null;
+            if (os.getVerboseQueryLog()) {
+                LOG.info("Closed cursor after " + rowCount + " rows, convert results: "
+                        + conTime + " ms, extra queries: " + extraTime + " ms, for query " + q);
+            }
+        }
+    }
+
+    /**
+     * Overrides Object.finalize - release the Connection if the stream was abandoned.
+     *
+     * @throws Throwable never
+     */
+    @Override
+    protected void finalize() throws Throwable {
+        super.finalize();
+        if (c != null) {
+            LOG.error("Garbage collecting CursorResultsStream that was not closed, for query " + q);
+            release();
+        }
+    }
+}
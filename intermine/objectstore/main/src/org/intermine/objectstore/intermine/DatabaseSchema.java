@@ -37,6 +37,10 @@ import org.intermine.objectstore.ObjectStoreException;
 public class DatabaseSchema
 {
     private static final Logger LOG = Logger.getLogger(DatabaseSchema.class);
+    /** The objectFormat property value for the NotXml format of the OBJECT field */
+    public static final String OBJECT_FORMAT_NOTXML = "notxml";
+    /** The objectFormat property value for the packed format of the OBJECT field */
+    public static final String OBJECT_FORMAT_PACKED = "packed";
 
     private Model model;
     private List<ClassDescriptor> truncated;
@@ -45,6 +49,7 @@ public class DatabaseSchema
     private Set<String> missingTables;
     private boolean fetchFromInterMineObject;
     private int version;
+    private boolean packedObjects = false;
     protected boolean hasBioSeg;
     protected boolean useRangeTypes;
 
@@ -167,6 +172,26 @@ public class DatabaseSchema
         return fetchFromInterMineObject;
     }
 
+    /**
+     * Sets whether objects are written to the OBJECT field in the packed format rather than as
+     * NotXml. Objects in either format can always be read.
+     *
+     * @param packedObjects true to write packed objects
+     */
+    public void setPackedObjects(boolean packedObjects) {
+        this.packedObjects = packedObjects;
+    }
+
+    /**
+     * Returns true if objects are written to the OBJECT field in the packed format rather than
+     * as NotXml.
+     *
+     * @return a boolean
+     */
+    public boolean isPackedObjects() {
+        return packedObjects;
+    }
+
     /**
      * Returns the database format version.
      *
@@ -10,10 +10,12 @@ package org.intermine.objectstore.intermine;
  *
  */
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -53,7 +55,8 @@ public final class NotXmlParser
      */
     public static final String ENCODED_DELIM = "d";
     /**
-     * A Pattern that will find delimiters.
+     * A Pattern that will find delimiters. The split(String) method of this class is a faster
+     * equivalent of SPLITTER.split().
      */
     public static final Pattern SPLITTER = Pattern.compile(DELIM, Pattern.LITERAL);
     private static final Pattern SPACE_SPLITTER = Pattern.compile(" ", Pattern.LITERAL);
@@ -66,7 +69,8 @@ public final class NotXmlParser
         = Collections.synchronizedMap(new HashMap<String, Class<? extends FastPathObject>>());
 
     /**
-     * Parse the given NotXml String into an Object.
+     * Parse the given NotXml String into an Object. Objects in the packed format are passed on
+     * to PackedObjectParser, so this method reads the OBJECT field whichever format it is in.
      *
      * @param xml the NotXml String
      * @param os the ObjectStore from which to create lazy objects
@@ -79,9 +83,11 @@ public final class NotXmlParser
             Exception e = new Exception();
             e.fillInStackTrace();
             LOG.warn("Parsing " + xml, e);
+        } else if (PackedObjectParser.isPacked(xml)) {
+            return PackedObjectParser.parse(xml, os);
         }
         long time1 = System.currentTimeMillis();
-        String[] a = SPLITTER.split(xml);
+        String[] a = split(xml);
         long time2 = System.currentTimeMillis();
         splitTime += time2 - time1;
 
@@ -119,8 +125,10 @@ public final class NotXmlParser
             boolean fetchFromInterMineObject = os.getSchema().isFetchFromInterMineObject();
             for (int i = 2; i < a.length; i += 2) {
                 if (a[i].startsWith("a")) {
-                    String fieldName = a[i].substring(1).intern();
-                    Class<?> fieldClass = fieldInfos.get(fieldName).getType();
+                    TypeUtil.FieldInfo fieldInfo = fieldInfos.get(a[i].substring(1));
+                    // Use the FieldInfo's copy of the name, so all objects share one String
+                    String fieldName = fieldInfo.getName();
+                    Class<?> fieldClass = fieldInfo.getType();
                     String firstString = (i + 1 == a.length ? "" : a[i + 1]);
                     StringBuffer string = null;
                     while ((i + 2 < a.length) && (a[i + 2].startsWith(ENCODED_DELIM))) {
@@ -139,7 +147,11 @@ public final class NotXmlParser
                                         : string.toString())));
                     }
                 } else if (a[i].startsWith("r")) {
-                    String fieldName = a[i].substring(1).intern();
+                    String fieldName = a[i].substring(1);
+                    TypeUtil.FieldInfo fieldInfo = fieldInfos.get(fieldName);
+                    if (fieldInfo != null) {
+                        fieldName = fieldInfo.getName();
+                    }
                     Integer id = Integer.valueOf(a[i + 1]);
                     if (fetchFromInterMineObject) {
                         valueMap.put(fieldName, new ProxyReference(os, id,
@@ -255,4 +267,58 @@ public final class NotXmlParser
             }
         }
     }
+
+    /**
+     * Creates an empty object of the classes named in a space-separated list, as in the OBJECT
+     * field.
+     *
+     * @param classNames the names of the classes
+     * @return a new object
+     * @throws ClassNotFoundException if a class cannot be found
+     */
+    static InterMineObject createObject(String classNames) throws ClassNotFoundException {
+        Class<? extends FastPathObject> clazz = classCache.get(classNames);
+        if (clazz == null) {
+            Set<Class<?>> classes = new HashSet<Class<?>>();
+            if (!"".equals(classNames)) {
+                String[] b = SPACE_SPLITTER.split(classNames);
+                for (int i = 0; i < b.length; i++) {
+                    classes.add(Class.forName(b[i]));
+                }
+            }
+            InterMineObject retval = (InterMineObject) DynamicUtil.createObject(classes);
+            classCache.put(classNames, retval.getClass());
+            return retval;
+        }
+        return (InterMineObject) DynamicUtil.createObject(clazz);
+    }
+
+    /**
+     * Splits a NotXml String around the delimiter. The result is identical to that of
+     * SPLITTER.split(xml), including the removal of trailing empty Strings, but the delimiter is
+     * found with String.indexOf() rather than a regular expression Matcher, which is
+     * significantly faster for the short sections that make up most NotXml.
+     *
+     * @param xml the NotXml String
+     * @return an array of Strings
+     */
+    public static String[] split(String xml) {
+        int end = xml.indexOf(DELIM);
+        if (end == -1) {
+            return new String[] {xml};
+        }
+        List<String> parts = new ArrayList<String>();
+        int start = 0;
+        while (end != -1) {
+            parts.add(xml.substring(start, end));
+            start = end + DELIM.length();
+            end = xml.indexOf(DELIM, start);
+        }
+        parts.add(xml.substring(start));
+        int size = parts.size();
+        while ((size > 0) && (parts.get(size - 1).length() == 0)) {
+            size--;
+        }
+        return parts.subList(0, size).toArray(new String[size]);
+    }
 }
@@ -0,0 +1,191 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStoreException;
+
+/**
+ * Coalesces getObjectById requests from several threads into single SQL queries. Only one query
+ * per class runs at a time. Requests that arrive while it is running are collected into a batch,
+ * which is fetched by one query as soon as the running query finishes. A single thread therefore
+ * never waits for anyone else, but many threads resolving references at once share a handful of
+ * queries. Optionally, the thread that fetches a batch can wait for a short window first, to
+ * let more requests join the batch.
+ *
+ * @author InterMine
+ */
+class ObjectByIdBatcher
+{
+    /** The maximum number of ids to fetch in one query */
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    private final ObjectStoreInterMineImpl os;
+    private final Map<Class<?>, Batch> pending = new HashMap<Class<?>, Batch>();
+    private final Set<Class<?>> running = new HashSet<Class<?>>();
+    private int window = 0;
+    private long requests = 0;
+    private long queries = 0;
+
+    /**
+     * Constructs a new ObjectByIdBatcher.
+     *
+     * @param os the ObjectStoreInterMineImpl to fetch objects from
+     */
+    ObjectByIdBatcher(ObjectStoreInterMineImpl os) {
+        this.os = os;
+    }
+
+    /**
+     * Sets the number of milliseconds the thread that fetches a batch waits for more requests to
+     * join it. The default is zero.
+     *
+     * @param window a number of milliseconds
+     */
+    public synchronized void setWindow(int window) {
+        this.window = window;
+    }
+
+    /**
+     * Returns the number of milliseconds the thread that fetches a batch waits for more requests
+     * to join it.
+     *
+     * @return a number of milliseconds
+     */
+    public synchronized int getWindow() {
+        return window;
+    }
+
+    /**
+     * Fetches an object by id, possibly in the same query as objects requested by other threads.
+     *
+     * @param id the id of the object
+     * @param clazz a Class of the object
+     * @return the object, or null if there is no object with that id
+     * @throws ObjectStoreException if an error occurs
+     */
+    public InterMineObject getObjectById(Integer id, Class<?> clazz)
+        throws ObjectStoreException {
+        Batch batch;
+        int batchWindow;
+        synchronized (this) {
+            requests++;
+            batch = pending.get(clazz);
+            if ((batch == null) || (batch.ids.size() >= MAX_BATCH_SIZE)) {
+                batch = new Batch();
+                pending.put(clazz, batch);
+            }
+            batch.ids.add(id);
+            while ((!batch.done) && (batch.started || running.contains(clazz))) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // The id stays in the batch, and is fetched for any other thread that wants
+                    // it, but this thread gives up waiting.
+                    Thread.currentThread().interrupt();
+                    throw new ObjectStoreException("Interrupted while waiting for object " + id
+                            + " to be fetched", e);
+                }
+            }
+            if (batch.done) {
+                return batch.getResult(id);
+            }
+            // Nobody is fetching objects of this class, so this thread fetches the batch.
+            batch.started = true;
+            running.add(clazz);
+            batchWindow = window;
+        }
+        try {
+            if (batchWindow > 0) {
+                try {
+                    Thread.sleep(batchWindow);
+                } catch (InterruptedException e) {
+                    // Other threads may be waiting for this batch, so cut the window short and
+                    // fetch it now rather than abandoning it.
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Set<Integer> ids;
+            synchronized (this) {
+                if (pending.get(clazz) == batch) {
+                    pending.remove(clazz);
+                }
+                ids = new LinkedHashSet<Integer>(batch.ids);
+                queries++;
+            }
+            Map<Integer, InterMineObject> results = new HashMap<Integer, InterMineObject>();
+            Set<Integer> duplicates = new HashSet<Integer>();
+            try {
+                os.internalGetObjectsByIds(ids, clazz, results, duplicates);
+            } catch (ObjectStoreException e) {
+                batch.failure = e;
+            } catch (RuntimeException e) {
+                batch.failure = new ObjectStoreException("Problem fetching objects by id", e);
+            }
+            synchronized (this) {
+                batch.results = results;
+                batch.duplicates = duplicates;
+            }
+        } finally {
+            synchronized (this) {
+                if ((batch.results == null) && (batch.failure == null)) {
+                    batch.failure = new ObjectStoreException("Fetching objects by id failed");
+                }
+                if (pending.get(clazz) == batch) {
+                    pending.remove(clazz);
+                }
+                batch.done = true;
+                running.remove(clazz);
+                notifyAll();
+            }
+        }
+        return batch.getResult(id);
+    }
+
+    /**
+     * Returns a description of how well requests have been batched, suitable for log messages.
+     *
+     * @return a String
+     */
+    public synchronized String getStatistics() {
+        return "getObjectById batches: requests: " + requests + ", queries: " + queries;
+    }
+
+    /**
+     * A set of ids that are fetched in one query, and the results of that query.
+     */
+    private static class Batch
+    {
+        Set<Integer> ids = new HashSet<Integer>();
+        boolean started = false;
+        boolean done = false;
+        Map<Integer, InterMineObject> results = null;
+        Set<Integer> duplicates = null;
+        ObjectStoreException failure = null;
+
+        InterMineObject getResult(Integer id) throws ObjectStoreException {
+            if (failure != null) {
+                throw new ObjectStoreException(failure.getMessage(), failure);
+            }
+            if (duplicates.contains(id)) {
+                throw new ObjectStoreException("More than one object in the database has this"
+                        + " primary key");
+            }
+            return results.get(id);
+        }
+    }
+}
@@ -13,6 +13,7 @@ package org.intermine.objectstore.intermine;
 import static org.intermine.objectstore.query.ResultsBatches.DEFAULT_BATCH_SIZE;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
@@ -34,6 +35,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.WeakHashMap;
 
 import org.apache.log4j.Logger;
@@ -60,6 +62,7 @@ import org.intermine.objectstore.query.ConstraintWithBag;
 import org.intermine.objectstore.query.FromElement;
 import org.intermine.objectstore.query.MultipleInBagConstraint;
 import org.intermine.objectstore.query.OrderDescending;
+import org.intermine.objectstore.query.PrefetchManager;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryClassBag;
@@ -73,7 +76,9 @@ import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsBatches;
 import org.intermine.objectstore.query.ResultsInfo;
+import org.intermine.objectstore.query.ResultsIteratorStream;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.ResultsStream;
 import org.intermine.objectstore.query.SingletonResults;
 import org.intermine.sql.Database;
 import org.intermine.sql.DatabaseFactory;
@@ -92,6 +97,7 @@ import org.intermine.sql.writebatch.BatchWriterPostgresCopyImpl;
 import org.intermine.util.CacheMap;
 import org.intermine.util.ShutdownHook;
 import org.intermine.util.Shutdownable;
+import org.intermine.util.WeightedCacheMap;
 
 /**
  * An SQL-backed implementation of the ObjectStore interface. The schema is oriented towards data
@@ -107,6 +113,15 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     private static final Logger SQLLOGGER = Logger.getLogger("sqllogger");
 
     protected static final int CACHE_LARGEST_OBJECT = 5000000;
+    /**
+     * The default maximum weight of each of the Results caches, where a Results weighs its batch
+     * size, the number of rows it holds in memory for each batch it has fetched
+     */
+    public static final long DEFAULT_RESULTS_CACHE_WEIGHT = 1000000;
+    /** The default maximum number of queries whose ResultsBatches are cached */
+    public static final long DEFAULT_BATCHES_CACHE_SIZE = 1000;
+    /** The default estimated number of rows above which count() splits a query into ranges */
+    public static final long DEFAULT_COUNT_MIN_ROWS = 1000000;
     protected static Map<String, ObjectStoreInterMineImpl> instances
         = new HashMap<String, ObjectStoreInterMineImpl>();
     protected Database db;
@@ -124,6 +139,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     protected long statsEstTime = 0;
     protected long statsExeTime = 0;
     protected long statsConTime = 0;
+    protected QueryStatistics queryStatistics = new QueryStatistics();
     protected QueryOptimiserContext limitedContext;
     protected boolean verboseQueryLog = false;
     protected boolean logBeforeExecute = false;
@@ -132,6 +148,12 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     protected static final int SEQUENCE_MULTIPLE = 1000000;
     protected boolean logExplains = false;
     protected boolean disableResultsCache = false;
+    protected int streamingFetchSize = DEFAULT_BATCH_SIZE;
+    protected File optimiserCacheFile = null;
+    protected ObjectByIdBatcher objectByIdBatcher = new ObjectByIdBatcher(this);
+    protected int countPartitions = 1;
+    private ParallelCounter parallelCounter = null;
+    protected long countMinRows = DEFAULT_COUNT_MIN_ROWS;
 
     // don't use a table to represent bags if the bag is smaller than this value
     protected int minBagTableSize = -1;
@@ -146,11 +168,21 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     protected Map<Query, Integer> goFasterCountMap = new IdentityHashMap<Query, Integer>();
     protected ReferenceQueue<String> bagTablesToRemove = new ReferenceQueue<String>();
     protected String description;
-    protected Map<String, Results> resultsCache = new CacheMap<String, Results>();
-    protected Map<String, SingletonResults> singletonResultsCache
-        = new CacheMap<String, SingletonResults>();
-    protected Map<String, Map<Integer, ResultsBatches>> batchesCache
-        = new CacheMap<String, Map<Integer, ResultsBatches>>();
+    // The values of the results caches are held softly, as a Results holds on to its Query, and
+    // so to the BagConstraints whose temporary bag tables are dropped once they are unreachable
+    protected WeightedCacheMap<String, Results> resultsCache
+        = new WeightedCacheMap<String, Results>("Results cache", DEFAULT_RESULTS_CACHE_WEIGHT,
+                new ResultsWeigher(), true);
+    protected WeightedCacheMap<String, SingletonResults> singletonResultsCache
+        = new WeightedCacheMap<String, SingletonResults>("SingletonResults cache",
+                DEFAULT_RESULTS_CACHE_WEIGHT, new ResultsWeigher(), true);
+    protected WeightedCacheMap<String, Map<Integer, ResultsBatches>> batchesCache
+        = new WeightedCacheMap<String, Map<Integer, ResultsBatches>>("ResultsBatches cache",
+                DEFAULT_BATCHES_CACHE_SIZE, new WeightedCacheMap.Weigher<String, Object>() {
+                    public int weigh(String key, Object value) {
+                        return 1;
+                    }
+                }, true);
 
     private static final String[] LOG_TABLE_COLUMNS = new String[] {"timestamp", "optimise",
         "estimated", "execute", "permitted", "convert", "iql", "sql"};
@@ -336,6 +368,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         String missingTablesString = props.getProperty("missingTables");
         String truncatedClassesString = props.getProperty("truncatedClasses");
         String noNotXmlString = props.getProperty("noNotXml");
+        String objectFormatString = props.getProperty("objectFormat");
 
         // Non-format properties
         String logfile = props.getProperty("logfile");
@@ -400,6 +433,9 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                                 MetadataManager.MISSING_TABLES);
                         noNotXmlString = MetadataManager.retrieve(database,
                                 MetadataManager.NO_NOTXML);
+                        // Missing from databases built before the packed format existed
+                        objectFormatString = MetadataManager.retrieve(database,
+                                MetadataManager.OBJECT_FORMAT);
                     } catch (SQLException e) {
                         throw new IllegalArgumentException("Couldn't retrieve embedded config "
                                 + "for ObjectStore " + osAlias);
@@ -431,6 +467,14 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                     throw new ObjectStoreException("Invalid value for property noNotXml: "
                             + noNotXmlString);
                 }
+                boolean packedObjects = false;
+                if (DatabaseSchema.OBJECT_FORMAT_PACKED.equals(objectFormatString)) {
+                    packedObjects = true;
+                } else if ((objectFormatString != null)
+                        && !DatabaseSchema.OBJECT_FORMAT_NOTXML.equals(objectFormatString)) {
+                    throw new ObjectStoreException("Invalid value for property objectFormat: "
+                            + objectFormatString);
+                }
                 HashSet<String> missingTables = new HashSet<String>();
                 if (missingTablesString != null) {
                     String[] tables = missingTablesString.split(",");
@@ -469,8 +513,10 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
 
                 DatabaseSchema schema = new DatabaseSchema(osModel, truncatedClasses, noNotXml,
                         missingTables, formatVersion, hasBioSeg, useRangeTypes);
+                schema.setPackedObjects(packedObjects);
                 os = new ObjectStoreInterMineImpl(database, schema);
                 os.description = osAlias;
+                os.queryStatistics.register(osAlias);
 
                 if (logfile != null) {
                     try {
@@ -513,12 +559,83 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 if ("true".equals(disableResultsCacheString)) {
                     os.setDisableResultsCache(true);
                 }
+                configureTuning(os, props);
                 instances.put(osAlias, os);
             }
             return os;
         }
     }
 
+    /**
+     * Applies the optional tuning properties to a new ObjectStoreInterMineImpl.
+     *
+     * @param os the ObjectStoreInterMineImpl
+     * @param props the properties of the ObjectStore
+     */
+    private static void configureTuning(ObjectStoreInterMineImpl os, Properties props) {
+        String streamingFetchSizeString = props.getProperty("streamingFetchSize");
+        String resultsCacheWeightString = props.getProperty("resultsCacheWeight");
+        String prefetchThreadsString = props.getProperty("prefetchThreads");
+        String prefetchDepthString = props.getProperty("prefetchDepth");
+        String optimiserCacheFileString = props.getProperty("optimiserCacheFile");
+        String getObjectBatchWindowString = props.getProperty("getObjectBatchWindow");
+        String countPartitionsString = props.getProperty("countPartitions");
+        String countMinRowsString = props.getProperty("countMinRows");
+        if (streamingFetchSizeString != null) {
+            try {
+                os.setStreamingFetchSize(Integer.parseInt(streamingFetchSizeString));
+            } catch (NumberFormatException e) {
+                LOG.warn("Error setting streamingFetchSize: " + e);
+            }
+        }
+        if (resultsCacheWeightString != null) {
+            try {
+                os.setResultsCacheWeight(Long.parseLong(resultsCacheWeightString));
+            } catch (NumberFormatException e) {
+                LOG.warn("Error setting resultsCacheWeight: " + e);
+            }
+        }
+        // The PrefetchManager is shared by all ObjectStores, so these are global settings
+        if (prefetchThreadsString != null) {
+            try {
+                PrefetchManager.setMaxServiceThreads(Integer.parseInt(prefetchThreadsString));
+            } catch (NumberFormatException e) {
+                LOG.warn("Error setting prefetchThreads: " + e);
+            }
+        }
+        if (prefetchDepthString != null) {
+            try {
+                PrefetchManager.setReadAheadDepth(Integer.parseInt(prefetchDepthString));
+            } catch (NumberFormatException e) {
+                LOG.warn("Error setting prefetchDepth: " + e);
+            }
+        }
+        if (countPartitionsString != null) {
+            try {
+                os.setCountPartitions(Integer.parseInt(countPartitionsString));
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Error setting countPartitions: " + e);
+            }
+        }
+        if (countMinRowsString != null) {
+            try {
+                os.setCountMinRows(Long.parseLong(countMinRowsString));
+            } catch (NumberFormatException e) {
+                LOG.warn("Error setting countMinRows: " + e);
+            }
+        }
+        if (getObjectBatchWindowString != null) {
+            try {
+                os.setGetObjectBatchWindow(Integer.parseInt(getObjectBatchWindowString));
+            } catch (NumberFormatException e) {
+                LOG.warn("Error setting getObjectBatchWindow: " + e);
+            }
+        }
+        if (optimiserCacheFileString != null) {
+            os.setOptimiserCacheFile(new File(optimiserCacheFileString));
+        }
+    }
+
     /**
      * Returns the log used by this objectstore.
      *
@@ -661,6 +778,141 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         return disableResultsCache;
     }
 
+    /**
+     * Sets the number of rows fetched from the database at a time by executeStreaming().
+     *
+     * @param streamingFetchSize an int
+     */
+    public void setStreamingFetchSize(int streamingFetchSize) {
+        if (streamingFetchSize < 1) {
+            throw new IllegalArgumentException("streamingFetchSize must be positive: "
+                    + streamingFetchSize);
+        }
+        this.streamingFetchSize = streamingFetchSize;
+    }
+
+    /**
+     * Gets the number of rows fetched from the database at a time by executeStreaming().
+     *
+     * @return an int
+     */
+    public int getStreamingFetchSize() {
+        return streamingFetchSize;
+    }
+
+    /**
+     * Sets the maximum weight of each of the Results and SingletonResults caches, where each
+     * Results weighs its batch size. The least recently used entries are evicted once a cache is
+     * full.
+     *
+     * @param resultsCacheWeight a long
+     */
+    public void setResultsCacheWeight(long resultsCacheWeight) {
+        synchronized (resultsCache) {
+            resultsCache.setMaxWeight(resultsCacheWeight);
+        }
+        synchronized (singletonResultsCache) {
+            singletonResultsCache.setMaxWeight(resultsCacheWeight);
+        }
+    }
+
+    /**
+     * Gets the maximum weight of each of the Results and SingletonResults caches.
+     *
+     * @return a long
+     */
+    public long getResultsCacheWeight() {
+        synchronized (resultsCache) {
+            return resultsCache.getMaxWeight();
+        }
+    }
+
+    /**
+     * Sets a file in which the optimiser cache is saved when this ObjectStore is closed, and
+     * loads the cache saved there by a previous run, if the precomputed tables have not changed
+     * since. Failure to load is logged, but is not fatal.
+     *
+     * @param optimiserCacheFile a File
+     */
+    public void setOptimiserCacheFile(File optimiserCacheFile) {
+        this.optimiserCacheFile = optimiserCacheFile;
+        try {
+            int count = OptimiserCache.getInstance(db).load(optimiserCacheFile,
+                    getPrecomputedTablesFingerprint());
+            LOG.info("Loaded " + count + " optimiser cache lines from " + optimiserCacheFile);
+        } catch (IOException e) {
+            LOG.warn("Could not load optimiser cache from " + optimiserCacheFile, e);
+        } catch (SQLException e) {
+            LOG.warn("Could not load optimiser cache from " + optimiserCacheFile, e);
+        }
+    }
+
+    /**
+     * Saves the optimiser cache to the file given to setOptimiserCacheFile(), if any. Failure to
+     * save is logged, but is not fatal.
+     */
+    protected void saveOptimiserCache() {
+        if (optimiserCacheFile != null) {
+            try {
+                int count = OptimiserCache.getInstance(db).save(optimiserCacheFile,
+                        getPrecomputedTablesFingerprint());
+                LOG.info("Saved " + count + " optimiser cache lines to " + optimiserCacheFile);
+            } catch (IOException e) {
+                LOG.warn("Could not save optimiser cache to " + optimiserCacheFile, e);
+            } catch (SQLException e) {
+                LOG.warn("Could not save optimiser cache to " + optimiserCacheFile, e);
+            }
+        }
+    }
+
+    /**
+     * Returns a String describing the precomputed tables in the database, which the contents of
+     * the optimiser cache depend on.
+     *
+     * @return a String
+     * @throws SQLException if the precomputed tables cannot be read
+     */
+    private String getPrecomputedTablesFingerprint() throws SQLException {
+        Set<String> names = new TreeSet<String>();
+        for (PrecomputedTable pt : PrecomputedTableManager.getInstance(db)
+                .getPrecomputedTables()) {
+            names.add(pt.getName() + "=" + pt.getOriginalSql());
+        }
+        return names.toString();
+    }
+
+    /**
+     * Returns the timings of the phases of query execution recorded by this ObjectStore.
+     *
+     * @return a QueryStatistics object
+     */
+    public QueryStatistics getQueryStatistics() {
+        return queryStatistics;
+    }
+
+    /**
+     * Returns the sizes and hit rates of the getObjectById cache and the results caches,
+     * suitable for log messages.
+     *
+     * @return a String
+     */
+    public String getCacheStatistics() {
+        StringBuilder retval = new StringBuilder();
+        retval.append(cache.getStatistics());
+        synchronized (resultsCache) {
+            retval.append("; ").append(resultsCache.getStatistics());
+        }
+        synchronized (singletonResultsCache) {
+            retval.append("; ").append(singletonResultsCache.getStatistics());
+        }
+        synchronized (batchesCache) {
+            retval.append("; ").append(batchesCache.getStatistics());
+        }
+        retval.append("; ").append(SqlGenerator.getShapeCacheStatistics(schema));
+        retval.append("; ").append(OptimiserCache.getInstance(db).getStatistics());
+        return retval.toString();
+    }
+
     /**
      * Allows the log table to be flushed, guaranteeing that all log entries are committed to the
      * database.
@@ -909,6 +1161,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
             throw new ObjectStoreException("This Thread is already registered with a request ID");
         }
         requestId.set(id);
+        PrefetchManager.registerRequestId(this, id);
     }
 
     /**
@@ -922,6 +1175,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
             throw new ObjectStoreException("This Thread is not registered with ID " + id);
         }
         requestId.set(null);
+        PrefetchManager.deregisterRequestId(this);
     }
 
     private WeakHashMap<Object, Object> cancelRegistry = new WeakHashMap<Object, Object>();
@@ -954,11 +1208,13 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
 
     /**
      * This method cancels any Statement running in a given request ID, and blacklists that ID.
+     * Any prefetches queued on behalf of the request are also abandoned.
      *
      * @param id the request ID
      * @throws ObjectStoreException if the cancel fails
      */
     public void cancelRequest(Object id) throws ObjectStoreException {
+        PrefetchManager.cancelRequest(this, id);
         synchronized (cancelRegistry) {
             try {
                 Object statement = cancelRegistry.get(id);
@@ -1020,6 +1276,74 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation runs the whole query as one SQL statement with no OFFSET or LIMIT, and
+     * reads it through a forward-only cursor on a dedicated Connection. The rows are fetched from
+     * the database streamingFetchSize at a time, and the Connection is held until the stream is
+     * exhausted or closed. No maximum query time is enforced.
+     */
+    @Override
+    public ResultsStream executeStreaming(Query q) throws ObjectStoreException {
+        Map<Object, Integer> sequence = getSequence(getComponentsForQuery(q));
+        Connection c = null;
+        String sql = null;
+        try {
+            c = getConnection();
+            // The driver only uses a cursor for a fetch size when inside a transaction
+            c.setAutoCommit(false);
+            if (getMinBagTableSize() != -1) {
+                createTempBagTables(c, q);
+                flushOldTempBagTables(c);
+            }
+            sql = SqlGenerator.generate(q, 0, Integer.MAX_VALUE, schema, db, bagConstraintTables);
+            String generatedSql = sql;
+            if (everOptimise()) {
+                sql = QueryOptimiser.optimise(sql, null, db, c, QueryOptimiserContext.DEFAULT)
+                    .getBestQueryString();
+            }
+            if (getLogBeforeExecute() || getVerboseQueryLog()) {
+                SQLLOGGER.info("(STREAMING) iql: " + q + "\n"
+                        + "generated sql: " + generatedSql + "\n"
+                        + "optimised sql: " + sql + "\n"
+                        + "fetch size: " + streamingFetchSize);
+            }
+            Statement s = c.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            s.setFetchSize(streamingFetchSize);
+            registerStatement(s);
+            ResultSet sqlResults;
+            try {
+                sqlResults = s.executeQuery(sql);
+            } finally {
+                deregisterStatement(s);
+            }
+            ResultsStream retval = new CursorResultsStream(this, c, s, sqlResults, q, sequence,
+                    streamingFetchSize);
+            // The stream now owns the Connection
+            c = null;
+            return retval;
+        } catch (CompletelyFalseException e) {
+            return new ResultsIteratorStream(Collections.emptyList());
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Problem running SQL statement \"" + sql
+                    + "\" while streaming query \"" + q + "\"", e);
+        } finally {
+            if (c != null) {
+                try {
+                    if (!c.getAutoCommit()) {
+                        c.rollback();
+                        c.setAutoCommit(true);
+                    }
+                } catch (SQLException e) {
+                    LOG.warn("Failed to roll back streaming transaction: " + e);
+                }
+                releaseConnection(c);
+            }
+        }
+    }
+
     /**
      * Overrides Object.finalize - release the DB log connection.
      *
@@ -1056,6 +1380,15 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 + ", SQL Optimise: " + statsOptTime + ", Estimate: "
                 + statsEstTime + ", Execute: " + statsExeTime + ", Results Convert: "
                 + statsConTime);
+        LOG.info("Cache statistics: " + getCacheStatistics());
+        LOG.info(PrefetchManager.getStatistics());
+        LOG.info(objectByIdBatcher.getStatistics());
+        queryStatistics.unregister();
+        saveOptimiserCache();
+        if (parallelCounter != null) {
+            parallelCounter.shutdown();
+            parallelCounter = null;
+        }
 
         if (logTableBatch != null) {
             try {
@@ -1275,6 +1608,8 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
             statsExeTime += exeTime;
             long conTime = postConvert - postExecute - extra.getQueryTime();
             statsConTime += conTime;
+            queryStatistics.record(q.getIqlQuery().getQueryString(), bagTableTime, genTime,
+                    optTime, estTime, exeTime, conTime, extra.getQueryTime(), objResults.size());
             if (getVerboseQueryLog()) {
                 SQLLOGGER.info("(VERBOSE) iql: " + q.getIqlQuery().toStringTruncateParameters(20)
                         + "\n"
@@ -1663,6 +1998,14 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                     sql = QueryOptimiser.optimise(sql, null, db, c, QueryOptimiserContext.DEFAULT)
                         .getBestQueryString();
                 }
+                ParallelCounter counter = getParallelCounter();
+                if (counter != null) {
+                    QueryClass qc = ParallelCounter.getPartitionClass(q, schema);
+                    if ((qc != null)
+                            && (ExplainResult.getInstance(sql, c).getRows() >= countMinRows)) {
+                        return counter.count(c, q, qc, sql);
+                    }
+                }
                 sql = "SELECT COUNT(*) FROM (" + sql + ") as fake_table";
             }
             //long time = (new Date()).getTime();
@@ -1744,10 +2087,34 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         if (schema.isFlatMode(clazz)) {
             return super.internalGetObjectById(id, clazz);
         }
+        return objectByIdBatcher.getObjectById(id, clazz);
+    }
+
+    /**
+     * Fetches several objects by id in one query, on behalf of the ObjectByIdBatcher. The objects
+     * are placed in the cache.
+     *
+     * @param ids the ids of the objects
+     * @param clazz a Class of the objects
+     * @param results a Map from id to object, to which the objects found are added
+     * @param duplicates a Set to which ids are added if more than one object has that id
+     * @throws ObjectStoreException if an error occurs
+     */
+    protected void internalGetObjectsByIds(Collection<Integer> ids, Class<?> clazz,
+            Map<Integer, InterMineObject> results, Set<Integer> duplicates)
+        throws ObjectStoreException {
         Connection c = null;
         try {
             c = getConnection();
-            return internalGetObjectByIdWithConnection(c, id, clazz);
+            if (ids.size() == 1) {
+                Integer id = ids.iterator().next();
+                InterMineObject o = internalGetObjectByIdWithConnection(c, id, clazz);
+                if (o != null) {
+                    results.put(id, o);
+                }
+            } else {
+                internalGetObjectsByIdsWithConnection(c, ids, clazz, results, duplicates);
+            }
         } catch (SQLException e) {
             throw new ObjectStoreException("Could not get connection to database", e);
         } finally {
@@ -1809,6 +2176,125 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * Gets several objects by id in one query given a Connection.
+     *
+     * @param c the Connection
+     * @param ids the ids
+     * @param clazz a Class of the objects
+     * @param results a Map from id to object, to which the objects found are added
+     * @param duplicates a Set to which ids are added if more than one object has that id
+     * @throws ObjectStoreException if an error occurs
+     */
+    protected void internalGetObjectsByIdsWithConnection(Connection c, Collection<Integer> ids,
+            Class<?> clazz, Map<Integer, InterMineObject> results, Set<Integer> duplicates)
+        throws ObjectStoreException {
+        String sql = SqlGenerator.generateQueryForIds(ids, clazz, schema);
+        String currentColumn = null;
+        Statement s = null;
+        ResultSet sqlResults = null;
+        try {
+            s = c.createStatement();
+            registerStatement(s);
+            try {
+                sqlResults = s.executeQuery(sql);
+            } finally {
+                deregisterStatement(s);
+            }
+            while (sqlResults.next()) {
+                Integer id = new Integer(sqlResults.getInt("a1_id"));
+                currentColumn = sqlResults.getString("a1_");
+                if (results.containsKey(id)) {
+                    duplicates.add(id);
+                } else {
+                    InterMineObject o = NotXmlParser.parse(currentColumn, this);
+                    cacheObjectById(o.getId(), o);
+                    results.put(id, o);
+                }
+            }
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Problem running SQL statement \"" + sql + "\"", e);
+        } catch (ClassNotFoundException e) {
+            throw new ObjectStoreException("Unknown class mentioned in database OBJECT field"
+                    + " while converting results: " + currentColumn, e);
+        } finally {
+            // The Connection goes back to the pool, so its Statements are not closed with it
+            try {
+                if (sqlResults != null) {
+                    sqlResults.close();
+                }
+                if (s != null) {
+                    s.close();
+                }
+            } catch (SQLException e) {
+                LOG.warn("Could not close statement for \"" + sql + "\"", e);
+            }
+        }
+    }
+
+    /**
+     * Sets the number of ranges of ids that count() splits large queries into, to be counted on
+     * separate connections at the same time. The default is 1, which disables this.
+     *
+     * @param countPartitions the number of ranges
+     */
+    public void setCountPartitions(int countPartitions) {
+        if (countPartitions < 1) {
+            throw new IllegalArgumentException("countPartitions must be positive: "
+                    + countPartitions);
+        }
+        synchronized (this) {
+            this.countPartitions = countPartitions;
+            if (parallelCounter != null) {
+                parallelCounter.shutdown();
+                parallelCounter = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the ParallelCounter shared by all counts on this ObjectStore, creating it if
+     * necessary, or null if counts are not split into ranges.
+     *
+     * @return a ParallelCounter, or null
+     */
+    private synchronized ParallelCounter getParallelCounter() {
+        if ((countPartitions > 1) && (parallelCounter == null)) {
+            parallelCounter = new ParallelCounter(this, countPartitions);
+        }
+        return parallelCounter;
+    }
+
+    /**
+     * Returns the number of ranges of ids that count() splits large queries into.
+     *
+     * @return an int
+     */
+    public int getCountPartitions() {
+        return countPartitions;
+    }
+
+    /**
+     * Sets the number of rows the database must estimate a query to return before count() splits
+     * it into ranges.
+     *
+     * @param countMinRows a number of rows
+     */
+    public void setCountMinRows(long countMinRows) {
+        this.countMinRows = countMinRows;
+    }
+
+    /**
+     * Sets the number of milliseconds that a thread fetching objects by id waits for requests
+     * from other threads to join the same query. The default is zero, in which case requests are
+     * only combined when they arrive while another query for the same class is running.
+     *
+     * @param getObjectBatchWindow a number of milliseconds
+     */
+    public void setGetObjectBatchWindow(int getObjectBatchWindow) {
+        objectByIdBatcher.setWindow(getObjectBatchWindow);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -2368,4 +2854,17 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     public String toString() {
         return description;
     }
+
+    /**
+     * Gives the entries of the Results caches the batch size of the Results as their weight.
+     */
+    private static class ResultsWeigher implements WeightedCacheMap.Weigher<String, Results>
+    {
+        /**
+         * {@inheritDoc}
+         */
+        public int weigh(String key, Results value) {
+            return (value == null ? 1 : value.getBatchSize());
+        }
+    }
 }
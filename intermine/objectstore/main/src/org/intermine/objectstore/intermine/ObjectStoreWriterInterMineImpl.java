@@ -19,6 +19,7 @@ import java.lang.ref.WeakReference;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -54,7 +55,10 @@ import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsBatches;
+import org.intermine.objectstore.query.ResultsIteratorStream;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.ResultsStream;
 import org.intermine.objectstore.query.SingletonResults;
 import org.intermine.sql.DatabaseUtil;
 import org.intermine.sql.precompute.BestQuery;
@@ -94,6 +98,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
     protected Map<String, Set<CollectionDescriptor>> tableToCollections;
     protected String connectionTakenBy = null;
     protected Set<Object> tablesAltered = new HashSet<Object>();
+    protected List<Connection> flushConnections = new ArrayList<Connection>();
 
     private Long cumulativeWait = new Long(0);    // just for diagnostic, can be removed
     private Integer getConnectionCalls = 0;       // as above
@@ -217,6 +222,23 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This writer only has one Connection, which cannot be held for the lifetime of a stream. If
+     * nothing has been written in the current transaction, the stream is read from the underlying
+     * ObjectStore instead. Otherwise the rows are read a batch at a time through this writer, so
+     * that uncommitted data is visible.
+     */
+    @Override
+    public ResultsStream executeStreaming(Query q) throws ObjectStoreException {
+        if (tablesAltered.isEmpty()) {
+            return os.executeStreaming(q);
+        }
+        return new ResultsIteratorStream(execute(q, ResultsBatches.DEFAULT_BATCH_SIZE, true, false,
+                    true));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -344,6 +366,65 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         return os.getDisableResultsCache();
     }
 
+    /**
+     * Sets the number of extra Connections that the batch uses to write several tables at once.
+     * Outside a transaction, the extra Connections commit at the end of every flush. During a
+     * transaction, their writes are committed by commitTransaction() and
+     * batchCommitTransaction(), and rolled back by abortTransaction(), but queries run by this
+     * writer do not see them until they are committed. Anything already in the batch is written
+     * out before the tables are shared out between the new Connections, so this must not be
+     * called during a transaction.
+     *
+     * @param count the number of extra Connections, or zero to write with one Connection
+     * @throws ObjectStoreException if this writer is in a transaction, or something goes wrong
+     */
+    public void setFlushConnections(int count) throws ObjectStoreException {
+        Connection c = null;
+        try {
+            c = getConnection(); // Must get connection - it is our concurrency control.
+            if (isInTransactionWithConnection(c)) {
+                throw new ObjectStoreException("Cannot change the flush connections during a"
+                        + " transaction");
+            }
+            List<Connection> newConnections = new ArrayList<Connection>();
+            try {
+                for (int i = 0; i < count; i++) {
+                    newConnections.add(os.getConnection());
+                }
+                batch.setParallelConnections(c, newConnections);
+            } catch (SQLException e) {
+                for (Connection newConnection : newConnections) {
+                    os.releaseConnection(newConnection);
+                }
+                throw e;
+            }
+            releaseFlushConnections();
+            flushConnections = newConnections;
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not get connection to database", e);
+        } finally {
+            releaseConnection(c);
+        }
+    }
+
+    /**
+     * Returns the extra Connections used by the batch to the ObjectStore. The batch must not be
+     * using them.
+     */
+    private void releaseFlushConnections() {
+        for (Connection flushConnection : flushConnections) {
+            try {
+                // Anything still uncommitted did not make it to the end of a transaction
+                flushConnection.rollback();
+                flushConnection.setAutoCommit(true);
+                os.releaseConnection(flushConnection);
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+        flushConnections = new ArrayList<Connection>();
+    }
+
     /**
      * Allows the changing of the BatchWriter that this ObjectStoreWriter uses.
      *
@@ -474,6 +555,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
             } catch (Exception e) {
                 LOG.error("Exception caught when closing Batch while closing ObjectStoreWriter", e);
             }
+            releaseFlushConnections();
             try {
                 os.releaseConnection(c);
             } catch (Exception e) {
@@ -548,6 +630,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
             } catch (Exception e) {
                 LOG.error("Exception caught when closing Batch while closing ObjectStoreWriter", e);
             }
+            releaseFlushConnections();
             try {
                 os.releaseConnection(conn);
             } catch (Exception e) {
@@ -676,7 +759,9 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                             value = objectClass;
                         } else if ("OBJECT".equals(tableInfo.colNames[colNo])) {
                             if (xml == null) {
-                                if (o instanceof InterMineObject) {
+                                if (schema.isPackedObjects()) {
+                                    xml = PackedObjectRenderer.render(o);
+                                } else if (o instanceof InterMineObject) {
                                     xml = ((InterMineObject) o).getoBJECT();
                                 } else {
                                     xml = NotXmlRenderer.render(o);
@@ -1564,7 +1649,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
             if (c.getAutoCommit()) {
                 throw new ObjectStoreException("commitTransaction called, but not in transaction");
             }
-            c.commit();
+            batch.commit(c);
             c.setAutoCommit(true);
             os.databaseAltered(tablesAltered);
             tablesAltered.clear();
@@ -1601,7 +1686,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
             if (c.getAutoCommit()) {
                 throw new ObjectStoreException("abortTransaction called, but not in transaction");
             }
-            c.rollback();
+            batch.rollback(c);
             c.setAutoCommit(true);
             os.flushObjectById();
             tablesAltered.clear();
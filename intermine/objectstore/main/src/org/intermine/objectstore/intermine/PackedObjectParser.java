@@ -0,0 +1,193 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.cglib.proxy.Factory;
+
+import org.intermine.metadata.TypeUtil;
+import org.intermine.metadata.TypeUtil.FieldInfo;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.proxy.ProxyCollection;
+import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.objectstore.query.ClobAccess;
+import org.intermine.util.DynamicBean;
+
+/**
+ * Parses objects written by PackedObjectRenderer. Each value is read directly using the length
+ * that precedes it, and converted according to its type tag, so no splitting or unescaping is
+ * needed, and fields are found by number rather than by name.
+ *
+ * @author InterMine
+ */
+public final class PackedObjectParser
+{
+    private static Map<Class<?>, FieldInfo[]> orderedFieldInfos
+        = Collections.synchronizedMap(new HashMap<Class<?>, FieldInfo[]>());
+
+    private PackedObjectParser() {
+    }
+
+    /**
+     * Returns true if the given OBJECT field is in the packed format rather than NotXml.
+     *
+     * @param object the contents of the OBJECT field
+     * @return a boolean
+     */
+    public static boolean isPacked(String object) {
+        return (object.length() > 0) && (object.charAt(0) == PackedObjectRenderer.MAGIC);
+    }
+
+    /**
+     * Parse the given packed String into an Object.
+     *
+     * @param packed the packed String
+     * @param os the ObjectStore from which to create lazy objects
+     * @return an InterMineObject
+     * @throws ClassNotFoundException if a class cannot be found
+     * @throws IllegalArgumentException if the String is not a packed object of a known version
+     */
+    public static InterMineObject parse(String packed,
+            ObjectStoreInterMineImpl os) throws ClassNotFoundException {
+        if (!isPacked(packed) || (packed.length() < 2)) {
+            throw new IllegalArgumentException("Not a packed object: " + packed);
+        }
+        if (packed.charAt(1) != PackedObjectRenderer.VERSION) {
+            throw new IllegalArgumentException("Unsupported packed object version "
+                    + packed.charAt(1) + ": " + packed);
+        }
+        int colon = packed.indexOf(':', 2);
+        int start = colon + 1;
+        int end = start + parseInt(packed, 2, colon);
+        InterMineObject retval = NotXmlParser.createObject(packed.substring(start, end));
+
+        Map<String, Object> valueMap = null;
+        if (retval instanceof Factory) {
+            valueMap = ((DynamicBean) ((Factory) retval).getCallback(0)).getMap();
+        }
+        Class<?> clazz = retval.getClass();
+        FieldInfo[] infos = getOrderedFieldInfos(clazz);
+        boolean fetchFromInterMineObject = os.getSchema().isFetchFromInterMineObject();
+        int pos = end;
+        while (pos < packed.length()) {
+            int tagPos = pos;
+            while (Character.isDigit(packed.charAt(tagPos))) {
+                tagPos++;
+            }
+            FieldInfo info = infos[parseInt(packed, pos, tagPos)];
+            char tag = packed.charAt(tagPos);
+            colon = packed.indexOf(':', tagPos + 1);
+            start = colon + 1;
+            end = start + parseInt(packed, tagPos + 1, colon);
+            Object value;
+            if (tag == PackedObjectRenderer.REFERENCE) {
+                Integer id = new Integer(parseInt(packed, start, end));
+                @SuppressWarnings("unchecked")
+                Class<? extends InterMineObject> refType = (fetchFromInterMineObject
+                        ? InterMineObject.class
+                        : (Class<? extends InterMineObject>) info.getType());
+                value = new ProxyReference(os, id, refType);
+            } else {
+                value = toValue(tag, packed.substring(start, end), info, os);
+            }
+            if (valueMap != null) {
+                valueMap.put(info.getName(), value);
+            } else {
+                retval.setFieldValue(info.getName(), value);
+            }
+            pos = end;
+        }
+
+        for (Map.Entry<String, Class<?>> collEntry : os.getModel().getCollectionsForClass(clazz)
+                .entrySet()) {
+            Collection<Object> lazyColl = new ProxyCollection<Object>(os, retval,
+                    collEntry.getKey(), collEntry.getValue());
+            if (valueMap != null) {
+                valueMap.put(collEntry.getKey(), lazyColl);
+            } else {
+                retval.setFieldValue(collEntry.getKey(), lazyColl);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the FieldInfo objects of a class in alphabetical order of field name, which is the
+     * order that gives each field its number in the packed format.
+     *
+     * @param clazz a Class
+     * @return an array of FieldInfo objects
+     */
+    static FieldInfo[] getOrderedFieldInfos(Class<?> clazz) {
+        FieldInfo[] retval = orderedFieldInfos.get(clazz);
+        if (retval == null) {
+            // getFieldInfos() returns a SortedMap
+            retval = TypeUtil.getFieldInfos(clazz).values().toArray(new FieldInfo[0]);
+            orderedFieldInfos.put(clazz, retval);
+        }
+        return retval;
+    }
+
+    private static Object toValue(char tag, String value, FieldInfo info,
+            ObjectStoreInterMineImpl os) {
+        switch (tag) {
+            case PackedObjectRenderer.STRING:
+                return value;
+            case PackedObjectRenderer.INTEGER:
+                return Integer.valueOf(value);
+            case PackedObjectRenderer.LONG:
+                return Long.valueOf(value);
+            case PackedObjectRenderer.BOOLEAN:
+                return Boolean.valueOf("1".equals(value));
+            case PackedObjectRenderer.DOUBLE:
+                return Double.valueOf(value);
+            case PackedObjectRenderer.FLOAT:
+                return Float.valueOf(value);
+            case PackedObjectRenderer.SHORT:
+                return Short.valueOf(value);
+            case PackedObjectRenderer.BYTE:
+                return Byte.valueOf(value);
+            case PackedObjectRenderer.CHARACTER:
+                return new Character(value.charAt(0));
+            case PackedObjectRenderer.DATE:
+                return new Date(Long.parseLong(value));
+            case PackedObjectRenderer.CLOB:
+                return ClobAccess.decodeDbDescription(os, value);
+            case PackedObjectRenderer.OTHER:
+                return TypeUtil.stringToObject(info.getType(), value);
+            default:
+                throw new IllegalArgumentException("Unknown type tag " + tag + " for field "
+                        + info.getName());
+        }
+    }
+
+    private static int parseInt(String s, int start, int end) {
+        if (start >= end) {
+            throw new IllegalArgumentException("Missing number at position " + start + " in " + s);
+        }
+        boolean negative = s.charAt(start) == '-';
+        int retval = 0;
+        for (int i = (negative ? start + 1 : start); i < end; i++) {
+            char c = s.charAt(i);
+            if ((c < '0') || (c > '9')) {
+                throw new IllegalArgumentException("Invalid number at position " + start + " in "
+                        + s);
+            }
+            retval = retval * 10 + (c - '0');
+        }
+        return negative ? -retval : retval;
+    }
+}
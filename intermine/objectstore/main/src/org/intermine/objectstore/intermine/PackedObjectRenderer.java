@@ -0,0 +1,159 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collection;
+import java.util.Date;
+
+import org.intermine.metadata.TypeUtil;
+import org.intermine.metadata.TypeUtil.FieldInfo;
+import org.intermine.metadata.Util;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.StringConstructor;
+import org.intermine.objectstore.query.ClobAccess;
+
+/**
+ * Render an object in the packed format, an alternative to NotXml for the OBJECT field of
+ * database tables. Fields are identified by their position in the alphabetical list of fields of
+ * the class, and every value is prefixed by a type tag and its length, so PackedObjectParser
+ * reads each value directly instead of splitting the String and unescaping delimiters.
+ * <p>
+ * The format is a MAGIC character, a VERSION character, the length and space-separated names of
+ * the classes of the object, and then for each non-null attribute and reference, its field
+ * number, a type tag, and the length and text of its value:
+ * <pre>
+ * MAGIC VERSION length:classNames (fieldNumber tag length:value)*
+ * </pre>
+ *
+ * @author InterMine
+ */
+public final class PackedObjectRenderer
+{
+    /**
+     * The first character of every packed object, which cannot start NotXml.
+     */
+    public static final char MAGIC = '\u0001';
+    /**
+     * The version of the packed format written by this class.
+     */
+    public static final char VERSION = '1';
+
+    /** Tag for a reference, whose value is the id of the referenced object */
+    static final char REFERENCE = 'r';
+    /** Tag for a String */
+    static final char STRING = 's';
+    /** Tag for an Integer */
+    static final char INTEGER = 'i';
+    /** Tag for a Long */
+    static final char LONG = 'j';
+    /** Tag for a Short */
+    static final char SHORT = 'h';
+    /** Tag for a Byte */
+    static final char BYTE = 'y';
+    /** Tag for a Boolean, as "1" or "0" */
+    static final char BOOLEAN = 'z';
+    /** Tag for a Float */
+    static final char FLOAT = 'f';
+    /** Tag for a Double */
+    static final char DOUBLE = 'd';
+    /** Tag for a Character */
+    static final char CHARACTER = 'c';
+    /** Tag for a Date, as milliseconds since the epoch */
+    static final char DATE = 't';
+    /** Tag for a ClobAccess, as its database description */
+    static final char CLOB = 'b';
+    /** Tag for any other type, as the String understood by TypeUtil.stringToObject() */
+    static final char OTHER = 'o';
+
+    private PackedObjectRenderer() {
+    }
+
+    /**
+     * Render the given object in the packed format.
+     *
+     * @param obj the object to render
+     * @return the packed String
+     */
+    public static StringConstructor render(Object obj) {
+        try {
+            StringConstructor sb = new StringConstructor();
+            StringBuilder classNames = new StringBuilder();
+            boolean needComma = false;
+            for (Class<?> clazz : Util.decomposeClass(obj.getClass())) {
+                if (needComma) {
+                    classNames.append(" ");
+                }
+                needComma = true;
+                classNames.append(clazz.getName());
+            }
+            sb.append(String.valueOf(MAGIC) + VERSION);
+            appendValue(sb, classNames.toString());
+
+            FieldInfo[] infos = PackedObjectParser.getOrderedFieldInfos(obj.getClass());
+            for (int fieldNo = 0; fieldNo < infos.length; fieldNo++) {
+                Object value = TypeUtil.getFieldProxy(obj, infos[fieldNo].getName());
+                if ((value == null) || (value instanceof Collection<?>)) {
+                    continue;
+                }
+                sb.append(fieldNo);
+                if (value instanceof InterMineObject) {
+                    sb.append(String.valueOf(REFERENCE));
+                    appendValue(sb, ((InterMineObject) value).getId().toString());
+                } else if (value instanceof String) {
+                    sb.append(String.valueOf(STRING));
+                    appendValue(sb, (String) value);
+                } else if (value instanceof Date) {
+                    sb.append(String.valueOf(DATE));
+                    appendValue(sb, Long.toString(((Date) value).getTime()));
+                } else if (value instanceof Boolean) {
+                    sb.append(String.valueOf(BOOLEAN));
+                    appendValue(sb, ((Boolean) value).booleanValue() ? "1" : "0");
+                } else if (value instanceof ClobAccess) {
+                    sb.append(String.valueOf(CLOB));
+                    appendValue(sb, ((ClobAccess) value).getDbDescription());
+                } else {
+                    sb.append(String.valueOf(getTag(value)));
+                    appendValue(sb, value.toString());
+                }
+            }
+            return sb;
+        } catch (IllegalAccessException e) {
+            IllegalArgumentException e2 = new IllegalArgumentException();
+            e2.initCause(e);
+            throw e2;
+        }
+    }
+
+    private static char getTag(Object value) {
+        if (value instanceof Integer) {
+            return INTEGER;
+        } else if (value instanceof Long) {
+            return LONG;
+        } else if (value instanceof Double) {
+            return DOUBLE;
+        } else if (value instanceof Float) {
+            return FLOAT;
+        } else if (value instanceof Short) {
+            return SHORT;
+        } else if (value instanceof Byte) {
+            return BYTE;
+        } else if (value instanceof Character) {
+            return CHARACTER;
+        }
+        return OTHER;
+    }
+
+    private static void appendValue(StringConstructor sb, String value) {
+        sb.append(value.length());
+        sb.append(":");
+        sb.append(value);
+    }
+}
@@ -0,0 +1,288 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QuerySelectable;
+
+/**
+ * Counts the rows of a large query by splitting it into ranges of the id of one of the classes
+ * in its SELECT list, and counting each range on a separate connection at the same time. As every
+ * row of the query has exactly one value for that id, and rows that are merged by DISTINCT or
+ * GROUP BY have the same id, the total is the sum of the counts of the ranges.
+ * <p>
+ * One ParallelCounter is shared by all the count() calls on an ObjectStoreInterMineImpl. Its
+ * worker threads and the connections they hold are capped below the size of the connection pool,
+ * across all concurrent counts. A range that cannot be given a worker, or whose worker cannot get
+ * a connection, is counted by the calling thread on its own connection instead.
+ * <p>
+ * Only count() is partitioned. Queries that compute aggregates, such as a GROUP BY with COUNT or
+ * SUM in its SELECT list, are still run by execute() as a single SQL statement on one connection.
+ *
+ * @author InterMine
+ */
+public class ParallelCounter
+{
+    private static final Logger LOG = Logger.getLogger(ParallelCounter.class);
+    /** The number of database connections left for threads that are not counting in parallel */
+    public static final int RESERVED_CONNECTIONS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private ObjectStoreInterMineImpl os;
+    private int partitions;
+    private final Semaphore workerPermits;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Constructor.
+     *
+     * @param os the ObjectStoreInterMineImpl to count in
+     * @param partitions the number of ranges to split the query into
+     */
+    public ParallelCounter(ObjectStoreInterMineImpl os, int partitions) {
+        this.os = os;
+        this.partitions = partitions;
+        int workers = partitions - 1;
+        int maxConnections = (os.getDatabase() == null ? 0
+                : os.getDatabase().getMaxConnections());
+        if (maxConnections > 0) {
+            workers = Math.min(workers, maxConnections - RESERVED_CONNECTIONS);
+        }
+        workers = Math.max(1, workers);
+        workerPermits = new Semaphore(workers);
+        executor = new ThreadPoolExecutor(workers, workers, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the number of ranges that queries are split into.
+     *
+     * @return an int
+     */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Stops the worker threads. Counts made after this are done serially.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the QueryClass whose id can be used to partition a query, or null if the query
+     * cannot be partitioned.
+     *
+     * @param q the Query
+     * @param schema the DatabaseSchema
+     * @return a QueryClass, or null
+     */
+    public static QueryClass getPartitionClass(Query q, DatabaseSchema schema) {
+        if (q.getLimit() != Integer.MAX_VALUE) {
+            return null;
+        }
+        for (QuerySelectable qs : q.getSelect()) {
+            if (qs instanceof QueryClass) {
+                QueryClass qc = (QueryClass) qs;
+                ClassDescriptor cld = schema.getModel().getClassDescriptorByName(qc.getType()
+                        .getName());
+                if ((cld != null) && q.getFrom().contains(qc)) {
+                    return qc;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Counts the rows of a query.
+     *
+     * @param c a Connection, used to find the range of ids and to count the first range
+     * @param q the Query
+     * @param qc the QueryClass to partition by, as returned by getPartitionClass()
+     * @param sql the generated SQL for the query
+     * @return the number of rows
+     * @throws ObjectStoreException if an error occurs
+     */
+    public int count(Connection c, Query q, QueryClass qc, String sql)
+        throws ObjectStoreException {
+        String tableName = SqlGenerator.tableNameForId(qc.getType(), os.getSchema());
+        String column = "fake_table." + SqlGenerator.idColumnAlias(q.getAliases().get(qc));
+        long min;
+        long max;
+        try {
+            Statement s = c.createStatement();
+            try {
+                ResultSet r = s.executeQuery("SELECT MIN(id), MAX(id) FROM " + tableName);
+                r.next();
+                min = r.getLong(1);
+                max = r.getLong(2);
+                if (r.wasNull()) {
+                    return 0;
+                }
+            } finally {
+                s.close();
+            }
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not find range of ids in " + tableName, e);
+        }
+        long step = (max - min) / partitions + 1;
+        List<String> todo = new ArrayList<String>();
+        for (long start = min; start <= max; start += step) {
+            todo.add("SELECT COUNT(*) FROM (" + sql + ") AS fake_table WHERE " + column + " >= "
+                    + start + " AND " + column + " < " + (start + step));
+        }
+        long[] counts = new long[todo.size()];
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        int serial = 0;
+        futures.add(null);
+        for (int i = 1; i < todo.size(); i++) {
+            Future<Long> future = null;
+            if (workerPermits.tryAcquire()) {
+                try {
+                    future = executor.submit(new PartitionCount(todo.get(i)));
+                } catch (RejectedExecutionException e) {
+                    // This ObjectStore has been closed
+                    workerPermits.release();
+                }
+            }
+            futures.add(future);
+        }
+        try {
+            // Count the ranges that have no worker while the workers count theirs
+            for (int i = 0; i < todo.size(); i++) {
+                if (futures.get(i) == null) {
+                    counts[i] = countPartition(c, todo.get(i));
+                    serial++;
+                }
+            }
+            for (int i = 1; i < todo.size(); i++) {
+                if (futures.get(i) != null) {
+                    Long count = futures.get(i).get();
+                    if (count == null) {
+                        // The worker could not get a connection
+                        counts[i] = countPartition(c, todo.get(i));
+                        serial++;
+                    } else {
+                        counts[i] = count.longValue();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ObjectStoreException("Interrupted while counting SQL statement \"" + sql
+                    + "\" in parallel", e);
+        } catch (ExecutionException e) {
+            throw new ObjectStoreException("Problem counting SQL statement \"" + sql
+                    + "\" in parallel", e.getCause());
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Problem counting SQL statement \"" + sql
+                    + "\" in parallel", e);
+        } finally {
+            for (Future<Long> future : futures) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+        }
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        LOG.debug("Counted " + total + " rows in " + todo.size() + " partitions, " + serial
+                + " of them on the calling connection: " + sql);
+        return (int) total;
+    }
+
+    private long countPartition(Connection c, String sql)
+        throws SQLException, ObjectStoreException {
+        Statement s = c.createStatement();
+        try {
+            os.registerStatement(s);
+            ResultSet r;
+            try {
+                r = s.executeQuery(sql);
+            } finally {
+                os.deregisterStatement(s);
+            }
+            r.next();
+            return r.getLong(1);
+        } finally {
+            s.close();
+        }
+    }
+
+    /**
+     * Counts one range on a connection of its own, returning null if no connection is free.
+     */
+    private class PartitionCount implements Callable<Long>
+    {
+        private final String partitionSql;
+
+        PartitionCount(String partitionSql) {
+            this.partitionSql = partitionSql;
+        }
+
+        @Override
+        public Long call() throws SQLException, ObjectStoreException {
+            try {
+                Connection workerCon;
+                try {
+                    workerCon = os.getConnection();
+                } catch (SQLException e) {
+                    LOG.info("No connection free to count a range in parallel: " + e);
+                    return null;
+                }
+                try {
+                    return new Long(countPartition(workerCon, partitionSql));
+                } finally {
+                    os.releaseConnection(workerCon);
+                }
+            } finally {
+                workerPermits.release();
+            }
+        }
+    }
+
+    private static class WorkerFactory implements ThreadFactory
+    {
+        private int threadNo = 0;
+
+        public synchronized Thread newThread(Runnable r) {
+            threadNo++;
+            Thread t = new Thread(r, "ParallelCounter Worker " + threadNo);
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.intermine.util.Histogram;
+import org.intermine.util.LruCacheMap;
+
+/**
+ * Collects timings of the phases of query execution in an ObjectStoreInterMineImpl, as
+ * histograms, both over all queries and for each distinct query. The statistics can be read
+ * through JMX once the object has been registered with register(String).
+ *
+ * @author InterMine
+ */
+public class QueryStatistics implements QueryStatisticsMBean
+{
+    private static final Logger LOG = Logger.getLogger(QueryStatistics.class);
+    /** The maximum number of distinct queries to keep statistics for */
+    public static final int MAX_QUERIES = 1000;
+    private static final int TOP_QUERIES = 20;
+
+    /**
+     * The phases of query execution that are timed.
+     */
+    public static enum Phase
+    {
+        /** Creating temporary tables for large bags */
+        BAG_TABLES,
+        /** Generating SQL from the Query */
+        GENERATE,
+        /** Rewriting the SQL to use precomputed tables */
+        OPTIMISE,
+        /** Asking the database to estimate the cost of the SQL */
+        ESTIMATE,
+        /** Running the SQL */
+        EXECUTE,
+        /** Converting the SQL results into objects, excluding extra queries */
+        CONVERT,
+        /** Extra queries run while converting the results, such as collection fetches */
+        EXTRA_QUERIES,
+        /** The whole execution */
+        TOTAL
+    }
+
+    private final Map<Phase, Histogram> phases = new EnumMap<Phase, Histogram>(Phase.class);
+    private final Histogram rows = new Histogram();
+    private final LruCacheMap<String, Histogram> queries = new LruCacheMap<String, Histogram>(
+            "Query statistics", MAX_QUERIES);
+    private ObjectName objectName = null;
+
+    /**
+     * Constructs an empty QueryStatistics object.
+     */
+    public QueryStatistics() {
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new Histogram());
+        }
+    }
+
+    /**
+     * Records the timings of one execution of a query. All times are in milliseconds.
+     *
+     * @param fingerprint a String identifying the query, which should not depend on the
+     * offset and limit of the rows fetched
+     * @param bagTableTime time spent creating bag tables
+     * @param genTime time spent generating SQL
+     * @param optTime time spent optimising SQL
+     * @param estTime time spent estimating the cost of the SQL
+     * @param exeTime time spent running the SQL
+     * @param conTime time spent converting the results, excluding extra queries
+     * @param extraTime time spent running extra queries
+     * @param rowCount the number of rows returned
+     */
+    public void record(String fingerprint, long bagTableTime, long genTime, long optTime,
+            long estTime, long exeTime, long conTime, long extraTime, int rowCount) {
+        long total = bagTableTime + genTime + optTime + estTime + exeTime + conTime + extraTime;
+        phases.get(Phase.BAG_TABLES).record(bagTableTime);
+        phases.get(Phase.GENERATE).record(genTime);
+        phases.get(Phase.OPTIMISE).record(optTime);
+        phases.get(Phase.ESTIMATE).record(estTime);
+        phases.get(Phase.EXECUTE).record(exeTime);
+        phases.get(Phase.CONVERT).record(conTime);
+        phases.get(Phase.EXTRA_QUERIES).record(extraTime);
+        phases.get(Phase.TOTAL).record(total);
+        rows.record(rowCount);
+        Histogram queryHistogram;
+        synchronized (queries) {
+            queryHistogram = queries.get(fingerprint);
+            if (queryHistogram == null) {
+                queryHistogram = new Histogram();
+                queries.put(fingerprint, queryHistogram);
+            }
+        }
+        queryHistogram.record(total);
+    }
+
+    /**
+     * Returns the histogram of times spent in a phase of query execution.
+     *
+     * @param phase the Phase
+     * @return a Histogram
+     */
+    public Histogram getHistogram(Phase phase) {
+        return phases.get(phase);
+    }
+
+    /**
+     * Returns the histogram of the number of rows returned by each execution.
+     *
+     * @return a Histogram
+     */
+    public Histogram getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the histograms of the total execution time of the queries that have taken the most
+     * time in total, most expensive first.
+     *
+     * @param count the maximum number of queries to return
+     * @return a Map from query fingerprint to Histogram
+     */
+    public Map<String, Histogram> getTopQueries(int count) {
+        List<Map.Entry<String, Histogram>> entries;
+        synchronized (queries) {
+            entries = new ArrayList<Map.Entry<String, Histogram>>(queries.toMap().entrySet());
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Histogram>>() {
+            @Override
+            public int compare(Map.Entry<String, Histogram> o1, Map.Entry<String, Histogram> o2) {
+                long t1 = o1.getValue().getTotal();
+                long t2 = o2.getValue().getTotal();
+                return (t1 < t2 ? 1 : (t1 > t2 ? -1 : 0));
+            }
+        });
+        Map<String, Histogram> retval = new LinkedHashMap<String, Histogram>();
+        for (Map.Entry<String, Histogram> entry : entries) {
+            if (retval.size() >= count) {
+                break;
+            }
+            retval.put(entry.getKey(), entry.getValue());
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getQueryCount() {
+        return phases.get(Phase.TOTAL).getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] getPhaseSummaries() {
+        List<String> retval = new ArrayList<String>();
+        for (Map.Entry<Phase, Histogram> entry : phases.entrySet()) {
+            retval.add(entry.getKey() + ": " + entry.getValue());
+        }
+        retval.add("ROWS: " + rows);
+        return retval.toArray(new String[retval.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] getTopQueries() {
+        List<String> retval = new ArrayList<String>();
+        for (Map.Entry<String, Histogram> entry : getTopQueries(TOP_QUERIES).entrySet()) {
+            retval.add(entry.getValue() + ", query: " + entry.getKey());
+        }
+        return retval.toArray(new String[retval.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPercentile(String phase, double percentile) {
+        return phases.get(Phase.valueOf(phase)).getPercentile(percentile);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        for (Histogram histogram : phases.values()) {
+            histogram.reset();
+        }
+        rows.reset();
+        synchronized (queries) {
+            queries.clear();
+        }
+    }
+
+    /**
+     * Registers this object with the platform MBean server, so that it can be read through JMX.
+     * Failure to register is logged, but is not fatal.
+     *
+     * @param name the name of the ObjectStore, used in the JMX object name
+     */
+    public synchronized void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName newName = new ObjectName("org.intermine:type=QueryStatistics,name="
+                    + ObjectName.quote(name));
+            if (server.isRegistered(newName)) {
+                server.unregisterMBean(newName);
+            }
+            server.registerMBean(this, newName);
+            objectName = newName;
+        } catch (JMException e) {
+            LOG.warn("Could not register query statistics for " + name + " with JMX", e);
+        }
+    }
+
+    /**
+     * Removes this object from the platform MBean server, if it was registered.
+     */
+    public synchronized void unregister() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                LOG.warn("Could not unregister query statistics " + objectName + " from JMX", e);
+            }
+            objectName = null;
+        }
+    }
+}
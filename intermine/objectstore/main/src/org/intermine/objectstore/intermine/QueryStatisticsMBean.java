@@ -0,0 +1,56 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * The JMX management interface of QueryStatistics.
+ *
+ * @author InterMine
+ */
+public interface QueryStatisticsMBean
+{
+    /**
+     * Returns the number of queries recorded.
+     *
+     * @return a long
+     */
+    long getQueryCount();
+
+    /**
+     * Returns one line for each phase of query execution, describing the count, total time and
+     * percentiles of the time spent in that phase, in milliseconds.
+     *
+     * @return an array of Strings
+     */
+    String[] getPhaseSummaries();
+
+    /**
+     * Returns one line for each of the queries that have taken the most time in total, most
+     * expensive first.
+     *
+     * @return an array of Strings
+     */
+    String[] getTopQueries();
+
+    /**
+     * Returns an estimate of a percentile of the time spent in a phase of query execution.
+     *
+     * @param phase the name of the phase, as in QueryStatistics.Phase
+     * @param percentile the percentile, from 0 to 100
+     * @return a time in milliseconds
+     */
+    long getPercentile(String phase, double percentile);
+
+    /**
+     * Discards all statistics recorded so far.
+     */
+    void reset();
+}
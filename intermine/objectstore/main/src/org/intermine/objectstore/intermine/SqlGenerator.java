@@ -98,6 +98,7 @@ import org.intermine.sql.DatabaseUtil;
 import org.intermine.util.AlwaysMap;
 import org.intermine.util.CombinedIterator;
 import org.intermine.util.DynamicUtil;
+import org.intermine.util.LruCacheMap;
 
 /**
  * Code to generate an sql statement from a Query object.
@@ -133,6 +134,10 @@ public final class SqlGenerator
         = new WeakHashMap<DatabaseSchema, Map<Query, CacheEntry>>();
     protected static Map<DatabaseSchema, Map<Query, Set<Object>>> tablenamesCache
         = new WeakHashMap<DatabaseSchema, Map<Query, Set<Object>>>();
+    /** The maximum number of generated SQL strings to cache for each DatabaseSchema */
+    public static final int SHAPE_CACHE_SIZE = 1000;
+    protected static Map<DatabaseSchema, LruCacheMap<String, String>> shapeCache
+        = new WeakHashMap<DatabaseSchema, LruCacheMap<String, String>>();
 
     /**
      * Generates a query to retrieve a single object from the database, by id.
@@ -201,6 +206,47 @@ public final class SqlGenerator
         return DatabaseUtil.getTableName(tableMaster);
     }
 
+    /**
+     * Generates a query to retrieve several objects from the database, by id. The query returns
+     * the id in column a1_id and the object in column a1_.
+     *
+     * @param ids the ids of the objects to fetch
+     * @param clazz a Class of the objects - if unsure use InterMineObject
+     * @param schema the DatabaseSchema
+     * @return a String suitable for passing to an SQL server
+     * @throws ObjectStoreException if the given class is not in the model
+     */
+    public static String generateQueryForIds(Collection<Integer> ids, Class<?> clazz,
+            DatabaseSchema schema) throws ObjectStoreException {
+        ClassDescriptor tableMaster;
+        if (schema.isMissingNotXml()) {
+            tableMaster = schema.getModel()
+                .getClassDescriptorByName(InterMineObject.class.getName());
+        } else {
+            ClassDescriptor cld = schema.getModel().getClassDescriptorByName(clazz.getName());
+            if (cld == null) {
+                throw new ObjectStoreException(clazz.toString() + " is not in the model");
+            }
+            tableMaster = schema.getTableMaster(cld);
+        }
+        StringBuffer retval = new StringBuffer("SELECT a1_.id AS a1_id, a1_.OBJECT AS a1_ FROM ")
+            .append(DatabaseUtil.getTableName(tableMaster))
+            .append(" AS a1_ WHERE a1_.id IN (");
+        boolean needComma = false;
+        for (Integer id : ids) {
+            if (needComma) {
+                retval.append(", ");
+            }
+            needComma = true;
+            retval.append(id.toString());
+        }
+        retval.append(")");
+        if (schema.isTruncated(tableMaster)) {
+            retval.append(" AND a1_.tableclass = '").append(clazz.getName()).append("'");
+        }
+        return retval.toString();
+    }
+
     /**
      * Registers an offset for a given query. This is used later on to speed up queries that use
      * big offsets.
@@ -402,13 +448,24 @@ public final class SqlGenerator
                     }
                 }
             }
-            String sql = generate(q, schema, db, null, QUERY_NORMAL, bagTableNames);
-            /*if (cached == null) {
-                cached = new TreeMap();
-                schemaCache.put(q, cached);
+            // Queries are frequently rebuilt from scratch, for instance from a PathQuery on every
+            // request, so look the SQL up by the text of the query rather than the Query object.
+            String shape = getShape(q, schema);
+            LruCacheMap<String, String> schemaShapeCache = getShapeCacheForSchema(schema);
+            String sql = null;
+            if (shape != null) {
+                synchronized (schemaShapeCache) {
+                    sql = schemaShapeCache.get(shape);
+                }
+            }
+            if (sql == null) {
+                sql = generate(q, schema, db, null, QUERY_NORMAL, bagTableNames);
+                if ((shape != null) && (!usesBagTable(sql, bagTableNames))) {
+                    synchronized (schemaShapeCache) {
+                        schemaShapeCache.put(shape, sql);
+                    }
+                }
             }
-            cached.put(new Integer(0), sql);
-            */
             return sql + ((limit == Integer.MAX_VALUE ? "" : " LIMIT " + limit)
                         + (start == 0 ? "" : " OFFSET " + start));
         }
@@ -431,6 +488,77 @@ public final class SqlGenerator
         }
     }
 
+    /**
+     * Returns a cache of generated SQL specific to a particular DatabaseSchema.
+     *
+     * @param schema the DatabaseSchema
+     * @return an LruCacheMap from query shape to SQL, which must be synchronised on
+     */
+    private static LruCacheMap<String, String> getShapeCacheForSchema(DatabaseSchema schema) {
+        synchronized (shapeCache) {
+            LruCacheMap<String, String> retval = shapeCache.get(schema);
+            if (retval == null) {
+                retval = new LruCacheMap<String, String>("SQL shape cache", SHAPE_CACHE_SIZE);
+                shapeCache.put(schema, retval);
+            }
+            return retval;
+        }
+    }
+
+    /**
+     * Returns a String that identifies the SQL that would be generated for a query, or null if
+     * the query cannot be identified cheaply. Queries with bag parameters are not identified, as
+     * the bags may be large and the SQL may refer to temporary bag tables. The range features of
+     * the schema are included, as they can be changed after the schema is created.
+     *
+     * @param q the Query
+     * @param schema the DatabaseSchema in which to look up metadata
+     * @return a String, or null
+     */
+    private static String getShape(Query q, DatabaseSchema schema) {
+        IqlQuery iql = q.getIqlQuery();
+        if (iql.getParameters().isEmpty()) {
+            return (schema.useRangeTypes() ? "R" : "") + (schema.hasBioSeg() ? "B" : "") + ":"
+                + iql.getQueryString();
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the given SQL refers to any of the given temporary bag tables.
+     *
+     * @param sql the SQL String
+     * @param bagTableNames a Map from BagConstraints to table names
+     * @return a boolean
+     */
+    private static boolean usesBagTable(String sql, Map<Object, String> bagTableNames) {
+        if (bagTableNames == null) {
+            return false;
+        }
+        synchronized (bagTableNames) {
+            for (String tableName : bagTableNames.values()) {
+                if (sql.contains(tableName)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a description of the size and hit rate of the cache of generated SQL for a
+     * particular DatabaseSchema, suitable for log messages.
+     *
+     * @param schema the DatabaseSchema
+     * @return a String
+     */
+    public static String getShapeCacheStatistics(DatabaseSchema schema) {
+        LruCacheMap<String, String> schemaShapeCache = getShapeCacheForSchema(schema);
+        synchronized (schemaShapeCache) {
+            return schemaShapeCache.getStatistics();
+        }
+    }
+
     /**
      * Converts a Query object into an SQL String.
      *
@@ -2244,13 +2372,24 @@ public final class SqlGenerator
                 }
                 buffer.append(DatabaseUtil.generateSqlCompatibleName(alias))
                     .append(".id AS ")
-                    .append(alias.equals(alias.toLowerCase())
-                            ? DatabaseUtil.generateSqlCompatibleName(alias) + "id"
-                            : "\"" + DatabaseUtil.generateSqlCompatibleName(alias) + "id" + "\"");
+                    .append(idColumnAlias(alias));
             }
         }
     }
 
+    /**
+     * Returns the name of the column that holds the id of a QueryClass selected in a normal
+     * query, given the alias of the QueryClass.
+     *
+     * @param alias the alias of the QueryClass in the Query
+     * @return a column name, quoted if necessary
+     */
+    public static String idColumnAlias(String alias) {
+        return alias.equals(alias.toLowerCase())
+            ? DatabaseUtil.generateSqlCompatibleName(alias) + "id"
+            : "\"" + DatabaseUtil.generateSqlCompatibleName(alias) + "id" + "\"";
+    }
+
     /**
      * Converts a QueryEvaluable into a String suitable for an SQL query String.
      *
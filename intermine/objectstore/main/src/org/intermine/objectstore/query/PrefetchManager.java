@@ -12,10 +12,15 @@ package org.intermine.objectstore.query;
 
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 
 /**
@@ -29,8 +34,9 @@ public final class PrefetchManager
     }
 
     private static final Logger LOG = Logger.getLogger(PrefetchManager.class);
-    /** Pending set of requests - always accessed inside a synchronise on sync. */
-    protected static Set<Request> pending = new HashSet<Request>();
+    /** Pending set of requests, in the order they were added, so that they are serviced
+     * first-come first-served - always accessed inside a synchronise on sync. */
+    protected static Set<Request> pending = new LinkedHashSet<Request>();
     /** Set of requests currently being serviced. This Set is not accessed inside a block
      * synchronised on any global object, so it must be able to handle concurrent access. */
     protected static Set<Request> serviced = Collections.synchronizedSet(new HashSet<Request>());
@@ -38,6 +44,30 @@ public final class PrefetchManager
     private static Object sync = new Object();
 
     protected static final int LOADING = 3;
+    /** The default maximum number of service threads */
+    public static final int DEFAULT_MAX_SERVICE_THREADS = 16;
+    /** The default number of batches to prefetch ahead of a sequential reader */
+    public static final int DEFAULT_READ_AHEAD_DEPTH = 1;
+    private static final int STATISTICS_INTERVAL = 10000;
+
+    private static int maxServiceThreads = DEFAULT_MAX_SERVICE_THREADS;
+    private static volatile int readAheadDepth = DEFAULT_READ_AHEAD_DEPTH;
+    /** The request IDs of each Thread, registered in the same way as with each ObjectStore, so
+     * they are held per ObjectStore - a Thread may use several ObjectStores at once */
+    private static ThreadLocal<Map<ObjectStore, Object>> requestIds
+        = new ThreadLocal<Map<ObjectStore, Object>>() {
+            @Override
+            protected Map<ObjectStore, Object> initialValue() {
+                return new IdentityHashMap<ObjectStore, Object>();
+            }
+        };
+
+    // Statistics - always accessed inside a synchronise on sync.
+    private static long requestsAdded = 0;
+    private static long requestsDropped = 0;
+    private static long requestsCancelled = 0;
+    private static long requestsTakenOver = 0;
+    private static int maxPending = 0;
 
     /*
      * This class provides methods for cancelling requests, so here is an explanation of how this
@@ -91,20 +121,29 @@ public final class PrefetchManager
      */
     public static void addRequest(ResultsBatches result, int batchNo, boolean optimise,
             boolean explain) {
-        Request request = new Request(result, batchNo, optimise, explain);
+        Request request = new Request(result, batchNo, optimise, explain,
+                requestIds.get().get(result.os));
         synchronized (sync) {
             synchronized (result) {
                 // Synchronise on BOTH locks, so we can muck about with anything.
                 if (!result.batches.containsKey(new Integer(batchNo))) {
                     // The request has not been done.
-                    if (!serviced.contains(request)) {
-                        // And it isn't currently being serviced.
-                        //if (!pending.contains(request)) {
-                        //    LOG.debug("addRequest - adding request:                          "
-                        //            + request);
-                        //}
+                    if (!serviced.contains(request) && !pending.contains(request)) {
+                        // And it isn't currently being serviced or waiting to be.
+                        if (pending.size() >= maxServiceThreads * LOADING) {
+                            // The queue is full. A prefetch is only a hint, so drop it rather than
+                            // let the queue grow without bound.
+                            requestsDropped++;
+                            return;
+                        }
                         pending.add(request);
-                        if ((pending.size() + serviced.size()) > (serviceThreads * LOADING)) {
+                        requestsAdded++;
+                        maxPending = Math.max(maxPending, pending.size());
+                        if (requestsAdded % STATISTICS_INTERVAL == 0) {
+                            LOG.info(getStatistics());
+                        }
+                        if (((pending.size() + serviced.size()) > (serviceThreads * LOADING))
+                                && (serviceThreads < maxServiceThreads)) {
                             // There are too many requests for the servicing threads.
                             Thread newThread = new ServiceThread();
                             newThread.setDaemon(true);
@@ -118,17 +157,139 @@ public final class PrefetchManager
                             // thread will soon finish a request.
                             sync.notify();
                         }
-                    //} else {
-                        //LOG.debug("addRequest - the request is currently being serviced: "
-                        //        + request);
                     }
-                //} else {
-                    //LOG.debug("addRequest - the request has already been done:       " + request);
                 }
             }
         }
     }
 
+    /**
+     * Sets the maximum number of threads that service prefetch requests. Once all of the threads
+     * are busy, further requests wait in a queue of bounded length, and requests that do not fit
+     * in the queue are dropped. Threads that already exist are not stopped if the maximum is
+     * reduced.
+     *
+     * @param threads the maximum number of service threads
+     */
+    public static void setMaxServiceThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        synchronized (sync) {
+            maxServiceThreads = threads;
+        }
+    }
+
+    /**
+     * Returns the maximum number of threads that service prefetch requests.
+     *
+     * @return an int
+     */
+    public static int getMaxServiceThreads() {
+        synchronized (sync) {
+            return maxServiceThreads;
+        }
+    }
+
+    /**
+     * Sets the number of batches that a Results object prefetches ahead of a sequential reader.
+     *
+     * @param depth the number of batches to prefetch
+     */
+    public static void setReadAheadDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must not be negative: " + depth);
+        }
+        readAheadDepth = depth;
+    }
+
+    /**
+     * Returns the number of batches that a Results object prefetches ahead of a sequential
+     * reader.
+     *
+     * @return an int
+     */
+    public static int getReadAheadDepth() {
+        return readAheadDepth;
+    }
+
+    /**
+     * Registers the current Thread with a request ID for an ObjectStore. Prefetch requests added
+     * by the Thread for Results from that ObjectStore are tagged with the ID, so that they can be
+     * removed from the queue by cancelRequest(ObjectStore, Object).
+     *
+     * @param os the ObjectStore with which the request ID is registered
+     * @param id the request ID
+     */
+    public static void registerRequestId(ObjectStore os, Object id) {
+        if (id == null) {
+            requestIds.get().remove(os);
+        } else {
+            requestIds.get().put(os, id);
+        }
+    }
+
+    /**
+     * Deregisters the current Thread from its request ID for an ObjectStore. Request IDs
+     * registered for other ObjectStores are not affected.
+     *
+     * @param os the ObjectStore with which the request ID is registered
+     */
+    public static void deregisterRequestId(ObjectStore os) {
+        requestIds.get().remove(os);
+    }
+
+    /**
+     * Removes from the queue all pending prefetch requests for Results from the given ObjectStore
+     * that were added by a Thread with the given request ID. Requests already being serviced run
+     * to completion, as the prefetch threads do not run their queries under the request ID. A
+     * null request ID matches nothing, as requests without IDs cannot be cancelled.
+     *
+     * @param os the ObjectStore with which the request ID is registered
+     * @param id the request ID
+     */
+    public static void cancelRequest(ObjectStore os, Object id) {
+        if (id == null) {
+            return;
+        }
+        synchronized (sync) {
+            Iterator<Request> iter = pending.iterator();
+            while (iter.hasNext()) {
+                Request request = iter.next();
+                if ((request.result.os == os) && id.equals(request.requestId)) {
+                    iter.remove();
+                    requestsCancelled++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting in the queue.
+     *
+     * @return an int
+     */
+    public static int getPendingCount() {
+        synchronized (sync) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Returns a description of the state of the prefetch queue, suitable for log messages.
+     *
+     * @return a String
+     */
+    public static String getStatistics() {
+        synchronized (sync) {
+            return "PrefetchManager: threads " + serviceThreads + "/" + maxServiceThreads
+                + ", pending: " + pending.size() + " (max " + maxPending + "), being serviced: "
+                + serviced.size() + ", added: " + requestsAdded + ", dropped: " + requestsDropped
+                + ", cancelled: " + requestsCancelled + ", taken over by readers: "
+                + requestsTakenOver;
+        }
+    }
+
     /**
      * Returns when the given request is completed. If the given request is not already being
      * serviced, then this method will start servicing the request in the current thread.
@@ -143,7 +304,7 @@ public final class PrefetchManager
      */
     public static List<Object> doRequest(ResultsBatches result, int batchNo, boolean optimise,
             boolean explain) throws ObjectStoreException {
-        return doRequest(new Request(result, batchNo, optimise, explain));
+        return doRequest(new Request(result, batchNo, optimise, explain, null));
     }
 
     /**
@@ -181,6 +342,7 @@ public final class PrefetchManager
                     // The request is not being serviced. We take over.
                     serviced.add(request);
                     pending.remove(request);
+                    requestsTakenOver++;
                     //LOG.debug("doRequest - the request was pending:                  " + request);
                 } else if (serviced.contains(request)) {
                     // The request is being serviced. We just need to wait.
@@ -317,12 +479,15 @@ public final class PrefetchManager
         private int batchNo;
         private boolean optimise;
         private boolean explain;
+        private Object requestId;
 
-        public Request(ResultsBatches result, int batchNo, boolean optimise, boolean explain) {
+        public Request(ResultsBatches result, int batchNo, boolean optimise, boolean explain,
+                Object requestId) {
             this.result = result;
             this.batchNo = batchNo;
             this.optimise = optimise;
             this.explain = explain;
+            this.requestId = requestId;
         }
 
         @Override
@@ -373,7 +538,9 @@ public final class PrefetchManager
                 // BIG BAD BUG.
                 LOG.error("ServiceThread died unexpectedly. PrefetchManager may stop working");
                 // And decrement the count of available ServiceThreads.
-                PrefetchManager.serviceThreads--;
+                synchronized (sync) {
+                    PrefetchManager.serviceThreads--;
+                }
             }
         }
     }
@@ -52,8 +52,8 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
     protected int sequential = 0;
     private static final int PREFETCH_SEQUENTIAL_THRESHOLD = 6;
     // Basically, this keeps a tally of how many times in a row accesses have been sequential.
-    // If sequential gets above a PREFETCH_SEQUENTIAL_THRESHOLD, then we prefetch the batch after
-    // the one we are currently using.
+    // If sequential gets above a PREFETCH_SEQUENTIAL_THRESHOLD, then we prefetch the batches after
+    // the one we are currently using, up to PrefetchManager.getReadAheadDepth() of them.
 
     /**
      * No argument constructor for testing purposes
@@ -205,9 +205,12 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
         if ((resultsBatches.getObjectStore() != null)
                 && prefetch
                 && resultsBatches.getObjectStore().isMultiConnection()
-                && (sequential > PREFETCH_SEQUENTIAL_THRESHOLD)
-                && (getBatchNoForRow(resultsBatches.getMaxSize()) > endBatch)) {
-            resultsBatches.prefetch(endBatch + 1, optimise, explain);
+                && (sequential > PREFETCH_SEQUENTIAL_THRESHOLD)) {
+            int lastBatch = getBatchNoForRow(resultsBatches.getMaxSize());
+            int depth = PrefetchManager.getReadAheadDepth();
+            for (int i = endBatch + 1; (i <= endBatch + depth) && (i <= lastBatch); i++) {
+                resultsBatches.prefetch(i, optimise, explain);
+            }
         }
         lastGet = end;
 
@@ -0,0 +1,69 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A ResultsStream that reads through a List of rows. Given a Results object, this reads through it
+ * batch by batch, which is the fallback used by ObjectStores that have no native cursor support,
+ * so it still issues one query per batch.
+ *
+ * @author InterMine
+ */
+public class ResultsIteratorStream implements ResultsStream
+{
+    private Iterator<?> iter;
+
+    /**
+     * Constructs a ResultsIteratorStream reading from the given List of ResultsRows, which is
+     * usually a Results object.
+     *
+     * @param results a List of ResultsRow objects
+     */
+    public ResultsIteratorStream(List<?> results) {
+        this.iter = results.iterator();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        return (iter != null) && iter.hasNext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    public ResultsRow<Object> next() {
+        if (iter == null) {
+            throw new NoSuchElementException();
+        }
+        return (ResultsRow<Object>) iter.next();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        iter = null;
+    }
+}
@@ -0,0 +1,33 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Iterator;
+
+/**
+ * A forward-only Iterator over the rows of a Query, as returned by
+ * ObjectStore.executeStreaming(). Unlike a Results object, a ResultsStream cannot be rewound or
+ * accessed randomly, and may hold database resources until it is exhausted. Callers that stop
+ * reading before the end of the stream MUST call close() to release them.
+ *
+ * Errors from the underlying ObjectStore during iteration are thrown as RuntimeExceptions, in the
+ * same manner as the Results iterator.
+ *
+ * @author InterMine
+ */
+public interface ResultsStream extends Iterator<ResultsRow<Object>>
+{
+    /**
+     * Releases any resources held by this stream. Calling this method more than once, or after
+     * the stream has been exhausted, has no effect.
+     */
+    void close();
+}
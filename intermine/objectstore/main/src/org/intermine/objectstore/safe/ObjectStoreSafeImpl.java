@@ -21,6 +21,7 @@ import org.intermine.objectstore.query.QueryCloner;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsInfo;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.ResultsStream;
 import org.intermine.objectstore.query.SingletonResults;
 
 /**
@@ -112,6 +113,14 @@ public class ObjectStoreSafeImpl extends ObjectStorePassthruImpl
         return os.execute(QueryCloner.cloneQuery(q), start, limit, optimise, explain, sequence);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResultsStream executeStreaming(Query q) throws ObjectStoreException {
+        return os.executeStreaming(QueryCloner.cloneQuery(q));
+    }
+
     /**
      * {@inheritDoc}
      */
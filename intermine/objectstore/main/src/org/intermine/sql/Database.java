@@ -276,6 +276,20 @@ public class Database implements Shutdownable
         return (String) settings.get("datasource.user");
     }
 
+    /**
+     * Gets the maximum number of connections that the pool for this Database will open
+     *
+     * @return the maxConnections property, or 0 if it is not set
+     */
+    public int getMaxConnections() {
+        String maxConnections = (String) settings.get("datasource.maxConnections");
+        try {
+            return (maxConnections == null ? 0 : Integer.parseInt(maxConnections.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     /**
      * Gets the password for this Database
      *
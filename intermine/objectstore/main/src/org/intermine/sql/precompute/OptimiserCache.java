@@ -10,29 +10,52 @@ package org.intermine.sql.precompute;
  *
  */
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.log4j.Logger;
 import org.intermine.sql.Database;
-import org.intermine.util.CacheMap;
 
 /**
  * A class that provides an implementation of a cache for String-based SQL query optimisation.
+ * Lookups do not take any locks, so many threads can optimise queries at once. When the cache
+ * holds more than MAX_LINESETS linesets, the least valuable are evicted, where the value of a
+ * line is the optimisation time it saves divided by the time since it was last used. The cache
+ * can be saved to a file, and loaded again when the application is next started.
  *
  * @author Matthew Wakeling
  */
 public class OptimiserCache
 {
+    private static final Logger LOG = Logger.getLogger(OptimiserCache.class);
     /** Maximum number of cache linesets in the cache. */
     public static final int MAX_LINESETS = 1000;
-    /** Number of events to happen before an expiration run. */
+    /** Number of linesets to evict in one expiration run, once the cache is full. */
     public static final int EXPIRE_INTERVAL = 100;
+    private static final int FILE_VERSION = 1;
 
     // Caches need to be per-database, so we will provide a static method to retrieve a cache object
     // given a database. We need to be careful about synchronisation in this whole class.
-    private static Map<Database, OptimiserCache> caches = new HashMap<Database, OptimiserCache>();
+    private static ConcurrentMap<Database, OptimiserCache> caches
+        = new ConcurrentHashMap<Database, OptimiserCache>();
+    private static OptimiserCache nullDatabaseCache = new OptimiserCache();
 
     /**
      * Returns an OptimiserCache object relevant to the database given.
@@ -40,11 +63,16 @@ public class OptimiserCache
      * @param db a Database object to find a cache for
      * @return an OptimiserCache object
      */
-    public static synchronized OptimiserCache getInstance(Database db) {
-        if (!caches.containsKey(db)) {
-            caches.put(db, new OptimiserCache());
+    public static OptimiserCache getInstance(Database db) {
+        if (db == null) {
+            return nullDatabaseCache;
         }
-        return caches.get(db);
+        OptimiserCache retval = caches.get(db);
+        if (retval == null) {
+            caches.putIfAbsent(db, new OptimiserCache());
+            retval = caches.get(db);
+        }
+        return retval;
     }
 
 
@@ -52,19 +80,23 @@ public class OptimiserCache
      * A Map that holds a mapping from unoptimised query string (with LIMIT and OFFSET stripped off)
      * to a Set of OptimiserCacheLine objects.
      */
-    protected Map<String, Set<OptimiserCacheLine>> cacheLines;
+    protected ConcurrentMap<String, Set<OptimiserCacheLine>> cacheLines;
+    private AtomicBoolean expiring = new AtomicBoolean(false);
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
 
     /**
      * Constructor for this object.
      */
     public OptimiserCache() {
-        cacheLines = new CacheMap<String, Set<OptimiserCacheLine>>();
+        cacheLines = new ConcurrentHashMap<String, Set<OptimiserCacheLine>>();
     }
 
     /**
      * Removes all entries from the cache.
      */
-    public synchronized void flush() {
+    public void flush() {
         cacheLines.clear();
     }
 
@@ -75,7 +107,19 @@ public class OptimiserCache
      * @param optimised the optimised SQL string (stripped of LIMIT and OFFSET)
      * @param limit the limit that was used during the optimisation
      */
-    public synchronized void addCacheLine(String original, String optimised, int limit) {
+    public void addCacheLine(String original, String optimised, int limit) {
+        addCacheLine(original, optimised, limit, 0);
+    }
+
+    /**
+     * Adds a new OptimiserCacheLine object to the cache.
+     *
+     * @param original the original SQL string (stripped of LIMIT and OFFSET)
+     * @param optimised the optimised SQL string (stripped of LIMIT and OFFSET)
+     * @param limit the limit that was used during the optimisation
+     * @param optimiseTime the number of milliseconds the optimisation took
+     */
+    public void addCacheLine(String original, String optimised, int limit, long optimiseTime) {
         if (original.toUpperCase().startsWith("EXPLAIN ")) {
             original = original.substring(8);
         }
@@ -84,13 +128,20 @@ public class OptimiserCache
         }
         Set<OptimiserCacheLine> lines = cacheLines.get(original);
         if (lines == null) {
-            lines = new HashSet<OptimiserCacheLine>();
-            cacheLines.put(original, lines);
+            Set<OptimiserCacheLine> newLines = Collections.newSetFromMap(
+                    new ConcurrentHashMap<OptimiserCacheLine, Boolean>());
+            lines = cacheLines.putIfAbsent(original, newLines);
+            if (lines == null) {
+                lines = newLines;
+            }
         }
 
-        OptimiserCacheLine line = new OptimiserCacheLine(optimised, limit, original);
+        OptimiserCacheLine line = new OptimiserCacheLine(optimised, limit, original, optimiseTime);
 
         lines.add(line);
+        if (cacheLines.size() > MAX_LINESETS) {
+            expire();
+        }
     }
 
     /**
@@ -100,7 +151,7 @@ public class OptimiserCache
      * @param limit the limit required
      * @return a possible optimised SQL string (minus LIMIT and OFFSET)
      */
-    public synchronized String lookup(String original, int limit) {
+    public String lookup(String original, int limit) {
         //LOG.debug("Looking up query \"" + original + "\" with limit " + limit
         //        + " and offset " + offset + " - ");
         boolean originalWasExplain = false;
@@ -112,6 +163,7 @@ public class OptimiserCache
         if (lines == null) {
             // Couldn't find anything.
             //LOG.debug("Complete cache miss");
+            misses.incrementAndGet();
             return null;
         }
         double bestScore = Double.POSITIVE_INFINITY;
@@ -125,9 +177,152 @@ public class OptimiserCache
         }
         if (bestScore > 1.0) {
             //LOG.debug("Cache didn't have anything near enough");
+            misses.incrementAndGet();
             return null;
         }
         //LOG.debug("Cache hit");
+        hits.incrementAndGet();
+        bestLine.markUsed();
         return (originalWasExplain ? "EXPLAIN " : "") + bestLine.getOptimised();
     }
+
+    /**
+     * Evicts the least valuable linesets, until the cache holds EXPIRE_INTERVAL fewer than
+     * MAX_LINESETS. If another thread is already doing this, this method returns immediately.
+     */
+    protected void expire() {
+        if (!expiring.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final long now = System.currentTimeMillis();
+            final Map<String, Double> values = new HashMap<String, Double>();
+            for (Map.Entry<String, Set<OptimiserCacheLine>> entry : cacheLines.entrySet()) {
+                double value = 0.0;
+                for (OptimiserCacheLine line : entry.getValue()) {
+                    value = Math.max(value, line.getValue(now));
+                }
+                values.put(entry.getKey(), new Double(value));
+            }
+            List<String> originals = new ArrayList<String>(values.keySet());
+            Collections.sort(originals, new Comparator<String>() {
+                @Override
+                public int compare(String o1, String o2) {
+                    return values.get(o1).compareTo(values.get(o2));
+                }
+            });
+            int toEvict = cacheLines.size() - (MAX_LINESETS - EXPIRE_INTERVAL);
+            for (int i = 0; (i < toEvict) && (i < originals.size()); i++) {
+                if (cacheLines.remove(originals.get(i)) != null) {
+                    evictions.incrementAndGet();
+                }
+            }
+        } finally {
+            expiring.set(false);
+        }
+    }
+
+    /**
+     * Returns the number of linesets in the cache.
+     *
+     * @return an int
+     */
+    public int size() {
+        return cacheLines.size();
+    }
+
+    /**
+     * Returns a description of the size and hit rate of this cache, suitable for log messages.
+     *
+     * @return a String
+     */
+    public String getStatistics() {
+        return "Optimiser cache: size " + cacheLines.size() + "/" + MAX_LINESETS + ", hits: "
+            + hits.get() + ", misses: " + misses.get() + ", evictions: " + evictions.get();
+    }
+
+    /**
+     * Writes the contents of this cache to a file, so that it can be loaded again with load().
+     * The fingerprint should describe everything the optimised queries depend on, such as the
+     * set of precomputed tables, so that a cache is only loaded into an equivalent database.
+     *
+     * @param file the File to write to
+     * @param fingerprint a String describing the state of the database
+     * @return the number of cache lines written
+     * @throws IOException if the file cannot be written
+     */
+    public int save(File file, String fingerprint) throws IOException {
+        int count = 0;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file)));
+        try {
+            out.writeInt(FILE_VERSION);
+            writeString(out, fingerprint);
+            for (Set<OptimiserCacheLine> lines : cacheLines.values()) {
+                for (OptimiserCacheLine line : lines) {
+                    out.writeBoolean(true);
+                    writeString(out, line.getOriginal());
+                    writeString(out, line.getOptimised());
+                    out.writeInt(line.getLimit());
+                    out.writeLong(line.getOptimiseTime());
+                    count++;
+                }
+            }
+            out.writeBoolean(false);
+        } finally {
+            out.close();
+        }
+        return count;
+    }
+
+    /**
+     * Adds the contents of a file written by save() to this cache. Nothing is loaded if the file
+     * does not exist, or was written with a different fingerprint.
+     *
+     * @param file the File to read from
+     * @param fingerprint a String describing the state of the database
+     * @return the number of cache lines loaded
+     * @throws IOException if the file cannot be read
+     */
+    public int load(File file, String fingerprint) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        int count = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+        try {
+            if (in.readInt() != FILE_VERSION) {
+                LOG.warn("Ignoring optimiser cache file " + file + " - unknown version");
+                return 0;
+            }
+            if (!fingerprint.equals(readString(in))) {
+                LOG.info("Ignoring optimiser cache file " + file + " - the database has changed");
+                return 0;
+            }
+            while (in.readBoolean()) {
+                String original = readString(in);
+                String optimised = readString(in);
+                int limit = in.readInt();
+                long optimiseTime = in.readLong();
+                addCacheLine(original, optimised, limit, optimiseTime);
+                count++;
+            }
+        } finally {
+            in.close();
+        }
+        return count;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
 }
@@ -22,6 +22,8 @@ public class OptimiserCacheLine
     private String optimised;
     private int limit;
     private String original;
+    private long optimiseTime;
+    private volatile long lastUsed;
 
 
     /**
@@ -32,9 +34,24 @@ public class OptimiserCacheLine
      * @param original the original sql query
      */
     public OptimiserCacheLine(String optimised, int limit, String original) {
+        this(optimised, limit, original, 0);
+    }
+
+    /**
+     * Constructor for this object.
+     *
+     * @param optimised the optimised SQL String, minus the LIMIT and OFFSET
+     * @param limit the limit that was used to generate optimised
+     * @param original the original sql query
+     * @param optimiseTime the number of milliseconds it took to optimise the query, which is the
+     * time saved each time this line is used
+     */
+    public OptimiserCacheLine(String optimised, int limit, String original, long optimiseTime) {
         this.optimised = optimised;
         this.limit = limit;
         this.original = original;
+        this.optimiseTime = optimiseTime;
+        this.lastUsed = System.currentTimeMillis();
     }
 
     /**
@@ -68,5 +85,42 @@ public class OptimiserCacheLine
     public String getOriginal() {
         return original;
     }
+
+    /**
+     * Returns the limit that was used to generate the optimised query.
+     *
+     * @return an int
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns the number of milliseconds it took to optimise the query.
+     *
+     * @return a long
+     */
+    public long getOptimiseTime() {
+        return optimiseTime;
+    }
+
+    /**
+     * Records that this cache line has just been used.
+     */
+    public void markUsed() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns how valuable it is to keep this cache line, as the optimisation time it saves
+     * divided by the time since it was last used. Lines that were expensive to produce and were
+     * used recently are the most valuable.
+     *
+     * @param now the current time in milliseconds
+     * @return a double
+     */
+    public double getValue(long now) {
+        return (optimiseTime + 1.0) / (Math.max(now - lastUsed, 0) + 1.0);
+    }
 }
 
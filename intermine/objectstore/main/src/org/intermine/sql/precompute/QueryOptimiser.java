@@ -266,7 +266,7 @@ public final class QueryOptimiser
             LimitOffsetQuery limitOffsetOptimisedQuery = new LimitOffsetQuery(optimisedQuery);
             LOG.debug("New cache line produced - limit = " + limitOffsetQuery.getLimit());
             cache.addCacheLine(limitOffsetQuery.getQuery(), limitOffsetOptimisedQuery.getQuery(),
-                    limitOffsetQuery.getLimit());
+                    limitOffsetQuery.getLimit(), (new Date()).getTime() - start);
             LOG.debug("Optimising " + (expectedTime == 0 ? "" : expectedTime + " ms ")
                     + "query took " + ((new Date()).getTime() - start)
                     + (parseTime == 0 ? " ms without parsing " : " ms including "
@@ -15,6 +15,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -46,6 +47,9 @@ public class Batch
     private List<FlushJob> flushJobs = Collections.emptyList();
     private SQLException problem = null;
 
+    private List<Connection> parallelConnections = Collections.emptyList();
+    private Map<String, Integer> tableGroups = new HashMap<String, Integer>();
+
     private volatile int lastDutyCycle = 100;
     private boolean closed = false;
     private static final List<FlushJob> CLOSE_DOWN_COMMAND = new ArrayList<FlushJob>();
@@ -239,6 +243,44 @@ public class Batch
         backgroundFlush(con, null, true);
     }
 
+    /**
+     * Flushes the batch out to the database server, then commits the transaction, and waits for
+     * that to finish. If the Batch writes with extra Connections, their transactions are
+     * committed too.
+     *
+     * @param con a Connection for writing to the database, which must be in a transaction
+     * @throws SQLException if an error occurs while flushing or committing
+     */
+    public void commit(Connection con) throws SQLException {
+        batchCommit(con);
+        flush(con);
+    }
+
+    /**
+     * Clears the batch, and rolls back the transaction. If the Batch writes with extra
+     * Connections, their transactions are rolled back too.
+     *
+     * @param con a Connection for writing to the database, which must be in a transaction
+     * @throws SQLException if an error occurs while rolling back
+     */
+    public void rollback(Connection con) throws SQLException {
+        clear();
+        SQLException failure = null;
+        for (Connection c : parallelConnections) {
+            try {
+                c.rollback();
+            } catch (SQLException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        con.rollback();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
     /**
      * Flushes the batch out to the database server, but does not guarantee that the operation
      * is finished when this method returns. Do not use the Connection until you have called flush()
@@ -270,7 +312,12 @@ public class Batch
             throw new SQLException("Batch is closed");
         }
         //long start = System.currentTimeMillis();
-        List<FlushJob> jobs = batchWriter.write(con, tables, filter);
+        List<FlushJob> jobs;
+        if (parallelConnections.isEmpty()) {
+            jobs = batchWriter.write(con, tables, filter);
+        } else {
+            jobs = parallelWrite(con, filter);
+        }
         int oldBatchSize = batchSize;
         batchSize = 0;
         for (Map.Entry<String, Table> tableEntry : tables.entrySet()) {
@@ -279,7 +326,7 @@ public class Batch
         }
         lastCheckBatchSize = batchSize;
         if (needBatchCommit) {
-            jobs.add(new FlushJobBatchCommit(con));
+            jobs.add(new FlushJobBatchCommit(con, parallelConnections));
             needBatchCommit = false;
         }
         //long middle = System.currentTimeMillis();
@@ -298,6 +345,84 @@ public class Batch
         }
     }
 
+    /**
+     * Splits the tables to be written into one group for each connection, and creates a single
+     * FlushJobParallelImpl to write all the groups at once. A table is always written by the
+     * same connection, so that the rows it deletes are never uncommitted rows of another
+     * connection.
+     *
+     * @param con a Connection for writing to the database
+     * @param filter a Set of the table names to write, or null to write all of them
+     * @return a List of flush jobs
+     * @throws SQLException if an error occurs while preparing the flush jobs
+     */
+    private List<FlushJob> parallelWrite(Connection con, Set<String> filter) throws SQLException {
+        int groupCount = parallelConnections.size() + 1;
+        List<Set<String>> groupFilters = new ArrayList<Set<String>>();
+        for (int i = 0; i < groupCount; i++) {
+            groupFilters.add(new HashSet<String>());
+        }
+        for (String name : tables.keySet()) {
+            if ((filter == null) || filter.contains(name)) {
+                Integer group = tableGroups.get(name);
+                if (group == null) {
+                    group = new Integer(tableGroups.size() % groupCount);
+                    tableGroups.put(name, group);
+                }
+                groupFilters.get(group.intValue()).add(name);
+            }
+        }
+        List<List<FlushJob>> groupJobs = new ArrayList<List<FlushJob>>();
+        for (int i = 0; i < groupCount; i++) {
+            Connection groupCon = (i == 0 ? con : parallelConnections.get(i - 1));
+            if (groupFilters.get(i).isEmpty()) {
+                groupJobs.add(new ArrayList<FlushJob>());
+            } else {
+                groupJobs.add(batchWriter.write(groupCon, tables, groupFilters.get(i)));
+            }
+        }
+        List<FlushJob> jobs = new ArrayList<FlushJob>();
+        jobs.add(new FlushJobParallelImpl(con, parallelConnections, groupJobs));
+        return jobs;
+    }
+
+    /**
+     * Sets the extra Connections that this Batch uses to write several tables at once. Each table
+     * is written by only one Connection. If the Connection passed to the other methods of this
+     * Batch is not in a transaction, the extra Connections commit at the end of every flush, once
+     * all the tables have been written. If it is in a transaction, the extra Connections keep
+     * their writes in transactions of their own, which are committed by batchCommit() and
+     * commit(), and rolled back by rollback(). Those writes are not visible to queries on the
+     * Connection of the Batch until then. The commits are not atomic across Connections.
+     * <br>
+     * The Batch does not close the Connections. They must not be used for anything else until
+     * the Batch is closed, or this method is called again.
+     * <br>
+     * Any rows already in the Batch are first flushed with the old Connections, and if the
+     * Connection of the Batch is in a transaction, it is committed, as with commit(). The
+     * tables are therefore only regrouped once everything written so far is in the database.
+     *
+     * @param con the Connection for writing to the database
+     * @param connections a List of Connections, or an empty List to write with one Connection
+     * @throws SQLException if the flush or commit fails, or a Connection cannot be put into a
+     * transaction
+     */
+    public void setParallelConnections(Connection con,
+            List<Connection> connections) throws SQLException {
+        if (closed) {
+            throw new IllegalStateException("Batch is closed");
+        }
+        flush(con);
+        if (!con.getAutoCommit()) {
+            commit(con);
+        }
+        for (Connection c : connections) {
+            c.setAutoCommit(false);
+        }
+        parallelConnections = new ArrayList<Connection>(connections);
+        tableGroups.clear();
+    }
+
     /**
      * Closes this BatchWriter. This method guarantees that the Connection is no longer in use by
      * the batch, and the background writer Thread will die soon, even if it does not return
@@ -50,10 +50,7 @@ public class BatchWriterPostgresCopyImpl extends BatchWriterPreparedStatementImp
         String[] colNames = table.getColNames();
         if ((colNames != null) && (!table.getIdsToInsert().isEmpty())) {
             try {
-                CopyManager copyManager = null;
-                if (con.isWrapperFor(PGConnection.class)) {
-                    copyManager = con.unwrap(PGConnection.class).getCopyAPI();
-                }
+                CopyManager copyManager = getCopyManager();
                 if (copyManager == null) {
                     LOG.warn("Database with Connection " + con.getClass().getName()
                             + " is incompatible with the PostgreSQL COPY command - falling"
@@ -62,12 +59,7 @@ public class BatchWriterPostgresCopyImpl extends BatchWriterPreparedStatementImp
                 } else {
                     PostgresByteArrayOutputStream baos = new PostgresByteArrayOutputStream();
                     PostgresDataOutputStream dos = new PostgresDataOutputStream(baos);
-                    dos.writeBytes("PGCOPY\n");
-                    dos.writeByte(255);
-                    dos.writeBytes("\r\n");
-                    dos.writeByte(0); // Signature done
-                    dos.writeInt(0); // Flags - we aren't supplying OIDS
-                    dos.writeInt(0); // Length of header extension
+                    writeHeader(dos);
                     for (Map.Entry<Object, Object> insertEntry : table.getIdsToInsert()
                             .entrySet()) {
                         Object inserts = insertEntry.getValue();
@@ -86,15 +78,7 @@ public class BatchWriterPostgresCopyImpl extends BatchWriterPreparedStatementImp
                             }
                         }
                     }
-                    StringBuffer sqlBuffer = new StringBuffer("COPY ").append(name).append(" (");
-                    for (int i = 0; i < colNames.length; i++) {
-                        if (i > 0) {
-                            sqlBuffer.append(", ");
-                        }
-                        sqlBuffer.append(colNames[i]);
-                    }
-                    sqlBuffer.append(") FROM STDIN BINARY");
-                    String sql = sqlBuffer.toString();
+                    String sql = getCopySql(name, colNames);
                     dos.writeShort(-1);
                     dos.flush();
                     batches.add(new FlushJobPostgresCopyImpl(copyManager, sql,
@@ -108,8 +92,62 @@ public class BatchWriterPostgresCopyImpl extends BatchWriterPreparedStatementImp
         return 0;
     }
 
+    /**
+     * Returns the CopyManager of the current Connection.
+     *
+     * @return a CopyManager, or null if the Connection is not a PostgreSQL connection
+     * @throws SQLException if there is an error unwrapping the Connection
+     */
+    protected CopyManager getCopyManager() throws SQLException {
+        if (con.isWrapperFor(PGConnection.class)) {
+            return con.unwrap(PGConnection.class).getCopyAPI();
+        }
+        return null;
+    }
+
+    /**
+     * Writes the header of a binary COPY stream.
+     *
+     * @param dos the DataOutputStream to write to
+     * @throws IOException if there is an error writing to the stream
+     */
+    protected static void writeHeader(DataOutputStream dos) throws IOException {
+        dos.writeBytes("PGCOPY\n");
+        dos.writeByte(255);
+        dos.writeBytes("\r\n");
+        dos.writeByte(0); // Signature done
+        dos.writeInt(0); // Flags - we aren't supplying OIDS
+        dos.writeInt(0); // Length of header extension
+    }
+
+    /**
+     * Returns the COPY command that reads binary data for the given columns of a table.
+     *
+     * @param name the name of the table
+     * @param colNames the names of the columns
+     * @return a String
+     */
+    protected static String getCopySql(String name, String[] colNames) {
+        StringBuffer sqlBuffer = new StringBuffer("COPY ").append(name).append(" (");
+        for (int i = 0; i < colNames.length; i++) {
+            if (i > 0) {
+                sqlBuffer.append(", ");
+            }
+            sqlBuffer.append(colNames[i]);
+        }
+        sqlBuffer.append(") FROM STDIN BINARY");
+        return sqlBuffer.toString();
+    }
+
+    /**
+     * Writes a single value to a binary COPY stream, as its length followed by its data.
+     *
+     * @param dos the PostgresDataOutputStream to write to
+     * @param o the value, which may be null
+     * @throws IOException if there is an error writing to the stream
+     */
     // TODO: Add support for UUID.
-    private static void writeObject(PostgresDataOutputStream dos, Object o) throws IOException {
+    protected static void writeObject(PostgresDataOutputStream dos, Object o) throws IOException {
         if (o == null) {
             dos.writeInt(-1);
         } else if (o instanceof Integer) {
@@ -200,10 +238,7 @@ public class BatchWriterPostgresCopyImpl extends BatchWriterPreparedStatementImp
             IndirectionTableBatch table, List<FlushJob> batches) throws SQLException {
         if (!table.getRowsToInsert().isEmpty()) {
             try {
-                CopyManager copyManager = null;
-                if (con.isWrapperFor(PGConnection.class)) {
-                    copyManager = con.unwrap(PGConnection.class).getCopyAPI();
-                }
+                CopyManager copyManager = getCopyManager();
                 if (copyManager == null) {
                     LOG.warn("Database is incompatible with the PostgreSQL COPY command - falling"
                             + " back to prepared statements");
@@ -211,12 +246,7 @@ public class BatchWriterPostgresCopyImpl extends BatchWriterPreparedStatementImp
                 } else {
                     PostgresByteArrayOutputStream baos = new PostgresByteArrayOutputStream();
                     DataOutputStream dos = new DataOutputStream(baos);
-                    dos.writeBytes("PGCOPY\n");
-                    dos.writeByte(255);
-                    dos.writeBytes("\r\n");
-                    dos.writeByte(0); // Signature done
-                    dos.writeInt(0); // Flags - we aren't supplying OIDS
-                    dos.writeInt(0); // Length of header extension
+                    writeHeader(dos);
                     for (Row row : table.getRowsToInsert()) {
                         dos.writeShort(2);
                         dos.writeInt(4);
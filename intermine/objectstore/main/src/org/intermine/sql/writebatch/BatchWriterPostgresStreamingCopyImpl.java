@@ -0,0 +1,89 @@
+package org.intermine.sql.writebatch;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.postgresql.copy.CopyManager;
+
+/**
+ * An implementation of the BatchWriter interface that uses PostgreSQL-specific COPY commands,
+ * like BatchWriterPostgresCopyImpl, but does not encode the rows of a table into a byte array
+ * before sending them. Instead, the rows are encoded while the COPY is running, into a pipe of
+ * fixed size that the COPY reads from, so the memory used by a flush does not grow with the
+ * size of the batch, and the database starts receiving data straight away.
+ * <p>
+ * Indirection tables are still written with a buffered COPY, as their rows are only eighteen
+ * bytes long when encoded, which is less than the memory used by the Row objects themselves.
+ *
+ * @author InterMine
+ */
+public class BatchWriterPostgresStreamingCopyImpl extends BatchWriterPostgresCopyImpl
+{
+    /** The default size of the pipe between the encoder and the COPY, in bytes */
+    public static final int DEFAULT_PIPE_SIZE = 1024 * 1024;
+
+    private int pipeSize = DEFAULT_PIPE_SIZE;
+
+    /**
+     * Sets the size of the pipe between the thread encoding rows and the COPY command. This is
+     * the most memory that the encoded data of a single table can use during a flush.
+     *
+     * @param pipeSize a number of bytes
+     */
+    public void setPipeSize(int pipeSize) {
+        this.pipeSize = pipeSize;
+    }
+
+    /**
+     * Returns the size of the pipe between the thread encoding rows and the COPY command.
+     *
+     * @return a number of bytes
+     */
+    public int getPipeSize() {
+        return pipeSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    protected int doInserts(String name, TableBatch table, List<FlushJob> batches)
+        throws SQLException {
+        String[] colNames = table.getColNames();
+        if ((colNames != null) && (!table.getIdsToInsert().isEmpty())) {
+            CopyManager copyManager = getCopyManager();
+            if (copyManager == null) {
+                // The superclass falls back to prepared statements.
+                return super.doInserts(name, table, batches);
+            }
+            // The table is cleared as soon as this method returns, so take a copy of the list
+            // of rows. The rows themselves are not copied.
+            List<Object[]> rows = new ArrayList<Object[]>(table.getIdsToInsert().size());
+            for (Map.Entry<Object, Object> insertEntry : table.getIdsToInsert().entrySet()) {
+                Object inserts = insertEntry.getValue();
+                if (inserts instanceof Object[]) {
+                    rows.add((Object[]) inserts);
+                } else {
+                    rows.addAll((List<Object[]>) inserts);
+                }
+            }
+            batches.add(new FlushJobPostgresStreamingCopyImpl(copyManager,
+                        getCopySql(name, colNames), colNames.length, rows, pipeSize));
+            return table.getIdsToInsert().size();
+        }
+        return 0;
+    }
+}
@@ -12,15 +12,25 @@ package org.intermine.sql.writebatch;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
 
 /**
- * A FlushJob that commits and re-opens a transaction on the database.
+ * A FlushJob that commits and re-opens a transaction on the database. If the Batch writes with
+ * extra Connections, their transactions are committed first, and the Connection of the Batch
+ * last.
  *
  * @author Matthew Wakeling
  */
 public class FlushJobBatchCommit implements FlushJob
 {
+    private static final Logger LOG = Logger.getLogger(FlushJobBatchCommit.class);
+
     Connection con;
+    List<Connection> parallelConnections;
 
     /**
      * Constructor for this class
@@ -28,14 +38,55 @@ public class FlushJobBatchCommit implements FlushJob
      * @param con a Connection with which to perform the updates
      */
     public FlushJobBatchCommit(Connection con) {
+        this(con, Collections.<Connection>emptyList());
+    }
+
+    /**
+     * Constructor for this class
+     *
+     * @param con a Connection with which to perform the updates
+     * @param parallelConnections the extra Connections that the Batch writes with
+     */
+    public FlushJobBatchCommit(Connection con, List<Connection> parallelConnections) {
         this.con = con;
+        this.parallelConnections = parallelConnections;
     }
 
     /**
      * {@inheritDoc}
      */
     public void flush() throws SQLException {
-        con.commit();
+        List<Connection> connections = new ArrayList<Connection>(parallelConnections);
+        connections.add(con);
+        commitAll(connections);
     }
-}
 
+    /**
+     * Commits several Connections in turn. The database cannot commit them all at once, so if
+     * one of the commits fails, the Connections after it are rolled back rather than left with
+     * a transaction that a later commit would write half of.
+     *
+     * @param connections a List of Connections
+     * @throws SQLException if a commit fails
+     */
+    static void commitAll(List<Connection> connections) throws SQLException {
+        for (int i = 0; i < connections.size(); i++) {
+            try {
+                connections.get(i).commit();
+            } catch (SQLException e) {
+                for (int j = i; j < connections.size(); j++) {
+                    try {
+                        connections.get(j).rollback();
+                    } catch (SQLException e2) {
+                        LOG.error("Could not roll back connection after a failed commit", e2);
+                    }
+                }
+                SQLException e2 = new SQLException("Committed " + i + " of "
+                        + connections.size() + " connections, then failed - the rest have been"
+                        + " rolled back");
+                e2.initCause(e);
+                throw e2;
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.intermine.sql.writebatch;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A FlushJob that performs several lists of flush jobs at the same time, each on a different
+ * Connection. The first list uses the Connection of the Batch, and is performed in the calling
+ * thread. The others use the extra Connections, each in its own thread.
+ * <p>
+ * If the Connection of the Batch is not in a transaction, then once every list is finished, the
+ * extra Connections are committed if all the lists succeeded, and rolled back otherwise. If it is
+ * in a transaction, the extra Connections are left in theirs, to be committed along with it by a
+ * FlushJobBatchCommit, or rolled back by Batch.rollback().
+ *
+ * @author InterMine
+ */
+public class FlushJobParallelImpl implements FlushJob
+{
+    private static final Logger LOG = Logger.getLogger(FlushJobParallelImpl.class);
+
+    private Connection con;
+    private List<Connection> connections;
+    private List<List<FlushJob>> groupJobs;
+
+    /**
+     * Constructor for this class
+     *
+     * @param con the Connection of the Batch
+     * @param connections a List of the extra Connections
+     * @param groupJobs a List of lists of flush jobs, the first for the Connection of the Batch
+     * and the rest for each of the extra Connections in turn
+     */
+    public FlushJobParallelImpl(Connection con, List<Connection> connections,
+            List<List<FlushJob>> groupJobs) {
+        this.con = con;
+        this.connections = connections;
+        this.groupJobs = groupJobs;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void flush() throws SQLException {
+        boolean inTransaction = !con.getAutoCommit();
+        List<GroupFlusher> flushers = new ArrayList<GroupFlusher>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 1; i < groupJobs.size(); i++) {
+            if (!groupJobs.get(i).isEmpty()) {
+                GroupFlusher flusher = new GroupFlusher(groupJobs.get(i));
+                Thread thread = new Thread(flusher, "WriteBatch parallel flusher " + i);
+                thread.setDaemon(true);
+                thread.start();
+                flushers.add(flusher);
+                threads.add(thread);
+            }
+        }
+        GroupFlusher mainFlusher = new GroupFlusher(groupJobs.get(0));
+        mainFlusher.run();
+        // The other threads are using the extra Connections, so they must finish before we
+        // commit or roll back, even if we are interrupted.
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            boolean joined = false;
+            while (!joined) {
+                try {
+                    thread.join();
+                    joined = true;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        SQLException problem = mainFlusher.problem;
+        for (GroupFlusher flusher : flushers) {
+            if (problem == null) {
+                problem = flusher.problem;
+            }
+        }
+        if (inTransaction) {
+            // Any problem has aborted a transaction, which the caller must roll back.
+            if (problem != null) {
+                throw problem;
+            }
+        } else if (problem == null) {
+            FlushJobBatchCommit.commitAll(connections);
+        } else {
+            for (Connection c : connections) {
+                try {
+                    c.rollback();
+                } catch (SQLException e) {
+                    LOG.error("Could not roll back parallel flush connection", e);
+                }
+            }
+            throw problem;
+        }
+        groupJobs = null;
+    }
+
+    /**
+     * Performs one list of flush jobs, and records any problem.
+     */
+    private static class GroupFlusher implements Runnable
+    {
+        private List<FlushJob> jobs;
+        SQLException problem = null;
+
+        GroupFlusher(List<FlushJob> jobs) {
+            this.jobs = jobs;
+        }
+
+        public void run() {
+            try {
+                for (FlushJob job : jobs) {
+                    job.flush();
+                }
+            } catch (SQLException e) {
+                problem = e;
+            } catch (Throwable t) {
+                problem = new SQLException("Caught a Throwable in a parallel flusher");
+                problem.initCause(t);
+            }
+        }
+    }
+}
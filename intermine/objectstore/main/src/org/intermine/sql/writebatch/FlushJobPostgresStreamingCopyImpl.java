@@ -0,0 +1,180 @@
+package org.intermine.sql.writebatch;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.postgresql.copy.CopyManager;
+
+/**
+ * An implementation of the FlushJob interface that sends rows to the database with a binary COPY
+ * command, encoding them in a separate thread while the COPY is running. The encoding thread
+ * writes into a pipe of fixed size, so it waits whenever it gets too far ahead of the database.
+ * The encoding threads are daemon threads shared by all flushes, and exit after a minute idle.
+ *
+ * @author InterMine
+ */
+public class FlushJobPostgresStreamingCopyImpl implements FlushJob
+{
+    private static final int BUFFER_SIZE = 8192;
+    private static final ExecutorService ENCODERS = Executors.newCachedThreadPool(
+            new EncoderFactory());
+
+    private CopyManager copyManager;
+    private String sql;
+    private int colCount;
+    private List<Object[]> rows;
+    private int pipeSize;
+
+    /**
+     * Constructor for this class
+     *
+     * @param copyManager the CopyManager to use
+     * @param sql the SQL String containing the COPY command
+     * @param colCount the number of columns in the COPY command
+     * @param rows a List of rows, each an array of colCount values
+     * @param pipeSize the size of the pipe between the encoding thread and the COPY, in bytes
+     */
+    public FlushJobPostgresStreamingCopyImpl(CopyManager copyManager, String sql, int colCount,
+            List<Object[]> rows, int pipeSize) {
+        this.copyManager = copyManager;
+        this.sql = sql;
+        this.colCount = colCount;
+        this.rows = rows;
+        this.pipeSize = pipeSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void flush() throws SQLException {
+        int rowCount = rows.size();
+        Encoder encoder = new Encoder();
+        PipedInputStream in;
+        try {
+            in = new PipedInputStream(encoder.out, pipeSize);
+        } catch (IOException e) {
+            SQLException e2 = new SQLException("Error writing to database, running statement "
+                    + sql + ", rows = " + rowCount);
+            e2.initCause(e);
+            throw e2;
+        }
+        Future<?> encoding = ENCODERS.submit(encoder);
+        Exception failure = null;
+        try {
+            copyManager.copyIn(sql, in);
+        } catch (SQLException e) {
+            failure = e;
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            try {
+                // Wakes up the encoder if it is waiting for the COPY to read more data.
+                in.close();
+            } catch (IOException e) {
+                // Ignore - the pipe is only in memory.
+            }
+        }
+        // The encoder must finish with the rows before this job is done, so wait for it even if
+        // interrupted, and pass the interrupt on afterwards.
+        boolean interrupted = false;
+        boolean joined = false;
+        while (!joined) {
+            try {
+                encoding.get();
+                joined = true;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+                joined = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if ((failure == null) || (encoder.failure instanceof IllegalArgumentException)) {
+            // An unencodable value is the real cause of the COPY failing.
+            failure = encoder.failure;
+        }
+        if (failure != null) {
+            SQLException e2 = new SQLException("Error writing to database, running statement "
+                    + sql + ", rows = " + rowCount);
+            e2.initCause(failure);
+            throw e2;
+        }
+        copyManager = null;
+        sql = null;
+        rows = null;
+    }
+
+    /**
+     * Writes the rows in binary COPY format into the pipe.
+     */
+    private class Encoder implements Runnable
+    {
+        PipedOutputStream out = new PipedOutputStream();
+        Exception failure = null;
+
+        public void run() {
+            PostgresDataOutputStream dos = new PostgresDataOutputStream(
+                    new BufferedOutputStream(out, BUFFER_SIZE));
+            try {
+                BatchWriterPostgresCopyImpl.writeHeader(dos);
+                for (Object[] values : rows) {
+                    dos.writeShort(colCount);
+                    for (int i = 0; i < colCount; i++) {
+                        BatchWriterPostgresCopyImpl.writeObject(dos, values[i]);
+                    }
+                }
+                dos.writeShort(-1);
+                dos.flush();
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignore - the COPY has already stopped reading.
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the daemon threads that run the Encoders.
+     */
+    private static class EncoderFactory implements ThreadFactory
+    {
+        private int threadNo = 0;
+
+        public synchronized Thread newThread(Runnable r) {
+            threadNo++;
+            Thread t = new Thread(r, "FlushJobPostgresStreamingCopyImpl encoder " + threadNo);
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A version of IntPresentSet that can be used by many threads at once. Lookups take no locks, and
+ * changes only lock the page that they change, so threads do not wait for each other unless they
+ * change ints that are close together.
+ *
+ * @author InterMine
+ */
+public class ConcurrentIntPresentSet extends IntPresentSet
+{
+    private static final int WORD_BITS = 5; // 32 bits in a word
+    private static final int WORD_MASK = (1 << WORD_BITS) - 1;
+    private static final int PAGE_BITS = 13; // Number of words per page
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private IntPageDirectory pages = new IntPageDirectory(32 - WORD_BITS - PAGE_BITS,
+            PAGE_SIZE + 1, 0);
+    private AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Constructor for this class. Creates an empty set.
+     */
+    public ConcurrentIntPresentSet() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void set(int i, boolean newBit) {
+        int bitMask = 1 << (i & WORD_MASK);
+        int wordNo = (i >>> WORD_BITS) & PAGE_MASK;
+        int pageNo = i >>> (WORD_BITS + PAGE_BITS);
+        pages.lock(pageNo);
+        try {
+            AtomicIntegerArray page;
+            if (newBit) {
+                page = pages.getOrCreatePage(pageNo);
+            } else {
+                page = pages.getPage(pageNo);
+                if (page == null) {
+                    return;
+                }
+            }
+            int word = page.get(wordNo);
+            boolean oldBit = ((word & bitMask) != 0);
+            if (oldBit != newBit) {
+                int count = page.get(PAGE_SIZE);
+                if (newBit) {
+                    word = word | bitMask;
+                    size.incrementAndGet();
+                    count++;
+                } else {
+                    word = word & (~bitMask);
+                    size.decrementAndGet();
+                    count--;
+                }
+                page.set(wordNo, word);
+                page.set(PAGE_SIZE, count);
+                if (count == 0) {
+                    pages.removePage(pageNo);
+                }
+            }
+        } finally {
+            pages.unlock(pageNo);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(int i) {
+        AtomicIntegerArray page = pages.getPage(i >>> (WORD_BITS + PAGE_BITS));
+        if (page == null) {
+            return false;
+        }
+        return (page.get((i >>> WORD_BITS) & PAGE_MASK) & (1 << (i & WORD_MASK))) != 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        pages.lockAll();
+        try {
+            pages.clear();
+            size.set(0);
+        } finally {
+            pages.unlockAll();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuffer retval = new StringBuffer("[");
+        boolean needComma = false;
+        for (Integer pageNo : pages.getPageNos()) {
+            AtomicIntegerArray page = pages.getPage(pageNo.intValue());
+            if (page != null) {
+                for (int wordNo = 0; wordNo < PAGE_SIZE; wordNo++) {
+                    int word = page.get(wordNo);
+                    for (int bitNo = 0; (word != 0) && (bitNo <= WORD_MASK); bitNo++) {
+                        if ((word & (1 << bitNo)) != 0) {
+                            if (needComma) {
+                                retval.append(", ");
+                            }
+                            needComma = true;
+                            retval.append(Integer.toString((((pageNo.intValue() << PAGE_BITS)
+                                                | wordNo) << WORD_BITS) | bitNo));
+                        }
+                    }
+                }
+            }
+        }
+        retval.append("]");
+        return retval.toString();
+    }
+}
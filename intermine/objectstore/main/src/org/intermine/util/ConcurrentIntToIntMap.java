@@ -0,0 +1,134 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A version of IntToIntMap that can be used by many threads at once. Lookups take no locks, and
+ * changes only lock the page that they change, so threads do not wait for each other unless they
+ * change ints that are close together.
+ *
+ * @author InterMine
+ */
+public class ConcurrentIntToIntMap extends IntToIntMap
+{
+    private static final int INNER_BITS = 13;
+    private static final int INNER_MASK = (1 << INNER_BITS) - 1;
+    private static final int PAGE_SIZE = INNER_MASK + 1;
+
+    private IntPageDirectory pages = new IntPageDirectory(32 - INNER_BITS, PAGE_SIZE + 1, -1);
+    private AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Constructor for this class. Creates an empty map.
+     */
+    public ConcurrentIntToIntMap() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put(int from, int to) {
+        int pageNo = from >>> INNER_BITS;
+        pages.lock(pageNo);
+        try {
+            AtomicIntegerArray page;
+            if (to == -1) {
+                page = pages.getPage(pageNo);
+                if (page == null) {
+                    return;
+                }
+            } else {
+                page = pages.getOrCreatePage(pageNo);
+            }
+            int old = page.getAndSet(from & INNER_MASK, to);
+            int count = page.get(PAGE_SIZE);
+            if (old != -1) {
+                size.decrementAndGet();
+                count--;
+            }
+            if (to != -1) {
+                size.incrementAndGet();
+                count++;
+            }
+            page.set(PAGE_SIZE, count);
+            if (count == 0) {
+                pages.removePage(pageNo);
+            }
+        } finally {
+            pages.unlock(pageNo);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int get(int from) {
+        AtomicIntegerArray page = pages.getPage(from >>> INNER_BITS);
+        if (page == null) {
+            return -1;
+        }
+        return page.get(from & INNER_MASK);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        pages.lockAll();
+        try {
+            pages.clear();
+            size.set(0);
+        } finally {
+            pages.unlockAll();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuffer retval = new StringBuffer("{");
+        boolean needComma = false;
+        for (Integer pageNo : pages.getPageNos()) {
+            int pageStart = pageNo.intValue() << INNER_BITS;
+            AtomicIntegerArray page = pages.getPage(pageNo.intValue());
+            if (page != null) {
+                for (int i = 0; i < PAGE_SIZE; i++) {
+                    int to = page.get(i);
+                    if (to != -1) {
+                        if (needComma) {
+                            retval.append(", ");
+                        }
+                        needComma = true;
+                        retval.append((pageStart + i) + " -> " + to);
+                    }
+                }
+            }
+        }
+        retval.append("}");
+        return retval.toString();
+    }
+}
@@ -10,6 +10,9 @@ package org.intermine.util;
  *
  */
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.HashMap;
@@ -17,6 +20,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.sf.cglib.proxy.Callback;
 import net.sf.cglib.proxy.CallbackFilter;
@@ -55,7 +59,112 @@ public class DynamicBean implements MethodInterceptor
 
     }
 
+    /**
+     * The ways in which intercept() handles a method call.
+     */
+    private static enum MethodKind
+    {
+        EQUALS, HASH_CODE, TO_STRING, GET_OBJECT, GET_FIELD_VALUE, GET_FIELD_PROXY,
+        SET_FIELD_VALUE, ADD_COLLECTION_ELEMENT, GET_FIELD_TYPE, GET_ELEMENT_TYPE, GET, IS, SET,
+        PROXY_SET, PROXY_GET, ADD, SUPER
+    }
+
+    /**
+     * How intercept() handles calls to a particular Method, and the field the Method operates
+     * on, if any.
+     */
+    private static class MethodInfo
+    {
+        private final MethodKind kind;
+        private final String fieldName;
+
+        MethodInfo(MethodKind kind, String fieldName) {
+            this.kind = kind;
+            this.fieldName = fieldName;
+        }
+    }
+
+    /**
+     * A key in METHOD_INFOS. Keys are equal if they refer to the same class, so a LookupKey finds
+     * the entry stored under a WeakClassKey.
+     */
+    private interface ClassKey
+    {
+        /**
+         * @return the class, or null if it has been garbage-collected
+         */
+        Class<?> getKeyClass();
+    }
+
+    /**
+     * The key under which the MethodInfos of a class are stored, which does not keep the class
+     * reachable. Once the class has been collected the key is only equal to itself, so it can
+     * still be removed from the map.
+     */
+    private static final class WeakClassKey extends WeakReference<Class<?>> implements ClassKey
+    {
+        private final int hash;
+
+        WeakClassKey(Class<?> clazz, ReferenceQueue<Class<?>> queue) {
+            super(clazz, queue);
+            hash = System.identityHashCode(clazz);
+        }
+
+        @Override
+        public Class<?> getKeyClass() {
+            return get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return keyEquals(this, o);
+        }
+    }
+
+    /**
+     * A short-lived key used to look up the MethodInfos of a class.
+     */
+    private static final class LookupKey implements ClassKey
+    {
+        private final Class<?> clazz;
+
+        LookupKey(Class<?> clazz) {
+            this.clazz = clazz;
+        }
+
+        @Override
+        public Class<?> getKeyClass() {
+            return clazz;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(clazz);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return keyEquals(this, o);
+        }
+    }
+
     private static final CallbackFilter FINALIZE_FILTER = new FinalizeFilter();
+    // Classifying a Method requires string comparisons and building the field name, so we do it
+    // once per Method rather than on every call. The MethodInfos are held per declaring class,
+    // weakly keyed so that model classes (and their ClassLoaders) can still be unloaded. Each
+    // Method key refers to its class, so the per-class maps are held softly - a strong value
+    // would keep its own weak key reachable. Every intercepted call reads this map, so it is a
+    // ConcurrentHashMap rather than a synchronized WeakHashMap, and keys whose class has been
+    // collected are removed when a new class is added.
+    private static final Map<ClassKey, SoftReference<Map<Method, MethodInfo>>> METHOD_INFOS
+        = new ConcurrentHashMap<ClassKey, SoftReference<Map<Method, MethodInfo>>>();
+    private static final ReferenceQueue<Class<?>> COLLECTED_CLASSES
+        = new ReferenceQueue<Class<?>>();
     //private static final Logger LOG = Logger.getLogger(DynamicBean.class);
     private Map<String, Object> map = new HashMap<String, Object>();
 
@@ -105,93 +214,197 @@ public class DynamicBean implements MethodInterceptor
     @Override
     public Object intercept(Object obj, Method method, Object[] args,
             MethodProxy proxy) throws Throwable {
-        // java.lang.Object methods
-        if ("equals".equals(method.getName())) {
-            if (args[0] instanceof InterMineObject) {
-                Integer otherId = ((InterMineObject) args[0]).getId();
-                Integer thisId = (Integer) map.get("id");
-                return Boolean.valueOf(thisId != null ? thisId.equals(otherId) : obj == args[0]);
+        MethodInfo info = getMethodInfo(method);
+        switch (info.kind) {
+            // java.lang.Object methods
+            case EQUALS:
+                if (args[0] instanceof InterMineObject) {
+                    Integer otherId = ((InterMineObject) args[0]).getId();
+                    Integer thisId = (Integer) map.get("id");
+                    return Boolean.valueOf(thisId != null ? thisId.equals(otherId)
+                            : obj == args[0]);
+                }
+                return Boolean.FALSE;
+            case HASH_CODE:
+                return map.get("id");
+            case TO_STRING:
+                return doToString(obj);
+            case GET_OBJECT:
+                return NotXmlRenderer.render(obj);
+            case GET_FIELD_VALUE:
+                return handleGetFieldValue(obj, method, args);
+            case GET_FIELD_PROXY:
+                return handleGetFieldProxy(obj, args);
+            case SET_FIELD_VALUE:
+                map.put((String) args[0], args[1]);
+                return null;
+            case ADD_COLLECTION_ELEMENT:
+                String fieldName = (String) args[0];
+                @SuppressWarnings("unchecked") Collection<Object> col = (Collection<Object>) map
+                    .get(fieldName);
+                if (col == null) {
+                    col = new HashSet<Object>();
+                    map.put(fieldName, col);
+                }
+                col.add(args[1]);
+                return null;
+            case GET_FIELD_TYPE:
+                try {
+                    String methodName = "get"
+                        + StringUtil.reverseCapitalisation((String) args[0]);
+                    Method getMethod = obj.getClass().getMethod(methodName);
+                    return getMethod.getReturnType();
+                } catch (NoSuchMethodException e) {
+                    throw new RuntimeException("No such field " + args[0], e);
+                }
+            case GET_ELEMENT_TYPE:
+                String methodName = "add" + StringUtil.reverseCapitalisation((String) args[0]);
+                Method[] methods = obj.getClass().getMethods();
+                for (Method addMethod : methods) {
+                    if (addMethod.getName().equals(methodName)) {
+                        return addMethod.getParameterTypes()[0];
+                    }
+                }
+                throw new RuntimeException("No such collection " + args[0]);
+            // Bean methods
+            case GET:
+                return handleGet(method, info.fieldName);
+            case IS:
+            case PROXY_GET:
+                return map.get(info.fieldName);
+            case SET:
+            case PROXY_SET:
+                map.put(info.fieldName, args[0]);
+                return null;
+            case ADD:
+                return handleAddObject(info.fieldName, args);
+            default:
+                return proxy.invokeSuper(obj, args);
+        }
+    }
+
+    /**
+     * Returns the MethodInfo for a Method, classifying the Method on first use.
+     *
+     * @param method the method called
+     * @return a MethodInfo
+     */
+    private static MethodInfo getMethodInfo(Method method) {
+        Map<Method, MethodInfo> classInfos = getClassMethodInfos(method.getDeclaringClass());
+        MethodInfo retval = classInfos.get(method);
+        if (retval == null) {
+            retval = classify(method);
+            classInfos.put(method, retval);
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the map from Method to MethodInfo for the methods declared by a class, creating
+     * it if it is not present or has been garbage-collected.
+     *
+     * @param clazz the declaring class
+     * @return a thread-safe Map
+     */
+    private static Map<Method, MethodInfo> getClassMethodInfos(Class<?> clazz) {
+        SoftReference<Map<Method, MethodInfo>> ref = METHOD_INFOS.get(new LookupKey(clazz));
+        Map<Method, MethodInfo> retval = (ref == null ? null : ref.get());
+        if (retval == null) {
+            // Two threads may both get here for the same class. One of the maps is then lost,
+            // which only means that its Methods are classified again.
+            Object stale;
+            while ((stale = COLLECTED_CLASSES.poll()) != null) {
+                METHOD_INFOS.remove(stale);
             }
-            return Boolean.FALSE;
+            retval = new ConcurrentHashMap<Method, MethodInfo>();
+            METHOD_INFOS.put(new WeakClassKey(clazz, COLLECTED_CLASSES),
+                    new SoftReference<Map<Method, MethodInfo>>(retval));
         }
-        if ("hashCode".equals(method.getName())) {
-            return map.get("id");
+        return retval;
+    }
+
+    /**
+     * Compares a ClassKey with another object.
+     *
+     * @param key the ClassKey
+     * @param o the other object
+     * @return true if o is the same key, or a ClassKey for the same class
+     */
+    private static boolean keyEquals(ClassKey key, Object o) {
+        if (key == o) {
+            return true;
         }
-        if ("toString".equals(method.getName())) {
-            return doToString(obj);
+        if (!(o instanceof ClassKey)) {
+            return false;
         }
-        if ("getoBJECT".equals(method.getName()) && (args.length == 0)) {
-            return NotXmlRenderer.render(obj);
+        Class<?> clazz = key.getKeyClass();
+        return (clazz != null) && (clazz == ((ClassKey) o).getKeyClass());
+    }
+
+    /**
+     * Works out how intercept() should handle a Method. The rules (and their order) are those
+     * that intercept() used to apply to the method name on every call.
+     *
+     * @param method the Method
+     * @return a MethodInfo
+     */
+    private static MethodInfo classify(Method method) {
+        String name = method.getName();
+        int argCount = method.getParameterTypes().length;
+        boolean isVoid = method.getReturnType() == Void.TYPE;
+        if ("equals".equals(name)) {
+            return new MethodInfo(MethodKind.EQUALS, null);
         }
-        if ("getFieldValue".equals(method.getName()) && (args.length == 1)) {
-            return handleGetFieldValue(obj, method, args);
+        if ("hashCode".equals(name)) {
+            return new MethodInfo(MethodKind.HASH_CODE, null);
         }
-        if ("getFieldProxy".equals(method.getName()) && (args.length == 1)) {
-            return handleGetFieldProxy(obj, args);
+        if ("toString".equals(name)) {
+            return new MethodInfo(MethodKind.TO_STRING, null);
         }
-        if ("setFieldValue".equals(method.getName()) && (args.length == 2)
-                && (method.getReturnType() == Void.TYPE)) {
-            String fieldName = (String) args[0];
-            map.put(fieldName, args[1]);
-            return null;
+        if ("getoBJECT".equals(name) && (argCount == 0)) {
+            return new MethodInfo(MethodKind.GET_OBJECT, null);
         }
-        if ("addCollectionElement".equals(method.getName()) && (args.length == 2)
-                && (method.getReturnType() == Void.TYPE)) {
-            String fieldName = (String) args[0];
-            @SuppressWarnings("unchecked") Collection<Object> col = (Collection<Object>) map
-                .get(fieldName);
-            if (col == null) {
-                col = new HashSet<Object>();
-                map.put(fieldName, col);
-            }
-            col.add(args[1]);
-            return null;
+        if ("getFieldValue".equals(name) && (argCount == 1)) {
+            return new MethodInfo(MethodKind.GET_FIELD_VALUE, null);
         }
-        if ("getFieldType".equals(method.getName()) && (args.length == 1)) {
-            try {
-                String methodName = "get" + StringUtil.reverseCapitalisation((String) args[0]);
-                Method getMethod = obj.getClass().getMethod(methodName);
-                return getMethod.getReturnType();
-            } catch (NoSuchMethodException e) {
-                throw new RuntimeException("No such field " + args[0], e);
-            }
+        if ("getFieldProxy".equals(name) && (argCount == 1)) {
+            return new MethodInfo(MethodKind.GET_FIELD_PROXY, null);
         }
-        if ("getElementType".equals(method.getName()) && (args.length == 1)) {
-            String methodName = "add" + StringUtil.reverseCapitalisation((String) args[0]);
-            Method[] methods = obj.getClass().getMethods();
-            for (Method addMethod : methods) {
-                if (addMethod.getName().equals(methodName)) {
-                    return addMethod.getParameterTypes()[0];
-                }
-            }
-            throw new RuntimeException("No such collection " + args[0]);
+        if ("setFieldValue".equals(name) && (argCount == 2) && isVoid) {
+            return new MethodInfo(MethodKind.SET_FIELD_VALUE, null);
+        }
+        if ("addCollectionElement".equals(name) && (argCount == 2) && isVoid) {
+            return new MethodInfo(MethodKind.ADD_COLLECTION_ELEMENT, null);
         }
-        // Bean methods
-        if (method.getName().startsWith("get") && (args.length == 0)) {
-            return handleGet(method);
+        if ("getFieldType".equals(name) && (argCount == 1)) {
+            return new MethodInfo(MethodKind.GET_FIELD_TYPE, null);
         }
-        if (method.getName().startsWith("is")
-            && (args.length == 0)) {
-            return map.get(StringUtil.reverseCapitalisation(method.getName().substring(2)));
+        if ("getElementType".equals(name) && (argCount == 1)) {
+            return new MethodInfo(MethodKind.GET_ELEMENT_TYPE, null);
         }
-        if (method.getName().startsWith("set") && (args.length == 1)
-                && (method.getReturnType() == Void.TYPE)) {
-            map.put(StringUtil.reverseCapitalisation(method.getName().substring(3)), args[0]);
-            return null;
+        if (name.startsWith("get") && (argCount == 0)) {
+            return new MethodInfo(MethodKind.GET, fieldName(name, 3));
         }
-        if (method.getName().startsWith("proxy") && (args.length == 1)
-                && (method.getReturnType() == Void.TYPE)) {
-            map.put(StringUtil.reverseCapitalisation(method.getName().substring(5)), args[0]);
-            return null;
+        if (name.startsWith("is") && (argCount == 0)) {
+            return new MethodInfo(MethodKind.IS, fieldName(name, 2));
         }
-        if (method.getName().startsWith("proxGet") && (args.length == 0)) {
-            return map.get(StringUtil.reverseCapitalisation(method.getName().substring(7)));
+        if (name.startsWith("set") && (argCount == 1) && isVoid) {
+            return new MethodInfo(MethodKind.SET, fieldName(name, 3));
         }
-        if (method.getName().startsWith("add") && (args.length == 1)
-                && (method.getReturnType() == Void.TYPE)) {
-            return handleAddObject(method, args);
+        if (name.startsWith("proxy") && (argCount == 1) && isVoid) {
+            return new MethodInfo(MethodKind.PROXY_SET, fieldName(name, 5));
         }
-        return proxy.invokeSuper(obj, args);
+        if (name.startsWith("proxGet") && (argCount == 0)) {
+            return new MethodInfo(MethodKind.PROXY_GET, fieldName(name, 7));
+        }
+        if (name.startsWith("add") && (argCount == 1) && isVoid) {
+            return new MethodInfo(MethodKind.ADD, fieldName(name, 3));
+        }
+        return new MethodInfo(MethodKind.SUPER, null);
+    }
+
+    private static String fieldName(String methodName, int prefixLength) {
+        return StringUtil.reverseCapitalisation(methodName.substring(prefixLength)).intern();
     }
 
     private Object handleGetFieldValue(Object obj, Method method, Object[] args) {
@@ -285,9 +498,8 @@ public class DynamicBean implements MethodInterceptor
         return retval;
     }
 
-    private Object handleGet(Method method) {
-        Object retval = map.get(StringUtil.reverseCapitalisation(method.getName()
-                    .substring(3)));
+    private Object handleGet(Method method, String fieldName) {
+        Object retval = map.get(fieldName);
         if (retval instanceof ProxyReference) {
             try {
                 retval = ((ProxyReference) retval).getObject();
@@ -305,18 +517,17 @@ public class DynamicBean implements MethodInterceptor
         }
         if ((retval == null) && Collection.class.isAssignableFrom(method.getReturnType())) {
             retval = new HashSet<Object>();
-            map.put(StringUtil.reverseCapitalisation(method.getName().substring(3)), retval);
+            map.put(fieldName, retval);
         }
         return retval;
     }
 
-    private Object handleAddObject(Method method, Object[] args) {
-        String key = StringUtil.reverseCapitalisation(method.getName().substring(3));
+    private Object handleAddObject(String fieldName, Object[] args) {
         @SuppressWarnings("unchecked")
-        Collection<Object> col = (Collection<Object>) map.get(key);
+        Collection<Object> col = (Collection<Object>) map.get(fieldName);
         if (col == null) {
             col = new HashSet<Object>();
-            map.put(key, col);
+            map.put(fieldName, col);
         }
         col.add(args[0]);
         return null;
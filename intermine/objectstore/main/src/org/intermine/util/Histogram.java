@@ -0,0 +1,116 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * A histogram of non-negative long values, such as times in milliseconds or row counts. Values
+ * are counted in buckets whose bounds are powers of two, so the histogram uses a small fixed
+ * amount of memory however many values are recorded, and percentiles are accurate to within a
+ * factor of two. The count, total and maximum are exact.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author InterMine
+ */
+public class Histogram
+{
+    private static final int BUCKETS = 64;
+
+    // Bucket 0 holds values of 0, and bucket n holds values from 2^(n-1) to 2^n - 1.
+    private long[] buckets = new long[BUCKETS];
+    private long count = 0;
+    private long total = 0;
+    private long max = 0;
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     *
+     * @param value the value
+     */
+    public synchronized void record(long value) {
+        long v = Math.max(value, 0);
+        buckets[BUCKETS - Long.numberOfLeadingZeros(v)]++;
+        count++;
+        total += v;
+        max = Math.max(max, v);
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return a long
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the sum of the values recorded.
+     *
+     * @return a long
+     */
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the largest value recorded, or zero if no values have been recorded.
+     *
+     * @return a long
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns an estimate of a percentile of the values recorded. The estimate is the upper bound
+     * of the bucket containing the percentile, but is never more than the largest value recorded.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return a long, or zero if no values have been recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        if ((percentile < 0.0) || (percentile > 100.0)) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100: "
+                    + percentile);
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if ((seen >= rank) && (seen > 0)) {
+                long upperBound = (i == 0 ? 0 : (i == BUCKETS - 1 ? Long.MAX_VALUE
+                            : (1L << i) - 1));
+                return Math.min(upperBound, max);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Discards all values recorded.
+     */
+    public synchronized void reset() {
+        buckets = new long[BUCKETS];
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return "count: " + count + ", total: " + total + ", p50: " + getPercentile(50.0)
+            + ", p90: " + getPercentile(90.0) + ", p99: " + getPercentile(99.0) + ", max: " + max;
+    }
+}
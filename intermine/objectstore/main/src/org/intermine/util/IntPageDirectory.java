@@ -0,0 +1,183 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A directory of pages of ints, indexed by page number, for use by the concurrent int
+ * collections. Page numbers are looked up through two levels of arrays, without boxing and
+ * without taking any locks. Pages are created and removed while holding the lock for the page,
+ * which is one of a fixed number of striped locks, so threads working on different pages rarely
+ * wait for each other. The last int of every page is reserved for the owner to count the
+ * entries in the page, and starts at zero.
+ *
+ * @author InterMine
+ */
+class IntPageDirectory
+{
+    private static final int STRIPES = 64;
+    private static final int INNER_BITS = 10;
+    private static final int INNER_SIZE = 1 << INNER_BITS;
+    private static final int INNER_MASK = INNER_SIZE - 1;
+
+    private final int pageNoBits;
+    private final int pageSize;
+    private final int initialValue;
+    private final AtomicReferenceArray<AtomicReferenceArray<AtomicIntegerArray>> outer;
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    /**
+     * Creates an empty directory.
+     *
+     * @param pageNoBits the number of bits in a page number
+     * @param pageSize the number of ints in a page, including the count
+     * @param initialValue the value of every int except the count in a new page
+     */
+    IntPageDirectory(int pageNoBits, int pageSize, int initialValue) {
+        this.pageNoBits = pageNoBits;
+        this.pageSize = pageSize;
+        this.initialValue = initialValue;
+        int outerSize = 1 << Math.max(0, pageNoBits - INNER_BITS);
+        outer = new AtomicReferenceArray<AtomicReferenceArray<AtomicIntegerArray>>(outerSize);
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns a page, without taking any locks.
+     *
+     * @param pageNo the page number
+     * @return the page, or null if it does not exist
+     */
+    AtomicIntegerArray getPage(int pageNo) {
+        AtomicReferenceArray<AtomicIntegerArray> inner = outer.get(pageNo >>> INNER_BITS);
+        if (inner == null) {
+            return null;
+        }
+        return inner.get(pageNo & INNER_MASK);
+    }
+
+    /**
+     * Returns a page, creating it if it does not exist. The caller must hold the lock for the
+     * page.
+     *
+     * @param pageNo the page number
+     * @return the page
+     */
+    AtomicIntegerArray getOrCreatePage(int pageNo) {
+        int outerNo = pageNo >>> INNER_BITS;
+        AtomicReferenceArray<AtomicIntegerArray> inner = outer.get(outerNo);
+        if (inner == null) {
+            outer.compareAndSet(outerNo, null, new AtomicReferenceArray<AtomicIntegerArray>(
+                        INNER_SIZE));
+            inner = outer.get(outerNo);
+        }
+        AtomicIntegerArray page = inner.get(pageNo & INNER_MASK);
+        if (page == null) {
+            page = new AtomicIntegerArray(pageSize);
+            if (initialValue != 0) {
+                for (int i = 0; i < pageSize - 1; i++) {
+                    page.set(i, initialValue);
+                }
+            }
+            inner.set(pageNo & INNER_MASK, page);
+        }
+        return page;
+    }
+
+    /**
+     * Removes a page. The caller must hold the lock for the page.
+     *
+     * @param pageNo the page number
+     */
+    void removePage(int pageNo) {
+        AtomicReferenceArray<AtomicIntegerArray> inner = outer.get(pageNo >>> INNER_BITS);
+        if (inner != null) {
+            inner.set(pageNo & INNER_MASK, null);
+        }
+    }
+
+    /**
+     * Takes the lock for a page.
+     *
+     * @param pageNo the page number
+     */
+    void lock(int pageNo) {
+        locks[pageNo & (STRIPES - 1)].lock();
+    }
+
+    /**
+     * Releases the lock for a page.
+     *
+     * @param pageNo the page number
+     */
+    void unlock(int pageNo) {
+        locks[pageNo & (STRIPES - 1)].unlock();
+    }
+
+    /**
+     * Takes the locks for all pages, in a fixed order.
+     */
+    void lockAll() {
+        for (ReentrantLock stripe : locks) {
+            stripe.lock();
+        }
+    }
+
+    /**
+     * Releases the locks for all pages.
+     */
+    void unlockAll() {
+        for (int i = STRIPES - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    /**
+     * Removes all pages. The caller must hold the locks for all pages.
+     */
+    void clear() {
+        for (int i = 0; i < outer.length(); i++) {
+            outer.set(i, null);
+        }
+    }
+
+    /**
+     * Returns the numbers of the pages that exist, in the order of the signed ints that they
+     * hold, which is the same as the order of the page numbers except that the top half comes
+     * first.
+     *
+     * @return a List of page numbers
+     */
+    List<Integer> getPageNos() {
+        List<Integer> retval = new ArrayList<Integer>();
+        int half = outer.length() / 2;
+        for (int i = 0; i < outer.length(); i++) {
+            int outerNo = (i + half) % outer.length();
+            AtomicReferenceArray<AtomicIntegerArray> inner = outer.get(outerNo);
+            if (inner != null) {
+                for (int o = 0; o < INNER_SIZE; o++) {
+                    int pageNo = (outerNo << INNER_BITS) | o;
+                    if ((inner.get(o) != null) && (pageNo < (1 << pageNoBits))) {
+                        retval.add(new Integer(pageNo));
+                    }
+                }
+            }
+        }
+        return retval;
+    }
+}
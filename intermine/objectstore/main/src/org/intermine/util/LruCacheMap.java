@@ -0,0 +1,94 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * A cache of bounded size. Unlike CacheMap, the values are held strongly, and the least recently
+ * used entries are evicted once the cache holds more than a maximum number of entries, so the
+ * contents of the cache do not depend on the behaviour of the garbage collector. This is a
+ * WeightedCacheMap in which every entry has a weight of one, and it counts hits, misses and
+ * evictions in the same way.
+ * <p>
+ * Null values are permitted, and a get() that finds a null value counts as a hit. This class is
+ * not synchronised - users should synchronise on the LruCacheMap.
+ *
+ * @param <K> the type of keys maintained by this cache
+ * @param <V> the type of cached values
+ * @author InterMine
+ */
+public class LruCacheMap<K, V> extends WeightedCacheMap<K, V>
+{
+    private static final Weigher<Object, Object> UNIT_WEIGHER = new Weigher<Object, Object>() {
+        public int weigh(Object key, Object value) {
+            return 1;
+        }
+    };
+
+    private final String name;
+
+    /**
+     * Constructs a new, empty <tt>LruCacheMap</tt> with the given maximum size.
+     *
+     * @param maxSize the maximum number of entries to hold
+     * @throws IllegalArgumentException if the maximum size is not positive
+     */
+    public LruCacheMap(int maxSize) {
+        this("unknown", maxSize);
+    }
+
+    /**
+     * Constructs a new, empty <tt>LruCacheMap</tt> with the given maximum size, and a name.
+     *
+     * @param name the name of the LruCacheMap - printed out in log messages
+     * @param maxSize the maximum number of entries to hold
+     * @throws IllegalArgumentException if the maximum size is not positive
+     */
+    public LruCacheMap(String name, int maxSize) {
+        super(name, checkMaxSize(maxSize), UNIT_WEIGHER, false);
+        this.name = name;
+    }
+
+    /**
+     * Returns the maximum number of entries held by this cache.
+     *
+     * @return an int
+     */
+    public int getMaxSize() {
+        return (int) getMaxWeight();
+    }
+
+    /**
+     * Sets the maximum number of entries held by this cache. If the cache is currently larger
+     * than the new maximum, the least recently used entries are evicted immediately.
+     *
+     * @param maxSize the maximum number of entries to hold
+     * @throws IllegalArgumentException if the maximum size is not positive
+     */
+    public void setMaxSize(int maxSize) {
+        setMaxWeight(checkMaxSize(maxSize));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getStatistics() {
+        return name + ": size " + size() + "/" + getMaxSize() + ", hits: " + getHits()
+            + ", misses: " + getMisses() + ", evictions: " + getEvictions();
+    }
+
+    private static int checkMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        return maxSize;
+    }
+}
@@ -0,0 +1,149 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A weight-bounded cache split into a number of stripes by the hash code of the key, so that
+ * threads using different keys seldom wait for each other. Each stripe is a WeightedCacheMap
+ * with an equal share of the maximum weight, and is evicted independently.
+ * <p>
+ * To look up or change the entry for a key, synchronise on the stripe returned by
+ * getStripe(key). The methods of this class that cover the whole cache synchronise on each
+ * stripe in turn.
+ *
+ * @param <K> the type of keys maintained by this cache
+ * @param <V> the type of cached values
+ * @author InterMine
+ */
+public class StripedCacheMap<K, V>
+{
+    private final String name;
+    private final List<WeightedCacheMap<K, V>> stripes;
+
+    /**
+     * Constructs a new, empty <tt>StripedCacheMap</tt>.
+     *
+     * @param name the name of the cache - printed out in log messages
+     * @param stripeCount the number of stripes
+     * @param maxWeight the maximum total weight of the entries in all the stripes
+     * @param weigher the Weigher that gives each entry its weight
+     * @param softValues true to hold the values softly, false to hold them strongly
+     * @throws IllegalArgumentException if the number of stripes or maximum weight is not
+     * positive
+     */
+    public StripedCacheMap(String name, int stripeCount, long maxWeight,
+            WeightedCacheMap.Weigher<? super K, ? super V> weigher, boolean softValues) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("stripeCount must be positive: " + stripeCount);
+        }
+        this.name = name;
+        stripes = new ArrayList<WeightedCacheMap<K, V>>(stripeCount);
+        for (int i = 0; i < stripeCount; i++) {
+            stripes.add(new WeightedCacheMap<K, V>(name + " stripe " + i,
+                    getStripeWeight(maxWeight, stripeCount), weigher, softValues));
+        }
+    }
+
+    /**
+     * Returns the stripe that holds the entry for a key. Callers must synchronise on the stripe.
+     *
+     * @param key the key
+     * @return a WeightedCacheMap
+     */
+    public WeightedCacheMap<K, V> getStripe(Object key) {
+        int hash = (key == null ? 0 : key.hashCode());
+        // spread the bits, as sequential ids would otherwise only differ in the low bits
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        return stripes.get((hash & Integer.MAX_VALUE) % stripes.size());
+    }
+
+    /**
+     * Removes all the entries from every stripe.
+     */
+    public void clear() {
+        for (WeightedCacheMap<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries in all the stripes.
+     *
+     * @return an int
+     */
+    public int size() {
+        int retval = 0;
+        for (WeightedCacheMap<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                retval += stripe.size();
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Sets the maximum total weight of the entries in all the stripes.
+     *
+     * @param maxWeight the maximum total weight
+     * @throws IllegalArgumentException if the maximum weight is not positive
+     */
+    public void setMaxWeight(long maxWeight) {
+        for (WeightedCacheMap<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.setMaxWeight(getStripeWeight(maxWeight, stripes.size()));
+            }
+        }
+    }
+
+    /**
+     * Returns a description of the size and hit rate of the whole cache, suitable for log
+     * messages.
+     *
+     * @return a String
+     */
+    public String getStatistics() {
+        int size = 0;
+        long weight = 0;
+        long maxWeight = 0;
+        long hits = 0;
+        long misses = 0;
+        long evictions = 0;
+        long collected = 0;
+        for (WeightedCacheMap<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+                weight += stripe.getWeight();
+                maxWeight += stripe.getMaxWeight();
+                hits += stripe.getHits();
+                misses += stripe.getMisses();
+                evictions += stripe.getEvictions();
+                collected += stripe.getCollected();
+            }
+        }
+        return name + ": size " + size + ", weight " + weight + "/" + maxWeight + " in "
+            + stripes.size() + " stripes, hits: " + hits + ", misses: " + misses
+            + ", evictions: " + evictions + ", collected: " + collected;
+    }
+
+    private static long getStripeWeight(long maxWeight, int stripeCount) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("maxWeight must be positive: " + maxWeight);
+        }
+        return Math.max(1, maxWeight / stripeCount);
+    }
+}
@@ -0,0 +1,320 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of bounded total weight. Each entry is given a weight by a Weigher when it is put into
+ * the cache, and the least recently used entries are evicted once the total weight of the cache
+ * exceeds a maximum. The cache counts hits, misses and evictions.
+ * <p>
+ * The values may be held strongly, or softly like CacheMap. Soft values can still be
+ * garbage-collected before they are evicted, so memory that the cache holds on to (and anything
+ * that is only released when the values become unreachable) is given back when the JVM needs it.
+ * A value that has been garbage-collected counts as a miss.
+ * <p>
+ * Null values are permitted, and a get() that finds a null value counts as a hit. This class is
+ * not synchronised - users should synchronise on the WeightedCacheMap.
+ *
+ * @param <K> the type of keys maintained by this cache
+ * @param <V> the type of cached values
+ * @author InterMine
+ */
+public class WeightedCacheMap<K, V>
+{
+    private static final Object NULL_VALUE = new Object();
+
+    private final LinkedHashMap<K, CacheEntry> entries = new LinkedHashMap<K, CacheEntry>(16,
+            0.75F, true);
+    private final String name;
+    private final Weigher<? super K, ? super V> weigher;
+    private final boolean softValues;
+    private long maxWeight;
+    private long weight = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long collected = 0;
+
+    /**
+     * Constructs a new, empty <tt>WeightedCacheMap</tt>.
+     *
+     * @param name the name of the cache - printed out in log messages
+     * @param maxWeight the maximum total weight of the entries to hold
+     * @param weigher the Weigher that gives each entry its weight
+     * @param softValues true to hold the values softly, false to hold them strongly
+     * @throws IllegalArgumentException if the maximum weight is not positive
+     */
+    public WeightedCacheMap(String name, long maxWeight, Weigher<? super K, ? super V> weigher,
+            boolean softValues) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("maxWeight must be positive: " + maxWeight);
+        }
+        this.name = name;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.softValues = softValues;
+    }
+
+    /**
+     * Returns the value for a key, marking the entry as recently used.
+     *
+     * @param key the key
+     * @return the value, or null if there is no entry or the value is null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        CacheEntry entry = entries.get(key);
+        Object value = (entry == null ? null : entry.get());
+        if (value == null) {
+            if (entry != null) {
+                removeCollected(key, entry);
+            }
+            misses++;
+            return null;
+        }
+        hits++;
+        return (value == NULL_VALUE ? null : (V) value);
+    }
+
+    /**
+     * Returns true if there is an entry for a key, without counting a hit or a miss.
+     *
+     * @param key the key
+     * @return a boolean
+     */
+    public boolean containsKey(Object key) {
+        CacheEntry entry = entries.get(key);
+        if ((entry != null) && (entry.get() == null)) {
+            removeCollected(key, entry);
+            return false;
+        }
+        return entry != null;
+    }
+
+    /**
+     * Puts an entry into the cache, evicting the least recently used entries if the cache is
+     * then too heavy. An entry that is heavier than the whole cache is not held at all, and
+     * leaves the other entries alone, apart from any previous entry for the same key.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public void put(K key, V value) {
+        remove(key);
+        int entryWeight = Math.max(1, weigher.weigh(key, value));
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        CacheEntry entry = new CacheEntry(value, entryWeight);
+        entries.put(key, entry);
+        weight += entry.weight;
+        evict();
+    }
+
+    /**
+     * Removes the entry for a key.
+     *
+     * @param key the key
+     */
+    public void remove(Object key) {
+        CacheEntry entry = entries.remove(key);
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+    }
+
+    /**
+     * Removes all the entries.
+     */
+    public void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * Returns a copy of the entries whose values have not been garbage-collected, least recently
+     * used first, without counting hits or changing the order of use.
+     *
+     * @return a new Map
+     */
+    @SuppressWarnings("unchecked")
+    public Map<K, V> toMap() {
+        Map<K, V> retval = new LinkedHashMap<K, V>();
+        for (Map.Entry<K, CacheEntry> entry : entries.entrySet()) {
+            Object value = entry.getValue().get();
+            if (value != null) {
+                retval.put(entry.getKey(), (value == NULL_VALUE ? null : (V) value));
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the number of entries, including any whose values have been garbage-collected but
+     * not yet noticed.
+     *
+     * @return an int
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total weight of the entries.
+     *
+     * @return a long
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Returns the maximum total weight of the entries.
+     *
+     * @return a long
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Sets the maximum total weight of the entries. If the cache is currently heavier than the
+     * new maximum, the least recently used entries are evicted immediately.
+     *
+     * @param maxWeight the maximum total weight
+     * @throws IllegalArgumentException if the maximum weight is not positive
+     */
+    public void setMaxWeight(long maxWeight) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("maxWeight must be positive: " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+        evict();
+    }
+
+    /**
+     * Returns the number of calls to get() that found an entry.
+     *
+     * @return a long
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of calls to get() that did not find an entry.
+     *
+     * @return a long
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of entries that have been evicted to keep the cache within its maximum
+     * weight.
+     *
+     * @return a long
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of entries found to have had their values garbage-collected.
+     *
+     * @return a long
+     */
+    public long getCollected() {
+        return collected;
+    }
+
+    /**
+     * Returns a description of the size and hit rate of this cache, suitable for log messages.
+     *
+     * @return a String
+     */
+    public String getStatistics() {
+        return name + ": size " + entries.size() + ", weight " + weight + "/" + maxWeight
+            + ", hits: " + hits + ", misses: " + misses + ", evictions: " + evictions
+            + (softValues ? ", collected: " + collected : "");
+    }
+
+    private void removeCollected(Object key, CacheEntry entry) {
+        entries.remove(key);
+        weight -= entry.weight;
+        collected++;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<K, CacheEntry>> iter = entries.entrySet().iterator();
+        while ((weight > maxWeight) && iter.hasNext()) {
+            CacheEntry entry = iter.next().getValue();
+            iter.remove();
+            weight -= entry.weight;
+            evictions++;
+        }
+    }
+
+    /**
+     * An entry in the cache, holding its value strongly or softly.
+     */
+    private class CacheEntry
+    {
+        private final Object strong;
+        private final SoftReference<Object> soft;
+        private final int weight;
+
+        CacheEntry(V value, int weight) {
+            Object v = (value == null ? NULL_VALUE : value);
+            if (softValues) {
+                strong = null;
+                soft = new SoftReference<Object>(v);
+            } else {
+                strong = v;
+                soft = null;
+            }
+            this.weight = weight;
+        }
+
+        /**
+         * Returns the value, NULL_VALUE for a null value, or null if the value has been
+         * garbage-collected.
+         */
+        Object get() {
+            return (soft == null ? strong : soft.get());
+        }
+    }
+
+    /**
+     * Gives the entries of a WeightedCacheMap their weights.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     */
+    public interface Weigher<K, V>
+    {
+        /**
+         * Returns the weight of an entry, which should be roughly proportional to the memory it
+         * takes up. Weights less than one are treated as one.
+         *
+         * @param key the key
+         * @param value the value, which may be null
+         * @return an int
+         */
+        int weigh(K key, V value);
+    }
+}
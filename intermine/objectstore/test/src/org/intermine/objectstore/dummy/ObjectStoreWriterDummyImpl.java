@@ -12,6 +12,7 @@ import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsInfo;
+import org.intermine.objectstore.query.ResultsStream;
 import org.intermine.objectstore.query.SingletonResults;
 
 import java.util.Collection;
@@ -146,6 +147,10 @@ public class ObjectStoreWriterDummyImpl implements ObjectStoreWriter
         throw new UnsupportedOperationException();
     }
 
+    public ResultsStream executeStreaming(Query q) throws ObjectStoreException {
+        throw new UnsupportedOperationException();
+    }
+
     public InterMineObject getObjectById(Integer id) throws ObjectStoreException {
         return (InterMineObject) storedObjects.get(id);
     }
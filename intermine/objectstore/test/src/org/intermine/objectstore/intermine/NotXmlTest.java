@@ -99,6 +99,20 @@ public class NotXmlTest extends TestCase
         assertEquals(e.getId(), reparsed.getId());
     }
 
+    public void testSplit() throws Exception {
+        String d = NotXmlParser.DELIM;
+        String[] inputs = new String[] {"", "abc", d, d + d, d + "a", "a" + d, d + "a" + d + d,
+            d + "org.intermine.model.testmodel.Employee" + d + "aname" + d + d + "aid" + d + "12",
+            d + "Employee" + d + "aname" + d + "x" + d + NotXmlParser.ENCODED_DELIM + "y" + d,
+            "a" + d + d + "b" + "$_" + d + "^c"};
+        for (String input : inputs) {
+            String[] expected = NotXmlParser.SPLITTER.split(input);
+            String[] got = NotXmlParser.split(input);
+            assertEquals("For input \"" + input + "\"", java.util.Arrays.asList(expected),
+                    java.util.Arrays.asList(got));
+        }
+    }
+
     public void testSplitPerformance() throws Exception {
         StringBuilder sb = new StringBuilder(49999997);
         for (int i = 0; i < 1000000; i++) {
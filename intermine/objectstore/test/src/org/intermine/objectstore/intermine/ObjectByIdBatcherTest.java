@@ -0,0 +1,127 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.Model;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.ObjectStoreException;
+
+/**
+ * Tests for ObjectByIdBatcher that do not need a database.
+ */
+public class ObjectByIdBatcherTest extends TestCase
+{
+    public ObjectByIdBatcherTest(String arg) {
+        super(arg);
+    }
+
+    public void testInterruptedWhileWaiting() throws Exception {
+        final BlockingObjectStore os = new BlockingObjectStore();
+        final ObjectByIdBatcher batcher = new ObjectByIdBatcher(os);
+        final Object[] fetcherResult = new Object[1];
+        Thread fetcher = new Thread() {
+            public void run() {
+                try {
+                    fetcherResult[0] = batcher.getObjectById(new Integer(1), Employee.class);
+                } catch (Exception e) {
+                    fetcherResult[0] = e;
+                }
+            }
+        };
+        fetcher.start();
+        assertTrue(os.started.await(10, TimeUnit.SECONDS));
+
+        final Object[] waiterResult = new Object[2];
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    waiterResult[0] = batcher.getObjectById(new Integer(2), Employee.class);
+                } catch (Exception e) {
+                    waiterResult[0] = e;
+                }
+                waiterResult[1] = Boolean.valueOf(Thread.currentThread().isInterrupted());
+            }
+        };
+        waiter.start();
+        // Wait until the second request is queued behind the running query
+        while (waiter.getState() != Thread.State.WAITING) {
+            Thread.sleep(5);
+        }
+        waiter.interrupt();
+        waiter.join(10000);
+        assertFalse("Interrupted waiter did not return", waiter.isAlive());
+        assertTrue(waiterResult[0] instanceof ObjectStoreException);
+        assertEquals(Boolean.TRUE, waiterResult[1]);
+
+        // The fetching thread is unaffected
+        os.release.countDown();
+        fetcher.join(10000);
+        assertTrue(fetcherResult[0] instanceof Employee);
+    }
+
+    public void testInterruptedDuringWindow() throws Exception {
+        BlockingObjectStore os = new BlockingObjectStore();
+        os.release.countDown();
+        ObjectByIdBatcher batcher = new ObjectByIdBatcher(os);
+        batcher.setWindow(60000);
+        Thread.currentThread().interrupt();
+        long start = System.currentTimeMillis();
+        try {
+            assertTrue(batcher.getObjectById(new Integer(1), Employee.class) instanceof Employee);
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        assertTrue(System.currentTimeMillis() - start < 30000);
+    }
+
+    /**
+     * An ObjectStore whose fetches of objects by id wait to be released, and return an Employee
+     * for each id.
+     */
+    private static class BlockingObjectStore extends ObjectStoreInterMineImpl
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        BlockingObjectStore() {
+            super(Model.getInstanceByName("testmodel"));
+        }
+
+        @Override
+        protected void internalGetObjectsByIds(Collection<Integer> ids, Class<?> clazz,
+                Map<Integer, InterMineObject> results, Set<Integer> duplicates)
+            throws ObjectStoreException {
+            started.countDown();
+            try {
+                if (release.getCount() > 0) {
+                    release.await();
+                }
+            } catch (InterruptedException e) {
+                throw new ObjectStoreException(e);
+            }
+            for (Integer id : ids) {
+                Employee e = new Employee();
+                e.setId(id);
+                results.put(id, e);
+            }
+        }
+    }
+}
@@ -55,6 +55,7 @@ import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.ResultsStream;
 import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.objectstore.query.SingletonResults;
 import org.intermine.objectstore.query.iql.IqlQuery;
@@ -963,4 +964,112 @@ public class ObjectStoreInterMineImplTest extends ObjectStoreAbstractImplTestCas
         Results r3 = os.execute(q, 102, false, false, false);
         assertTrue(r3.isSingleBatch());
     }
+
+    public void testExecuteStreaming() throws Exception {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        List<Object> expected = new ArrayList<Object>(os.execute(q, 1000, false, false, false));
+        int oldFetchSize = ((ObjectStoreInterMineImpl) os).getStreamingFetchSize();
+        ((ObjectStoreInterMineImpl) os).setStreamingFetchSize(3);
+        try {
+            ResultsStream stream = os.executeStreaming(q);
+            List<Object> got = new ArrayList<Object>();
+            while (stream.hasNext()) {
+                got.add(stream.next());
+            }
+            assertEquals(expected, got);
+            assertFalse(stream.hasNext());
+
+            // closing part way through must give the connection back
+            stream = os.executeStreaming(q);
+            assertEquals(expected.get(0), stream.next());
+            stream.close();
+            assertFalse(stream.hasNext());
+        } finally {
+            ((ObjectStoreInterMineImpl) os).setStreamingFetchSize(oldFetchSize);
+        }
+    }
+
+    public void testGetObjectsByIdsBatched() throws Exception {
+        Employee e1 = (Employee) data.get("EmployeeA1");
+        Employee e2 = (Employee) data.get("EmployeeA2");
+        Map<Integer, InterMineObject> results = new HashMap<Integer, InterMineObject>();
+        Set<Integer> duplicates = new HashSet<Integer>();
+        ((ObjectStoreInterMineImpl) os).internalGetObjectsByIds(Arrays.asList(e1.getId(),
+                    e2.getId(), new Integer(-1)), Employee.class, results, duplicates);
+        assertEquals(2, results.size());
+        assertEquals(e1, results.get(e1.getId()));
+        assertEquals(e2, results.get(e2.getId()));
+        assertTrue(duplicates.isEmpty());
+
+        // Requests from several threads at once must each get their own object
+        final ObjectByIdBatcher batcher = new ObjectByIdBatcher((ObjectStoreInterMineImpl) os);
+        batcher.setWindow(20);
+        final List<Employee> employees = Arrays.asList(e1, e2, (Employee) data.get("EmployeeB1"));
+        final List<Object> got = Collections.synchronizedList(new ArrayList<Object>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final Employee e : employees) {
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        got.add(batcher.getObjectById(e.getId(), Employee.class));
+                    } catch (Exception ex) {
+                        got.add(ex);
+                    }
+                }
+            };
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(new HashSet<Object>(employees), new HashSet<Object>(got));
+    }
+
+    public void testParallelCount() throws Exception {
+        ObjectStoreInterMineImpl osii = (ObjectStoreInterMineImpl) os;
+        Query q = new Query();
+        QueryClass qc1 = new QueryClass(Employee.class);
+        QueryClass qc2 = new QueryClass(Department.class);
+        q.addFrom(qc1);
+        q.addFrom(qc2);
+        q.addToSelect(qc1);
+        q.setDistinct(true);
+        int expectedDistinct = osii.count(q, ObjectStore.SEQUENCE_IGNORE);
+        q.setDistinct(false);
+        int expected = osii.count(q, ObjectStore.SEQUENCE_IGNORE);
+        assertNotNull(ParallelCounter.getPartitionClass(q, osii.getSchema()));
+        osii.setCountPartitions(3);
+        osii.setCountMinRows(0);
+        try {
+            assertEquals(expected, osii.count(q, ObjectStore.SEQUENCE_IGNORE));
+            q.setDistinct(true);
+            assertEquals(expectedDistinct, osii.count(q, ObjectStore.SEQUENCE_IGNORE));
+        } finally {
+            osii.setCountPartitions(1);
+            osii.setCountMinRows(ObjectStoreInterMineImpl.DEFAULT_COUNT_MIN_ROWS);
+        }
+    }
+
+    public void testParallelCountMorePartitionsThanWorkers() throws Exception {
+        // Ranges that cannot be given a worker are counted on the calling connection
+        ObjectStoreInterMineImpl osii = (ObjectStoreInterMineImpl) os;
+        Query q = new Query();
+        QueryClass qc1 = new QueryClass(Employee.class);
+        q.addFrom(qc1);
+        q.addToSelect(qc1);
+        int expected = osii.count(q, ObjectStore.SEQUENCE_IGNORE);
+        osii.setCountPartitions(200);
+        osii.setCountMinRows(0);
+        try {
+            assertEquals(expected, osii.count(q, ObjectStore.SEQUENCE_IGNORE));
+            assertEquals(expected, osii.count(q, ObjectStore.SEQUENCE_IGNORE));
+        } finally {
+            osii.setCountPartitions(1);
+            osii.setCountMinRows(ObjectStoreInterMineImpl.DEFAULT_COUNT_MIN_ROWS);
+        }
+    }
 }
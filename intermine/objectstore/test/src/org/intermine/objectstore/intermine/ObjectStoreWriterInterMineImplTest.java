@@ -221,5 +221,20 @@ public class ObjectStoreWriterInterMineImplTest extends ObjectStoreWriterTestCas
         // Now try and do something normal.
         Object o = writer.getObjectById(new Integer(2));
     }
-}
 
+    public void testSetFlushConnectionsInTransaction() throws Exception {
+        ObjectStoreWriterInterMineImpl w = (ObjectStoreWriterInterMineImpl) writer;
+        w.beginTransaction();
+        try {
+            w.setFlushConnections(1);
+            fail("Expected: ObjectStoreException");
+        } catch (ObjectStoreException e) {
+            assertEquals("Cannot change the flush connections during a transaction",
+                    e.getMessage());
+        } finally {
+            w.abortTransaction();
+        }
+        w.setFlushConnections(1);
+        w.setFlushConnections(0);
+    }
+}
@@ -0,0 +1,118 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.testmodel.Address;
+import org.intermine.model.testmodel.Broke;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.proxy.ProxyCollection;
+import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.util.DynamicBean;
+import org.intermine.util.DynamicUtil;
+
+public class PackedObjectTest extends TestCase
+{
+    ObjectStoreInterMineImpl os;
+
+    public void setUp() throws Exception {
+        os = (ObjectStoreInterMineImpl) ObjectStoreFactory.getObjectStore("os.unittest");
+    }
+
+    public void testRender() throws Exception {
+        Employee e = new Employee();
+        Department d = new Department();
+        e.setId(new Integer(1234));
+        e.setName("Employee1");
+        d.setId(new Integer(5678));
+        e.setDepartment(d);
+
+        // Fields are numbered alphabetically: address, age, department,
+        // departmentThatRejectedMe, employmentPeriod, end, fullTime, id, name, simpleObjects
+        String expected = PackedObjectRenderer.MAGIC + "1"
+            + "38:org.intermine.model.testmodel.Employee"
+            + "1i1:0" + "2r4:5678" + "6z1:0" + "7i4:1234" + "8s9:Employee1";
+
+        String got = PackedObjectRenderer.render(e).toString();
+        assertEquals(expected, got);
+        assertTrue(PackedObjectParser.isPacked(got));
+        assertFalse(PackedObjectParser.isPacked(NotXmlRenderer.render(e).toString()));
+    }
+
+    public void testRoundTrip() throws Exception {
+        Employee e = new Employee();
+        e.setId(new Integer(-2874));
+        e.setName("Flibble $_^ Wotsit: 12:s \u0001");
+        e.setAge(-42);
+        e.setFullTime(true);
+        Department d = new Department();
+        d.setId(new Integer(5678));
+        e.setDepartment(d);
+
+        String packed = PackedObjectRenderer.render(e).toString();
+        // NotXmlParser reads either format
+        Employee reparsed = (Employee) NotXmlParser.parse(packed, os);
+
+        assertEquals(e.getName(), reparsed.getName());
+        assertEquals(e.getId(), reparsed.getId());
+        assertEquals(-42, reparsed.getAge());
+        assertTrue(reparsed.getFullTime());
+        assertNull(reparsed.getEnd());
+        ProxyReference department = (ProxyReference) reparsed.getFieldProxy("department");
+        assertEquals(new Integer(5678), department.getId());
+        assertTrue(reparsed.getFieldValue("simpleObjects") instanceof ProxyCollection);
+    }
+
+    public void testRoundTripDynamic() throws Exception {
+        Set<Class<?>> classes = new HashSet<Class<?>>();
+        classes.add(Company.class);
+        classes.add(Broke.class);
+        Company c = (Company) DynamicUtil.createObject(classes);
+        c.setId(new Integer(74350));
+        ((Broke) c).setInterestRate(2.5);
+        c.setName("CompanyC");
+        c.setVatNumber(100);
+        Address address = new Address();
+        address.setId(new Integer(74328));
+        c.setAddress(address);
+
+        String packed = PackedObjectRenderer.render(c).toString();
+        Company reparsed = (Company) PackedObjectParser.parse(packed, os);
+
+        assertEquals("CompanyC", reparsed.getName());
+        assertEquals(100, reparsed.getVatNumber());
+        assertEquals(new Integer(74350), reparsed.getId());
+        assertEquals(2.5, ((Broke) reparsed).getInterestRate(), 0.0);
+        Map<?, ?> fieldMap = ((DynamicBean) ((net.sf.cglib.proxy.Factory) reparsed)
+                .getCallback(0)).getMap();
+        ProxyReference addressRef = (ProxyReference) fieldMap.get("address");
+        assertEquals(new Integer(74328), addressRef.getId());
+        assertTrue(fieldMap.get("departments") instanceof ProxyCollection);
+    }
+
+    public void testBadVersion() throws Exception {
+        try {
+            PackedObjectParser.parse(PackedObjectRenderer.MAGIC + "9"
+                    + "38:org.intermine.model.testmodel.Employee", os);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
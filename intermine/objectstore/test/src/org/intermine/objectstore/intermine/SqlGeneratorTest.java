@@ -952,6 +952,27 @@ public class SqlGeneratorTest extends SetupDataTestCase
         }
     }
 
+    public void testShapeCache() throws Exception {
+        String sql1 = SqlGenerator.generate(companyNamed("CompanyA"), 0, Integer.MAX_VALUE,
+                getSchema(), db, new HashMap());
+        String sql2 = SqlGenerator.generate(companyNamed("CompanyA"), 10, 5, getSchema(), db,
+                new HashMap());
+        String sql3 = SqlGenerator.generate(companyNamed("CompanyB"), 0, Integer.MAX_VALUE,
+                getSchema(), db, new HashMap());
+        assertEquals(sql1 + " LIMIT 5 OFFSET 10", sql2);
+        assertEquals(sql1.replace("CompanyA", "CompanyB"), sql3);
+    }
+
+    private Query companyNamed(String name) {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Company.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.setConstraint(new SimpleConstraint(new QueryField(qc, "name"), ConstraintOp.EQUALS,
+                    new QueryValue(name)));
+        return q;
+    }
+
     // range query results are different depending on available features in database schema so
     // need to test separately.
     public void testOverlapQueries() throws Exception {
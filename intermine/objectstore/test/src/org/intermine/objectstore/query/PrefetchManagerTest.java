@@ -0,0 +1,134 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.testmodel.Department;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+
+public class PrefetchManagerTest extends TestCase
+{
+    private BlockingObjectStore os1;
+    private BlockingObjectStore os2;
+    private int oldMaxServiceThreads;
+
+    public PrefetchManagerTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        oldMaxServiceThreads = PrefetchManager.getMaxServiceThreads();
+        PrefetchManager.setMaxServiceThreads(1);
+        os1 = new BlockingObjectStore();
+        os2 = new BlockingObjectStore();
+    }
+
+    public void tearDown() throws Exception {
+        os1.release();
+        os2.release();
+        PrefetchManager.deregisterRequestId(os1);
+        PrefetchManager.deregisterRequestId(os2);
+        // Wait for the service thread to drain the queue, so later tests start empty
+        while (PrefetchManager.getPendingCount() > 0) {
+            Thread.sleep(10);
+        }
+        PrefetchManager.setMaxServiceThreads(oldMaxServiceThreads);
+    }
+
+    public void testCancelNullRequestId() throws Exception {
+        PrefetchManager.cancelRequest(os1, null);
+    }
+
+    public void testCancelRequestPerObjectStore() throws Exception {
+        // Occupy the only service thread, so that later requests stay in the queue
+        PrefetchManager.addRequest(makeBatches(os1), 0, false, false);
+        os1.awaitBlocked();
+
+        PrefetchManager.registerRequestId(os1, "request1");
+        PrefetchManager.registerRequestId(os2, "request2");
+        ResultsBatches batches1 = makeBatches(os1);
+        ResultsBatches batches2 = makeBatches(os2);
+        PrefetchManager.addRequest(batches1, 1, false, false);
+        PrefetchManager.addRequest(batches2, 1, false, false);
+        assertEquals(2, PrefetchManager.getPendingCount());
+
+        // The same ID registered with another ObjectStore does not match
+        PrefetchManager.cancelRequest(os2, "request1");
+        assertEquals(2, PrefetchManager.getPendingCount());
+
+        PrefetchManager.cancelRequest(os1, "request1");
+        assertEquals(1, PrefetchManager.getPendingCount());
+        PrefetchManager.cancelRequest(os2, "request2");
+        assertEquals(0, PrefetchManager.getPendingCount());
+    }
+
+    public void testDeregisterOnlyAffectsOneObjectStore() throws Exception {
+        PrefetchManager.addRequest(makeBatches(os1), 0, false, false);
+        os1.awaitBlocked();
+
+        PrefetchManager.registerRequestId(os1, "request1");
+        PrefetchManager.registerRequestId(os2, "request2");
+        // Finishing with os1 must not lose the request ID registered with os2
+        PrefetchManager.deregisterRequestId(os1);
+        PrefetchManager.addRequest(makeBatches(os1), 1, false, false);
+        PrefetchManager.addRequest(makeBatches(os2), 1, false, false);
+        assertEquals(2, PrefetchManager.getPendingCount());
+
+        PrefetchManager.cancelRequest(os2, "request2");
+        assertEquals(1, PrefetchManager.getPendingCount());
+        // Requests added without a request ID cannot be cancelled
+        PrefetchManager.cancelRequest(os1, "request1");
+        PrefetchManager.cancelRequest(os1, null);
+        assertEquals(1, PrefetchManager.getPendingCount());
+    }
+
+    private ResultsBatches makeBatches(BlockingObjectStore os) {
+        Query q = new Query();
+        q.addFrom(new QueryClass(Department.class));
+        return new ResultsBatches(q, os, Collections.<Object, Integer>emptyMap());
+    }
+
+    /**
+     * An ObjectStore whose queries block until release() is called.
+     */
+    private static class BlockingObjectStore extends ObjectStoreDummyImpl
+    {
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        public void awaitBlocked() throws InterruptedException {
+            blocked.await();
+        }
+
+        public void release() {
+            released.countDown();
+        }
+
+        @Override
+        public List execute(Query q, int start, int limit, boolean optimise, boolean explain,
+                Map<Object, Integer> sequence) throws ObjectStoreException {
+            blocked.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new ObjectStoreException(e);
+            }
+            return Collections.emptyList();
+        }
+    }
+}
@@ -10,6 +10,8 @@ package org.intermine.sql.precompute;
  *
  */
 
+import java.io.File;
+
 import junit.framework.TestCase;
 
 public class OptimiserCacheTest extends TestCase
@@ -28,4 +30,45 @@ public class OptimiserCacheTest extends TestCase
         assertNull(cache.lookup("original1", 10));
         assertNull(cache.lookup("somethingelse", 1000));
     }
+
+    public void testStatistics() throws Exception {
+        OptimiserCache cache = new OptimiserCache();
+        cache.addCacheLine("original1", "optimised1_1", 1000);
+        cache.lookup("original1", 1000);
+        cache.lookup("original1", 10);
+        cache.lookup("somethingelse", 1000);
+        assertEquals("Optimiser cache: size 1/" + OptimiserCache.MAX_LINESETS
+                + ", hits: 1, misses: 2, evictions: 0", cache.getStatistics());
+    }
+
+    public void testExpire() throws Exception {
+        OptimiserCache cache = new OptimiserCache();
+        cache.addCacheLine("expensive", "optimised", 1000, 100000);
+        for (int i = 0; i < OptimiserCache.MAX_LINESETS; i++) {
+            cache.addCacheLine("original" + i, "optimised" + i, 1000);
+        }
+        assertEquals(OptimiserCache.MAX_LINESETS - OptimiserCache.EXPIRE_INTERVAL, cache.size());
+        assertEquals("optimised", cache.lookup("expensive", 1000));
+    }
+
+    public void testSaveLoad() throws Exception {
+        File file = File.createTempFile("optimisercache", ".tmp");
+        try {
+            OptimiserCache cache = new OptimiserCache();
+            cache.addCacheLine("original1", "optimised1_1", 1000, 50);
+            cache.addCacheLine("original1", "optimised1_2", 16000, 50);
+            cache.addCacheLine("original2", "optimised2", 1000, 50);
+            assertEquals(3, cache.save(file, "tables"));
+
+            OptimiserCache loaded = new OptimiserCache();
+            assertEquals(0, loaded.load(file, "othertables"));
+            assertNull(loaded.lookup("original1", 1000));
+            assertEquals(3, loaded.load(file, "tables"));
+            assertEquals("optimised1_1", loaded.lookup("original1", 1000));
+            assertEquals("optimised1_2", loaded.lookup("original1", 16000));
+            assertEquals("optimised2", loaded.lookup("original2", 1000));
+        } finally {
+            file.delete();
+        }
+    }
 }
@@ -0,0 +1,31 @@
+package org.intermine.sql.writebatch;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * Test for doing tests on the BatchWriterPostgresStreamingCopyImpl. A tiny pipe is used, so that
+ * the encoder has to wait for the COPY many times.
+ *
+ * @author InterMine
+ */
+public class BatchWriterPostgresStreamingCopyImplTest extends BatchWriterTestCase
+{
+    public BatchWriterPostgresStreamingCopyImplTest(String arg) {
+        super(arg);
+    }
+
+    public BatchWriter getWriter() {
+        BatchWriterPostgresStreamingCopyImpl bw = new BatchWriterPostgresStreamingCopyImpl();
+        bw.setThreshold(getThreshold());
+        bw.setPipeSize(16);
+        return bw;
+    }
+}
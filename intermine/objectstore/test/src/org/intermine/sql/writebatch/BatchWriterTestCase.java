@@ -223,6 +223,199 @@ public abstract class BatchWriterTestCase extends TestCase
         }
     }
 
+    public void testParallelFlush() throws Exception {
+        Database db = DatabaseFactory.getDatabase("db.unittest");
+        Connection con = db.getConnection();
+        Connection con2 = db.getConnection();
+        con.setAutoCommit(false);
+        try {
+            Statement s = con.createStatement();
+            for (int i = 1; i <= 3; i++) {
+                try {
+                    s.execute("DROP TABLE table" + i);
+                } catch (SQLException e) {
+                    con.rollback();
+                }
+            }
+            s.addBatch("CREATE TABLE table1(col1 int, col2 int)");
+            s.addBatch("CREATE TABLE table2(col1 int, col2 int)");
+            s.addBatch("CREATE TABLE table3(col1 int, col2 int)");
+            s.addBatch("INSERT INTO table1 VALUES (1, 201)");
+            s.executeBatch();
+            con.commit();
+            s = null;
+            BatchWriter writer = getWriter();
+            Batch batch = new Batch(writer);
+            batch.setParallelConnections(con, Collections.singletonList(con2));
+            String colNames[] = new String[] {"col1", "col2"};
+            for (int i = 1; i <= 3; i++) {
+                batch.addRow(con, "table" + i, new Integer(2), colNames, new Object[] {new Integer(2), new Integer(200 + i)});
+                batch.deleteRow(con, "table" + i, "col1", new Integer(1));
+                batch.addRow(con, "table" + i, new Integer(3), colNames, new Object[] {new Integer(3), new Integer(300 + i)});
+            }
+            batch.flush(con);
+            for (int i = 1; i <= 3; i++) {
+                batch.addRow(con, "table" + i, new Integer(4), colNames, new Object[] {new Integer(4), new Integer(400 + i)});
+            }
+            // The extra connection's rows are part of the transaction, so they are committed
+            // along with it
+            batch.commit(con);
+            batch.close(con);
+            for (int i = 1; i <= 3; i++) {
+                s = con.createStatement();
+                ResultSet r = s.executeQuery("SELECT col1, col2 FROM table" + i);
+                Map got = new TreeMap();
+                while (r.next()) {
+                    got.put(r.getObject(1), r.getObject(2));
+                }
+                Map expected = new TreeMap();
+                expected.put(new Integer(2), new Integer(200 + i));
+                expected.put(new Integer(3), new Integer(300 + i));
+                expected.put(new Integer(4), new Integer(400 + i));
+                assertEquals(expected, got);
+            }
+        } catch (SQLException e) {
+            StringWriter sw = new StringWriter();
+            PrintWriter pw = new PrintWriter(sw);
+            while (e != null) {
+                e.printStackTrace(pw);
+                e = e.getNextException();
+            }
+            pw.flush();
+            throw new Exception(sw.toString());
+        } finally {
+            try {
+                Statement s = con.createStatement();
+                s.execute("DROP TABLE table1");
+                s.execute("DROP TABLE table2");
+                s.execute("DROP TABLE table3");
+                con.commit();
+            } catch (Exception e) {
+            }
+            try {
+                con.close();
+            } catch (Exception e) {
+            }
+            try {
+                con2.close();
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    public void testSetParallelConnectionsFlushesFirst() throws Exception {
+        Database db = DatabaseFactory.getDatabase("db.unittest");
+        Connection con = db.getConnection();
+        Connection con2 = db.getConnection();
+        Connection con3 = db.getConnection();
+        con.setAutoCommit(false);
+        try {
+            Statement s = con.createStatement();
+            try {
+                s.execute("DROP TABLE table1");
+            } catch (SQLException e) {
+                con.rollback();
+            }
+            s.execute("CREATE TABLE table1(col1 int, col2 int)");
+            con.commit();
+            Batch batch = new Batch(getWriter());
+            String colNames[] = new String[] {"col1", "col2"};
+            batch.addRow(con, "table1", new Integer(1), colNames, new Object[] {new Integer(1), new Integer(101)});
+            // The pending row is written and committed before the tables are regrouped
+            batch.setParallelConnections(con, Collections.singletonList(con2));
+            ResultSet r = con3.createStatement().executeQuery("SELECT COUNT(*) FROM table1");
+            r.next();
+            assertEquals(1, r.getInt(1));
+            batch.addRow(con, "table1", new Integer(2), colNames, new Object[] {new Integer(2), new Integer(102)});
+            batch.setParallelConnections(con, Collections.<Connection>emptyList());
+            r = con3.createStatement().executeQuery("SELECT COUNT(*) FROM table1");
+            r.next();
+            assertEquals(2, r.getInt(1));
+            batch.close(con);
+        } finally {
+            try {
+                con.rollback();
+                con.createStatement().execute("DROP TABLE table1");
+                con.commit();
+            } catch (Exception e) {
+            }
+            try {
+                con.close();
+            } catch (Exception e) {
+            }
+            try {
+                con2.close();
+            } catch (Exception e) {
+            }
+            try {
+                con3.close();
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    public void testParallelFlushRollback() throws Exception {
+        Database db = DatabaseFactory.getDatabase("db.unittest");
+        Connection con = db.getConnection();
+        Connection con2 = db.getConnection();
+        Connection con3 = db.getConnection();
+        con.setAutoCommit(false);
+        try {
+            Statement s = con.createStatement();
+            for (int i = 1; i <= 2; i++) {
+                try {
+                    s.execute("DROP TABLE table" + i);
+                } catch (SQLException e) {
+                    con.rollback();
+                }
+            }
+            s.execute("CREATE TABLE table1(col1 int, col2 int)");
+            s.execute("CREATE TABLE table2(col1 int, col2 int)");
+            con.commit();
+            Batch batch = new Batch(getWriter());
+            batch.setParallelConnections(con, Collections.singletonList(con2));
+            String colNames[] = new String[] {"col1", "col2"};
+            for (int i = 1; i <= 2; i++) {
+                batch.addRow(con, "table" + i, new Integer(1), colNames, new Object[] {new Integer(1), new Integer(100 + i)});
+            }
+            batch.flush(con);
+            // Nothing is committed by a flush during a transaction
+            for (int i = 1; i <= 2; i++) {
+                ResultSet r = con3.createStatement().executeQuery("SELECT COUNT(*) FROM table" + i);
+                r.next();
+                assertEquals(0, r.getInt(1));
+            }
+            batch.rollback(con);
+            batch.commit(con);
+            for (int i = 1; i <= 2; i++) {
+                ResultSet r = con3.createStatement().executeQuery("SELECT COUNT(*) FROM table" + i);
+                r.next();
+                assertEquals(0, r.getInt(1));
+            }
+            batch.close(con);
+        } finally {
+            try {
+                con.rollback();
+                con.createStatement().execute("DROP TABLE table1");
+                con.createStatement().execute("DROP TABLE table2");
+                con.commit();
+            } catch (Exception e) {
+            }
+            try {
+                con.close();
+            } catch (Exception e) {
+            }
+            try {
+                con2.close();
+            } catch (Exception e) {
+            }
+            try {
+                con3.close();
+            } catch (Exception e) {
+            }
+        }
+    }
+
     public void testDeleteOnly() throws Exception {
         Database db = DatabaseFactory.getDatabase("db.unittest");
         Connection con = db.getConnection();
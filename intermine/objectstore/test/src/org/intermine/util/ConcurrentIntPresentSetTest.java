@@ -0,0 +1,85 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.*;
+
+public class ConcurrentIntPresentSetTest extends TestCase
+{
+    public ConcurrentIntPresentSetTest(String arg1) {
+        super(arg1);
+    }
+
+    public void test() throws Exception {
+        IntPresentSet set = new ConcurrentIntPresentSet();
+
+        set.set(42, true);
+        set.set(28673452, true);
+        set.set(-1, true);
+
+        assertEquals(3, set.size());
+        assertTrue(set.contains(42));
+        assertTrue(set.contains(28673452));
+        assertTrue(set.contains(-1));
+        assertFalse(set.contains(31));
+        assertFalse(set.contains(63));
+        assertEquals("[-1, 42, 28673452]", set.toString());
+
+        set.set(42, true);
+        set.set(-1, false);
+
+        assertEquals(2, set.size());
+        assertTrue(set.contains(42));
+        assertFalse(set.contains(-1));
+        assertEquals("[42, 28673452]", set.toString());
+
+        set.set(42, false);
+        set.set(43, false);
+
+        assertEquals(1, set.size());
+        assertFalse(set.contains(42));
+        assertTrue(set.contains(new Integer(28673452)));
+        assertEquals("[28673452]", set.toString());
+
+        set.clear();
+        assertEquals(0, set.size());
+        assertEquals("[]", set.toString());
+    }
+
+    public void testThreads() throws Exception {
+        final IntPresentSet set = new ConcurrentIntPresentSet();
+        final int threadCount = 8;
+        final int perThread = 100000;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t;
+            Thread thread = new Thread() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        set.add(new Integer(i * threadCount + offset));
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threadCount * perThread, set.size());
+        for (int i = 0; i < threadCount * perThread; i++) {
+            assertTrue(set.contains(i));
+        }
+    }
+}
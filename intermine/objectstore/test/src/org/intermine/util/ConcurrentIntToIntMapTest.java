@@ -0,0 +1,84 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.*;
+
+public class ConcurrentIntToIntMapTest extends TestCase
+{
+    public ConcurrentIntToIntMapTest(String arg1) {
+        super(arg1);
+    }
+
+    public void test() throws Exception {
+        IntToIntMap map = new ConcurrentIntToIntMap();
+        map.put(4, 6);
+        map.put(30000, 7643);
+        map.put(-20, 5);
+
+        assertEquals(6, map.get(4));
+        assertEquals(7643, map.get(30000));
+        assertEquals(5, map.get(-20));
+        assertEquals(-1, map.get(0));
+        assertEquals(3, map.size());
+        assertEquals("{-20 -> 5, 4 -> 6, 30000 -> 7643}", map.toString());
+
+        map.put(new Integer(4), null);
+        map.put(30000, -1);
+        map.put(-20, -1);
+        map.put(100000, -1);
+
+        assertEquals(-1, map.get(4));
+        assertEquals(-1, map.get(30000));
+        assertEquals(-1, map.get(0));
+        assertEquals(0, map.size());
+        assertEquals("{}", map.toString());
+
+        map.put(Integer.MAX_VALUE, 1);
+        map.put(Integer.MIN_VALUE, 2);
+        assertEquals(1, map.get(Integer.MAX_VALUE));
+        assertEquals(2, map.get(Integer.MIN_VALUE));
+        assertEquals(new Integer(2), map.get(new Integer(Integer.MIN_VALUE)));
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(Integer.MAX_VALUE));
+    }
+
+    public void testThreads() throws Exception {
+        final IntToIntMap map = new ConcurrentIntToIntMap();
+        final int threadCount = 8;
+        final int perThread = 100000;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t;
+            Thread thread = new Thread() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        int from = i * threadCount + offset;
+                        map.put(from, from + 1);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threadCount * perThread, map.size());
+        for (int i = 0; i < threadCount * perThread; i++) {
+            assertEquals(i + 1, map.get(i));
+        }
+    }
+}
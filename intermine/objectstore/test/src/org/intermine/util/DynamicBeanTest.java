@@ -10,11 +10,15 @@ package org.intermine.util;
  *
  */
 
+import java.util.Collections;
 import java.util.List;
 
 import junit.framework.TestCase;
 
+import org.intermine.metadata.TypeUtil;
+import org.intermine.model.InterMineObject;
 import org.intermine.model.testmodel.*;
+import org.intermine.objectstore.proxy.ProxyReference;
 
 public class DynamicBeanTest extends TestCase
 {
@@ -66,4 +70,71 @@ public class DynamicBeanTest extends TestCase
         assertTrue(obj instanceof Employable);
         assertTrue(obj instanceof ImportantPerson);
     }
+
+    public void testDispatch() throws Exception {
+        Company c = (Company) DynamicBean.create(null, new Class[] {Company.class, Broke.class});
+        Broke b = (Broke) c;
+
+        // bean getters and setters, including methods declared by different interfaces
+        c.setName("Company1");
+        c.setVatNumber(1234);
+        b.setDebt(100);
+        b.setInterestRate(0.5);
+        assertEquals("Company1", c.getName());
+        assertEquals(1234, c.getVatNumber());
+        assertEquals(100, b.getDebt());
+        assertEquals(0.5, b.getInterestRate(), 0.0);
+
+        // empty collections are created on demand, and add methods append to them
+        assertTrue(c.getDepartments().isEmpty());
+        Department d = new Department();
+        c.addDepartments(d);
+        assertEquals(Collections.singleton(d), c.getDepartments());
+
+        // proxy methods store the raw reference without dereferencing it
+        ProxyReference bankProxy = new ProxyReference(null, new Integer(42), Bank.class);
+        c.proxyBank(bankProxy);
+        assertSame(bankProxy, c.proxGetBank());
+        assertSame(bankProxy, c.getFieldProxy("bank"));
+
+        // FastPathObject methods
+        c.setFieldValue("name", "Company2");
+        assertEquals("Company2", c.getName());
+        assertEquals("Company2", c.getFieldValue("name"));
+        assertEquals(String.class, c.getFieldType("name"));
+        assertEquals(Department.class, c.getElementType("departments"));
+        TypeUtil.addCollectionElement(c, "contractors", new Contractor());
+        assertEquals(1, c.getContractors().size());
+    }
+
+    public void testDispatchObjectMethods() throws Exception {
+        Company c1 = (Company) DynamicBean.create(null, new Class[] {Company.class, Broke.class});
+        Company c2 = (Company) DynamicBean.create(null, new Class[] {Company.class, Broke.class});
+        assertTrue(c1.equals(c1));
+        assertFalse(c1.equals(c2));
+        assertFalse(c1.equals("Company"));
+        c1.setId(new Integer(5));
+        c2.setId(new Integer(5));
+        assertTrue(c1.equals(c2));
+        assertEquals(5, c1.hashCode());
+        c1.setName("Company1");
+        assertTrue(c1.toString().contains("name=\"Company1\""));
+    }
+
+    public void testDispatchSharedMethodsAcrossClasses() throws Exception {
+        // The same interface Method is called on objects of different generated classes
+        InterMineObject o1 = (InterMineObject) DynamicBean.create(null,
+                new Class[] {Company.class, Broke.class});
+        InterMineObject o2 = (InterMineObject) DynamicBean.create(Employee.class,
+                new Class[] {Broke.class});
+        o1.setId(new Integer(1));
+        o2.setId(new Integer(2));
+        ((Broke) o1).setDebt(10);
+        ((Broke) o2).setDebt(20);
+        assertEquals(new Integer(1), o1.getId());
+        assertEquals(new Integer(2), o2.getId());
+        assertEquals(10, ((Broke) o1).getDebt());
+        assertEquals(20, ((Broke) o2).getDebt());
+        assertEquals(new Integer(20), o2.getFieldValue("debt"));
+    }
 }
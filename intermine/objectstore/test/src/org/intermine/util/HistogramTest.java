@@ -0,0 +1,61 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class HistogramTest extends TestCase
+{
+    public HistogramTest(String arg1) {
+        super(arg1);
+    }
+
+    public void testEmpty() throws Exception {
+        Histogram h = new Histogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getTotal());
+        assertEquals(0, h.getMax());
+        assertEquals(0, h.getPercentile(50.0));
+    }
+
+    public void testRecord() throws Exception {
+        Histogram h = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            h.record(i);
+        }
+        assertEquals(100, h.getCount());
+        assertEquals(5050, h.getTotal());
+        assertEquals(100, h.getMax());
+        // The 50th value is 50, in the bucket 32 to 63
+        assertEquals(63, h.getPercentile(50.0));
+        // The 99th value is 99, in the bucket 64 to 127, but no value is greater than 100
+        assertEquals(100, h.getPercentile(99.0));
+        assertEquals(1, h.getPercentile(0.0));
+    }
+
+    public void testZeroAndNegative() throws Exception {
+        Histogram h = new Histogram();
+        h.record(0);
+        h.record(-5);
+        h.record(Long.MAX_VALUE);
+        assertEquals(3, h.getCount());
+        assertEquals(0, h.getPercentile(50.0));
+        assertEquals(Long.MAX_VALUE, h.getPercentile(100.0));
+    }
+
+    public void testReset() throws Exception {
+        Histogram h = new Histogram();
+        h.record(10);
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMax());
+    }
+}
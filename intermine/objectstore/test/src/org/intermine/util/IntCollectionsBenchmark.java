@@ -0,0 +1,112 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the throughput of IntToIntMap and IntPresentSet with their concurrent versions, with
+ * a mix of lookups and changes like that of an integration writer. The single-threaded classes
+ * are wrapped in a lock when used by more than one thread, as an integration writer would have
+ * to. Run with: java org.intermine.util.IntCollectionsBenchmark [max threads] [ops per thread]
+ *
+ * @author InterMine
+ */
+public final class IntCollectionsBenchmark
+{
+    private static final int KEY_RANGE = 10000000;
+    private static final int ROUNDS = 5;
+
+    private IntCollectionsBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the maximum number of threads and the number of operations per thread
+     * @throws Exception if a thread is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        int maxThreads = (args.length > 0 ? Integer.parseInt(args[0])
+                : Runtime.getRuntime().availableProcessors());
+        int ops = (args.length > 1 ? Integer.parseInt(args[1]) : 2000000);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (int round = 0; round < ROUNDS; round++) {
+                boolean report = (round == ROUNDS - 1);
+                run("IntToIntMap", new IntToIntMap(), null, threads, ops, report);
+                run("ConcurrentIntToIntMap", new ConcurrentIntToIntMap(), null, threads, ops,
+                        report);
+                run("IntPresentSet", null, new IntPresentSet(), threads, ops, report);
+                run("ConcurrentIntPresentSet", null, new ConcurrentIntPresentSet(), threads, ops,
+                        report);
+            }
+        }
+    }
+
+    private static void run(String name, final IntToIntMap map, final IntPresentSet set,
+            int threadCount, final int ops, boolean report) throws InterruptedException {
+        final boolean locked = (threadCount > 1) && (map != null
+                ? !(map instanceof ConcurrentIntToIntMap)
+                : !(set instanceof ConcurrentIntPresentSet));
+        final Object lock = new Object();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; t++) {
+            final int seed = t * 7919 + 1;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    int key = seed;
+                    for (int i = 0; i < ops; i++) {
+                        key = (key * 1103515245 + 12345) & 0x7fffffff;
+                        int from = key % KEY_RANGE;
+                        boolean write = (i & 3) == 0;
+                        if (locked) {
+                            synchronized (lock) {
+                                operate(map, set, from, write);
+                            }
+                        } else {
+                            operate(map, set, from, write);
+                        }
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long time = System.nanoTime() - start;
+        if (report) {
+            System.out.println(name + ", " + threadCount + " threads: "
+                    + (((long) ops) * threadCount * 1000L / time) + " million ops/s");
+        }
+    }
+
+    private static void operate(IntToIntMap map, IntPresentSet set, int from, boolean write) {
+        if (map != null) {
+            if (write) {
+                map.put(from, from);
+            } else {
+                map.get(from);
+            }
+        } else {
+            if (write) {
+                set.set(from, true);
+            } else {
+                set.contains(from);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class LruCacheMapTest extends TestCase
+{
+    public LruCacheMapTest(String arg1) {
+        super(arg1);
+    }
+
+    public void testEviction() throws Exception {
+        LruCacheMap<Integer, String> cm = new LruCacheMap<Integer, String>(3);
+        cm.put(new Integer(1), "one");
+        cm.put(new Integer(2), "two");
+        cm.put(new Integer(3), "three");
+        assertEquals("one", cm.get(new Integer(1)));
+        cm.put(new Integer(4), "four");
+
+        assertEquals(3, cm.size());
+        assertTrue(cm.containsKey(new Integer(1)));
+        assertFalse(cm.containsKey(new Integer(2)));
+        assertTrue(cm.containsKey(new Integer(3)));
+        assertTrue(cm.containsKey(new Integer(4)));
+        assertEquals(1, cm.getEvictions());
+    }
+
+    public void testStatistics() throws Exception {
+        LruCacheMap<Integer, String> cm = new LruCacheMap<Integer, String>(10);
+        cm.put(new Integer(5), "five");
+        cm.put(new Integer(2), null);
+
+        assertEquals("five", cm.get(new Integer(5)));
+        assertNull(cm.get(new Integer(2)));
+        assertNull(cm.get(new Integer(3)));
+        assertEquals(2, cm.getHits());
+        assertEquals(1, cm.getMisses());
+        assertEquals(0, cm.getEvictions());
+    }
+
+    public void testSetMaxSize() throws Exception {
+        LruCacheMap<Integer, String> cm = new LruCacheMap<Integer, String>(10);
+        for (int i = 0; i < 10; i++) {
+            cm.put(new Integer(i), "" + i);
+        }
+        cm.get(new Integer(0));
+        cm.setMaxSize(2);
+
+        assertEquals(2, cm.size());
+        assertTrue(cm.containsKey(new Integer(0)));
+        assertTrue(cm.containsKey(new Integer(9)));
+        assertEquals(8, cm.getEvictions());
+
+        try {
+            cm.setMaxSize(0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testToMap() throws Exception {
+        LruCacheMap<Integer, String> cm = new LruCacheMap<Integer, String>(3);
+        cm.put(new Integer(1), "one");
+        cm.put(new Integer(2), null);
+        cm.put(new Integer(3), "three");
+        cm.get(new Integer(1));
+        Map<Integer, String> map = cm.toMap();
+        assertEquals(Arrays.asList(new Integer(2), new Integer(3), new Integer(1)),
+                new ArrayList<Integer>(map.keySet()));
+        assertNull(map.get(new Integer(2)));
+        // copying the entries does not count as using them
+        assertEquals(1, cm.getHits());
+        cm.put(new Integer(4), "four");
+        assertFalse(cm.containsKey(new Integer(2)));
+    }
+}
@@ -0,0 +1,137 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class WeightedCacheMapTest extends TestCase
+{
+    private static final WeightedCacheMap.Weigher<Integer, String> LENGTH
+        = new WeightedCacheMap.Weigher<Integer, String>() {
+            public int weigh(Integer key, String value) {
+                return (value == null ? 0 : value.length());
+            }
+        };
+
+    public WeightedCacheMapTest(String arg1) {
+        super(arg1);
+    }
+
+    public void testEvictionByWeight() throws Exception {
+        WeightedCacheMap<Integer, String> cm = new WeightedCacheMap<Integer, String>("test", 10,
+                LENGTH, false);
+        cm.put(new Integer(1), "one");
+        cm.put(new Integer(2), "two");
+        cm.put(new Integer(3), "three");
+        assertEquals(8, cm.getWeight());
+        assertFalse(cm.containsKey(new Integer(1)));
+        assertEquals("two", cm.get(new Integer(2)));
+        cm.put(new Integer(4), "four");
+
+        assertTrue(cm.containsKey(new Integer(2)));
+        assertFalse(cm.containsKey(new Integer(3)));
+        assertTrue(cm.containsKey(new Integer(4)));
+        assertEquals(7, cm.getWeight());
+        assertEquals(2, cm.getEvictions());
+    }
+
+    public void testTooHeavy() throws Exception {
+        WeightedCacheMap<Integer, String> cm = new WeightedCacheMap<Integer, String>("test", 4,
+                LENGTH, false);
+        cm.put(new Integer(1), "one");
+        cm.put(new Integer(2), "seventeen");
+        // the heavy entry is not held, and does not push out the others
+        assertEquals(1, cm.size());
+        assertEquals(3, cm.getWeight());
+        assertEquals("one", cm.get(new Integer(1)));
+        assertFalse(cm.containsKey(new Integer(2)));
+        assertEquals(0, cm.getEvictions());
+
+        // a heavy value replacing a light one removes the old value
+        cm.put(new Integer(1), "seventeen");
+        assertEquals(0, cm.size());
+        assertEquals(0, cm.getWeight());
+    }
+
+    public void testReplaceAndRemove() throws Exception {
+        WeightedCacheMap<Integer, String> cm = new WeightedCacheMap<Integer, String>("test", 100,
+                LENGTH, false);
+        cm.put(new Integer(1), "one");
+        cm.put(new Integer(1), "eleven");
+        assertEquals(6, cm.getWeight());
+        cm.put(new Integer(2), null);
+        assertEquals(7, cm.getWeight());
+        cm.remove(new Integer(1));
+        assertEquals(1, cm.getWeight());
+        assertEquals(1, cm.size());
+        cm.clear();
+        assertEquals(0, cm.getWeight());
+    }
+
+    public void testStatistics() throws Exception {
+        WeightedCacheMap<Integer, String> cm = new WeightedCacheMap<Integer, String>("test", 100,
+                LENGTH, true);
+        cm.put(new Integer(5), "five");
+        cm.put(new Integer(2), null);
+
+        assertEquals("five", cm.get(new Integer(5)));
+        assertNull(cm.get(new Integer(2)));
+        assertTrue(cm.containsKey(new Integer(2)));
+        assertNull(cm.get(new Integer(3)));
+        assertEquals(2, cm.getHits());
+        assertEquals(1, cm.getMisses());
+        assertEquals(0, cm.getEvictions());
+    }
+
+    public void testSetMaxWeight() throws Exception {
+        WeightedCacheMap<Integer, String> cm = new WeightedCacheMap<Integer, String>("test", 100,
+                LENGTH, false);
+        for (int i = 0; i < 10; i++) {
+            cm.put(new Integer(i), "" + i);
+        }
+        cm.get(new Integer(0));
+        cm.setMaxWeight(2);
+
+        assertEquals(2, cm.size());
+        assertTrue(cm.containsKey(new Integer(0)));
+        assertTrue(cm.containsKey(new Integer(9)));
+        assertEquals(8, cm.getEvictions());
+
+        try {
+            cm.setMaxWeight(0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testStriped() throws Exception {
+        StripedCacheMap<Integer, String> cm = new StripedCacheMap<Integer, String>("test", 4,
+                10000, LENGTH, false);
+        for (int i = 0; i < 100; i++) {
+            Integer key = new Integer(i);
+            WeightedCacheMap<Integer, String> stripe = cm.getStripe(key);
+            assertSame(stripe, cm.getStripe(new Integer(i)));
+            synchronized (stripe) {
+                stripe.put(key, "value " + i);
+            }
+        }
+        assertEquals(100, cm.size());
+        WeightedCacheMap<Integer, String> stripe = cm.getStripe(new Integer(42));
+        synchronized (stripe) {
+            assertEquals("value 42", stripe.get(new Integer(42)));
+        }
+        cm.setMaxWeight(40);
+        assertTrue(cm.size() <= 4);
+        cm.clear();
+        assertEquals(0, cm.size());
+    }
+}
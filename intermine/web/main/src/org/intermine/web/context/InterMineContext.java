@@ -25,6 +25,7 @@ import java.util.concurrent.Executors;
 
 import org.apache.log4j.Logger;
 import org.intermine.api.InterMineAPI;
+import org.intermine.api.bag.IdentifierIndex;
 import org.intermine.api.lucene.KeywordSearch;
 import org.intermine.util.Emailer;
 import org.intermine.util.ShutdownHook;
@@ -193,6 +194,7 @@ public final class InterMineContext implements Shutdownable
         mailService = null;
         isInitialised = false;
         KeywordSearch.close();
+        IdentifierIndex.closeAll();
         destroyDaemonThreads("com.browseengine.bobo.util.MemoryManager");
     }
 
@@ -0,0 +1,102 @@
+package org.intermine.webservice.server;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.api.InterMineAPI;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.intermine.QueryStatistics;
+import org.intermine.util.Histogram;
+import org.intermine.webservice.server.core.JSONService;
+import org.intermine.webservice.server.exceptions.ResourceNotFoundException;
+import org.intermine.webservice.server.exceptions.ServiceForbiddenException;
+
+/**
+ * Serve up the timings of the phases of query execution recorded by the ObjectStore, with
+ * percentiles, for the queries run so far and for the most expensive queries. Only the
+ * superuser may use this service.
+ *
+ * @author InterMine
+ */
+public class QueryStatisticsService extends JSONService
+{
+    private static final int DEFAULT_TOP_QUERIES = 20;
+
+    /**
+     * Constructor
+     * @param im InterMine settings
+     */
+    public QueryStatisticsService(InterMineAPI im) {
+        super(im);
+    }
+
+    @Override
+    protected void validateState() {
+        if (!isAuthenticated() || !getPermission().getProfile().isSuperuser()) {
+            throw new ServiceForbiddenException("Only the superuser may view query statistics.");
+        }
+    }
+
+    @Override
+    protected void execute() throws Exception {
+        ObjectStore os = im.getObjectStore();
+        if (!(os instanceof ObjectStoreInterMineImpl)) {
+            throw new ResourceNotFoundException("This ObjectStore does not record query"
+                    + " statistics.");
+        }
+        int topCount = getIntParameter("top", DEFAULT_TOP_QUERIES);
+        QueryStatistics stats = ((ObjectStoreInterMineImpl) os).getQueryStatistics();
+
+        Map<String, Object> phases = new LinkedHashMap<String, Object>();
+        for (QueryStatistics.Phase phase : QueryStatistics.Phase.values()) {
+            phases.put(phase.name(), summarise(stats.getHistogram(phase)));
+        }
+        List<Map<String, Object>> topQueries = new ArrayList<Map<String, Object>>();
+        for (Map.Entry<String, Histogram> entry : stats.getTopQueries(topCount).entrySet()) {
+            Map<String, Object> query = summarise(entry.getValue());
+            query.put("query", entry.getKey());
+            topQueries.add(query);
+        }
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put("queries", stats.getQueryCount());
+        result.put("phases", phases);
+        result.put("rows", summarise(stats.getRows()));
+        result.put("top", topQueries);
+        addResultItem(result, false);
+    }
+
+    private static Map<String, Object> summarise(Histogram histogram) {
+        Map<String, Object> retval = new LinkedHashMap<String, Object>();
+        retval.put("count", histogram.getCount());
+        retval.put("total", histogram.getTotal());
+        retval.put("p50", histogram.getPercentile(50.0));
+        retval.put("p90", histogram.getPercentile(90.0));
+        retval.put("p99", histogram.getPercentile(99.0));
+        retval.put("max", histogram.getMax());
+        return retval;
+    }
+
+    @Override
+    protected String getResultsKey() {
+        return "statistics";
+    }
+
+    @Override
+    protected String getDefaultFileName() {
+        return "query_statistics.json";
+    }
+}
@@ -0,0 +1,38 @@
+package org.intermine.webservice.server;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.intermine.web.context.InterMineContext;
+
+/**
+ * Returns the query execution statistics of the ObjectStore.
+ *
+ * @author InterMine
+ */
+public class QueryStatisticsServlet extends HttpServlet
+{
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * {@inheritDoc}}
+     */
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) {
+        QueryStatisticsService service =
+            new QueryStatisticsService(InterMineContext.getInterMineAPI());
+        service.service(request, response);
+    }
+}
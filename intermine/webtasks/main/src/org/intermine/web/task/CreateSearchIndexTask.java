@@ -10,8 +10,12 @@ package org.intermine.web.task;
  *
  */
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -35,6 +39,7 @@ public class CreateSearchIndexTask extends Task
 
     protected String osAlias = null;
     protected ObjectStore os;
+    protected File updateIds = null;
 
     /**
      * Set the alias of the main object store.
@@ -44,6 +49,16 @@ public class CreateSearchIndexTask extends Task
         this.osAlias = osAlias;
     }
 
+    /**
+     * Set a file listing the ids of objects that have been added, changed or deleted, one per
+     * line. If set, only the documents for these objects are updated in the existing index,
+     * instead of creating a new index.
+     * @param updateIds the file of ids
+     */
+    public void setUpdateIds(File updateIds) {
+        this.updateIds = updateIds;
+    }
+
     private ObjectStore getObjectStore() throws Exception {
         if (osAlias == null) {
             throw new BuildException("objectStoreWriter attribute is not set");
@@ -95,10 +110,42 @@ public class CreateSearchIndexTask extends Task
         Map<String, List<FieldDescriptor>> classKeys =
             ClassKeyHelper.readKeys(objectStore.getModel(), classKeyProperties);
 
+        if (updateIds != null) {
+            System .out.println("Updating lucene index for the objects in " + updateIds);
+            try {
+                KeywordSearch.updateIndex(objectStore, classKeys, readIds(updateIds));
+            } catch (IOException e) {
+                throw new BuildException("Could not update the search index", e);
+            }
+        }
+
         //index and save
         KeywordSearch.saveIndexToDatabase(objectStore, classKeys);
         KeywordSearch.deleteIndexDirectory();
     }
 
+    private static List<Integer> readIds(File file) {
+        List<Integer> ids = new ArrayList<Integer>();
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                String line = reader.readLine();
+                while (line != null) {
+                    if (line.trim().length() > 0) {
+                        ids.add(Integer.valueOf(line.trim()));
+                    }
+                    line = reader.readLine();
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new BuildException("Could not read ids from " + file, e);
+        } catch (NumberFormatException e) {
+            throw new BuildException("Invalid id in " + file, e);
+        }
+        return ids;
+    }
+
 
 }